@@ -192,13 +192,15 @@ const FxEngine = {
         }
 
         const chainModule = await moduleManager.getModule(chainId);
-        if (!chainModule || !chainModule.data || !chainModule.data.data) {
+        // Эффекты берем из скомпилированного плана натива (как app.applyFxChain), иначе - данные модуля
+        const chainData = await app._resolveFxChainData(chainId, chainModule);
+        if (!chainData) {
             console.error(`[FxEngine] FX Chain module data not found for ID: ${chainId}. Applying 'None' chain.`);
             await this.applyFxChainById(null); // Рекурсивный вызов для сброса
             return;
         }
 
-        this.currentChainData = chainModule.data.data;
+        this.currentChainData = chainData;
         const fxChainSettings = this.currentChainData.effects || []; // Это массив объектов эффектов
         console.log(`[FxEngine] Applying FX chain '${chainId}' with settings:`, JSON.parse(JSON.stringify(fxChainSettings)));
 
@@ -85,6 +85,7 @@ const VibrationService = {
     _vibrateOneShot(duration, amplitude) {
         const finalAmplitude = Math.max(1, Math.min(255, Math.round(amplitude * this.intensityMultiplier)));
         console.log(`[VibrationService v2] --> BRIDGE CALL: 'vibrate' (OneShot) with duration=${duration}, amplitude=${finalAmplitude}`);
+        if (typeof binaryChannel !== 'undefined' && binaryChannel.sendHaptic(duration, finalAmplitude)) return;
         bridgeFix.callBridge('vibrate', duration, finalAmplitude);
     },
 
@@ -159,7 +160,9 @@ const VibrationService = {
              console.warn('[VibrationService v2] Bridge not ready, cannot send cancelVibration. Vibration might persist if it was active.');
         } else if (this.appRef?.state.isBridgeReady) { // Только если мост готов, отправляем команду отмены
             console.log(`[VibrationService v2] --> BRIDGE CALL: 'cancelVibration'`);
-            bridgeFix.callBridge('cancelVibration');
+            if (typeof binaryChannel === 'undefined' || !binaryChannel.sendHapticCancel()) {
+                bridgeFix.callBridge('cancelVibration');
+            }
         }
         this.isVibratingContinuously = false;
     }
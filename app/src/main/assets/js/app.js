@@ -14,6 +14,8 @@ const app = {
         theme: 'aurora',
         language: 'en',
         soundPreset: 'default_piano', // Вы можете выбрать другой стартовый пресет
+        // Пресет, реально примененный к голосам синтезатора, и его хэш содержимого из натива
+        appliedPreset: { id: null, hash: null },
         fxChain: null,
         visualizer: 'nebula',
         touchEffect: 'ballLightningLink',
@@ -69,7 +71,17 @@ const app = {
             smoothingAlpha: 0.15,
             invertPitchAxis: true,
             invertRollAxis: false,
-            swapAxes: false
+            swapAxes: false,
+            // Период выборки сенсора (мкс) и задержка пакетной доставки: 0 - минимальная задержка,
+            // большие значения позволяют сенсорному хабу копить события и экономить батарею
+            samplingPeriodUs: 20000,
+            maxReportLatencyUs: 0,
+            // Конвейер фильтров наклона (SensorFilterPipeline): ema | oneEuro | kalman | none.
+            // Без smoothingAlpha здесь коэффициент EMA берется из ползунка (smoothingAlpha выше)
+            filter: { type: 'ema', deadZone: 0, maxRate: 0 },
+            // Распознавание жестов (GestureRecognizer); выключено, пока его не включат через setGestureSettings
+            gestures: { enabled: false, shakeThreshold: 12, shakeCount: 3, shakeWindowMs: 800,
+                flickVelocity: 250, tiltHoldAngle: 35, tiltHoldMs: 600, cooldownMs: 700 }
         },
         microphone: null,
     },
@@ -329,6 +341,15 @@ const app = {
             await this.waitForBridge();
             console.log('[App.init] Bridge Ready.');
 
+            if (typeof binaryChannel !== 'undefined') {
+                // Наклон приходит бинарными кадрами и пишется прямо в состояние, без объектов-посредников
+                binaryChannel.on(binaryChannel.FRAME.TILT, (view, offset) => {
+                    this.state.deviceTilt.pitch = view.getFloat32(offset, true);
+                    this.state.deviceTilt.roll = view.getFloat32(offset + 4, true);
+                });
+                binaryChannel.init();
+            }
+
             await this.loadInitialSettings();
 
             if (typeof i18n !== 'undefined') {
@@ -765,14 +786,25 @@ const app = {
         if (fxChains?.updateYAxisControlsUI) {
             fxChains.updateYAxisControlsUI(this.state.yAxisControls);
         }
-        if (this.state.isInitialized && this.state.isBridgeReady) {
-            bridgeFix.callBridge('setYAxisControlGroup', 'volume', JSON.stringify(this.state.yAxisControls.volume))
-                .catch(err => console.error("[App._applyAndSyncYAxisState v8] Bridge setYAxis volume failed:", err));
-            bridgeFix.callBridge('setYAxisControlGroup', 'effects', JSON.stringify(this.state.yAxisControls.effects))
-                .catch(err => console.error("[App._applyAndSyncYAxisState v8] Bridge setYAxis effects failed:", err));
+        if (this.state.isInitialized) {
+            this.syncSettingsBatch({ yAxisControls: this.state.yAxisControls }, 'App._applyAndSyncYAxisState v8');
         }
     },
 
+    /**
+     * Sends several settings to native in one bridge call instead of one setter call each.
+     * Native validates the whole batch and applies nothing if any key is invalid.
+     * @param {object} settings - {key: value}, e.g. {scale: 'minor', yAxisControls: {volume, effects}}.
+     * @param {string} logContext - Caller name for error logs.
+     * @returns {Promise<void>}
+     */
+    syncSettingsBatch(settings, logContext) {
+        if (!this.state.isBridgeReady || !settings || Object.keys(settings).length === 0) return Promise.resolve();
+        return bridgeFix.callBridge('applySettings', settings)
+            .then(() => undefined)
+            .catch(err => console.error(`[${logContext}] Bridge applySettings failed:`, err));
+    },
+
     /**
      * Loads and applies a sound preset to the synthesizer and updates the UI.
      * It fetches preset data, applies it to the synth, updates Y-axis controls,
@@ -808,7 +840,11 @@ const app = {
             // Порядок согласно последнему примеру:
             // 1. synth.applyPreset
             if (synth?.applyPreset) {
-                synth.applyPreset(presetData);
+                const plan = presetModule ? await this._planPresetSwitch(targetPresetId) : { skip: false, forceRecreation: false, hash: null };
+                if (!plan.skip) {
+                    synth.applyPreset(presetData, plan.forceRecreation);
+                }
+                this.state.appliedPreset = { id: presetModule ? targetPresetId : null, hash: plan.hash };
             } else {
                 throw new Error("Synth not ready for preset application");
             }
@@ -847,6 +883,7 @@ const app = {
                 }
                 const previousPresetData = previousPresetModule?.data?.data || synth.config.defaultPreset;
                 synth.applyPreset(previousPresetData);
+                this.state.appliedPreset = { id: previousPresetModule ? previousPresetId : null, hash: null };
             }
             if (soundPresets?.updateActivePresetCube) {
                 soundPresets.updateActivePresetCube(previousPresetId);
@@ -857,6 +894,67 @@ const app = {
         }
     },
 
+    /**
+     * Asks the native side how the preset on the voices differs from the target one.
+     * Identical presets are not re-applied; a structural change (sampler or optional modulators
+     * switched, new instrument) forces the voices to be rebuilt. Parameter-only changes are left
+     * to synth.applyPreset, which updates the existing voices.
+     * @param {string} targetPresetId
+     * @returns {Promise<{skip: boolean, forceRecreation: boolean, hash: string|null}>}
+     * @private
+     */
+    async _planPresetSwitch(targetPresetId) {
+        const plan = { skip: false, forceRecreation: false, hash: null };
+        if (!this.state.isBridgeReady) return plan;
+        const applied = this.state.appliedPreset;
+        try {
+            if (applied.id && applied.id !== targetPresetId) {
+                const diffJson = await bridgeFix.callBridgeAsync('diffSoundPresets', applied.id, targetPresetId);
+                const diff = diffJson && diffJson !== 'null' ? JSON.parse(diffJson) : null;
+                if (diff) {
+                    plan.hash = diff.toHash;
+                    plan.skip = diff.kind === 'identical';
+                    plan.forceRecreation = diff.kind === 'structure';
+                }
+            } else {
+                plan.hash = await bridgeFix.callBridgeAsync('getSoundPresetHash', targetPresetId) || null;
+                plan.skip = plan.hash !== null && plan.hash === applied.hash;
+            }
+        } catch (e) {
+            console.warn(`[App._planPresetSwitch] Native preset diff unavailable for ${targetPresetId}, applying in full.`, e);
+        }
+        return plan;
+    },
+
+    /**
+     * Chain data for the audio engine. Effects come from the plan compiled on the native side
+     * (getFxChainPlan: effect defaults merged with the chain params, values clamped to the effect
+     * ranges), which also covers user chains; macro mappings and the rest stay the module's own.
+     * Falls back to the raw module data if there is no plan.
+     * @param {string|null} chainId
+     * @param {object|null} chainModule - Module from moduleManager.getModule, if it has one.
+     * @returns {Promise<object|null>}
+     * @private
+     */
+    async _resolveFxChainData(chainId, chainModule) {
+        const rawData = chainModule?.data?.data || null;
+        if (!chainId || !this.state.isBridgeReady) return rawData;
+        try {
+            const planJson = await bridgeFix.callBridgeAsync('getFxChainPlan', chainId);
+            const plan = planJson && planJson !== 'null' ? JSON.parse(planJson) : null;
+            if (Array.isArray(plan?.effects)) {
+                if (plan.warnings?.length) {
+                    console.warn(`[App._resolveFxChainData] Chain '${chainId}' compiled with warnings:`, plan.warnings);
+                }
+                const base = rawData || (plan.yAxisControls ? { yAxisControls: plan.yAxisControls } : {});
+                return { ...base, effects: plan.effects };
+            }
+        } catch (e) {
+            console.warn(`[App._resolveFxChainData] No compiled plan for chain '${chainId}', using module data.`, e);
+        }
+        return rawData;
+    },
+
     /**
      * Loads and applies an FX chain to the synthesizer and updates the UI.
      * It fetches chain data, configures synth effects, updates Y-axis controls if necessary,
@@ -885,7 +983,7 @@ const app = {
             if (targetChainId) {
                 chainModule = await moduleManager.getModule(targetChainId);
             }
-            const fxChainFullDataForSynth = chainModule?.data?.data || null;
+            const fxChainFullDataForSynth = await this._resolveFxChainData(targetChainId, chainModule);
 
             // 1. Применяем к аудио движку
             if (!synth?.applyFxChain) {
@@ -931,7 +1029,7 @@ const app = {
                         console.warn(`[App.applyFxChain] Failed to get previous chain module for rollback: ${previousChainId}`, e);
                     }
                 }
-                const previousFxData = previousChainModule?.data?.data || null;
+                const previousFxData = await this._resolveFxChainData(previousChainId, previousChainModule);
                 synth.applyFxChain(previousFxData); // Откатываем synth
             }
             if (fxChains?.updateActiveChain) {
@@ -1829,24 +1927,49 @@ const app = {
             }
 
             // Ensure sensor controller is updated with initial/loaded settings
-            if (this.state.isBridgeReady && window.PrismtoneBridge && window.PrismtoneBridge.updateSensorSettings) {
-                try {
-                    console.log('[App._updateSidePanelSettingsUI] Syncing initial sensorSettings to native:', this.state.sensorSettings);
-                    window.PrismtoneBridge.updateSensorSettings(JSON.stringify(this.state.sensorSettings));
-                } catch (e) {
-                    console.error('[App._updateSidePanelSettingsUI] Error calling bridge.updateSensorSettings:', e);
-                }
-            } else if (this.state.isBridgeReady && bridgeFix && bridgeFix.callBridge) { // Fallback
-                 try {
-                    console.log('[App._updateSidePanelSettingsUI] Syncing initial sensorSettings to native (via bridgeFix):', this.state.sensorSettings);
-                    bridgeFix.callBridge('updateSensorSettings', JSON.stringify(this.state.sensorSettings));
-                } catch (e) {
-                    console.error('[App._updateSidePanelSettingsUI] Error calling bridgeFix.callBridge for updateSensorSettings:', e);
-                }
+            this._syncSensorSettings();
+        }
+    },
+
+    /**
+     * Sends state.sensorSettings to the native SensorController.
+     */
+    _syncSensorSettings() {
+        if (!this.state.isBridgeReady) return;
+        const payload = JSON.stringify(this.state.sensorSettings);
+        try {
+            console.log('[App._syncSensorSettings] Syncing sensorSettings to native:', this.state.sensorSettings);
+            if (window.PrismtoneBridge && window.PrismtoneBridge.updateSensorSettings) {
+                window.PrismtoneBridge.updateSensorSettings(payload);
+            } else if (bridgeFix && bridgeFix.callBridge) { // Fallback
+                bridgeFix.callBridge('updateSensorSettings', payload);
             }
+        } catch (e) {
+            console.error('[App._syncSensorSettings] Error calling updateSensorSettings:', e);
         }
     },
 
+    /**
+     * Configures the native tilt filter pipeline.
+     * @param {object} filter - {type: 'ema'|'oneEuro'|'kalman'|'none', smoothingAlpha, minCutoff, beta,
+     *     derivativeCutoff, processNoise, measurementNoise, deadZone, maxRate}; omitted fields keep their values.
+     *     Invalid settings are rejected on the native side and the current filter is kept.
+     */
+    setSensorFilter(filter) {
+        this.state.sensorSettings.filter = { ...this.state.sensorSettings.filter, ...filter };
+        this._syncSensorSettings();
+    },
+
+    /**
+     * Configures native motion gesture recognition; recognized gestures arrive as 'devicegesture' events.
+     * @param {object} gestures - {enabled, shakeThreshold, shakeCount (1-16), shakeWindowMs, flickVelocity,
+     *     tiltHoldAngle, tiltHoldMs, cooldownMs}; omitted fields keep their values.
+     */
+    setGestureSettings(gestures) {
+        this.state.sensorSettings.gestures = { ...this.state.sensorSettings.gestures, ...gestures };
+        this._syncSensorSettings();
+    },
+
     /**
      * Sets a specific setting for a given pad mode.
      * Used for mode-specific configurations (e.g., Rocket Mode settings).
@@ -2119,22 +2242,22 @@ const app = {
             effectsChanged = true;
         }
 
+        const changedGroups = {};
         if (volumeChanged) {
             console.log('[App._determineYAxis] Volume settings updated in app.state:', JSON.parse(JSON.stringify(this.state.yAxisControls.volume)));
             if (synth?.updateAllActiveVoiceMainLevels) synth.updateAllActiveVoiceMainLevels();
-            if (this.state.isInitialized && this.state.isBridgeReady) {
-                bridgeFix.callBridge('setYAxisControlGroup', 'volume', JSON.stringify(this.state.yAxisControls.volume))
-                    .catch(err => console.error("[App._determineYAxis] Bridge setYAxisControlGroup 'volume' failed:", err));
-            }
+            changedGroups.volume = this.state.yAxisControls.volume;
         }
 
         if (effectsChanged) {
             console.log('[App._determineYAxis] Effects settings updated in app.state:', JSON.parse(JSON.stringify(this.state.yAxisControls.effects)));
             if (synth?.updateAllActiveVoiceSendLevels) synth.updateAllActiveVoiceSendLevels();
-            if (this.state.isInitialized && this.state.isBridgeReady) {
-                bridgeFix.callBridge('setYAxisControlGroup', 'effects', JSON.stringify(this.state.yAxisControls.effects))
-                    .catch(err => console.error("[App._determineYAxis] Bridge setYAxisControlGroup 'effects' failed:", err));
-            }
+            changedGroups.effects = this.state.yAxisControls.effects;
+        }
+
+        if (this.state.isInitialized && (volumeChanged || effectsChanged)) {
+            // Обе группы уходят в натив одним вызовом
+            this.syncSettingsBatch({ yAxisControls: changedGroups }, 'App._determineYAxis');
         }
 
         if (fxChains?.updateYAxisControlsUI) {
@@ -2228,12 +2351,7 @@ const app = {
             if (synth.updateAllActiveVoiceMainLevels) synth.updateAllActiveVoiceMainLevels();
             if (synth.updateAllActiveVoiceSendLevels) synth.updateAllActiveVoiceSendLevels();
         }
-        if (this.state.isBridgeReady) {
-            bridgeFix.callBridge('setYAxisControlGroup', 'volume', JSON.stringify(this.state.yAxisControls.volume))
-                .catch(err => console.error("[App] Bridge setYAxis (volume) failed:", err));
-            bridgeFix.callBridge('setYAxisControlGroup', 'effects', JSON.stringify(this.state.yAxisControls.effects))
-                .catch(err => console.error("[App] Bridge setYAxis (effects) failed:", err));
-        }
+        this.syncSettingsBatch({ yAxisControls: this.state.yAxisControls }, 'App._applyYAxisChangesToUIAndSynth');
     },
 
     /**
@@ -2391,6 +2509,32 @@ const app = {
         }
     },
 
+    /**
+     * Handles a discrete motion gesture recognized natively (shake, flick, tilt hold).
+     * Re-dispatched as a 'devicegesture' window event so any module can subscribe.
+     * @param {{type: string, direction: string|null, magnitude: number}} gesture
+     */
+    onDeviceGesture(gesture) {
+        if (!gesture || typeof gesture.type !== 'string') return;
+        window.dispatchEvent(new CustomEvent('devicegesture', { detail: gesture }));
+    },
+
+    /**
+     * The app's own reaction to motion gestures: a shake silences all sounding notes.
+     * @param {{type: string, direction: string|null, magnitude: number}} gesture
+     */
+    handleDeviceGesture(gesture) {
+        console.log(`[App.handleDeviceGesture] ${gesture.type} ${gesture.direction || ''} (${gesture.magnitude})`);
+        if (gesture.type === 'shake') {
+            if (typeof synth !== 'undefined' && typeof synth.stopAllNotes === 'function') {
+                synth.stopAllNotes();
+            }
+            if (typeof pad !== 'undefined' && typeof pad.emergencyCleanup === 'function') {
+                pad.emergencyCleanup();
+            }
+        }
+    },
+
     async toggleMicrophoneInput() {
         if (this.microphone) {
             // Микрофон включен, выключаем его
@@ -2456,6 +2600,9 @@ document.addEventListener('DOMContentLoaded', () => {
         }
     });
 
+    // === Device Gestures ===
+    window.addEventListener('devicegesture', (event) => app.handleDeviceGesture(event.detail));
+
     // === Rocket Status Panel Show/Hide ===
     const rocketStatusPanel = document.getElementById('rocket-status-panel');
     const rocketStatusHideBtn = document.getElementById('rocket-status-hide-btn');
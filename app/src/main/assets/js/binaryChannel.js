@@ -0,0 +1,122 @@
+// Файл: app/src/main/assets/js/binaryChannel.js
+// Бинарный канал (MessagePort + ArrayBuffer) для высокочастотных потоков между Java и JS.
+// Формат сообщения: последовательность кадров [u8 type][u8 flags][u16 length LE][payload].
+// Должен совпадать с BinaryChannel.java.
+
+const binaryChannel = {
+    FRAME: {
+        TILT: 1,          // Java -> JS: f32 pitch, f32 roll
+        HAPTIC: 2,        // JS -> Java: u16 duration ms, u8 amplitude
+        HAPTIC_CANCEL: 3  // JS -> Java: без данных
+    },
+    HEADER_SIZE: 4,
+    PORT_MESSAGE: 'prismtone-binary-channel',
+
+    port: null,
+    handlers: new Map(),
+    _listening: false,
+
+    /**
+     * Requests the channel from the native side. Safe to call again (e.g. after a reload):
+     * the old port is replaced. If unsupported, isOpen() stays false and callers use the bridge.
+     */
+    init() {
+        if (!this._listening) {
+            window.addEventListener('message', (event) => {
+                if (event.data === this.PORT_MESSAGE && event.ports && event.ports[0]) {
+                    this._attach(event.ports[0]);
+                }
+            });
+            this._listening = true;
+        }
+        try {
+            const supported = window.PrismtoneBridge?.openBinaryChannel?.();
+            if (!supported) {
+                console.log('[BinaryChannel] Not supported by this WebView, using the string bridge.');
+            }
+        } catch (e) {
+            console.error('[BinaryChannel] openBinaryChannel failed:', e);
+        }
+    },
+
+    isOpen() {
+        return this.port !== null;
+    },
+
+    /**
+     * Registers a handler for frames of one type sent by Java.
+     * The handler gets (DataView, payloadOffset, payloadLength) and must not keep the view.
+     */
+    on(type, handler) {
+        this.handlers.set(type, handler);
+    },
+
+    /** Sends a haptic pulse. @returns {boolean} false if the channel is closed. */
+    sendHaptic(durationMs, amplitude) {
+        if (!this.port) return false;
+        const buffer = new ArrayBuffer(this.HEADER_SIZE + 3);
+        const view = new DataView(buffer);
+        this._writeHeader(view, this.FRAME.HAPTIC, 3);
+        view.setUint16(4, Math.max(0, Math.min(0xFFFF, durationMs | 0)), true);
+        view.setUint8(6, Math.max(1, Math.min(255, amplitude | 0)));
+        return this._post(buffer);
+    },
+
+    /** @returns {boolean} false if the channel is closed. */
+    sendHapticCancel() {
+        if (!this.port) return false;
+        const buffer = new ArrayBuffer(this.HEADER_SIZE);
+        this._writeHeader(new DataView(buffer), this.FRAME.HAPTIC_CANCEL, 0);
+        return this._post(buffer);
+    },
+
+    _attach(port) {
+        if (this.port) {
+            try { this.port.close(); } catch (e) { /* уже закрыт */ }
+        }
+        this.port = port;
+        port.onmessage = (event) => this._onMessage(event.data);
+        console.log('[BinaryChannel] Opened.');
+    },
+
+    _writeHeader(view, type, length) {
+        view.setUint8(0, type);
+        view.setUint8(1, 0);
+        view.setUint16(2, length, true);
+    },
+
+    _post(buffer) {
+        try {
+            this.port.postMessage(buffer, [buffer]);
+            return true;
+        } catch (e) {
+            console.warn('[BinaryChannel] Post failed, closing:', e);
+            this.port = null;
+            return false;
+        }
+    },
+
+    _onMessage(data) {
+        if (!(data instanceof ArrayBuffer)) return;
+        const view = new DataView(data);
+        let offset = 0;
+        while (offset + this.HEADER_SIZE <= data.byteLength) {
+            const type = view.getUint8(offset);
+            const length = view.getUint16(offset + 2, true);
+            const payloadOffset = offset + this.HEADER_SIZE;
+            if (payloadOffset + length > data.byteLength) {
+                console.warn(`[BinaryChannel] Truncated frame of type ${type}`);
+                return;
+            }
+            const handler = this.handlers.get(type);
+            if (handler) {
+                try {
+                    handler(view, payloadOffset, length);
+                } catch (e) {
+                    console.error(`[BinaryChannel] Handler for frame type ${type} failed:`, e);
+                }
+            }
+            offset = payloadOffset + length;
+        }
+    }
+};
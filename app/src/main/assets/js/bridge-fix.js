@@ -60,7 +60,21 @@ const bridgeFix = {
                 reject(new Error(errorMsg));
             }
         });
-    }
+    },
+
+    /**
+     * Like callBridge, but the Java method runs on a worker thread and the page isn't blocked
+     * while it does disk I/O. Falls back to callBridge if the native side has no async calls.
+     * @param {string} functionName - The name of the bridge function to call.
+     * @param {...any} args - Arguments to pass to the bridge function.
+     * @returns {Promise<any>}
+     */
+    callBridgeAsync(functionName, ...args) {
+        if (typeof bridgeRpc !== 'undefined' && bridgeRpc.isAvailable()) {
+            return bridgeRpc.call(functionName, args);
+        }
+        return this.callBridge(functionName, ...args);
+    },
 
     // Можно добавить другие обертки или хелперы при необходимости
 };
\ No newline at end of file
@@ -0,0 +1,103 @@
+// Файл: app/src/main/assets/js/bridgeRpc.js
+// Асинхронные вызовы методов моста: запрос {id, method, args} уходит в PrismtoneBridge.rpcCall,
+// метод выполняется на рабочем потоке Java, результат приходит в bridgeRpc._resolve по id.
+// Должен совпадать с BridgeRpc.java.
+
+const bridgeRpc = {
+    DEFAULT_TIMEOUT_MS: 30000,
+    // Запас сверх таймаута Java: обычно запрос отклоняет натив, этот таймер - страховка
+    LOCAL_TIMEOUT_GRACE_MS: 2000,
+
+    _nextId: 1,
+    _pending: new Map(),
+
+    /** @returns {boolean} true if the native side supports async calls. */
+    isAvailable() {
+        return typeof window.PrismtoneBridge?.rpcCall === 'function';
+    },
+
+    /**
+     * Calls a bridge method without blocking the page.
+     * @param {string} method - Bridge method name, e.g. 'getModules'.
+     * @param {Array} [args] - Arguments; objects are passed as JSON strings.
+     * @param {{timeoutMs?: number, lane?: 'interactive'|'user_initiated'|'background', signal?: AbortSignal}} [options]
+     * @returns {Promise<any>} Resolves with the method's return value, rejects with an Error.
+     */
+    call(method, args = [], options = {}) {
+        if (!this.isAvailable()) {
+            return Promise.reject(new Error('Async bridge calls are not available.'));
+        }
+        const id = `rpc${this._nextId++}`;
+        const timeoutMs = options.timeoutMs ?? this.DEFAULT_TIMEOUT_MS;
+        return new Promise((resolve, reject) => {
+            const entry = { resolve, reject, method, timer: null, onAbort: null, signal: options.signal };
+            entry.timer = setTimeout(() => this._settle(id, `Timeout (local) after ${timeoutMs} ms`), timeoutMs + this.LOCAL_TIMEOUT_GRACE_MS);
+            if (options.signal) {
+                if (options.signal.aborted) {
+                    clearTimeout(entry.timer);
+                    reject(new Error('Cancelled'));
+                    return;
+                }
+                entry.onAbort = () => this.cancel(id);
+                options.signal.addEventListener('abort', entry.onAbort, { once: true });
+            }
+            this._pending.set(id, entry);
+
+            const request = { id, method, args, timeoutMs };
+            if (options.lane) request.lane = options.lane;
+            let accepted = false;
+            try {
+                accepted = window.PrismtoneBridge.rpcCall(JSON.stringify(request));
+            } catch (e) {
+                console.error(`[BridgeRpc] rpcCall(${method}) threw:`, e);
+            }
+            if (!accepted) {
+                this._settle(id, `Request for ${method} was not accepted`);
+            }
+        });
+    },
+
+    /** Cancels a pending call; its promise rejects with "Cancelled". */
+    cancel(id) {
+        if (!this._pending.has(id)) return;
+        try {
+            window.PrismtoneBridge.rpcCancel(id);
+        } catch (e) {
+            // Натив недоступен - отклоняем локально
+            this._settle(id, 'Cancelled');
+        }
+    },
+
+    /**
+     * Single resolver for all calls, invoked by the native side. A large result isn't embedded in
+     * the call (pull = true): it is taken with rpcTakeResult, even if the call already settled
+     * locally, so the native side doesn't keep it.
+     */
+    _resolve(id, error, result, pull) {
+        if (pull) {
+            try {
+                result = window.PrismtoneBridge.rpcTakeResult(id);
+            } catch (e) {
+                error = `Could not take the result: ${e.message}`;
+            }
+            if (result === null && !error) error = 'Result expired';
+        }
+        this._settle(id, error, result);
+    },
+
+    _settle(id, error, result) {
+        const entry = this._pending.get(id);
+        if (!entry) return;
+        this._pending.delete(id);
+        clearTimeout(entry.timer);
+        if (entry.onAbort) entry.signal.removeEventListener('abort', entry.onAbort);
+        if (error !== null && error !== undefined) {
+            entry.reject(new Error(error));
+        } else if (typeof result === 'string' && result.toLowerCase().startsWith('error:')) {
+            // Та же договоренность, что и у bridgeFix.callBridge
+            entry.reject(new Error(result));
+        } else {
+            entry.resolve(result);
+        }
+    }
+};
@@ -47,7 +47,12 @@ function showCustomSelectorPopover(options) {
             case 'touchEffect':
             case 'scale':
             case 'fxChain':
+                // Для списка хватает заголовков (id, name, colors) - тела модулей не загружаем
+                console.log(`[CustomSelector] Calling moduleManager.getModuleHeaders with type: ${type}`);
+                itemsPromise = moduleManager.getModuleHeaders(type, true);
+                break;
             case 'chordProgression':
+                // Для прогрессий нужен список аккордов из data
                 console.log(`[CustomSelector] Calling moduleManager.getModules with type: ${type}`);
                 itemsPromise = moduleManager.getModules(type, true);
                 break;
@@ -171,13 +176,14 @@ function showCustomSelectorPopover(options) {
                 const previewSpan = document.createElement('span');
                 previewSpan.className = 'option-preview';
                 // Добавляем специфичные для типа превью
-                if (type === 'theme' && item.data?.data?.colors?.primary) {
+                const themeColors = item.colors ?? item.data?.data?.colors; // Заголовок несет colors напрямую
+                if (type === 'theme' && themeColors?.primary) {
                     previewSpan.classList.add('theme');
-                    previewSpan.style.backgroundColor = item.data.data.colors.primary;
-                    if (item.data.data.colors.text) { // Цвет текста для лучшей читаемости превью
-                        const textColor = item.data.data.colors.text;
-                        const contrastBackground =視覺対比の良い色(item.data.data.colors.primary, textColor); // вымышленная функция
-                        if (contrastBackground !== item.data.data.colors.primary) {
+                    previewSpan.style.backgroundColor = themeColors.primary;
+                    if (themeColors.text) { // Цвет текста для лучшей читаемости превью
+                        const textColor = themeColors.text;
+                        const contrastBackground =視覺対比の良い色(themeColors.primary, textColor); // вымышленная функция
+                        if (contrastBackground !== themeColors.primary) {
                              // previewSpan.style.borderColor = textColor; // или другой способ указать контраст
                         }
                     }
@@ -9,7 +9,7 @@ const drumPadManager = {
         try {
             // 1. Получаем список сэмплов через Bridge (как в samplerManager)
             console.log(`[DrumPadManager] Attempting to get asset list for path: ${assetPath}`);
-            const fileListJson = await bridgeFix.callBridge('getAssetList', assetPath);
+            const fileListJson = await bridgeFix.callBridgeAsync('getAssetList', assetPath);
             if (fileListJson) {
                 fileList = JSON.parse(fileListJson);
                 console.log(`[DrumPadManager] Received file list from bridge:`, fileList);
@@ -47,7 +47,7 @@ const samplerManager = {
 
             let fileList;
             try {
-                const fileListJson = await bridgeFix.callBridge('getAssetList', assetPath);
+                const fileListJson = await bridgeFix.callBridgeAsync('getAssetList', assetPath);
                 fileList = JSON.parse(fileListJson || "[]");
             } catch (error) {
                 console.error(`[SamplerManager] Error getting asset list for ${instrument}:`, error);
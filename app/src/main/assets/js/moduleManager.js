@@ -3,6 +3,7 @@
 const moduleManager = {
     modules: {}, // Cache for loaded module lists { type: [ModuleInfo, ...], ... }
     moduleDataCache: {}, // Cache for individual module data { id: ModuleInfo, ... } - Storing full ModuleInfo
+    headers: {}, // Cache for header-only lists { type: [{id, type, name, version, description, active, colors}, ...], ... }
 
     async init() {
         console.log('[ModuleManager.init] Initializing...');
@@ -22,13 +23,7 @@ const moduleManager = {
      * @returns {Promise<Array<object>>} - Array of ModuleInfo objects (as received from Java).
      */
     async getModules(moduleTypeInput, forceRefresh = false) {
-        // Apply lowercase normalization only for specific types if needed, otherwise keep original case
-        let moduleType = moduleTypeInput;
-        if (moduleTypeInput === 'fxChain') { // Assuming 'fxChain' is the only type expected in lowercase by Java
-             moduleType = moduleTypeInput.toLowerCase(); // Normalisasi только для fxChain
-        }
-        // Для других типов (например, 'touchEffect', 'theme') оставляем исходный регистр
-
+        const moduleType = this._normalizeType(moduleTypeInput);
         console.log(`[ModuleManager.getModules] Input moduleType: ${moduleTypeInput}, forceRefresh: ${forceRefresh}. Processed type: ${moduleType}`);
         if (!moduleType) {
             console.error("[ModuleManager.getModules] Called with null or empty moduleType after processing.");
@@ -42,7 +37,7 @@ const moduleManager = {
 
         console.log(`[ModuleManager.getModules] Fetching modules via bridge for type: ${moduleType} (Force refresh: ${forceRefresh})`);
         try {
-            const modulesJson = await bridgeFix.callBridge('getModules', moduleType);
+            const modulesJson = await bridgeFix.callBridgeAsync('getModules', moduleType);
             if (modulesJson) {
                 const parsedModules = JSON.parse(modulesJson);
                 // Basic validation
@@ -75,6 +70,74 @@ const moduleManager = {
         }
     },
 
+    /**
+     * Fetches only the header fields of a module list (id, type, name, version, description, active, colors),
+     * without the module bodies. Meant for pickers; the chosen module's data comes from getModule().
+     * @param {string} moduleTypeInput - e.g., 'soundpreset', 'theme'
+     * @param {boolean} forceRefresh - If true, bypasses cache.
+     * @returns {Promise<Array<object>>} - Array of module headers.
+     */
+    async getModuleHeaders(moduleTypeInput, forceRefresh = false) {
+        const moduleType = this._normalizeType(moduleTypeInput);
+        if (!moduleType) {
+            console.error("[ModuleManager.getModuleHeaders] Called with null or empty moduleType.");
+            return [];
+        }
+        if (!forceRefresh && this.headers[moduleType]) {
+            return this.headers[moduleType];
+        }
+        if (typeof window.PrismtoneBridge?.getModuleList !== 'function') {
+            // Натив без проекций - берем полный список
+            return this.getModules(moduleType, forceRefresh);
+        }
+        try {
+            const headersJson = await bridgeFix.callBridgeAsync('getModuleList', moduleType, 'header');
+            const parsedHeaders = headersJson ? JSON.parse(headersJson) : [];
+            if (!Array.isArray(parsedHeaders)) {
+                console.error(`[ModuleManager.getModuleHeaders] Invalid header list format received for ${moduleType}:`, typeof parsedHeaders);
+                this.headers[moduleType] = [];
+            } else {
+                this.headers[moduleType] = parsedHeaders;
+            }
+        } catch (error) {
+            console.error(`[ModuleManager.getModuleHeaders] Error fetching headers for type ${moduleType}:`, error);
+            this.headers[moduleType] = [];
+        }
+        return this.headers[moduleType];
+    },
+
+    /**
+     * Fetches the body of one module whose header is already known and caches the full ModuleInfo.
+     * @param {string} moduleType - Normalized module type.
+     * @param {object} header - The module's entry from getModuleHeaders().
+     * @returns {Promise<object|null>} - The ModuleInfo object including data, or null on error.
+     */
+    async _fetchModuleData(moduleType, header) {
+        try {
+            const dataJson = await bridgeFix.callBridgeAsync('getModuleData', moduleType, header.id);
+            const data = dataJson ? JSON.parse(dataJson) : null;
+            if (!data) {
+                console.warn(`[ModuleManager._fetchModuleData] No data for module ${moduleType}/${header.id}.`);
+                return null;
+            }
+            const { colors, ...moduleInfo } = header;
+            this.moduleDataCache[header.id] = { ...moduleInfo, data };
+            return this.moduleDataCache[header.id];
+        } catch (error) {
+            console.error(`[ModuleManager._fetchModuleData] Error fetching data for module ${moduleType}/${header.id}:`, error);
+            return null;
+        }
+    },
+
+    _normalizeType(moduleTypeInput) {
+        // Apply lowercase normalization only for specific types if needed, otherwise keep original case
+        if (moduleTypeInput === 'fxChain') { // Assuming 'fxChain' is the only type expected in lowercase by Java
+            return moduleTypeInput.toLowerCase(); // Normalisasi только для fxChain
+        }
+        // Для других типов (например, 'touchEffect', 'theme') оставляем исходный регистр
+        return moduleTypeInput;
+    },
+
     /**
      * Gets the full ModuleInfo object for a specific module by its ID.
      * Uses cache first, then falls back to fetching the list if needed.
@@ -92,6 +155,18 @@ const moduleManager = {
             return this.moduleDataCache[moduleId];
         }
 
+        // Модуль уже известен по списку заголовков - запрашиваем только его тело
+        if (typeof window.PrismtoneBridge?.getModuleData === 'function') {
+            for (const [type, headerList] of Object.entries(this.headers)) {
+                const header = headerList.find(mod => mod && mod.id === moduleId);
+                if (header) {
+                    const module = await this._fetchModuleData(type, header);
+                    if (module) return module;
+                    break;
+                }
+            }
+        }
+
         console.log(`[ModuleManager.getModule] Module ${moduleId} not in cache, searching lists...`);
         const knownTypes = ['soundpreset', 'fxchain', 'theme', 'language', 'visualizer', 'effect', 'scale', 'touchEffect', 'chordProgression'];
 
@@ -127,6 +202,7 @@ const moduleManager = {
         console.log('[ModuleManager.clearCache] Clearing module cache.');
         this.modules = {};
         this.moduleDataCache = {};
+        this.headers = {};
     },
 
     /**
@@ -136,9 +212,11 @@ const moduleManager = {
      async refreshCache(moduleType = null) {
          if (moduleType) {
              console.log(`[ModuleManager.refreshCache] Refreshing cache for type: ${moduleType}`);
+             delete this.headers[this._normalizeType(moduleType)]; // Заголовки перечитаются при следующем запросе
              await this.getModules(moduleType, true); // Force refresh for specific type
          } else {
              console.log("[ModuleManager.refreshCache] Refreshing cache for all known types...");
+             this.headers = {};
              const knownTypes = Object.keys(this.modules); // Refresh types already in cache
              // Or use a predefined list:
              // const knownTypes = ['soundpreset', 'fxchain', 'theme', 'language', 'visualizer', 'effect', 'scale'];
@@ -1397,7 +1397,7 @@ const ChordModeStrategy = {
 
         try {
             console.log(`[ChordStrategy._executeActualPresetDeletion] Attempting to delete progression: ${progressionId}`);
-            const success = await bridgeFix.callBridge('deleteChordProgression', progressionId);
+            const success = await bridgeFix.callBridgeAsync('deleteChordProgression', progressionId);
             
             if (success) {
                 alert(i18n.translate('progression_deleted_success_short', "Progression deleted."));
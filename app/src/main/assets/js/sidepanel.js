@@ -478,7 +478,7 @@ const sidePanel = {
         if (!selectElement) { console.warn(`[SidePanel.populateSelectWithOptions v3] Select element for ${moduleType} not found.`); return; }
         selectElement.innerHTML = '';
         try {
-            const modules = await moduleManager.getModules(moduleType);
+            const modules = await moduleManager.getModuleHeaders(moduleType);
             if (!Array.isArray(modules)) {
                 fxChains.addOptionToSelect(selectElement, '', `Error loading ${moduleType}s`, true); return;
             }
@@ -62,7 +62,7 @@ const soundPresets = {
         this.presetGridElement.innerHTML = ''; // Очищаем сетку
 
         try {
-            const presets = await moduleManager.getModules('soundpreset', true);
+            const presets = await moduleManager.getModuleHeaders('soundpreset', true);
 
             if (!presets || presets.length === 0) {
                 console.warn('[SoundPresets v3] No sound presets found.');
@@ -81,7 +81,7 @@ const soundPresets = {
                 cube.title = preset.name || preset.id;
 
                 // --- НОВОЕ: Применение цветов ---
-                const presetColors = preset.data?.data?.colors; // Получаем объект colors
+                const presetColors = preset.colors ?? preset.data?.data?.colors; // Получаем объект colors (из заголовка)
                 if (presetColors && typeof presetColors === 'object') {
                     // Пример: Устанавливаем основной цвет фона
                     if (presetColors.primary) {
@@ -0,0 +1,226 @@
+package com.example.prismtone;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.webkit.WebView;
+
+import androidx.webkit.WebMessageCompat;
+import androidx.webkit.WebMessagePortCompat;
+import androidx.webkit.WebViewCompat;
+import androidx.webkit.WebViewFeature;
+
+import com.google.gson.JsonObject;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Persistent binary message channel between Java and the page, for high-rate streams that would
+ * otherwise compile a script per message (evaluateJavascript) or marshal strings through
+ * {@code @JavascriptInterface}.
+ *
+ * The page asks for the channel with {@code PrismtoneBridge.openBinaryChannel()}; Java creates a
+ * {@link WebMessagePortCompat} pair, keeps one end and posts the other to the page as
+ * {@link #PORT_MESSAGE}. Every message is an ArrayBuffer holding one or more frames:
+ * <pre>
+ *   u8 type | u8 flags (0) | u16 payload length | payload     (little-endian)
+ * </pre>
+ * Frame types and payloads:
+ * <ul>
+ *   <li>{@link #FRAME_TILT} (Java → JS): f32 pitch, f32 roll, in degrees.</li>
+ *   <li>{@link #FRAME_HAPTIC} (JS → Java): u16 duration ms, u8 amplitude 1..255.</li>
+ *   <li>{@link #FRAME_HAPTIC_CANCEL} (JS → Java): no payload.</li>
+ * </ul>
+ * Unknown frame types are skipped by length, so either side can add types without breaking the
+ * other. If the WebView lacks the message-channel features the channel stays closed and callers
+ * fall back to the string bridge.
+ */
+public class BinaryChannel {
+    private static final String TAG = "BinaryChannel";
+    public static final String PORT_MESSAGE = "prismtone-binary-channel";
+    private static final Uri TARGET_ORIGIN = Uri.parse("https://appassets.androidplatform.net");
+
+    public static final int FRAME_TILT = 1;
+    public static final int FRAME_HAPTIC = 2;
+    public static final int FRAME_HAPTIC_CANCEL = 3;
+
+    static final int HEADER_SIZE = 4;
+    private static final int SEND_BUFFER_SIZE = 256;
+
+    /** Receives one frame's payload; the buffer is positioned at the payload and limited to it. */
+    public interface FrameHandler {
+        void onFrame(ByteBuffer payload);
+    }
+
+    private final WebView webView;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final FrameHandler[] handlers = new FrameHandler[256];
+    // Буфер отправки переиспользуется; все отправки идут из главного потока
+    private final ByteBuffer sendBuffer = ByteBuffer.allocate(SEND_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private WebMessagePortCompat port;
+    private volatile boolean open = false;
+    private long framesSent = 0;
+    private long framesReceived = 0;
+    private long framesDropped = 0;
+
+    public BinaryChannel(WebView webView) {
+        this.webView = webView;
+    }
+
+    /** True if this WebView can carry ArrayBuffers over message ports. */
+    public static boolean isSupported() {
+        return WebViewFeature.isFeatureSupported(WebViewFeature.CREATE_WEB_MESSAGE_CHANNEL)
+                && WebViewFeature.isFeatureSupported(WebViewFeature.POST_WEB_MESSAGE)
+                && WebViewFeature.isFeatureSupported(WebViewFeature.WEB_MESSAGE_PORT_POST_MESSAGE)
+                && WebViewFeature.isFeatureSupported(WebViewFeature.WEB_MESSAGE_PORT_SET_MESSAGE_CALLBACK)
+                && WebViewFeature.isFeatureSupported(WebViewFeature.WEB_MESSAGE_ARRAY_BUFFER);
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    /** Registers the handler for frames of one type sent by the page. Call before {@link #open()}. */
+    public void setHandler(int type, FrameHandler handler) {
+        handlers[type & 0xFF] = handler;
+    }
+
+    /**
+     * Creates a fresh port pair and hands one end to the page, replacing any previous channel
+     * (e.g. after a reload). Must be called on the main thread.
+     */
+    public void open() {
+        if (webView == null || !isSupported()) {
+            Log.w(TAG, "Binary channel not supported, staying on the string bridge");
+            return;
+        }
+        close();
+        try {
+            WebMessagePortCompat[] ports = WebViewCompat.createWebMessageChannel(webView);
+            port = ports[0];
+            port.setWebMessageCallback(mainHandler, new WebMessagePortCompat.WebMessageCallbackCompat() {
+                @Override
+                public void onMessage(WebMessagePortCompat source, WebMessageCompat message) {
+                    if (message != null && message.getType() == WebMessageCompat.TYPE_ARRAY_BUFFER) {
+                        dispatch(message.getArrayBuffer());
+                    }
+                }
+            });
+            WebViewCompat.postWebMessage(webView,
+                    new WebMessageCompat(PORT_MESSAGE, new WebMessagePortCompat[]{ports[1]}), TARGET_ORIGIN);
+            open = true;
+            Log.i(TAG, "Binary channel opened");
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to open binary channel", e);
+            close();
+        }
+    }
+
+    /** Closes the Java end of the channel. Must be called on the main thread. */
+    public void close() {
+        open = false;
+        if (port != null) {
+            try {
+                port.close();
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Error closing port", e);
+            }
+            port = null;
+        }
+    }
+
+    /**
+     * Sends a tilt frame. Must be called on the main thread.
+     * @return false if the channel is closed and the caller should fall back.
+     */
+    public boolean sendTilt(float pitch, float roll) {
+        if (!beginFrame(FRAME_TILT)) return false;
+        sendBuffer.putFloat(pitch).putFloat(roll);
+        return endFrame();
+    }
+
+    /**
+     * Starts a frame in the shared send buffer. The caller writes the payload with the buffer's
+     * put methods, then calls {@link #endFrame()}. Main thread only.
+     */
+    boolean beginFrame(int type) {
+        if (!open) return false;
+        sendBuffer.clear();
+        sendBuffer.put((byte) type).put((byte) 0).putShort((short) 0);
+        return true;
+    }
+
+    ByteBuffer frameBuffer() {
+        return sendBuffer;
+    }
+
+    boolean endFrame() {
+        int payloadLength = sendBuffer.position() - HEADER_SIZE;
+        sendBuffer.putShort(2, (short) payloadLength);
+        byte[] message = new byte[sendBuffer.position()];
+        sendBuffer.flip();
+        sendBuffer.get(message);
+        return post(message);
+    }
+
+    /**
+     * Sends an already framed message (one or more frames). Main thread only.
+     * @return false if the channel is closed.
+     */
+    public boolean post(byte[] message) {
+        if (!open || port == null) return false;
+        try {
+            port.postMessage(new WebMessageCompat(message));
+            framesSent++;
+            return true;
+        } catch (RuntimeException e) {
+            // Порт закрыт страницей (перезагрузка) - ждем нового openBinaryChannel()
+            Log.w(TAG, "Binary channel post failed, closing", e);
+            close();
+            return false;
+        }
+    }
+
+    private void dispatch(byte[] message) {
+        if (message == null) return;
+        ByteBuffer buffer = ByteBuffer.wrap(message).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.remaining() >= HEADER_SIZE) {
+            int type = buffer.get() & 0xFF;
+            buffer.get(); // flags
+            int length = buffer.getShort() & 0xFFFF;
+            if (length > buffer.remaining()) {
+                Log.w(TAG, "Truncated frame of type " + type + ", dropping the rest of the message");
+                framesDropped++;
+                return;
+            }
+            int end = buffer.position() + length;
+            FrameHandler handler = handlers[type];
+            if (handler != null) {
+                ByteBuffer payload = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+                payload.limit(length);
+                try {
+                    handler.onFrame(payload);
+                    framesReceived++;
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Handler failed for frame type " + type, e);
+                    framesDropped++;
+                }
+            } else {
+                framesDropped++;
+            }
+            buffer.position(end);
+        }
+    }
+
+    /** Frame counters, for diagnostics. Main thread only. */
+    public JsonObject getStats() {
+        JsonObject stats = new JsonObject();
+        stats.addProperty("open", open);
+        stats.addProperty("framesSent", framesSent);
+        stats.addProperty("framesReceived", framesReceived);
+        stats.addProperty("framesDropped", framesDropped);
+        return stats;
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.prismtone;
+
+import android.webkit.JavascriptInterface;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The bridge methods as seen by the code that calls them by name instead of through the WebView:
+ * {@link BridgeRpc} (asynchronous calls) and {@link SessionReplayer} (replayed traces). Both look
+ * methods up and convert arguments here, and both use the same classification of what a method
+ * writes, so a new setter only has to be listed once.
+ */
+final class BridgeMethods {
+    /** Change the user library: saves, deletes, imports, usage stats. */
+    static final Set<String> LIBRARY_WRITES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "saveSoundPreset", "saveFxChain", "saveChordProgression",
+            "deleteSoundPreset", "deleteFxChain", "deleteChordProgression",
+            "savePattern", "deletePattern", "importPattern",
+            "exportLibraryBundle", "importLibraryBundle", "markLibraryItemUsed")));
+    /** Change persisted settings or the bridge's own configuration. */
+    static final Set<String> SETTING_WRITES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "setSoundPreset", "setFxChain", "setTheme", "setLanguage", "setVisualizer", "setTouchEffect",
+            "setSetting", "setYAxisControlGroup", "setScale", "setOctaveOffset", "setZoneCount",
+            "applySettings", "updateSensorSettings", "resetBridgeStats", "setBridgeStatsDumpInterval")));
+    /**
+     * Drive the RPC channel or session recording/replay themselves; never called through RPC and
+     * never replayed (a method called through RPC is recorded on its own).
+     */
+    static final Set<String> CONTROL_METHODS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "rpcCall", "rpcCancel", "rpcTakeResult",
+            "startSessionRecording", "stopSessionRecording", "replaySessionTrace", "cancelSessionReplay")));
+
+    private BridgeMethods() {
+    }
+
+    /** @return true for methods in {@link #LIBRARY_WRITES} or {@link #SETTING_WRITES}. */
+    static boolean isWrite(String name) {
+        return LIBRARY_WRITES.contains(name) || SETTING_WRITES.contains(name);
+    }
+
+    /**
+     * @return the {@code @JavascriptInterface} method with this name and argument count,
+     *         or null if there is none or it is one of the {@link #CONTROL_METHODS}.
+     */
+    static Method find(String name, int argc) {
+        return Registry.METHODS.get(key(name, argc));
+    }
+
+    /**
+     * Converts arguments to the declared parameter types. Accepts JSON values (an RPC request) as
+     * well as plain Strings, Numbers and Booleans (a recorded trace, where JS numbers may be stored
+     * at any width); objects and arrays are passed to String parameters as JSON.
+     * @throws IllegalArgumentException if an argument can't be converted.
+     */
+    static Object[] convertArgs(Class<?>[] types, List<?> args) {
+        if (args.size() != types.length) {
+            throw new IllegalArgumentException("expected " + types.length + " arguments, got " + args.size());
+        }
+        Object[] values = new Object[types.length];
+        for (int i = 0; i < types.length; i++) {
+            values[i] = convertArg(types[i], args.get(i), i);
+        }
+        return values;
+    }
+
+    private static Object convertArg(Class<?> type, Object arg, int index) {
+        if (arg instanceof JsonElement) {
+            arg = unwrap((JsonElement) arg);
+        }
+        if (arg == null) {
+            if (type.isPrimitive()) throw new IllegalArgumentException("argument " + index + " must not be null");
+            return null;
+        }
+        if (type == String.class) {
+            return arg.toString();
+        }
+        if (arg instanceof JsonElement) {
+            throw new IllegalArgumentException("argument " + index + " must be a " + type.getSimpleName());
+        }
+        if (type == boolean.class || type == Boolean.class) {
+            return arg instanceof Boolean ? arg : Boolean.parseBoolean(arg.toString());
+        }
+        try {
+            Number number;
+            if (arg instanceof Number) {
+                number = (Number) arg;
+            } else if (arg instanceof String) {
+                number = new JsonPrimitive((String) arg).getAsNumber(); // Разбирается при первом xxxValue()
+            } else {
+                throw new IllegalArgumentException("argument " + index + " is not a number");
+            }
+            if (type == int.class || type == Integer.class) return number.intValue();
+            if (type == long.class || type == Long.class) return number.longValue();
+            if (type == double.class || type == Double.class) return number.doubleValue();
+            if (type == float.class || type == Float.class) return number.floatValue();
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("argument " + index + " is not a number");
+        }
+        throw new IllegalArgumentException("argument " + index + " has unsupported type " + type.getSimpleName());
+    }
+
+    /** JSON null to null, a primitive to Boolean, Number or String; objects and arrays stay as they are. */
+    private static Object unwrap(JsonElement element) {
+        if (element.isJsonNull()) return null;
+        if (!element.isJsonPrimitive()) return element;
+        JsonPrimitive primitive = element.getAsJsonPrimitive();
+        if (primitive.isBoolean()) return primitive.getAsBoolean();
+        if (primitive.isNumber()) return primitive.getAsNumber();
+        return primitive.getAsString();
+    }
+
+    private static String key(String name, int argc) {
+        return name + "/" + argc;
+    }
+
+    // Отражение по классу моста - один раз, при первом обращении
+    private static final class Registry {
+        static final Map<String, Method> METHODS = build();
+
+        private static Map<String, Method> build() {
+            Map<String, Method> methods = new HashMap<>();
+            for (Method method : PrismtoneBridge.class.getMethods()) {
+                if (method.isAnnotationPresent(JavascriptInterface.class) && !CONTROL_METHODS.contains(method.getName())) {
+                    methods.put(key(method.getName(), method.getParameterTypes().length), method);
+                }
+            }
+            return Collections.unmodifiableMap(methods);
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package com.example.prismtone;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Counters and latency histograms for the JS bridge, to find out which calls are worth caching
+ * or moving to {@link BridgeRpc}.
+ *
+ * Per bridge method: call count, execution time, queue wait (for work the method posts to the
+ * main thread, and for RPC requests waiting for a worker), request/response payload sizes and
+ * the kind of thread the call ran on. Per JS callback: script size, wait for the main thread and
+ * the cost of the evaluateJavascript call itself.
+ *
+ * Recording is lock-free: totals are {@link LongAdder}s (striped, so concurrent bridge and worker
+ * threads don't contend on one cache line), histograms are log-linear buckets in an
+ * {@link AtomicLongArray} with about 12% resolution from 1 µs to hours, like HdrHistogram with
+ * one significant digit. Payload sizes are String lengths, which equal UTF-8 bytes for the
+ * ASCII JSON the bridge carries.
+ */
+final class BridgeMetrics {
+    private static final String TAG = "BridgeMetrics";
+    // Имена колбэков приходят из JS - ограничиваем число отдельных записей
+    private static final int MAX_ENTRIES = 256;
+    private static final String OVERFLOW_NAME = "(other)";
+    private static final int DUMP_TOP = 12;
+
+    static final int THREAD_MAIN = 0;
+    static final int THREAD_BRIDGE = 1;
+    static final int THREAD_WORKER = 2;
+    static final int THREAD_OTHER = 3;
+    private static final String[] THREAD_NAMES = {"main", "javaBridge", "worker", "other"};
+
+    private final Map<String, Entry> methods = new ConcurrentHashMap<>();
+    private final Map<String, Entry> callbacks = new ConcurrentHashMap<>();
+    private final LongAdder totalEvents = new LongAdder();
+    private final long startedAtNs = SystemClock.elapsedRealtimeNanos();
+
+    private Handler dumpHandler;
+    private long dumpIntervalMs = 0;
+    private long lastDumpedEvents = -1;
+    private final Runnable dumpTask = this::scheduledDump;
+
+    /** Log-linear histogram of microsecond values: 8 sub-buckets per power of two. */
+    static final class Histogram {
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int MAX_EXPONENT = 32; // ~71 минута в микросекундах
+        static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long micros) {
+            if (micros < 0) micros = 0;
+            counts.incrementAndGet(bucketOf(micros));
+            count.increment();
+            sum.add(micros);
+            if (micros > max.get()) {
+                max.accumulateAndGet(micros, Math::max);
+            }
+        }
+
+        static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) return (int) value;
+            int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+            if (exponent == MAX_EXPONENT) return BUCKETS - 1;
+            int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        /** @return the highest value that falls into the bucket. */
+        static long upperBoundOf(int bucket) {
+            if (bucket + 1 >= BUCKETS) return Long.MAX_VALUE;
+            int next = bucket + 1;
+            if (next < SUB_BUCKETS) return next - 1;
+            int exponent = next / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            int sub = next % SUB_BUCKETS;
+            return ((long) (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS)) - 1;
+        }
+
+        long getCount() {
+            return count.sum();
+        }
+
+        long getSum() {
+            return sum.sum();
+        }
+
+        long getMax() {
+            return max.get();
+        }
+
+        /** @return the value at or below which {@code fraction} of the samples fall (bucket upper bound). */
+        long percentile(double fraction) {
+            long total = 0;
+            long[] snapshot = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = counts.get(i);
+                total += snapshot[i];
+            }
+            if (total == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(total * fraction));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) return Math.min(upperBoundOf(i), max.get());
+            }
+            return max.get();
+        }
+
+        JsonObject toJson() {
+            JsonObject json = new JsonObject();
+            long n = count.sum();
+            json.addProperty("count", n);
+            json.addProperty("meanMs", n > 0 ? round3(sum.sum() / 1000.0 / n) : 0);
+            json.addProperty("p50Ms", round3(percentile(0.50) / 1000.0));
+            json.addProperty("p90Ms", round3(percentile(0.90) / 1000.0));
+            json.addProperty("p99Ms", round3(percentile(0.99) / 1000.0));
+            json.addProperty("maxMs", round3(max.get() / 1000.0));
+            return json;
+        }
+    }
+
+    /** Everything recorded for one method or callback name. */
+    static final class Entry {
+        final LongAdder calls = new LongAdder();
+        final Histogram exec = new Histogram();
+        // Ожидание есть не у всех методов - гистограмма создается при первой записи
+        private volatile Histogram wait;
+        final LongAdder requestBytes = new LongAdder();
+        final AtomicLong maxRequestBytes = new AtomicLong();
+        final LongAdder responseBytes = new LongAdder();
+        final AtomicLong maxResponseBytes = new AtomicLong();
+        final LongAdder[] threads = {new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder()};
+
+        Histogram waitHistogram() {
+            Histogram histogram = wait;
+            if (histogram == null) {
+                synchronized (this) {
+                    if (wait == null) wait = new Histogram();
+                    histogram = wait;
+                }
+            }
+            return histogram;
+        }
+
+        JsonObject toJson(String requestName, String responseName) {
+            JsonObject json = new JsonObject();
+            long n = calls.sum();
+            json.addProperty("calls", n);
+            json.add("exec", exec.toJson());
+            Histogram waited = wait;
+            if (waited != null) {
+                json.add("wait", waited.toJson());
+            }
+            json.add(requestName, bytesJson(requestBytes, maxRequestBytes, n));
+            if (responseBytes.sum() > 0) {
+                json.add(responseName, bytesJson(responseBytes, maxResponseBytes, n));
+            }
+            JsonObject threadJson = new JsonObject();
+            for (int i = 0; i < threads.length; i++) {
+                long count = threads[i].sum();
+                if (count > 0) threadJson.addProperty(THREAD_NAMES[i], count);
+            }
+            json.add("threads", threadJson);
+            return json;
+        }
+
+        private static JsonObject bytesJson(LongAdder total, AtomicLong max, long calls) {
+            JsonObject json = new JsonObject();
+            long sum = total.sum();
+            json.addProperty("total", sum);
+            json.addProperty("avg", calls > 0 ? sum / calls : 0);
+            json.addProperty("max", max.get());
+            return json;
+        }
+    }
+
+    /**
+     * Call at the start of a bridge method; bridge methods use {@link #measure}, which pairs it with {@link #exit}.
+     * @return the start time to pass to {@link #exit}.
+     */
+    long enter(String method, Object[] args) {
+        Entry entry = entry(methods, method);
+        entry.calls.increment();
+        entry.threads[currentThreadKind()].increment();
+        long bytes = 0;
+        for (Object arg : args) {
+            if (arg instanceof String) bytes += ((String) arg).length();
+        }
+        addBytes(entry.requestBytes, entry.maxRequestBytes, bytes);
+        totalEvents.increment();
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    /** Call when a bridge method returns (in a finally block). */
+    void exit(String method, long startNs) {
+        entry(methods, method).exec.record((SystemClock.elapsedRealtimeNanos() - startNs) / 1000);
+    }
+
+    /**
+     * Runs the body of a bridge method between {@link #enter} and {@link #exit}, so an early
+     * return or an exception is still timed.
+     */
+    void measure(String method, Object[] args, Runnable body) {
+        long startNs = enter(method, args);
+        try {
+            body.run();
+        } finally {
+            exit(method, startNs);
+        }
+    }
+
+    /** The same for a bridge method with a result; a String result's size is recorded as by {@link #response}. */
+    <T> T measure(String method, Object[] args, Supplier<T> body) {
+        long startNs = enter(method, args);
+        try {
+            T result = body.get();
+            if (result instanceof String) {
+                response(method, (String) result);
+            }
+            return result;
+        } finally {
+            exit(method, startNs);
+        }
+    }
+
+    /** Records the size of a method's String result and returns it unchanged. */
+    String response(String method, String result) {
+        if (result != null) {
+            Entry entry = entry(methods, method);
+            addBytes(entry.responseBytes, entry.maxResponseBytes, result.length());
+        }
+        return result;
+    }
+
+    /**
+     * Wraps work queued by a bridge method, e.g. "setTheme:main" for its main-thread post or
+     * "rpc:getModules" for an RPC request: the wait in the queue and the run time are recorded
+     * under {@code stage}.
+     */
+    Runnable timed(String stage, Runnable task) {
+        long queuedAtNs = SystemClock.elapsedRealtimeNanos();
+        return () -> {
+            long startNs = SystemClock.elapsedRealtimeNanos();
+            Entry entry = entry(methods, stage);
+            entry.calls.increment();
+            entry.threads[currentThreadKind()].increment();
+            entry.waitHistogram().record((startNs - queuedAtNs) / 1000);
+            try {
+                task.run();
+            } finally {
+                entry.exec.record((SystemClock.elapsedRealtimeNanos() - startNs) / 1000);
+            }
+        };
+    }
+
+    /** Records one JS callback: script size, wait for the main thread and evaluateJavascript cost. */
+    void recordCallback(String function, int scriptLength, long waitNs, long evalNs) {
+        Entry entry = entry(callbacks, function);
+        entry.calls.increment();
+        entry.threads[THREAD_MAIN].increment();
+        addBytes(entry.requestBytes, entry.maxRequestBytes, scriptLength);
+        entry.waitHistogram().record(waitNs / 1000);
+        entry.exec.record(evalNs / 1000);
+        totalEvents.increment();
+    }
+
+    /** @return {uptimeSec, methods: {name: {...}}, callbacks: {name: {...}}}. */
+    JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("uptimeSec", (SystemClock.elapsedRealtimeNanos() - startedAtNs) / 1_000_000_000L);
+        json.add("methods", entriesJson(methods, "requestBytes", "responseBytes"));
+        json.add("callbacks", entriesJson(callbacks, "scriptBytes", "responseBytes"));
+        return json;
+    }
+
+    void reset() {
+        methods.clear();
+        callbacks.clear();
+        totalEvents.reset();
+        lastDumpedEvents = -1;
+    }
+
+    /**
+     * Logs the busiest methods and callbacks every {@code intervalMs} while there was new
+     * activity; 0 turns the dump off. Must be called on the handler's thread.
+     */
+    void setPeriodicDump(Handler handler, long intervalMs) {
+        if (dumpHandler != null) {
+            dumpHandler.removeCallbacks(dumpTask);
+        }
+        dumpHandler = handler;
+        dumpIntervalMs = Math.max(0, intervalMs);
+        if (dumpIntervalMs > 0) {
+            handler.postDelayed(dumpTask, dumpIntervalMs);
+        }
+    }
+
+    private void scheduledDump() {
+        long events = totalEvents.sum();
+        if (events != lastDumpedEvents) {
+            lastDumpedEvents = events;
+            // Форматирование - не на главном потоке
+            TaskScheduler.getInstance().execute(TaskScheduler.Lane.BACKGROUND, this::dump);
+        }
+        if (dumpIntervalMs > 0) {
+            dumpHandler.postDelayed(dumpTask, dumpIntervalMs);
+        }
+    }
+
+    /** Writes the entries with the most total execution time to the log, one line each. */
+    void dump() {
+        Log.i(TAG, "Bridge stats, " + totalEvents.sum() + " events:");
+        dumpTop("call", methods);
+        dumpTop("js", callbacks);
+    }
+
+    private static void dumpTop(String kind, Map<String, Entry> entries) {
+        List<Map.Entry<String, Entry>> sorted = new ArrayList<>(entries.entrySet());
+        sorted.sort((a, b) -> Long.compare(b.getValue().exec.getSum(), a.getValue().exec.getSum()));
+        for (int i = 0; i < Math.min(DUMP_TOP, sorted.size()); i++) {
+            String name = sorted.get(i).getKey();
+            Entry entry = sorted.get(i).getValue();
+            long calls = entry.calls.sum();
+            Log.i(TAG, String.format(Locale.US,
+                    "%s %s n=%d total=%.1fms p50=%.2fms p99=%.2fms max=%.2fms wait.p99=%.2fms in=%dB out=%dB",
+                    kind, name, calls, entry.exec.getSum() / 1000.0,
+                    entry.exec.percentile(0.5) / 1000.0, entry.exec.percentile(0.99) / 1000.0,
+                    entry.exec.getMax() / 1000.0, (entry.wait != null ? entry.wait.percentile(0.99) : 0) / 1000.0,
+                    calls > 0 ? entry.requestBytes.sum() / calls : 0,
+                    calls > 0 ? entry.responseBytes.sum() / calls : 0));
+        }
+    }
+
+    private static JsonObject entriesJson(Map<String, Entry> entries, String requestName, String responseName) {
+        JsonObject json = new JsonObject();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            json.add(entry.getKey(), entry.getValue().toJson(requestName, responseName));
+        }
+        return json;
+    }
+
+    private static Entry entry(Map<String, Entry> entries, String name) {
+        Entry entry = entries.get(name);
+        if (entry != null) return entry;
+        if (entries.size() >= MAX_ENTRIES) {
+            name = OVERFLOW_NAME;
+        }
+        return entries.computeIfAbsent(name, k -> new Entry());
+    }
+
+    private static void addBytes(LongAdder total, AtomicLong max, long bytes) {
+        total.add(bytes);
+        if (bytes > max.get()) {
+            max.accumulateAndGet(bytes, Math::max);
+        }
+    }
+
+    static int currentThreadKind() {
+        if (Looper.myLooper() == Looper.getMainLooper()) return THREAD_MAIN;
+        String name = Thread.currentThread().getName();
+        if (name.startsWith("JavaBridge")) return THREAD_BRIDGE;
+        if (name.startsWith("Prismtone-")) return THREAD_WORKER;
+        return THREAD_OTHER;
+    }
+
+    private static double round3(double value) {
+        return Math.round(value * 1000) / 1000.0;
+    }
+}
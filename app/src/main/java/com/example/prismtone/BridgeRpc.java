@@ -0,0 +1,231 @@
+package com.example.prismtone;
+
+import android.os.Handler;
+import android.util.Log;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous calls of bridge methods, so the page never waits on Java disk work.
+ *
+ * JS posts {@code {id, method, args, timeoutMs?, lane?}} through {@link PrismtoneBridge#rpcCall};
+ * the call returns at once and the method runs on a {@link TaskScheduler} lane (writes to the
+ * library go through one serial queue, so they stay in order). The outcome is delivered to the
+ * single resolver {@code bridgeRpc._resolve(id, error, result)} on the main thread: error is
+ * null on success, result is the method's return value as the synchronous call would return it.
+ *
+ * A String result longer than {@link #INLINE_RESULT_LIMIT} chars (a full module list) is not
+ * embedded in the resolver script, where it would be escaped, parsed and compiled as a JS literal:
+ * the resolver gets {@code (id, null, null, true)} and pulls the result with
+ * {@link PrismtoneBridge#rpcTakeResult}, which hands it over as a plain string. A result nobody
+ * pulls is dropped after {@link #PULL_EXPIRY_MS}.
+ *
+ * A request is settled exactly once: by its result, by {@link #cancel} or by its timeout. A
+ * cancelled or timed-out request that hasn't started is removed from its queue; one that is
+ * already running finishes, and its result is dropped. Which methods exist, which of them write
+ * and how arguments are converted is shared with the session replayer ({@link BridgeMethods}).
+ */
+final class BridgeRpc {
+    private static final String TAG = "BridgeRpc";
+    static final String RESOLVER = "bridgeRpc._resolve";
+    static final long DEFAULT_TIMEOUT_MS = 30_000;
+    static final long MAX_TIMEOUT_MS = 5 * 60_000;
+    static final int INLINE_RESULT_LIMIT = 16 * 1024;
+    static final long PULL_EXPIRY_MS = 60_000;
+
+    private final PrismtoneBridge bridge;
+    private final Handler mainHandler;
+    private final BridgeMetrics metrics;
+    private final Map<String, Call> pending = new ConcurrentHashMap<>();
+    // Большие результаты, ждущие rpcTakeResult
+    private final Map<String, String> results = new ConcurrentHashMap<>();
+    private final TaskScheduler.SerialQueue writeQueue =
+            TaskScheduler.getInstance().serial("bridge-rpc-writes", TaskScheduler.Lane.USER_INITIATED);
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong pulled = new AtomicLong();
+
+    private final class Call {
+        final String id;
+        final AtomicBoolean settled = new AtomicBoolean(false);
+        volatile Future<?> future;
+        Runnable timeout;
+
+        Call(String id) {
+            this.id = id;
+        }
+    }
+
+    BridgeRpc(PrismtoneBridge bridge, Handler mainHandler, BridgeMetrics metrics) {
+        this.bridge = bridge;
+        this.mainHandler = mainHandler;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Starts a request. Problems with the request itself (unknown method, bad arguments) are
+     * reported through the resolver like any other failure.
+     * @return false only if the request has no usable id and so can't be answered.
+     */
+    boolean submit(String requestJson) {
+        JsonObject request;
+        String id;
+        String methodName;
+        try {
+            request = JsonParser.parseString(requestJson).getAsJsonObject();
+            id = request.get("id").getAsString();
+            methodName = request.has("method") ? request.get("method").getAsString() : "";
+        } catch (JsonParseException | IllegalStateException | NullPointerException | UnsupportedOperationException e) {
+            Log.e(TAG, "Malformed RPC request: " + requestJson, e);
+            return false;
+        }
+        submitted.incrementAndGet();
+        Call call = new Call(id);
+        if (pending.putIfAbsent(id, call) != null) {
+            failed.incrementAndGet();
+            deliver(id, "Duplicate request id " + id, null);
+            return true;
+        }
+        JsonArray args = request.has("args") && request.get("args").isJsonArray()
+                ? request.getAsJsonArray("args") : new JsonArray();
+        Method method = BridgeMethods.find(methodName, args.size());
+        if (method == null) {
+            settle(call, "Unknown bridge method " + methodName + "/" + args.size(), null, failed);
+            return true;
+        }
+        Object[] values;
+        try {
+            values = BridgeMethods.convertArgs(method.getParameterTypes(), args.asList());
+        } catch (IllegalArgumentException e) {
+            settle(call, "Bad arguments for " + methodName + ": " + e.getMessage(), null, failed);
+            return true;
+        }
+
+        long timeoutMs = DEFAULT_TIMEOUT_MS;
+        if (request.has("timeoutMs") && request.get("timeoutMs").isJsonPrimitive()) {
+            timeoutMs = Math.max(1, Math.min(MAX_TIMEOUT_MS, request.get("timeoutMs").getAsLong()));
+        }
+        call.timeout = () -> {
+            Future<?> future = call.future;
+            if (settle(call, "Timeout", null, timedOut) && future != null) {
+                future.cancel(false);
+            }
+        };
+        mainHandler.postDelayed(call.timeout, timeoutMs);
+
+        // Ожидание в полосе и полное время запроса - в записи "rpc:<метод>"
+        Runnable task = metrics.timed("rpc:" + methodName, () -> invoke(call, method, values));
+        // Записи (библиотека, настройки) - строго по очереди, в порядке вызовов
+        if (BridgeMethods.isWrite(methodName)) {
+            call.future = writeQueue.submit(() -> {
+                task.run();
+                return null;
+            });
+        } else {
+            call.future = TaskScheduler.getInstance().submit(laneOf(request), task);
+        }
+        return true;
+    }
+
+    /** Cancels a pending request; it is rejected with "Cancelled". */
+    void cancel(String id) {
+        Call call = id != null ? pending.get(id) : null;
+        if (call == null) return;
+        Future<?> future = call.future;
+        if (settle(call, "Cancelled", null, cancelled) && future != null) {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * Hands over a result that was too large to deliver inline.
+     * @return the result, or null if there is none for this id (already taken or expired).
+     */
+    String takeResult(String id) {
+        return id != null ? results.remove(id) : null;
+    }
+
+    /** @return {submitted, succeeded, failed, cancelled, timedOut, pending, pulled, unclaimed}. */
+    JsonObject getStats() {
+        JsonObject stats = new JsonObject();
+        stats.addProperty("submitted", submitted.get());
+        stats.addProperty("succeeded", succeeded.get());
+        stats.addProperty("failed", failed.get());
+        stats.addProperty("cancelled", cancelled.get());
+        stats.addProperty("timedOut", timedOut.get());
+        stats.addProperty("pending", pending.size());
+        stats.addProperty("pulled", pulled.get());
+        stats.addProperty("unclaimed", results.size());
+        return stats;
+    }
+
+    private void invoke(Call call, Method method, Object[] args) {
+        if (call.settled.get()) return; // Отменен или истек, пока ждал в очереди
+        try {
+            Object result = method.invoke(bridge, args);
+            settle(call, null, result, succeeded);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            Log.e(TAG, "RPC " + method.getName() + " failed", cause);
+            settle(call, cause.getClass().getSimpleName() + ": " + cause.getMessage(), null, failed);
+        } catch (IllegalAccessException | IllegalArgumentException e) {
+            Log.e(TAG, "RPC " + method.getName() + " could not be invoked", e);
+            settle(call, e.getMessage(), null, failed);
+        }
+    }
+
+    /** @return true if this settled the call, false if it was already settled. */
+    private boolean settle(Call call, String error, Object result, AtomicLong counter) {
+        if (!call.settled.compareAndSet(false, true)) {
+            return false;
+        }
+        pending.remove(call.id, call);
+        if (call.timeout != null) {
+            mainHandler.removeCallbacks(call.timeout);
+        }
+        counter.incrementAndGet();
+        deliver(call.id, error, result);
+        return true;
+    }
+
+    private void deliver(String id, String error, Object result) {
+        if (result instanceof String && ((String) result).length() > INLINE_RESULT_LIMIT) {
+            // Большой ответ не встраиваем в скрипт - JS заберет его вызовом rpcTakeResult
+            String value = (String) result;
+            results.put(id, value);
+            pulled.incrementAndGet();
+            // remove(id, value): после перезагрузки страницы id может достаться новому запросу
+            mainHandler.postDelayed(() -> results.remove(id, value), PULL_EXPIRY_MS);
+            bridge.callJsFunction(RESOLVER, id, null, null, true);
+            return;
+        }
+        // Скрипт собирается здесь, на главный поток уходит только evaluateJavascript
+        bridge.callJsFunction(RESOLVER, id, error, result);
+    }
+
+    private static TaskScheduler.Lane laneOf(JsonObject request) {
+        if (request.has("lane")) {
+            try {
+                return TaskScheduler.Lane.valueOf(request.get("lane").getAsString().toUpperCase(Locale.US));
+            } catch (IllegalArgumentException | IllegalStateException | UnsupportedOperationException ignored) {
+            }
+        }
+        return TaskScheduler.Lane.USER_INITIATED;
+    }
+}
@@ -6,35 +6,42 @@ import android.os.Looper;
 import android.util.Log;
 import android.webkit.WebView;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 public class ChordProgressionRepository {
     private static final String TAG = "ChordProgressionRepo";
+    private static final String MODULE_TYPE = "chordProgression";
     private static ChordProgressionRepository instance;
     private final File progressionDir;
     private final Gson gson;
+    // Все пользовательские документы хранятся в одном журнале вместо файла на каждый документ
+    private final JournalStore journal;
+    private final UserContentCache cache;
+    // Метаданные для сортировки/поиска по библиотеке
+    private final LibraryIndex libraryIndex;
     
-    // >>> OPTIMIZATION: Добавляем ExecutorService для фоновых операций <<<
-    private final ExecutorService executorService;
+    // Записи репозитория идут по очереди; обслуживание индекса - в фоновой полосе
+    private final TaskScheduler.SerialQueue queue;
     private final Handler mainThreadHandler;
 
     private ChordProgressionRepository(Context context) {
         this.progressionDir = new File(context.getExternalFilesDir(null), "modules/chordProgression");
-        this.gson = new GsonBuilder().setPrettyPrinting().create();
-        this.executorService = Executors.newSingleThreadExecutor();
+        this.gson = new Gson();
+        this.queue = TaskScheduler.getInstance().serial(MODULE_TYPE + "-repository", TaskScheduler.Lane.USER_INITIATED);
         this.mainThreadHandler = new Handler(Looper.getMainLooper());
         
         if (!progressionDir.exists()) {
             progressionDir.mkdirs();
         }
+        this.journal = openJournal(progressionDir);
+        this.libraryIndex = LibraryIndex.getInstance(context);
+        this.cache = new UserContentCache(journal, MODULE_TYPE, libraryIndex, queue, null);
+        cache.warmUp();
     }
 
     public static synchronized ChordProgressionRepository getInstance(Context context) {
@@ -44,22 +51,30 @@ public class ChordProgressionRepository {
         return instance;
     }
 
-    // Метод getUserProgressions остается синхронным, так как чтение обычно быстрое
+    // Метод getUserProgressions остается синхронным: при попадании в кэш чтения с диска нет
     public List<JsonObject> getUserProgressions() {
-        List<JsonObject> progressions = new ArrayList<>();
-        File[] files = progressionDir.listFiles((dir, name) -> name.endsWith(".json"));
-        if (files != null) {
-            for (File file : files) {
-                try {
-                    String content = FileUtils.readFile(file);
-                    JsonObject progression = gson.fromJson(content, JsonObject.class);
-                    progressions.add(progression);
-                } catch (IOException e) {
-                    Log.e(TAG, "Error reading progression file: " + file.getName(), e);
-                }
-            }
+        List<JsonObject> progressions = cache.loadCached();
+        return progressions != null ? progressions : Collections.emptyList();
+    }
+
+    /**
+     * User progressions as {@link ModuleInfo}s, converted once per change of the library.
+     */
+    public List<ModuleInfo> getUserProgressionModules() {
+        if (cache.loadCached() == null) {
+            return Collections.emptyList();
+        }
+        synchronized (cache) {
+            List<ModuleInfo> infos = cache.getModuleInfos();
+            return infos != null ? infos : Collections.emptyList();
+        }
+    }
+
+    /** Changes whenever the set of user progressions changes. */
+    public long getLibraryVersion() {
+        synchronized (cache) {
+            return cache.getVersion();
         }
-        return progressions;
     }
 
     /**
@@ -70,17 +85,19 @@ public class ChordProgressionRepository {
      * @param bridge Ссылка на мост для вызова JS.
      */
     public void saveProgression(JsonObject progression, String successCallbackName, String errorCallbackName, PrismtoneBridge bridge) {
-        executorService.execute(() -> {
+        queue.execute(() -> {
             try {
-                String id = "user_" + System.currentTimeMillis();
+                if (journal == null) {
+                    throw new IOException("Storage is not available");
+                }
+                String id = journal.newId();
                 progression.addProperty("id", id);
-                
-                File progressionFile = new File(progressionDir, id + ".json");
-                String jsonOutput = gson.toJson(progression);
-                FileUtils.writeFile(progressionFile, jsonOutput);
-
-                // Вызываем коллбэк успеха в главном потоке
-                bridge.callJsFunctionOnMainThread(successCallbackName, id);
+                synchronized (cache) {
+                    journal.putBuffered(id, gson.toJson(progression));
+                    cache.put(id, progression);
+                }
+                libraryIndex.upsert(MODULE_TYPE, id, progression);
+                RepositoryUtils.commitAndNotify(queue, journal, id, successCallbackName, errorCallbackName, bridge);
             } catch (IOException e) {
                 Log.e(TAG, "Error saving progression file", e);
                 String errorMessage = "Error: " + e.getMessage();
@@ -95,7 +112,51 @@ public class ChordProgressionRepository {
         if (!progressionId.startsWith("user_")) {
             return false;
         }
-        File progressionFile = new File(progressionDir, progressionId + ".json");
-        return progressionFile.exists() && progressionFile.delete();
+        if (journal == null) {
+            return false;
+        }
+        try {
+            // Удаление - одна запись-надгробие; место освобождает фоновая компактация
+            boolean deleted;
+            synchronized (cache) {
+                deleted = journal.delete(progressionId);
+                if (deleted) cache.remove(progressionId);
+            }
+            if (deleted) {
+                queue.execute(TaskScheduler.Lane.BACKGROUND, () -> libraryIndex.remove(MODULE_TYPE, progressionId));
+            }
+            if (deleted && journal.needsCompaction()) {
+                queue.execute(TaskScheduler.Lane.BACKGROUND, this::compactJournal);
+            }
+            return deleted;
+        } catch (IOException e) {
+            Log.e(TAG, "Error deleting progression " + progressionId, e);
+            return false;
+        }
+    }
+
+    /**
+     * Stores chord progressions from a library bundle, see {@link RepositoryUtils#importBatch}.
+     * @return the number of documents stored.
+     */
+    public int importBatch(List<JsonObject> documents) throws IOException {
+        return RepositoryUtils.importBatch(queue, journal, cache, libraryIndex, MODULE_TYPE, documents,
+                (id, sourceId, document) -> gson.toJson(document));
+    }
+
+    private void compactJournal() {
+        synchronized (cache) {
+            journal.compactIfNeeded();
+            cache.touch();
+        }
+    }
+
+    private static JournalStore openJournal(File directory) {
+        try {
+            return JournalStore.openInDirectory(directory);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not open journal in " + directory, e);
+            return null;
+        }
     }
 }
\ No newline at end of file
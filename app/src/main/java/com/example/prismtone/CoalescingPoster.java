@@ -0,0 +1,81 @@
+package com.example.prismtone;
+
+import android.os.Handler;
+
+import com.google.gson.JsonObject;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Posts updates to a Handler with latest-wins semantics per key: while an update for a key is
+ * still waiting in the queue, a newer one replaces it instead of queueing another runnable.
+ * A slider drag then costs one pending runnable per setting, and the main thread only applies
+ * the value that is current when it gets to it.
+ *
+ * Each key keeps the queue position of its first pending update. Updates for different keys
+ * are independent, so only use this for setters whose relative order doesn't matter, and route
+ * every writer of a key through the same poster: an update posted to the Handler directly could
+ * run before a pending older value, which would then win. An update that writes several keys
+ * at once goes through {@link #postReplacing}.
+ */
+final class CoalescingPoster {
+    private final Handler handler;
+    private final Map<String, Runnable> pending = new ConcurrentHashMap<>();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong applied = new AtomicLong();
+    private final AtomicLong superseded = new AtomicLong();
+
+    CoalescingPoster(Handler handler) {
+        this.handler = handler;
+    }
+
+    /** Schedules {@code update} for {@code key}, replacing a pending update for the same key. */
+    void post(String key, Runnable update) {
+        submitted.incrementAndGet();
+        if (pending.put(key, update) != null) {
+            // Предыдущее значение еще не применено - оно устарело, отдельный post не нужен
+            coalesced.incrementAndGet();
+            return;
+        }
+        handler.post(() -> {
+            Runnable latest = pending.remove(key);
+            if (latest != null) {
+                applied.incrementAndGet();
+                latest.run();
+            }
+        });
+    }
+
+    /**
+     * Schedules an update that writes all of {@code keys} at once. Pending updates for those keys
+     * are older than it and are dropped, so they can't overwrite it from their earlier queue
+     * position; later single-key updates queue behind it as usual.
+     */
+    void postReplacing(Collection<String> keys, Runnable update) {
+        submitted.incrementAndGet();
+        for (String key : keys) {
+            if (pending.remove(key) != null) {
+                superseded.incrementAndGet();
+            }
+        }
+        handler.post(() -> {
+            applied.incrementAndGet();
+            update.run();
+        });
+    }
+
+    /** @return {submitted, coalesced, superseded, applied, pending}. */
+    JsonObject getStats() {
+        JsonObject stats = new JsonObject();
+        stats.addProperty("submitted", submitted.get());
+        stats.addProperty("coalesced", coalesced.get());
+        stats.addProperty("superseded", superseded.get());
+        stats.addProperty("applied", applied.get());
+        stats.addProperty("pending", pending.size());
+        return stats;
+    }
+}
@@ -0,0 +1,393 @@
+package com.example.prismtone;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Immutable JSON tree used for the module catalog.
+ * Nodes carry a precomputed hash, numbers keep their source text next to the parsed
+ * primitive (so 1.0 and -0.0 are written back unchanged) and, when built through a
+ * {@link JsonInterner}, identical subtrees are shared so equality checks usually stop
+ * at a reference comparison.
+ */
+public abstract class CompactJson {
+    public static final CompactJson NULL = new Null();
+    public static final CompactJson TRUE = new Bool(true);
+    public static final CompactJson FALSE = new Bool(false);
+
+    private final int hash;
+
+    CompactJson(int hash) {
+        this.hash = hash;
+    }
+
+    public boolean isNull() { return false; }
+    public boolean isBoolean() { return false; }
+    public boolean isNumber() { return false; }
+    public boolean isString() { return false; }
+    public boolean isArray() { return false; }
+    public boolean isObject() { return false; }
+
+    public boolean getAsBoolean() {
+        throw new IllegalStateException("Not a boolean: " + this);
+    }
+
+    public double getAsDouble() {
+        throw new IllegalStateException("Not a number: " + this);
+    }
+
+    public long getAsLong() {
+        throw new IllegalStateException("Not a number: " + this);
+    }
+
+    /** Returns the string value; numbers and booleans are converted like Gson's getAsString(). */
+    public String getAsString() {
+        throw new IllegalStateException("Not a primitive: " + this);
+    }
+
+    public Arr getAsArray() {
+        throw new IllegalStateException("Not an array: " + this);
+    }
+
+    public Obj getAsObject() {
+        throw new IllegalStateException("Not an object: " + this);
+    }
+
+    /** Builds a fresh, mutable Gson tree with the same content. */
+    public abstract JsonElement toJsonElement();
+
+    public abstract void write(JsonWriter writer) throws IOException;
+
+    abstract boolean contentEquals(CompactJson other);
+
+    public String toJson() {
+        StringWriter out = new StringWriter();
+        try {
+            JsonWriter writer = new JsonWriter(out);
+            writer.setSerializeNulls(true);
+            write(writer);
+            writer.flush();
+        } catch (IOException e) {
+            // StringWriter не бросает IOException
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Converts a Gson tree without interning. Use a {@link JsonInterner} for catalog data.
+     */
+    public static CompactJson copyOf(JsonElement element) {
+        if (element == null || element.isJsonNull()) {
+            return NULL;
+        }
+        if (element.isJsonPrimitive()) {
+            JsonPrimitive primitive = element.getAsJsonPrimitive();
+            if (primitive.isBoolean()) return primitive.getAsBoolean() ? TRUE : FALSE;
+            if (primitive.isNumber()) return Num.parse(primitive.getAsString());
+            return new Str(primitive.getAsString());
+        }
+        if (element.isJsonArray()) {
+            JsonArray array = element.getAsJsonArray();
+            CompactJson[] items = new CompactJson[array.size()];
+            for (int i = 0; i < items.length; i++) {
+                items[i] = copyOf(array.get(i));
+            }
+            return new Arr(items);
+        }
+        JsonObject object = element.getAsJsonObject();
+        String[] keys = new String[object.size()];
+        CompactJson[] values = new CompactJson[keys.length];
+        int i = 0;
+        for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
+            keys[i] = entry.getKey();
+            values[i] = copyOf(entry.getValue());
+            i++;
+        }
+        return new Obj(keys, values);
+    }
+
+    @Override
+    public final int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public final boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CompactJson)) return false;
+        CompactJson other = (CompactJson) o;
+        return hash == other.hash && getClass() == other.getClass() && contentEquals(other);
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+
+    public static final class Null extends CompactJson {
+        private Null() { super(0); }
+
+        @Override public boolean isNull() { return true; }
+        @Override public JsonElement toJsonElement() { return JsonNull.INSTANCE; }
+        @Override public void write(JsonWriter writer) throws IOException { writer.nullValue(); }
+        @Override boolean contentEquals(CompactJson other) { return true; }
+    }
+
+    public static final class Bool extends CompactJson {
+        private final boolean value;
+
+        private Bool(boolean value) {
+            super(value ? 1231 : 1237);
+            this.value = value;
+        }
+
+        @Override public boolean isBoolean() { return true; }
+        @Override public boolean getAsBoolean() { return value; }
+        @Override public String getAsString() { return Boolean.toString(value); }
+        @Override public JsonElement toJsonElement() { return new JsonPrimitive(value); }
+        @Override public void write(JsonWriter writer) throws IOException { writer.value(value); }
+        @Override boolean contentEquals(CompactJson other) { return value == ((Bool) other).value; }
+    }
+
+    public static final class Num extends CompactJson {
+        // Текст числа как в исходном JSON: "1.0" и "1" - разные литералы, оба сохраняются как есть
+        private final String literal;
+        private final boolean integral;
+        private final long longValue;
+        private final double doubleValue;
+
+        private Num(String literal, boolean integral, long longValue, double doubleValue) {
+            super(literal.hashCode());
+            this.literal = literal;
+            this.integral = integral;
+            this.longValue = longValue;
+            this.doubleValue = doubleValue;
+        }
+
+        /** Parses a JSON number literal; integral literals that fit a long are kept exact. */
+        static Num parse(String literal) {
+            boolean decimal = literal.indexOf('.') >= 0 || literal.indexOf('e') >= 0 || literal.indexOf('E') >= 0;
+            if (!decimal) {
+                try {
+                    long value = Long.parseLong(literal);
+                    return new Num(literal, true, value, value);
+                } catch (NumberFormatException ignored) {
+                    // Слишком большое целое - храним как double
+                }
+            }
+            double value = Double.parseDouble(literal);
+            return new Num(literal, false, (long) value, value);
+        }
+
+        @Override public boolean isNumber() { return true; }
+        @Override public double getAsDouble() { return doubleValue; }
+        @Override public long getAsLong() { return longValue; }
+        /** Returns the number as written in the source, like Gson's getAsString() on a parsed number. */
+        @Override public String getAsString() { return literal; }
+
+        @Override
+        public JsonElement toJsonElement() {
+            return new JsonPrimitive(integral ? (Number) longValue : new Literal(literal, doubleValue));
+        }
+
+        @Override
+        public void write(JsonWriter writer) throws IOException {
+            writer.jsonValue(literal);
+        }
+
+        @Override
+        boolean contentEquals(CompactJson other) {
+            return literal.equals(((Num) other).literal);
+        }
+    }
+
+    /** Decimal number that serializes to its source text (Gson writes numbers with toString()). */
+    private static final class Literal extends Number {
+        private static final long serialVersionUID = 1L;
+
+        private final String text;
+        private final double value;
+
+        Literal(String text, double value) {
+            this.text = text;
+            this.value = value;
+        }
+
+        @Override public int intValue() { return (int) value; }
+        @Override public long longValue() { return (long) value; }
+        @Override public float floatValue() { return (float) value; }
+        @Override public double doubleValue() { return value; }
+        @Override public String toString() { return text; }
+    }
+
+    public static final class Str extends CompactJson {
+        private final String value;
+
+        Str(String value) {
+            super(value.hashCode());
+            this.value = value;
+        }
+
+        @Override public boolean isString() { return true; }
+        @Override public String getAsString() { return value; }
+        @Override public JsonElement toJsonElement() { return new JsonPrimitive(value); }
+        @Override public void write(JsonWriter writer) throws IOException { writer.value(value); }
+
+        @Override
+        boolean contentEquals(CompactJson other) {
+            String otherValue = ((Str) other).value;
+            return value == otherValue || value.equals(otherValue);
+        }
+    }
+
+    public static final class Arr extends CompactJson {
+        private final CompactJson[] items;
+
+        Arr(CompactJson[] items) {
+            super(Arrays.hashCode(items));
+            this.items = items;
+        }
+
+        @Override public boolean isArray() { return true; }
+        @Override public Arr getAsArray() { return this; }
+
+        public int size() {
+            return items.length;
+        }
+
+        public CompactJson get(int index) {
+            return items[index];
+        }
+
+        @Override
+        public JsonElement toJsonElement() {
+            JsonArray array = new JsonArray(items.length);
+            for (CompactJson item : items) {
+                array.add(item.toJsonElement());
+            }
+            return array;
+        }
+
+        @Override
+        public void write(JsonWriter writer) throws IOException {
+            writer.beginArray();
+            for (CompactJson item : items) {
+                item.write(writer);
+            }
+            writer.endArray();
+        }
+
+        @Override
+        boolean contentEquals(CompactJson other) {
+            CompactJson[] otherItems = ((Arr) other).items;
+            if (items.length != otherItems.length) return false;
+            for (int i = 0; i < items.length; i++) {
+                if (items[i] != otherItems[i] && !items[i].equals(otherItems[i])) return false;
+            }
+            return true;
+        }
+    }
+
+    public static final class Obj extends CompactJson {
+        private final String[] keys;
+        private final CompactJson[] values;
+
+        Obj(String[] keys, CompactJson[] values) {
+            super(31 * Arrays.hashCode(keys) + Arrays.hashCode(values));
+            this.keys = keys;
+            this.values = values;
+        }
+
+        @Override public boolean isObject() { return true; }
+        @Override public Obj getAsObject() { return this; }
+
+        public int size() {
+            return keys.length;
+        }
+
+        public String keyAt(int index) {
+            return keys[index];
+        }
+
+        public CompactJson valueAt(int index) {
+            return values[index];
+        }
+
+        /** Объекты модулей маленькие, линейный поиск быстрее хэш-таблицы. */
+        public CompactJson get(String key) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i].equals(key)) return values[i];
+            }
+            return null;
+        }
+
+        public boolean has(String key) {
+            return get(key) != null;
+        }
+
+        public Obj getObject(String key) {
+            CompactJson value = get(key);
+            return value != null && value.isObject() ? (Obj) value : null;
+        }
+
+        public Arr getArray(String key) {
+            CompactJson value = get(key);
+            return value != null && value.isArray() ? (Arr) value : null;
+        }
+
+        public String getString(String key, String fallback) {
+            CompactJson value = get(key);
+            return value != null && !value.isNull() && !value.isArray() && !value.isObject() ? value.getAsString() : fallback;
+        }
+
+        public boolean getBoolean(String key, boolean fallback) {
+            CompactJson value = get(key);
+            return value != null && value.isBoolean() ? value.getAsBoolean() : fallback;
+        }
+
+        public double getDouble(String key, double fallback) {
+            CompactJson value = get(key);
+            return value != null && value.isNumber() ? value.getAsDouble() : fallback;
+        }
+
+        @Override
+        public JsonObject toJsonElement() {
+            JsonObject object = new JsonObject();
+            for (int i = 0; i < keys.length; i++) {
+                object.add(keys[i], values[i].toJsonElement());
+            }
+            return object;
+        }
+
+        @Override
+        public void write(JsonWriter writer) throws IOException {
+            writer.beginObject();
+            for (int i = 0; i < keys.length; i++) {
+                writer.name(keys[i]);
+                values[i].write(writer);
+            }
+            writer.endObject();
+        }
+
+        @Override
+        boolean contentEquals(CompactJson other) {
+            Obj o = (Obj) other;
+            if (keys.length != o.keys.length) return false;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != o.keys[i] && !keys[i].equals(o.keys[i])) return false;
+                if (values[i] != o.values[i] && !values[i].equals(o.values[i])) return false;
+            }
+            return true;
+        }
+    }
+}
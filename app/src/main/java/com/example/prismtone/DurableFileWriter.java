@@ -0,0 +1,221 @@
+package com.example.prismtone;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Log;
+
+import com.google.gson.JsonObject;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Crash-safe file writes: data goes to a uniquely named temp file in the target's directory
+ * that is fsynced and then renamed over the target, and the directory is fsynced so the rename itself survives a power loss.
+ *
+ * {@link #write(File, byte[])} additionally batches writes: writes to the same file within
+ * {@link #COALESCE_WINDOW_MS} are coalesced (only the latest content is written), and all files
+ * of one batch that live in the same directory share a single directory fsync. Batches are flushed
+ * one at a time on a {@link TaskScheduler} serial queue in the USER_INITIATED lane.
+ */
+public final class DurableFileWriter {
+    private static final String TAG = "DurableFileWriter";
+    static final long COALESCE_WINDOW_MS = 100;
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static DurableFileWriter instance;
+
+    private final TaskScheduler.SerialQueue flusher =
+            TaskScheduler.getInstance().serial("DurableFileWriter", TaskScheduler.Lane.USER_INITIATED);
+    private final Object lock = new Object();
+    private final Map<File, Pending> pending = new LinkedHashMap<>();
+    private boolean flushScheduled = false;
+
+    private static final AtomicLong requestedWrites = new AtomicLong();
+    private static final AtomicLong coalescedWrites = new AtomicLong();
+    private static final AtomicLong fileSyncs = new AtomicLong();
+    private static final AtomicLong directorySyncs = new AtomicLong();
+
+    /** Content streamed into the temp file; must not close the stream. */
+    public interface Content {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    private static final class Pending {
+        byte[] data;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Pending(byte[] data) {
+            this.data = data;
+        }
+    }
+
+    private DurableFileWriter() {
+    }
+
+    public static synchronized DurableFileWriter getInstance() {
+        if (instance == null) {
+            instance = new DurableFileWriter();
+        }
+        return instance;
+    }
+
+    /**
+     * Queues an atomic write. If the same file is already queued, its content is replaced and the
+     * same future is returned, so a burst of saves results in one write.
+     * @return a future completing once the content is durable on disk.
+     */
+    public CompletableFuture<Void> write(File target, byte[] data) {
+        requestedWrites.incrementAndGet();
+        File key = target.getAbsoluteFile();
+        synchronized (lock) {
+            Pending existing = pending.get(key);
+            if (existing != null) {
+                existing.data = data;
+                coalescedWrites.incrementAndGet();
+                return existing.future;
+            }
+            Pending entry = new Pending(data);
+            pending.put(key, entry);
+            if (!flushScheduled) {
+                flushScheduled = true;
+                flusher.schedule(COALESCE_WINDOW_MS, this::flush);
+            }
+            return entry.future;
+        }
+    }
+
+    private void flush() {
+        Map<File, Pending> batch;
+        synchronized (lock) {
+            batch = new LinkedHashMap<>(pending);
+            pending.clear();
+            flushScheduled = false;
+        }
+        // Фаза 1: все временные файлы пишутся и синхронизируются
+        Map<File, File> staged = new LinkedHashMap<>();
+        for (Map.Entry<File, Pending> e : batch.entrySet()) {
+            try {
+                staged.put(e.getKey(), writeTemp(e.getKey(), e.getValue().data));
+            } catch (IOException ex) {
+                Log.e(TAG, "Write failed for " + e.getKey(), ex);
+                e.getValue().future.completeExceptionally(ex);
+            }
+        }
+        // Фаза 2: переименования, затем один fsync на каталог
+        Set<File> directories = new LinkedHashSet<>();
+        List<File> committed = new ArrayList<>();
+        for (Map.Entry<File, File> e : staged.entrySet()) {
+            File target = e.getKey();
+            File tmp = e.getValue();
+            if (tmp.renameTo(target)) {
+                directories.add(target.getParentFile());
+                committed.add(target);
+            } else {
+                tmp.delete();
+                batch.get(target).future.completeExceptionally(new IOException("Could not rename " + tmp + " to " + target));
+            }
+        }
+        for (File directory : directories) {
+            fsyncDirectory(directory);
+        }
+        for (File target : committed) {
+            batch.get(target).future.complete(null);
+        }
+        if (batch.size() > 1) {
+            Log.d(TAG, "Group commit: " + committed.size() + " files, " + directories.size() + " directory syncs");
+        }
+    }
+
+    /**
+     * Writes a file atomically and durably on the calling thread, without batching.
+     */
+    public static void writeAtomically(File target, byte[] data) throws IOException {
+        writeAtomically(target, out -> out.write(data));
+    }
+
+    /**
+     * Same as {@link #writeAtomically(File, byte[])}, but the content is streamed into the temp file.
+     */
+    public static void writeAtomically(File target, Content content) throws IOException {
+        File tmp = writeTemp(target, content);
+        if (!tmp.renameTo(target)) {
+            tmp.delete();
+            throw new IOException("Could not rename " + tmp + " to " + target);
+        }
+        fsyncDirectory(target.getParentFile());
+    }
+
+    private static File writeTemp(File target, byte[] data) throws IOException {
+        return writeTemp(target, out -> out.write(data));
+    }
+
+    /**
+     * Writes and syncs the content into a new temp file next to the target. The name is unique, so
+     * concurrent writers of the same target (or a leftover from a crash) never share a temp file.
+     * @return the temp file, to be renamed over the target.
+     */
+    private static File writeTemp(File target, Content content) throws IOException {
+        File parent = target.getAbsoluteFile().getParentFile();
+        if (!parent.exists()) {
+            parent.mkdirs();
+        }
+        File tmp = Files.createTempFile(parent.toPath(), target.getName() + ".", TEMP_SUFFIX).toFile();
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            content.writeTo(out);
+            out.getFD().sync();
+        } catch (IOException | RuntimeException e) {
+            tmp.delete();
+            throw e;
+        }
+        fileSyncs.incrementAndGet();
+        return tmp;
+    }
+
+    /**
+     * Makes a rename in the directory durable. FileChannel refuses to open directories on Android,
+     * so this goes through {@link Os} directly. Failures are logged only: the data itself is already synced.
+     */
+    static void fsyncDirectory(File directory) {
+        if (directory == null) return;
+        FileDescriptor fd = null;
+        try {
+            fd = Os.open(directory.getPath(), OsConstants.O_RDONLY, 0);
+            Os.fsync(fd);
+            directorySyncs.incrementAndGet();
+        } catch (ErrnoException e) {
+            Log.w(TAG, "Directory fsync failed for " + directory + ": " + e.getMessage());
+        } finally {
+            if (fd != null) {
+                try {
+                    Os.close(fd);
+                } catch (ErrnoException ignored) {
+                    // Нечего делать - дескриптор только для чтения
+                }
+            }
+        }
+    }
+
+    /** Counters for diagnostics. */
+    public static JsonObject getStats() {
+        JsonObject stats = new JsonObject();
+        stats.addProperty("requestedWrites", requestedWrites.get());
+        stats.addProperty("coalescedWrites", coalescedWrites.get());
+        stats.addProperty("fileSyncs", fileSyncs.get());
+        stats.addProperty("directorySyncs", directorySyncs.get());
+        return stats;
+    }
+}
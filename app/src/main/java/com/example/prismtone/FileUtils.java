@@ -1,49 +1,241 @@
 package com.example.prismtone;
 
-import java.io.BufferedReader;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 
 /**
- * Utility class for file operations
+ * Utility class for file operations.
+ *
+ * Reads go through a {@link FileChannel} into pooled direct buffers (or a memory map above
+ * {@link #MMAP_THRESHOLD}) and are decoded as strict UTF-8. JSON is streamed with Gson's
+ * {@link JsonReader}/{@link JsonWriter} instead of going through an intermediate String.
  */
 public class FileUtils {
+    static final int BUFFER_SIZE = 64 * 1024;
+    static final long MMAP_THRESHOLD = 1024 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 4;
+    private static final ArrayDeque<ByteBuffer> bufferPool = new ArrayDeque<>();
+    // Как JsonElement.toString(): null-поля сохраняются
+    private static final Gson gson = new GsonBuilder().serializeNulls().create();
+
     /**
-     * Read a file into a string
+     * Read a whole file as UTF-8. Malformed input is an error rather than silently replaced.
      */
     public static String readFile(File file) throws IOException {
-        StringBuilder content = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                content.append(line).append("\n");
-            }
+        return decodeFile(file).toString();
+    }
+
+    /**
+     * Parse a JSON file without materializing its text as a String.
+     * @throws IOException on read errors or invalid JSON.
+     */
+    public static JsonElement readJson(File file) throws IOException {
+        try (JsonReader reader = new JsonReader(new CharBufferReader(decodeFile(file)))) {
+            return JsonParser.parseReader(reader);
+        } catch (JsonParseException e) {
+            throw new IOException("Invalid JSON in " + file, e);
         }
-        return content.toString();
     }
-    
+
+    /**
+     * Open a buffered UTF-8 JSON reader over a stream (e.g. an asset) for streaming parsing.
+     */
+    public static JsonReader newJsonReader(InputStream in) {
+        return new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT)));
+    }
+
     /**
-     * Write a string to a file
+     * Write a string to a file atomically (temp file + fsync + rename), see {@link DurableFileWriter}
      */
     public static void writeFile(File file, String content) throws IOException {
-        try (FileWriter writer = new FileWriter(file)) {
-            writer.write(content);
-        }
+        DurableFileWriter.writeAtomically(file, content.getBytes(StandardCharsets.UTF_8));
     }
-    
+
+    /**
+     * Stream JSON straight into the file, atomically (temp file + fsync + rename).
+     */
+    public static void writeJson(File file, JsonElement json) throws IOException {
+        DurableFileWriter.writeAtomically(file, out -> writeJsonTo(out, json));
+    }
+
+    /**
+     * Serialize JSON to UTF-8 bytes without an intermediate String, for writes that need the bytes
+     * (e.g. the coalescing {@link DurableFileWriter#write(File, byte[])}).
+     */
+    public static byte[] toJsonBytes(JsonElement json) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE / 16);
+        writeJsonTo(out, json);
+        return out.toByteArray();
+    }
+
+    private static void writeJsonTo(OutputStream out, JsonElement json) throws IOException {
+        // Writer не закрываем - поток закрывает вызывающий (DurableFileWriter синхронизирует его перед закрытием)
+        Writer writer = new OutputStreamWriter(new BufferedOutputStream(out, BUFFER_SIZE / 8), StandardCharsets.UTF_8);
+        JsonWriter jsonWriter = new JsonWriter(writer);
+        gson.toJson(json, jsonWriter);
+        jsonWriter.flush();
+    }
+
     /**
      * Delete a file
      */
     public static boolean deleteFile(File file) {
         return file.exists() && file.delete();
     }
-    
+
     /**
      * Get all files in a directory with a specific extension
      */
     public static File[] getFilesWithExtension(File directory, String extension) {
         return directory.listFiles((dir, name) -> name.toLowerCase().endsWith(extension));
     }
+
+    /**
+     * Lists the files with a specific extension as [{name, size, modified}], newest first
+     */
+    public static JsonArray listFilesNewestFirst(File directory, String extension) {
+        JsonArray result = new JsonArray();
+        File[] files = getFilesWithExtension(directory, extension);
+        if (files == null) return result;
+        Arrays.sort(files, (a, b) -> Long.compare(b.lastModified(), a.lastModified()));
+        for (File file : files) {
+            JsonObject entry = new JsonObject();
+            entry.addProperty("name", file.getName());
+            entry.addProperty("size", file.length());
+            entry.addProperty("modified", file.lastModified());
+            result.add(entry);
+        }
+        return result;
+    }
+
+    /**
+     * Resolves a file name (or a path) that must point to a file directly inside a directory
+     * @throws IOException if it points anywhere else, e.g. through ".." or an absolute path
+     */
+    public static File resolveInside(File directory, String name) throws IOException {
+        File file = new File(name);
+        if (!file.isAbsolute()) {
+            file = new File(directory, name);
+        }
+        File canonical = file.getCanonicalFile();
+        if (!directory.getCanonicalFile().equals(canonical.getParentFile())) {
+            throw new IOException("Not a file in " + directory.getName() + ": " + name);
+        }
+        return canonical;
+    }
+
+    /**
+     * Decodes a whole file into one CharBuffer: small files chunk by chunk through a pooled direct
+     * buffer, large ones from a read-only memory map.
+     */
+    private static CharBuffer decodeFile(File file) throws IOException {
+        try (FileInputStream in = new FileInputStream(file); FileChannel channel = in.getChannel()) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large: " + file);
+            }
+            CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT);
+            // В UTF-8 символов не больше, чем байт
+            CharBuffer chars = CharBuffer.allocate((int) size);
+            if (size >= MMAP_THRESHOLD) {
+                ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                check(decoder.decode(mapped, chars, true));
+            } else {
+                ByteBuffer buffer = acquireBuffer();
+                try {
+                    while (channel.read(buffer) != -1) {
+                        buffer.flip();
+                        check(decoder.decode(buffer, chars, false));
+                        buffer.compact();
+                    }
+                    buffer.flip();
+                    check(decoder.decode(buffer, chars, true));
+                } finally {
+                    releaseBuffer(buffer);
+                }
+            }
+            check(decoder.flush(chars));
+            chars.flip();
+            return chars;
+        }
+    }
+
+    private static void check(CoderResult result) throws CharacterCodingException {
+        if (result.isError()) {
+            result.throwException();
+        }
+    }
+
+    private static ByteBuffer acquireBuffer() {
+        synchronized (bufferPool) {
+            ByteBuffer buffer = bufferPool.poll();
+            if (buffer != null) {
+                buffer.clear();
+                return buffer;
+            }
+        }
+        return ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    private static void releaseBuffer(ByteBuffer buffer) {
+        synchronized (bufferPool) {
+            if (bufferPool.size() < MAX_POOLED_BUFFERS) {
+                bufferPool.push(buffer);
+            }
+        }
+    }
+
+    /** Reader over an already decoded buffer, so JsonReader can parse it without a String copy. */
+    private static final class CharBufferReader extends Reader {
+        private final CharBuffer buffer;
+
+        CharBufferReader(CharBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read(char[] target, int offset, int length) {
+            if (!buffer.hasRemaining()) return -1;
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(target, offset, count);
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
 }
@@ -0,0 +1,356 @@
+package com.example.prismtone;
+
+import android.util.Log;
+
+import com.example.prismtone.model.YAxisControls;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compiles "fxchain" modules (catalog and user chains) into resolved chain plans: ordered effects with
+ * effect defaults merged with the chain overrides, numeric values clamped to the
+ * ranges from the "effect" modules, validated macro targets and y-axis controls.
+ *
+ * Plans are cached per chain id. A cached plan is reused only while the chain
+ * module is the same instance and no effect module changed since it was built.
+ */
+public class FxChainCompiler {
+    private static final String TAG = "FxChainCompiler";
+
+    private final ModuleManager moduleManager;
+    private final Gson gson = new GsonBuilder().serializeNulls().create();
+    private final Map<String, Plan> plans = new ConcurrentHashMap<>();
+    // Увеличивается при любом изменении модулей эффектов - все планы становятся устаревшими
+    private final AtomicInteger effectsGeneration = new AtomicInteger();
+
+    public FxChainCompiler(ModuleManager moduleManager) {
+        this.moduleManager = moduleManager;
+    }
+
+    /**
+     * Must be called whenever an "fxchain" or "effect" module is added or replaced.
+     */
+    public void onModuleChanged(ModuleInfo info) {
+        if ("effect".equals(info.getType())) {
+            effectsGeneration.incrementAndGet();
+        } else if ("fxchain".equals(info.getType())) {
+            plans.remove(info.getId());
+        }
+    }
+
+    /**
+     * Returns the resolved plan for a chain, compiling it on first use. User chains are looked up
+     * through {@link ModuleManager#getModule}; a saved or re-loaded chain is a new module instance,
+     * so its plan is rebuilt.
+     * @return the plan or null if the chain doesn't exist.
+     */
+    public Plan getPlan(String chainId) {
+        ModuleInfo chain = moduleManager.getModule("fxchain", chainId);
+        if (chain == null || chain.getCompactData() == null) {
+            plans.remove(chainId);
+            return null;
+        }
+        int generation = effectsGeneration.get();
+        Plan cached = plans.get(chainId);
+        if (cached != null && cached.source == chain.getCompactData() && cached.generation == generation) {
+            return cached;
+        }
+        Plan plan = compile(chain, generation);
+        plans.put(chainId, plan);
+        return plan;
+    }
+
+    private Plan compile(ModuleInfo chain, int generation) {
+        long start = System.nanoTime();
+        List<String> warnings = new ArrayList<>();
+        CompactJson.Obj data = chain.getCompactData().getObject("data");
+
+        JsonObject plan = new JsonObject();
+        plan.addProperty("id", chain.getId());
+        plan.addProperty("name", chain.getName());
+        plan.addProperty("version", chain.getVersion());
+
+        JsonArray effects = new JsonArray();
+        JsonArray activeOrder = new JsonArray();
+        Map<String, EffectDefinition> usedDefinitions = new LinkedHashMap<>();
+        CompactJson.Arr chainEffects = data != null ? data.getArray("effects") : null;
+        if (chainEffects == null) {
+            warnings.add("chain has no effects array");
+        } else {
+            for (int i = 0; i < chainEffects.size(); i++) {
+                CompactJson entry = chainEffects.get(i);
+                if (!entry.isObject()) {
+                    warnings.add("effects[" + i + "] is not an object");
+                    continue;
+                }
+                CompactJson.Obj setting = entry.getAsObject();
+                String type = setting.getString("type", null);
+                EffectDefinition definition = type != null ? loadDefinition(type) : null;
+                if (definition == null) {
+                    warnings.add("effects[" + i + "]: unknown effect type '" + type + "'");
+                    continue;
+                }
+                usedDefinitions.put(type, definition);
+                // Как в FxEngine.js: enabled по умолчанию true
+                boolean enabled = setting.getBoolean("enabled", true);
+                effects.add(resolveEffect(type, enabled, definition, setting.getObject("params"), warnings));
+                if (enabled) activeOrder.add(type);
+            }
+        }
+        plan.add("effects", effects);
+        plan.add("activeOrder", activeOrder);
+        plan.add("yAxisControls", resolveYAxisControls(data != null ? data.getObject("yAxisControls") : null, warnings));
+        plan.add("macros", resolveMacros(data, usedDefinitions, warnings));
+
+        JsonArray warningArray = new JsonArray();
+        for (String warning : warnings) {
+            warningArray.add(warning);
+        }
+        plan.add("warnings", warningArray);
+
+        if (!warnings.isEmpty()) {
+            Log.w(TAG, "Chain '" + chain.getId() + "' compiled with warnings: " + warnings);
+        }
+        Log.d(TAG, "Compiled chain '" + chain.getId() + "' in " + (System.nanoTime() - start) / 1000 + "us");
+        return new Plan(chain.getId(), chain.getCompactData(), generation, plan, gson.toJson(plan));
+    }
+
+    /**
+     * Merges the effect defaults with the chain overrides.
+     * Mirrors FxEngine.applyFxChainById(): every effect is reset to its defaults with wet = 0,
+     * then the chain params are applied, so an effect without an explicit wet stays dry.
+     */
+    private JsonObject resolveEffect(String type, boolean enabled, EffectDefinition definition,
+                                     CompactJson.Obj overrides, List<String> warnings) {
+        JsonObject params = new JsonObject();
+        JsonObject ranges = new JsonObject();
+        JsonArray clamped = new JsonArray();
+        JsonArray unknown = new JsonArray();
+
+        for (ParameterDefinition param : definition.parameters.values()) {
+            params.add(param.name, param.defaultValue != null ? param.defaultValue.toJsonElement() : JsonNull.INSTANCE);
+            if (param.hasRange) {
+                JsonObject range = new JsonObject();
+                range.addProperty("min", param.min);
+                range.addProperty("max", param.max);
+                if (!Double.isNaN(param.step)) range.addProperty("step", param.step);
+                ranges.add(param.name, range);
+            }
+        }
+        if (definition.parameters.containsKey("wet")) {
+            params.addProperty("wet", 0);
+        }
+
+        if (overrides != null) {
+            for (int i = 0; i < overrides.size(); i++) {
+                String name = overrides.keyAt(i);
+                CompactJson value = overrides.valueAt(i);
+                ParameterDefinition param = definition.parameters.get(name);
+                if (param == null) {
+                    // Параметр не описан в модуле эффекта (например roomSize у JCReverb) - передаем как есть
+                    unknown.add(name);
+                    params.add(name, value.toJsonElement());
+                    continue;
+                }
+                if (value.isNumber() && param.hasRange) {
+                    double v = value.getAsDouble();
+                    double c = Math.max(param.min, Math.min(param.max, v));
+                    if (c != v) {
+                        clamped.add(name);
+                        warnings.add(type + "." + name + "=" + v + " clamped to " + c);
+                        params.addProperty(name, c);
+                    } else {
+                        params.add(name, value.toJsonElement());
+                    }
+                } else {
+                    if (param.options != null && !containsOption(param.options, value)) {
+                        warnings.add(type + "." + name + "=" + value + " is not one of " + param.options);
+                    }
+                    params.add(name, value.toJsonElement());
+                }
+            }
+        }
+
+        JsonObject effect = new JsonObject();
+        effect.addProperty("type", type);
+        effect.addProperty("enabled", enabled);
+        effect.add("params", params);
+        effect.add("ranges", ranges);
+        effect.add("clamped", clamped);
+        effect.add("unknownParams", unknown);
+        return effect;
+    }
+
+    private static boolean containsOption(CompactJson.Arr options, CompactJson value) {
+        for (int i = 0; i < options.size(); i++) {
+            CompactJson option = options.get(i);
+            if (option.equals(value)) return true;
+            if (option.isNumber() && value.isNumber() && option.getAsDouble() == value.getAsDouble()) return true;
+        }
+        return false;
+    }
+
+    private JsonElement resolveYAxisControls(CompactJson.Obj yAxis, List<String> warnings) {
+        if (yAxis == null) {
+            // Цепочка не задает Y-ось - JS использует настройки пресета/глобальные
+            return JsonNull.INSTANCE;
+        }
+        try {
+            // Gson оставляет значения по умолчанию из YAxisControls для отсутствующих полей
+            YAxisControls controls = gson.fromJson(yAxis.toJson(), YAxisControls.class);
+            if (controls.getVolume() == null) controls.setVolume(new YAxisControls.VolumeControl());
+            if (controls.getEffects() == null) controls.setEffects(new YAxisControls.EffectsControl());
+            return gson.toJsonTree(controls);
+        } catch (RuntimeException e) {
+            warnings.add("invalid yAxisControls: " + e.getMessage());
+            return JsonNull.INSTANCE;
+        }
+    }
+
+    /**
+     * Resolves macro knobs to their targets, dropping targets that point to effects
+     * not present in the chain and clamping target ranges to the parameter ranges.
+     */
+    private JsonObject resolveMacros(CompactJson.Obj data, Map<String, EffectDefinition> definitions, List<String> warnings) {
+        JsonObject macros = new JsonObject();
+        if (data == null) return macros;
+        CompactJson.Obj defaults = data.getObject("macroDefaults");
+        CompactJson.Obj mappings = data.getObject("macroMappings");
+        if (mappings == null) return macros;
+
+        for (int i = 0; i < mappings.size(); i++) {
+            String macroName = mappings.keyAt(i);
+            CompactJson targetsJson = mappings.valueAt(i);
+            JsonArray targets = new JsonArray();
+            if (targetsJson.isArray()) {
+                CompactJson.Arr list = targetsJson.getAsArray();
+                for (int t = 0; t < list.size(); t++) {
+                    CompactJson.Obj mapping = list.get(t).isObject() ? list.get(t).getAsObject() : null;
+                    JsonObject target = mapping != null ? resolveMacroTarget(macroName, mapping, definitions, warnings) : null;
+                    if (target != null) targets.add(target);
+                }
+            }
+            JsonObject macro = new JsonObject();
+            macro.addProperty("default", defaults != null ? defaults.getDouble(macroName, 0.5) : 0.5);
+            macro.add("targets", targets);
+            macros.add(macroName, macro);
+        }
+        return macros;
+    }
+
+    private JsonObject resolveMacroTarget(String macroName, CompactJson.Obj mapping,
+                                          Map<String, EffectDefinition> definitions, List<String> warnings) {
+        String effect = mapping.getString("effect", null);
+        String param = mapping.getString("param", null);
+        CompactJson.Arr range = mapping.getArray("range");
+        if (effect == null || param == null || range == null || range.size() != 2
+                || !range.get(0).isNumber() || !range.get(1).isNumber()) {
+            warnings.add("macro " + macroName + ": invalid mapping " + mapping);
+            return null;
+        }
+        EffectDefinition definition = definitions.get(effect);
+        if (definition == null) {
+            warnings.add("macro " + macroName + ": effect '" + effect + "' is not in the chain");
+            return null;
+        }
+        double min = range.get(0).getAsDouble();
+        double max = range.get(1).getAsDouble();
+        ParameterDefinition paramDefinition = definition.parameters.get(param);
+        if (paramDefinition != null && paramDefinition.hasRange) {
+            min = Math.max(paramDefinition.min, Math.min(paramDefinition.max, min));
+            max = Math.max(paramDefinition.min, Math.min(paramDefinition.max, max));
+        }
+        JsonObject target = new JsonObject();
+        target.addProperty("effect", effect);
+        target.addProperty("param", param);
+        JsonArray resolvedRange = new JsonArray();
+        resolvedRange.add(min);
+        resolvedRange.add(max);
+        target.add("range", resolvedRange);
+        target.addProperty("curve", mapping.getString("curve", "linear"));
+        return target;
+    }
+
+    private EffectDefinition loadDefinition(String type) {
+        ModuleInfo effect = moduleManager.getModule("effect", type);
+        if (effect == null || effect.getCompactData() == null) return null;
+        CompactJson.Obj data = effect.getCompactData().getObject("data");
+        CompactJson.Arr parameters = data != null ? data.getArray("parameters") : null;
+        EffectDefinition definition = new EffectDefinition();
+        if (parameters == null) return definition;
+        for (int i = 0; i < parameters.size(); i++) {
+            if (!parameters.get(i).isObject()) continue;
+            CompactJson.Obj p = parameters.get(i).getAsObject();
+            String name = p.getString("name", null);
+            if (name == null) continue;
+            ParameterDefinition param = new ParameterDefinition();
+            param.name = name;
+            param.defaultValue = p.get("default");
+            param.hasRange = p.get("min") != null && p.get("min").isNumber() && p.get("max") != null && p.get("max").isNumber();
+            param.min = p.getDouble("min", Double.NEGATIVE_INFINITY);
+            param.max = p.getDouble("max", Double.POSITIVE_INFINITY);
+            param.step = p.getDouble("step", Double.NaN);
+            param.options = p.getArray("options");
+            definition.parameters.put(name, param);
+        }
+        return definition;
+    }
+
+    private static class EffectDefinition {
+        final Map<String, ParameterDefinition> parameters = new LinkedHashMap<>();
+    }
+
+    private static class ParameterDefinition {
+        String name;
+        CompactJson defaultValue;
+        boolean hasRange;
+        double min;
+        double max;
+        double step;
+        CompactJson.Arr options;
+    }
+
+    /**
+     * A resolved chain plan, ready to be sent to FxEngine.js as is.
+     */
+    public static final class Plan {
+        private final String chainId;
+        private final CompactJson.Obj source;
+        private final int generation;
+        private final JsonObject json;
+        private final String serialized;
+
+        Plan(String chainId, CompactJson.Obj source, int generation, JsonObject json, String serialized) {
+            this.chainId = chainId;
+            this.source = source;
+            this.generation = generation;
+            this.json = json;
+            this.serialized = serialized;
+        }
+
+        public String getChainId() {
+            return chainId;
+        }
+
+        /** Returns a copy; the cached plan itself is never handed out mutable. */
+        public JsonObject getJson() {
+            return json.deepCopy();
+        }
+
+        /** Pre-serialized JSON, so a bridge lookup doesn't serialize again. */
+        public String toJsonString() {
+            return serialized;
+        }
+    }
+}
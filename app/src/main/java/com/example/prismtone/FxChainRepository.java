@@ -6,33 +6,41 @@ import android.os.Looper;
 import android.util.Log;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 public class FxChainRepository {
     private static FxChainRepository instance;
     private final File chainDir;
     private final Gson gson;
-    private final ExecutorService executorService;
+    // Все пользовательские документы хранятся в одном журнале вместо файла на каждый документ
+    private final JournalStore journal;
+    private final UserContentCache cache;
+    // Метаданные для сортировки/поиска по библиотеке
+    private final LibraryIndex libraryIndex;
+    // Записи репозитория идут по очереди; обслуживание индекса - в фоновой полосе
+    private final TaskScheduler.SerialQueue queue;
     private final Handler mainThreadHandler;
     private static final String TAG = "FxChainRepository";
+    private static final String MODULE_TYPE = "fxchain";
 
     private FxChainRepository(Context context) {
         this.chainDir = new File(context.getExternalFilesDir(null), "modules/fxchain");
-        this.gson = new GsonBuilder().setPrettyPrinting().create();
-        this.executorService = Executors.newSingleThreadExecutor();
+        this.gson = new Gson();
+        this.queue = TaskScheduler.getInstance().serial(MODULE_TYPE + "-repository", TaskScheduler.Lane.USER_INITIATED);
         this.mainThreadHandler = new Handler(Looper.getMainLooper());
 
         if (!chainDir.exists()) {
             chainDir.mkdirs();
         }
+        this.journal = openJournal(chainDir);
+        this.libraryIndex = LibraryIndex.getInstance(context);
+        this.cache = new UserContentCache(journal, MODULE_TYPE, libraryIndex, queue, null);
+        cache.warmUp();
     }
 
     public static synchronized FxChainRepository getInstance(Context context) {
@@ -46,20 +54,28 @@ public class FxChainRepository {
      * Returns a list of all user-created FX chains
      */
     public List<JsonObject> getUserFxChains() {
-        List<JsonObject> chains = new ArrayList<>();
-        File[] files = chainDir.listFiles((dir, name) -> name.endsWith(".json"));
-        if (files != null) {
-            for (File file : files) {
-                try {
-                    String content = FileUtils.readFile(file);
-                    JsonObject chain = gson.fromJson(content, JsonObject.class);
-                    chains.add(chain);
-                } catch (IOException e) {
-                    Log.e(TAG, "Error reading chain file: " + file.getName(), e);
+        List<JsonObject> chains = cache.loadCached();
+        return chains != null ? chains : Collections.emptyList();
+    }
+
+    /**
+     * Finds a user FX chain as a {@link ModuleInfo}; the instance stays the same until the library changes,
+     * so {@link FxChainCompiler} can keep its compiled plan.
+     * @return the chain or null if there is no such user chain.
+     */
+    public ModuleInfo getUserChainModule(String chainId) {
+        if (chainId == null || !chainId.startsWith(JournalStore.USER_ID_PREFIX) || cache.loadCached() == null) {
+            return null;
+        }
+        synchronized (cache) {
+            List<ModuleInfo> infos = cache.getModuleInfos();
+            if (infos != null) {
+                for (ModuleInfo info : infos) {
+                    if (chainId.equals(info.getId())) return info;
                 }
             }
         }
-        return chains;
+        return null;
     }
 
     /**
@@ -70,16 +86,19 @@ public class FxChainRepository {
      * @param bridge The bridge instance to call JS functions.
      */
     public void saveChain(JsonObject chain, String successCallbackName, String errorCallbackName, PrismtoneBridge bridge) {
-        executorService.execute(() -> {
+        queue.execute(() -> {
             try {
-                String id = "user_" + System.currentTimeMillis();
+                if (journal == null) {
+                    throw new IOException("Storage is not available");
+                }
+                String id = journal.newId();
                 chain.addProperty("id", id);
-
-                File chainFile = new File(chainDir, id + ".json");
-                String jsonOutput = gson.toJson(chain);
-                FileUtils.writeFile(chainFile, jsonOutput);
-
-                bridge.callJsFunctionOnMainThread(successCallbackName, id);
+                synchronized (cache) {
+                    journal.putBuffered(id, gson.toJson(chain));
+                    cache.put(id, chain);
+                }
+                libraryIndex.upsert(MODULE_TYPE, id, chain);
+                RepositoryUtils.commitAndNotify(queue, journal, id, successCallbackName, errorCallbackName, bridge);
             } catch (IOException e) {
                 Log.e(TAG, "Error saving chain file", e);
                 String errorMessage = "Error: " + e.getMessage();
@@ -97,10 +116,51 @@ public class FxChainRepository {
         if (!chainId.startsWith("user_")) {
             return false;
         }
-        // Ensure file operations are not on main thread if they could be slow,
-        // however, delete is generally fast. For now, keeping it synchronous.
-        // If performance issues arise, consider moving to executorService as well.
-        File chainFile = new File(chainDir, chainId + ".json");
-        return chainFile.exists() && chainFile.delete();
+        if (journal == null) {
+            return false;
+        }
+        try {
+            // Удаление - одна запись-надгробие; место освобождает фоновая компактация
+            boolean deleted;
+            synchronized (cache) {
+                deleted = journal.delete(chainId);
+                if (deleted) cache.remove(chainId);
+            }
+            if (deleted) {
+                queue.execute(TaskScheduler.Lane.BACKGROUND, () -> libraryIndex.remove(MODULE_TYPE, chainId));
+            }
+            if (deleted && journal.needsCompaction()) {
+                queue.execute(TaskScheduler.Lane.BACKGROUND, this::compactJournal);
+            }
+            return deleted;
+        } catch (IOException e) {
+            Log.e(TAG, "Error deleting FX chain " + chainId, e);
+            return false;
+        }
+    }
+
+    /**
+     * Stores FX chains from a library bundle, see {@link RepositoryUtils#importBatch}.
+     * @return the number of documents stored.
+     */
+    public int importBatch(List<JsonObject> documents) throws IOException {
+        return RepositoryUtils.importBatch(queue, journal, cache, libraryIndex, MODULE_TYPE, documents,
+                (id, sourceId, document) -> gson.toJson(document));
+    }
+
+    private void compactJournal() {
+        synchronized (cache) {
+            journal.compactIfNeeded();
+            cache.touch();
+        }
+    }
+
+    private static JournalStore openJournal(File directory) {
+        try {
+            return JournalStore.openInDirectory(directory);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not open journal in " + directory, e);
+            return null;
+        }
     }
 }
@@ -0,0 +1,273 @@
+package com.example.prismtone;
+
+/**
+ * Recognizes discrete motion gestures from raw sensor samples, so the page gets one event per
+ * gesture instead of inferring gestures from the continuous tilt stream.
+ * <ul>
+ *   <li>shake: {@code shakeCount} (at most {@value #MAX_SHAKE_COUNT}) acceleration peaks above
+ *       {@code shakeThreshold} (m/s², gravity removed) within {@code shakeWindowMs}; the magnitude
+ *       is the strongest of those peaks.</li>
+ *   <li>flick: tilt angular speed above {@code flickVelocity} (°/s) on one axis.</li>
+ *   <li>tiltHold: tilt beyond {@code tiltHoldAngle} (°) on one axis held for {@code tiltHoldMs};
+ *       re-armed only after returning below the angle minus a hysteresis margin.</li>
+ * </ul>
+ * Every gesture is followed by {@code cooldownMs} in which no gesture is reported.
+ *
+ * The recognizer has no Android dependencies and takes timestamps as arguments, so recorded
+ * sensor traces can be replayed through it deterministically. Not thread-safe: feed it from
+ * the sensor thread only.
+ */
+public class GestureRecognizer {
+    public static final String SHAKE = "shake";
+    public static final String FLICK = "flick";
+    public static final String TILT_HOLD = "tiltHold";
+
+    // Направления: ось и знак в координатах, которые видит JS (после инверсии/смены осей)
+    public static final String PITCH_POSITIVE = "pitch+";
+    public static final String PITCH_NEGATIVE = "pitch-";
+    public static final String ROLL_POSITIVE = "roll+";
+    public static final String ROLL_NEGATIVE = "roll-";
+
+    private static final float GRAVITY_FILTER_ALPHA = 0.8f;
+    private static final float VELOCITY_FILTER_ALPHA = 0.5f;
+    private static final float TILT_HOLD_HYSTERESIS = 5f;
+    private static final long NANOS_PER_MS = 1_000_000L;
+    public static final int MAX_SHAKE_COUNT = 16;
+
+    public interface Listener {
+        /**
+         * @param direction axis and sign ("pitch+", "roll-", ...); null for shake.
+         * @param magnitude peak acceleration (m/s²) for shake, angular speed (°/s) for flick,
+         *                  angle (°) for tiltHold.
+         */
+        void onGesture(String type, String direction, float magnitude, long timestampNs);
+    }
+
+    /** Thresholds, deserialized from the "gestures" object of the sensor settings. */
+    public static class Config {
+        boolean enabled = false;
+        float shakeThreshold = 12f;
+        int shakeCount = 3;
+        int shakeWindowMs = 800;
+        float flickVelocity = 250f;
+        float tiltHoldAngle = 35f;
+        int tiltHoldMs = 600;
+        int cooldownMs = 700;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        /** @return null if valid, otherwise what's wrong. */
+        public String validate() {
+            if (!(shakeThreshold > 0) || shakeCount < 1 || shakeCount > MAX_SHAKE_COUNT || shakeWindowMs <= 0) {
+                return "invalid shake parameters";
+            }
+            if (!(flickVelocity > 0)) return "flickVelocity must be > 0";
+            if (!(tiltHoldAngle > TILT_HOLD_HYSTERESIS) || tiltHoldAngle >= 90 || tiltHoldMs <= 0) {
+                return "invalid tilt hold parameters";
+            }
+            if (cooldownMs < 0) return "cooldownMs must be >= 0";
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return "enabled=" + enabled + ", shake=" + shakeThreshold + "m/s2 x" + shakeCount + " in " + shakeWindowMs
+                    + "ms, flick=" + flickVelocity + "deg/s, tiltHold=" + tiltHoldAngle + "deg for " + tiltHoldMs
+                    + "ms, cooldown=" + cooldownMs + "ms";
+        }
+    }
+
+    private final Listener listener;
+    private Config config = new Config();
+    private long cooldownUntilNs = Long.MIN_VALUE;
+
+    // Встряхивание
+    private final float[] gravity = new float[3];
+    private boolean gravityInitialized = false;
+    // Кольцевой буфер пиков в окне (время и наибольшее ускорение); размер - shakeCount
+    private long[] peakTimes = new long[config.shakeCount];
+    private float[] peakMagnitudes = new float[config.shakeCount];
+    private int peakCount = 0;
+    private int peakHead = 0;
+    private boolean aboveThreshold = false;
+
+    // Взмах и удержание наклона
+    private boolean tiltInitialized = false;
+    private float lastPitch;
+    private float lastRoll;
+    private long lastTiltNs;
+    private float pitchVelocity = 0f;
+    private float rollVelocity = 0f;
+    private boolean flickActive = false;
+    private String holdDirection = null;
+    private long holdStartNs;
+    private boolean holdReported = false;
+
+    public GestureRecognizer(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void setConfig(Config config) {
+        this.config = config;
+        int capacity = Math.max(1, Math.min(config.shakeCount, MAX_SHAKE_COUNT));
+        this.peakTimes = new long[capacity];
+        this.peakMagnitudes = new float[capacity];
+        reset();
+    }
+
+    public Config getConfig() {
+        return config;
+    }
+
+    /** Forgets all partial gestures, e.g. after the sensors were paused. */
+    public void reset() {
+        gravityInitialized = false;
+        peakCount = 0;
+        peakHead = 0;
+        aboveThreshold = false;
+        tiltInitialized = false;
+        pitchVelocity = 0f;
+        rollVelocity = 0f;
+        flickActive = false;
+        holdDirection = null;
+        holdReported = false;
+        cooldownUntilNs = Long.MIN_VALUE;
+    }
+
+    /** Feeds one accelerometer sample (m/s², gravity included, as from TYPE_ACCELEROMETER). */
+    public void onAcceleration(float x, float y, float z, long timestampNs) {
+        if (!gravityInitialized) {
+            gravity[0] = x;
+            gravity[1] = y;
+            gravity[2] = z;
+            gravityInitialized = true;
+            return;
+        }
+        // Низкочастотная оценка гравитации; остаток - линейное ускорение
+        gravity[0] = GRAVITY_FILTER_ALPHA * gravity[0] + (1 - GRAVITY_FILTER_ALPHA) * x;
+        gravity[1] = GRAVITY_FILTER_ALPHA * gravity[1] + (1 - GRAVITY_FILTER_ALPHA) * y;
+        gravity[2] = GRAVITY_FILTER_ALPHA * gravity[2] + (1 - GRAVITY_FILTER_ALPHA) * z;
+        float lx = x - gravity[0];
+        float ly = y - gravity[1];
+        float lz = z - gravity[2];
+        float magnitude = (float) Math.sqrt(lx * lx + ly * ly + lz * lz);
+
+        // Пик считается один раз при пересечении порога снизу вверх
+        if (magnitude >= config.shakeThreshold) {
+            if (!aboveThreshold) {
+                aboveThreshold = true;
+                recordPeak(magnitude, timestampNs);
+            } else if (peakCount > 0) {
+                int last = (peakHead + peakTimes.length - 1) % peakTimes.length;
+                peakMagnitudes[last] = Math.max(peakMagnitudes[last], magnitude);
+            }
+        } else if (magnitude < config.shakeThreshold * 0.5f) {
+            aboveThreshold = false;
+        }
+    }
+
+    private void recordPeak(float magnitude, long timestampNs) {
+        int capacity = peakTimes.length;
+        // Пики старше окна выбывают вместе со своей амплитудой
+        long windowStart = timestampNs - config.shakeWindowMs * NANOS_PER_MS;
+        while (peakCount > 0 && peakTimes[(peakHead + capacity - peakCount) % capacity] < windowStart) {
+            peakCount--;
+        }
+        peakTimes[peakHead] = timestampNs;
+        peakMagnitudes[peakHead] = magnitude;
+        peakHead = (peakHead + 1) % capacity;
+        if (peakCount < capacity) peakCount++;
+        if (peakCount < capacity) return;
+        float peak = 0f;
+        for (float value : peakMagnitudes) {
+            peak = Math.max(peak, value);
+        }
+        peakCount = 0;
+        emit(SHAKE, null, peak, timestampNs);
+    }
+
+    /** Feeds one tilt sample in degrees, in the axes JS sees. */
+    public void onTilt(float pitch, float roll, long timestampNs) {
+        if (!tiltInitialized) {
+            lastPitch = pitch;
+            lastRoll = roll;
+            lastTiltNs = timestampNs;
+            tiltInitialized = true;
+            return;
+        }
+        float dt = (timestampNs - lastTiltNs) * 1e-9f;
+        lastTiltNs = timestampNs;
+        if (dt > 0 && dt < 0.5f) {
+            pitchVelocity += VELOCITY_FILTER_ALPHA * ((pitch - lastPitch) / dt - pitchVelocity);
+            rollVelocity += VELOCITY_FILTER_ALPHA * ((roll - lastRoll) / dt - rollVelocity);
+        }
+        lastPitch = pitch;
+        lastRoll = roll;
+
+        detectFlick(timestampNs);
+        detectTiltHold(pitch, roll, timestampNs);
+    }
+
+    private void detectFlick(long timestampNs) {
+        float absPitch = Math.abs(pitchVelocity);
+        float absRoll = Math.abs(rollVelocity);
+        float speed = Math.max(absPitch, absRoll);
+        if (speed < config.flickVelocity * 0.5f) {
+            flickActive = false; // Движение затихло - можно ловить следующий взмах
+            return;
+        }
+        if (flickActive || speed < config.flickVelocity) {
+            return;
+        }
+        flickActive = true;
+        String direction = absRoll >= absPitch
+                ? (rollVelocity > 0 ? ROLL_POSITIVE : ROLL_NEGATIVE)
+                : (pitchVelocity > 0 ? PITCH_POSITIVE : PITCH_NEGATIVE);
+        emit(FLICK, direction, speed, timestampNs);
+    }
+
+    private void detectTiltHold(float pitch, float roll, long timestampNs) {
+        float absPitch = Math.abs(pitch);
+        float absRoll = Math.abs(roll);
+        String direction = null;
+        float angle = 0f;
+        if (absRoll >= config.tiltHoldAngle && absRoll >= absPitch) {
+            direction = roll > 0 ? ROLL_POSITIVE : ROLL_NEGATIVE;
+            angle = absRoll;
+        } else if (absPitch >= config.tiltHoldAngle) {
+            direction = pitch > 0 ? PITCH_POSITIVE : PITCH_NEGATIVE;
+            angle = absPitch;
+        }
+
+        if (holdDirection != null && direction == null) {
+            // Сброс только после возврата ниже порога с запасом, чтобы не дребезжать на границе
+            float current = holdDirection.startsWith("roll") ? absRoll : absPitch;
+            if (current > config.tiltHoldAngle - TILT_HOLD_HYSTERESIS) return;
+            holdDirection = null;
+            holdReported = false;
+            return;
+        }
+        if (direction == null) return;
+        if (!direction.equals(holdDirection)) {
+            holdDirection = direction;
+            holdStartNs = timestampNs;
+            holdReported = false;
+            return;
+        }
+        if (!holdReported && timestampNs - holdStartNs >= config.tiltHoldMs * NANOS_PER_MS) {
+            // Помечаем удержание как обработанное, даже если событие съел cooldown
+            holdReported = true;
+            emit(TILT_HOLD, direction, angle, timestampNs);
+        }
+    }
+
+    private void emit(String type, String direction, float magnitude, long timestampNs) {
+        if (timestampNs < cooldownUntilNs) {
+            return;
+        }
+        cooldownUntilNs = timestampNs + config.cooldownMs * NANOS_PER_MS;
+        listener.onGesture(type, direction, magnitude, timestampNs);
+    }
+}
@@ -0,0 +1,533 @@
+package com.example.prismtone;
+
+import android.util.Log;
+
+import com.google.gson.JsonElement;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of user documents (presets, chains, progressions), one file per repository.
+ *
+ * File layout: the 4-byte magic "PTJ1", then records of
+ * <pre>
+ *   int    length      // bytes after this field, crc included
+ *   byte   op          // PUT or DELETE (tombstone)
+ *   short  idLength
+ *   byte[] id          // UTF-8
+ *   byte[] payload     // UTF-8 JSON, empty for DELETE
+ *   int    crc32       // over op..payload
+ * </pre>
+ * The last record for an id wins. On open the file is scanned once to build an in-memory
+ * offset index. A corrupt record with intact framing in the middle of the file is skipped by its
+ * length field, so the records after it survive. Where the scan can't go on (a torn append, a
+ * corrupt length field) the journal is cut; unless everything cut off is zero (preallocated,
+ * never written), a copy of the file is kept next to it first, since a damaged length early in
+ * the file looks just like a torn tail. Overwritten, deleted and skipped records are garbage until
+ * {@link #compact()} rewrites the live records into a new file.
+ */
+public final class JournalStore {
+    private static final String TAG = "JournalStore";
+    private static final byte[] MAGIC = {'P', 'T', 'J', '1'};
+    private static final byte OP_PUT = 1;
+    private static final byte OP_DELETE = 2;
+    // length(4) + op(1) + idLength(2) + crc(4)
+    private static final int RECORD_OVERHEAD = 11;
+    private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+    private static final long COMPACT_MIN_GARBAGE = 64 * 1024;
+    public static final String JOURNAL_FILE_NAME = "library.journal";
+    public static final String USER_ID_PREFIX = "user_";
+
+    private final File file;
+    private final String idPrefix;
+    private final Map<String, Entry> index = new LinkedHashMap<>();
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private long liveBytes;
+    // Конец последней целой записи - сюда пишется следующая
+    private long end;
+    private boolean dirty;
+    private long commits;
+    private long lastIssuedId;
+    // Растет при каждом изменении содержимого и каждом пересканировании файла
+    private long generation;
+    // Идентичность открытого файла (устройство/inode), чтобы заметить подмену файла снаружи
+    private Object fileKey;
+
+    private static final class Entry {
+        final long offset;   // начало записи (поле length)
+        final int size;      // полный размер записи
+        final int idLength;
+
+        Entry(long offset, int size, int idLength) {
+            this.offset = offset;
+            this.size = size;
+            this.idLength = idLength;
+        }
+
+        long payloadOffset() {
+            return offset + 7 + idLength;
+        }
+
+        int payloadLength() {
+            return size - RECORD_OVERHEAD - idLength;
+        }
+    }
+
+    /**
+     * Opens (or creates) the journal and builds the index.
+     * @param idPrefix prefix of ids issued by {@link #newId()}, e.g. "user_".
+     */
+    public JournalStore(File file, String idPrefix) throws IOException {
+        this.file = file;
+        this.idPrefix = idPrefix;
+        open();
+    }
+
+    /**
+     * Opens the "library.journal" of a user content directory, migrating any legacy
+     * per-document "*.json" files found there.
+     */
+    public static JournalStore openInDirectory(File directory) throws IOException {
+        JournalStore store = new JournalStore(new File(directory, JOURNAL_FILE_NAME), USER_ID_PREFIX);
+        store.importLegacyFiles(directory);
+        return store;
+    }
+
+    private void open() throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        if (channel.size() == 0) {
+            channel.write(ByteBuffer.wrap(MAGIC), 0);
+            channel.force(true);
+        } else if (!hasMagic()) {
+            // Чужой или поврежденный файл не удаляем - откладываем в сторону и начинаем заново
+            channel.close();
+            raf.close();
+            File aside = new File(file.getPath() + ".corrupt-" + System.currentTimeMillis());
+            Log.e(TAG, "Not a journal file, moving it to " + aside.getName());
+            if (!file.renameTo(aside)) {
+                throw new IOException("Could not move aside " + file);
+            }
+            open();
+            return;
+        }
+        fileKey = fileKeyOf(file);
+        scan();
+    }
+
+    private static Object fileKeyOf(File file) {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Changes whenever the set of live documents may have changed: on every put, delete and (re)scan.
+     * Also notices a journal replaced or changed by someone else (a restore, a copy over USB) and
+     * rescans it first, so derived caches compare one number instead of trusting file timestamps.
+     */
+    public synchronized long getGeneration() throws IOException {
+        Object currentKey = fileKeyOf(file);
+        boolean replaced = currentKey == null || !currentKey.equals(fileKey);
+        if (replaced || channel.size() != end) {
+            Log.w(TAG, "Journal " + file.getName() + " changed outside this store, rescanning");
+            channel.close();
+            raf.close();
+            dirty = false;
+            open();
+        }
+        return generation;
+    }
+
+    private boolean hasMagic() throws IOException {
+        ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+        readFully(magic, 0);
+        return Arrays.equals(magic.array(), MAGIC);
+    }
+
+    private void scan() throws IOException {
+        generation++;
+        index.clear();
+        liveBytes = 0;
+        long size = channel.size();
+        // Один последовательный проход по файлу
+        ByteBuffer data = ByteBuffer.allocate((int) Math.min(size - MAGIC.length, Integer.MAX_VALUE - 8))
+                .order(ByteOrder.BIG_ENDIAN);
+        readFully(data, MAGIC.length);
+        data.flip();
+        CRC32 crc = new CRC32();
+        long position = MAGIC.length;
+        int skipped = 0;
+        while (data.remaining() >= 4) {
+            int start = data.position();
+            int length = data.getInt();
+            boolean framed = length >= RECORD_OVERHEAD - 4 && length <= MAX_RECORD_SIZE && length <= data.remaining();
+            if (!framed || !isValidRecord(data.array(), start, length, crc)) {
+                if (framed && start + 4 + length != data.limit()) {
+                    // Битая запись в середине: длина цела, поэтому перешагиваем ее и читаем дальше
+                    Log.e(TAG, "Skipping corrupt record at " + position + " in " + file.getName());
+                    data.position(start + 4 + length);
+                    position += length + 4;
+                    skipped++;
+                    continue;
+                }
+                // Дальше читать нельзя - обрезаем здесь (копия, если отрезается что-то кроме нулей, - ниже)
+                break;
+            }
+            int idLength = data.getShort(start + 5) & 0xFFFF;
+            byte op = data.get(start + 4);
+            String id = new String(data.array(), start + 7, idLength, StandardCharsets.UTF_8);
+            int recordSize = length + 4;
+            Entry previous = index.remove(id);
+            if (previous != null) liveBytes -= previous.size;
+            if (op == OP_PUT) {
+                index.put(id, new Entry(position, recordSize, idLength));
+                liveBytes += recordSize;
+            }
+            noteId(id);
+            data.position(start + recordSize);
+            position += recordSize;
+        }
+        if (position < size) {
+            // Испорченная длина в начале файла выглядит как оборванный хвост - без копии
+            // обрезка молча удалила бы все записи после нее
+            if (!isZeroFrom(data, (int) (position - MAGIC.length))) {
+                preserveCopy("unreadable from " + position + ", " + (size - position) + " bytes cut");
+            }
+            Log.w(TAG, "Truncating torn journal tail of " + file.getName() + ": " + (size - position) + " bytes");
+            channel.truncate(position);
+            channel.force(true);
+        }
+        if (skipped > 0) {
+            Log.w(TAG, "Skipped " + skipped + " corrupt records in " + file.getName() + "; the next compaction drops them");
+        }
+        channel.position(position);
+        end = position;
+    }
+
+    /** Checks op, id length and crc of a record whose length field is plausible. */
+    private static boolean isValidRecord(byte[] bytes, int start, int length, CRC32 crc) {
+        byte op = bytes[start + 4];
+        int idLength = ((bytes[start + 5] & 0xFF) << 8) | (bytes[start + 6] & 0xFF);
+        int bodyLength = length - 4;
+        if (idLength > bodyLength - 3 || (op != OP_PUT && op != OP_DELETE)) {
+            return false;
+        }
+        crc.reset();
+        crc.update(bytes, start + 4, bodyLength);
+        int storedCrc = ByteBuffer.wrap(bytes, start + 4 + bodyLength, 4).order(ByteOrder.BIG_ENDIAN).getInt();
+        return (int) crc.getValue() == storedCrc;
+    }
+
+    /** True if everything from the offset to the end of the data is zero (preallocated, never written). */
+    private static boolean isZeroFrom(ByteBuffer data, int offset) {
+        for (int i = offset; i < data.limit(); i++) {
+            if (data.get(i) != 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Keeps a copy of a damaged journal before it is cut. Fails rather than let the cut lose data.
+     */
+    private void preserveCopy(String reason) throws IOException {
+        File copy = new File(file.getPath() + ".corrupt-" + System.currentTimeMillis());
+        Log.e(TAG, "Journal " + file.getName() + " is damaged (" + reason + "), keeping a copy as " + copy.getName());
+        Files.copy(file.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void noteId(String id) {
+        if (!id.startsWith(idPrefix)) return;
+        try {
+            lastIssuedId = Math.max(lastIssuedId, Long.parseLong(id.substring(idPrefix.length())));
+        } catch (NumberFormatException ignored) {
+            // Произвольные id (например, из импорта) не участвуют в генерации
+        }
+    }
+
+    /**
+     * Issues a new unique id of the form prefix + millis. Ids are strictly increasing, so two saves
+     * in the same millisecond never collide, and they stay compatible with the old "user_<millis>" names.
+     */
+    public synchronized String newId() {
+        long candidate = Math.max(System.currentTimeMillis(), lastIssuedId + 1);
+        while (index.containsKey(idPrefix + candidate)) {
+            candidate++;
+        }
+        lastIssuedId = candidate;
+        return idPrefix + candidate;
+    }
+
+    public synchronized boolean contains(String id) {
+        return index.containsKey(id);
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    public synchronized List<String> ids() {
+        return new ArrayList<>(index.keySet());
+    }
+
+    /**
+     * Appends a document. One append and one fsync per call.
+     */
+    public synchronized void put(String id, String payload) throws IOException {
+        putRecord(id, payload, true);
+    }
+
+    /**
+     * Appends a document without syncing it. The record becomes durable on the next
+     * {@link #commit()}, so a burst of saves shares one fsync (group commit).
+     */
+    public synchronized void putBuffered(String id, String payload) throws IOException {
+        putRecord(id, payload, false);
+    }
+
+    /**
+     * Syncs all buffered appends. A no-op when nothing was appended since the last sync.
+     */
+    public synchronized void commit() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        channel.force(false);
+        dirty = false;
+        commits++;
+    }
+
+    /** Number of fsyncs issued by {@link #commit()}, for diagnostics. */
+    public synchronized long getCommitCount() {
+        return commits;
+    }
+
+    private void putRecord(String id, String payload, boolean sync) throws IOException {
+        long offset = append(OP_PUT, id, payload.getBytes(StandardCharsets.UTF_8), sync);
+        int size = (int) (end - offset);
+        Entry previous = index.remove(id);
+        if (previous != null) liveBytes -= previous.size;
+        index.put(id, new Entry(offset, size, id.getBytes(StandardCharsets.UTF_8).length));
+        liveBytes += size;
+        noteId(id);
+        generation++;
+    }
+
+    /**
+     * Appends a tombstone for the id.
+     * @return false if the id wasn't in the journal.
+     */
+    public synchronized boolean delete(String id) throws IOException {
+        Entry previous = index.get(id);
+        if (previous == null) {
+            return false;
+        }
+        append(OP_DELETE, id, new byte[0]);
+        index.remove(id);
+        liveBytes -= previous.size;
+        generation++;
+        return true;
+    }
+
+    /**
+     * Reads one document with a single positional read.
+     * @return the payload or null if the id doesn't exist.
+     */
+    public synchronized String get(String id) throws IOException {
+        Entry entry = index.get(id);
+        if (entry == null) {
+            return null;
+        }
+        ByteBuffer payload = ByteBuffer.allocate(entry.payloadLength());
+        readFully(payload, entry.payloadOffset());
+        return new String(payload.array(), 0, payload.limit(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads all live documents, in the order they were last written, with one sequential read of the file.
+     */
+    public synchronized Map<String, String> readAll() throws IOException {
+        Map<String, String> result = new LinkedHashMap<>();
+        if (index.isEmpty()) {
+            return result;
+        }
+        ByteBuffer data = ByteBuffer.allocate((int) (end - MAGIC.length));
+        readFully(data, MAGIC.length);
+        byte[] bytes = data.array();
+        for (Map.Entry<String, Entry> e : index.entrySet()) {
+            Entry entry = e.getValue();
+            int from = (int) (entry.payloadOffset() - MAGIC.length);
+            result.put(e.getKey(), new String(bytes, from, entry.payloadLength(), StandardCharsets.UTF_8));
+        }
+        return result;
+    }
+
+    /**
+     * True when at least half of the file is overwritten or deleted records.
+     */
+    public synchronized boolean needsCompaction() {
+        long garbage = end - MAGIC.length - liveBytes;
+        return garbage >= COMPACT_MIN_GARBAGE && garbage > liveBytes;
+    }
+
+    /**
+     * Rewrites the live records into a new file and atomically replaces the journal with it.
+     */
+    public synchronized void compact() throws IOException {
+        long before = end;
+        Map<String, String> live = readAll();
+        File tmp = new File(file.getPath() + ".compact");
+        try (RandomAccessFile out = new RandomAccessFile(tmp, "rw")) {
+            out.setLength(0);
+            FileChannel outChannel = out.getChannel();
+            outChannel.write(ByteBuffer.wrap(MAGIC));
+            for (Map.Entry<String, String> e : live.entrySet()) {
+                ByteBuffer record = encode(OP_PUT, e.getKey(), e.getValue().getBytes(StandardCharsets.UTF_8));
+                while (record.hasRemaining()) outChannel.write(record);
+            }
+            outChannel.force(true);
+        }
+        channel.close();
+        raf.close();
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            open();
+            throw new IOException("Could not replace " + file + " with the compacted journal");
+        }
+        DurableFileWriter.fsyncDirectory(file.getParentFile());
+        open();
+        Log.i(TAG, "Compacted " + file.getName() + ": " + before + " -> " + end + " bytes, " + index.size() + " records");
+    }
+
+    /** Compacts if needed, logging instead of throwing. Meant to run on a background executor. */
+    public void compactIfNeeded() {
+        try {
+            if (needsCompaction()) compact();
+        } catch (IOException e) {
+            Log.e(TAG, "Compaction of " + file.getName() + " failed", e);
+        }
+    }
+
+    /**
+     * One-time migration of the legacy one-file-per-document layout: every "*.json" file in the
+     * directory is appended to the journal (as compact JSON, id = file name) and then deleted.
+     * @return the number of migrated files.
+     */
+    public synchronized int importLegacyFiles(File directory) {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".json"));
+        if (files == null || files.length == 0) {
+            return 0;
+        }
+        List<File> imported = new ArrayList<>();
+        for (File legacy : files) {
+            String id = legacy.getName().substring(0, legacy.getName().length() - ".json".length());
+            try {
+                JsonElement json = FileUtils.readJson(legacy);
+                if (!index.containsKey(id)) {
+                    // fsync и индекс - один раз после всего пакета
+                    append(OP_PUT, id, FileUtils.toJsonBytes(json), false);
+                }
+                imported.add(legacy);
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Skipping unreadable legacy file " + legacy.getName(), e);
+            }
+        }
+        try {
+            channel.force(true);
+            dirty = false;
+            scan();
+        } catch (IOException e) {
+            Log.e(TAG, "Legacy import into " + file.getName() + " failed", e);
+            return 0;
+        }
+        for (File legacy : imported) {
+            if (!legacy.delete()) Log.w(TAG, "Could not delete migrated file " + legacy.getName());
+        }
+        Log.i(TAG, "Migrated " + imported.size() + " legacy files into " + file.getName());
+        return imported.size();
+    }
+
+    public synchronized void close() {
+        try {
+            channel.close();
+            raf.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Error closing " + file.getName(), e);
+        }
+    }
+
+    private long append(byte op, String id, byte[] payload) throws IOException {
+        return append(op, id, payload, true);
+    }
+
+    private long append(byte op, String id, byte[] payload, boolean sync) throws IOException {
+        ByteBuffer record = encode(op, id, payload);
+        long offset = end;
+        try {
+            while (record.hasRemaining()) channel.write(record);
+            if (sync) {
+                channel.force(false);
+            } else {
+                dirty = true;
+            }
+            end = offset + record.limit();
+        } catch (IOException e) {
+            // Откатываем частично записанную запись, чтобы индекс и файл не разошлись
+            channel.truncate(offset);
+            channel.position(offset);
+            throw e;
+        }
+        return offset;
+    }
+
+    private static ByteBuffer encode(byte op, String id, byte[] payload) throws IOException {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        if (idBytes.length > 0xFFFF) {
+            throw new IOException("Id too long: " + id.length());
+        }
+        int size = RECORD_OVERHEAD + idBytes.length + payload.length;
+        if (size > MAX_RECORD_SIZE) {
+            throw new IOException("Record too large: " + size + " bytes");
+        }
+        ByteBuffer record = ByteBuffer.allocate(size).order(ByteOrder.BIG_ENDIAN);
+        record.putInt(size - 4);
+        record.put(op);
+        record.putShort((short) idBytes.length);
+        record.put(idBytes);
+        record.put(payload);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, size - 8);
+        record.putInt((int) crc.getValue());
+        record.flip();
+        return record;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) break;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.prismtone;
+
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Builds {@code functionName(arg, ...)} scripts for evaluateJavascript with little garbage:
+ * <ul>
+ *   <li>a per-thread StringBuilder reused across calls (only the final String is allocated);</li>
+ *   <li>a single-pass escaper that copies strings needing no escaping in one append;</li>
+ *   <li>primitives appended without boxing to String, JSON written straight into the builder;</li>
+ *   <li>cached call prefixes ("name(") for the callback names seen so far.</li>
+ * </ul>
+ * Strings become single-quoted JS literals, other objects JSON, as the bridge always produced.
+ */
+final class JsCallEncoder {
+    private static final String TAG = "JsCallEncoder";
+    private static final int INITIAL_CAPACITY = 256;
+    // Builder, выросший больше этого (большой JSON), не удерживаем в ThreadLocal
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    private static final int MAX_CACHED_PREFIXES = 256;
+    private static final char LINE_SEPARATOR = 0x2028;
+    private static final char PARAGRAPH_SEPARATOR = 0x2029;
+
+    private static final Gson gson = new GsonBuilder().serializeNulls().create();
+    private static final ThreadLocal<StringBuilder> builders = ThreadLocal.withInitial(() -> new StringBuilder(INITIAL_CAPACITY));
+    private static final Map<String, String> prefixes = new ConcurrentHashMap<>();
+
+    private JsCallEncoder() {
+    }
+
+    /** @return the call script, e.g. {@code app.onSaved('id',{"a":1})}. */
+    static String encode(String functionName, Object... args) {
+        StringBuilder builder = acquire();
+        try {
+            builder.append(prefix(functionName));
+            for (int i = 0; i < args.length; i++) {
+                if (i > 0) builder.append(',');
+                appendArg(builder, args[i]);
+            }
+            builder.append(')');
+            return builder.toString();
+        } finally {
+            release(builder);
+        }
+    }
+
+    /** Escapes a string for use inside a JS string literal, without the quotes. */
+    static String escape(String value) {
+        if (value == null) return "";
+        if (firstEscapeIndex(value) < 0) return value;
+        StringBuilder builder = acquire();
+        try {
+            appendEscaped(builder, value);
+            return builder.toString();
+        } finally {
+            release(builder);
+        }
+    }
+
+    private static void appendArg(StringBuilder builder, Object arg) {
+        if (arg == null) {
+            builder.append("null");
+        } else if (arg instanceof String) {
+            builder.append('\'');
+            appendEscaped(builder, (String) arg);
+            builder.append('\'');
+        } else if (arg instanceof Integer) {
+            builder.append(((Integer) arg).intValue());
+        } else if (arg instanceof Long) {
+            builder.append(((Long) arg).longValue());
+        } else if (arg instanceof Double) {
+            builder.append(((Double) arg).doubleValue());
+        } else if (arg instanceof Float) {
+            builder.append(((Float) arg).floatValue());
+        } else if (arg instanceof Boolean) {
+            builder.append(((Boolean) arg).booleanValue());
+        } else if (arg instanceof Number) {
+            builder.append(arg);
+        } else {
+            int mark = builder.length();
+            try {
+                // JSON пишется прямо в builder, без промежуточной строки
+                if (arg instanceof JsonElement) {
+                    gson.toJson((JsonElement) arg, builder);
+                } else {
+                    gson.toJson(arg, arg.getClass(), builder);
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error converting argument to JSON for JS call: " + arg, e);
+                builder.setLength(mark);
+                builder.append("null");
+            }
+        }
+    }
+
+    /** Appends {@code value} escaped for a single- or double-quoted JS literal in an HTML-safe way. */
+    static void appendEscaped(StringBuilder builder, String value) {
+        int start = firstEscapeIndex(value);
+        if (start < 0) {
+            builder.append(value);
+            return;
+        }
+        builder.append(value, 0, start);
+        int length = value.length();
+        for (int i = start; i < length; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\': builder.append("\\\\"); break;
+                case '\'': builder.append("\\'"); break;
+                case '"': builder.append("\\\""); break;
+                case '\n': builder.append("\\n"); break;
+                case '\r': builder.append("\\r"); break;
+                case '\t': builder.append("\\t"); break;
+                case '\b': builder.append("\\b"); break;
+                case '\f': builder.append("\\f"); break;
+                // Разделители строк недопустимы в строковых литералах старых движков JS
+                case LINE_SEPARATOR: builder.append("\\u2028"); break;
+                case PARAGRAPH_SEPARATOR: builder.append("\\u2029"); break;
+                case '<':
+                    builder.append('<');
+                    if (i + 1 < length && value.charAt(i + 1) == '/') {
+                        builder.append("\\/");
+                        i++;
+                    }
+                    break;
+                default: builder.append(c);
+            }
+        }
+    }
+
+    /** @return the index of the first character that needs escaping, or -1. */
+    private static int firstEscapeIndex(String value) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '\'' || c == '"' || c == '\n' || c == '\r' || c == '\t' || c == '\b'
+                    || c == '\f' || c == LINE_SEPARATOR || c == PARAGRAPH_SEPARATOR
+                    || (c == '<' && i + 1 < length && value.charAt(i + 1) == '/')) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String prefix(String functionName) {
+        String prefix = prefixes.get(functionName);
+        if (prefix == null) {
+            prefix = functionName + "(";
+            // Имена колбэков приходят из JS; ограничиваем кэш на случай уникальных имен
+            if (prefixes.size() < MAX_CACHED_PREFIXES) {
+                prefixes.put(functionName, prefix);
+            }
+        }
+        return prefix;
+    }
+
+    private static StringBuilder acquire() {
+        StringBuilder builder = builders.get();
+        // Повторный вход (toJson объекта, который сам вызывает encode) получает свой builder
+        if (builder.length() > 0) {
+            return new StringBuilder(INITIAL_CAPACITY);
+        }
+        return builder;
+    }
+
+    private static void release(StringBuilder builder) {
+        if (builder != builders.get()) return;
+        if (builder.capacity() > MAX_RETAINED_CAPACITY) {
+            builders.set(new StringBuilder(INITIAL_CAPACITY));
+        } else {
+            builder.setLength(0);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.prismtone;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal structural patch between two JSON objects:
+ * <pre>
+ *   {"set": {"/sampler/params/attack": 0.2, "/name": "My piano"}, "remove": ["/reverb"]}
+ * </pre>
+ * Paths are JSON Pointers ("~" escaped as "~0", "/" as "~1"). Objects are diffed key by key;
+ * arrays and primitives are replaced as a whole. Applying removes first, then sets, creating
+ * intermediate objects where needed, so a patch can also be replayed over a changed base.
+ */
+public final class JsonDelta {
+    public static final String SET = "set";
+    public static final String REMOVE = "remove";
+
+    private JsonDelta() {
+    }
+
+    /**
+     * @return the patch turning {@code base} into {@code target}; neither is modified.
+     */
+    public static JsonObject diff(JsonObject base, JsonObject target) {
+        JsonObject set = new JsonObject();
+        JsonArray remove = new JsonArray();
+        diffInto("", base, target, set, remove);
+        JsonObject delta = new JsonObject();
+        delta.add(SET, set);
+        if (remove.size() > 0) {
+            delta.add(REMOVE, remove);
+        }
+        return delta;
+    }
+
+    /**
+     * @return a copy of {@code base} with the patch's "remove" and "set" entries applied.
+     */
+    public static JsonObject apply(JsonObject base, JsonObject delta) {
+        JsonObject result = base.deepCopy();
+        JsonElement remove = delta.get(REMOVE);
+        if (remove != null && remove.isJsonArray()) {
+            for (JsonElement path : remove.getAsJsonArray()) {
+                List<String> keys = parse(path.getAsString());
+                JsonObject parent = navigate(result, keys, false);
+                if (parent != null) {
+                    parent.remove(keys.get(keys.size() - 1));
+                }
+            }
+        }
+        JsonElement set = delta.get(SET);
+        if (set != null && set.isJsonObject()) {
+            for (Map.Entry<String, JsonElement> entry : set.getAsJsonObject().entrySet()) {
+                List<String> keys = parse(entry.getKey());
+                navigate(result, keys, true).add(keys.get(keys.size() - 1), entry.getValue().deepCopy());
+            }
+        }
+        return result;
+    }
+
+    /** Number of paths the patch touches. */
+    public static int size(JsonObject delta) {
+        JsonElement set = delta.get(SET);
+        JsonElement remove = delta.get(REMOVE);
+        return (set != null && set.isJsonObject() ? set.getAsJsonObject().size() : 0)
+                + (remove != null && remove.isJsonArray() ? remove.getAsJsonArray().size() : 0);
+    }
+
+    private static void diffInto(String prefix, JsonObject base, JsonObject target, JsonObject set, JsonArray remove) {
+        for (Map.Entry<String, JsonElement> entry : target.entrySet()) {
+            String path = prefix + "/" + escape(entry.getKey());
+            JsonElement from = base.get(entry.getKey());
+            JsonElement to = entry.getValue();
+            if (from != null && from.isJsonObject() && to.isJsonObject()) {
+                diffInto(path, from.getAsJsonObject(), to.getAsJsonObject(), set, remove);
+            } else if (from == null || !from.equals(to)) {
+                set.add(path, to.deepCopy());
+            }
+        }
+        for (String key : base.keySet()) {
+            if (!target.has(key)) {
+                remove.add(prefix + "/" + escape(key));
+            }
+        }
+    }
+
+    /** Returns the object holding the last key, or null if it doesn't exist and {@code create} is false. */
+    private static JsonObject navigate(JsonObject root, List<String> keys, boolean create) {
+        JsonObject current = root;
+        for (int i = 0; i < keys.size() - 1; i++) {
+            JsonElement next = current.get(keys.get(i));
+            if (next == null || !next.isJsonObject()) {
+                if (!create) return null;
+                // Если в новой базе здесь не объект - переопределение пользователя важнее
+                JsonObject created = new JsonObject();
+                current.add(keys.get(i), created);
+                next = created;
+            }
+            current = next.getAsJsonObject();
+        }
+        return current;
+    }
+
+    private static String escape(String key) {
+        return key.replace("~", "~0").replace("/", "~1");
+    }
+
+    private static List<String> parse(String pointer) {
+        if (!pointer.startsWith("/")) {
+            throw new IllegalArgumentException("Invalid pointer: " + pointer);
+        }
+        List<String> keys = new ArrayList<>();
+        for (String token : pointer.substring(1).split("/", -1)) {
+            keys.add(token.replace("~1", "/").replace("~0", "~"));
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.prismtone;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hash-conses {@link CompactJson} trees: every structurally identical subtree
+ * (e.g. the "filter": { "enabled": false } block repeated across sound presets)
+ * is stored once, and all keys and string values are interned.
+ */
+public final class JsonInterner {
+    private final Map<String, String> strings = new HashMap<>();
+    private final Map<CompactJson, CompactJson> nodes = new HashMap<>();
+    private long internedNodes = 0;
+
+    /**
+     * Interns a Gson tree.
+     */
+    public synchronized CompactJson intern(JsonElement element) {
+        if (element == null || element.isJsonNull()) {
+            return CompactJson.NULL;
+        }
+        if (element.isJsonPrimitive()) {
+            JsonPrimitive primitive = element.getAsJsonPrimitive();
+            if (primitive.isBoolean()) return primitive.getAsBoolean() ? CompactJson.TRUE : CompactJson.FALSE;
+            if (primitive.isNumber()) return canonical(CompactJson.Num.parse(primitive.getAsString()));
+            return canonical(new CompactJson.Str(string(primitive.getAsString())));
+        }
+        if (element.isJsonArray()) {
+            JsonArray array = element.getAsJsonArray();
+            CompactJson[] items = new CompactJson[array.size()];
+            for (int i = 0; i < items.length; i++) {
+                items[i] = intern(array.get(i));
+            }
+            return canonical(new CompactJson.Arr(items));
+        }
+        JsonObject object = element.getAsJsonObject();
+        String[] keys = new String[object.size()];
+        CompactJson[] values = new CompactJson[keys.length];
+        int i = 0;
+        for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
+            keys[i] = string(entry.getKey());
+            values[i] = intern(entry.getValue());
+            i++;
+        }
+        return canonical(new CompactJson.Obj(keys, values));
+    }
+
+    /**
+     * Reads one JSON value straight from a stream, without building an intermediate Gson tree.
+     * @throws IOException on malformed JSON.
+     */
+    public synchronized CompactJson read(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        switch (token) {
+            case NULL:
+                reader.nextNull();
+                return CompactJson.NULL;
+            case BOOLEAN:
+                return reader.nextBoolean() ? CompactJson.TRUE : CompactJson.FALSE;
+            case NUMBER:
+                return canonical(CompactJson.Num.parse(reader.nextString()));
+            case STRING:
+                return canonical(new CompactJson.Str(string(reader.nextString())));
+            case BEGIN_ARRAY: {
+                List<CompactJson> items = new ArrayList<>();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    items.add(read(reader));
+                }
+                reader.endArray();
+                return canonical(new CompactJson.Arr(items.toArray(new CompactJson[0])));
+            }
+            case BEGIN_OBJECT: {
+                List<String> keys = new ArrayList<>();
+                List<CompactJson> values = new ArrayList<>();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    keys.add(string(reader.nextName()));
+                    values.add(read(reader));
+                }
+                reader.endObject();
+                return canonical(new CompactJson.Obj(keys.toArray(new String[0]), values.toArray(new CompactJson[0])));
+            }
+            default:
+                throw new IOException("Unexpected JSON token " + token + " at " + reader.getPath());
+        }
+    }
+
+    /**
+     * Returns the canonical instance of a string, so equal keys and values share one object.
+     */
+    public synchronized String string(String value) {
+        String existing = strings.putIfAbsent(value, value);
+        return existing != null ? existing : value;
+    }
+
+    /** Number of distinct nodes kept by the interner. */
+    public synchronized int getUniqueNodeCount() {
+        return nodes.size();
+    }
+
+    /** Number of nodes requested so far, including the ones resolved to a shared instance. */
+    public synchronized long getInternedNodeCount() {
+        return internedNodes;
+    }
+
+    private CompactJson canonical(CompactJson candidate) {
+        internedNodes++;
+        CompactJson existing = nodes.putIfAbsent(candidate, candidate);
+        return existing != null ? existing : candidate;
+    }
+}
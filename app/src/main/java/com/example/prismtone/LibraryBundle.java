@@ -0,0 +1,494 @@
+package com.example.prismtone;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Export and import of the whole user library (sound presets, FX chains, chord progressions,
+ * sequencer patterns) as one zip bundle:
+ * <pre>
+ *   index.json                 {format, version, createdAt, items: [{kind, id, object}]}
+ *   objects/&lt;sha1&gt;.json        one entry per distinct document content (id stripped)
+ * </pre>
+ * The index comes first, so import is a single streaming pass holding one object at a time;
+ * documents that differ only by id are stored once. Both directions run on a background thread
+ * and report progress to a JS callback as {phase, done, total, finished, ...}.
+ */
+public final class LibraryBundle {
+    private static final String TAG = "LibraryBundle";
+    private static final String FORMAT = "prismtone-bundle";
+    private static final int VERSION = 1;
+    private static final String INDEX_ENTRY = "index.json";
+    private static final String OBJECT_PREFIX = "objects/";
+    private static final String OBJECT_SUFFIX = ".json";
+    private static final String BUNDLE_DIR_NAME = "bundles";
+    private static final String KIND_PATTERN = "pattern";
+    private static final String[] DOCUMENT_KINDS = {"soundpreset", "fxchain", "chordProgression"};
+    private static final int MAX_INDEX_SIZE = 16 * 1024 * 1024;
+    private static final int MAX_OBJECT_SIZE = 4 * 1024 * 1024;
+    private static final int IMPORT_BATCH_SIZE = 200;
+    private static final long PROGRESS_INTERVAL_MS = 250;
+
+    private static LibraryBundle instance;
+
+    private final Context context;
+    private final File bundleDir;
+    private final TaskScheduler.SerialQueue executor = TaskScheduler.getInstance().serial("library-bundle", TaskScheduler.Lane.USER_INITIATED);
+
+    private LibraryBundle(Context context) {
+        this.context = context;
+        this.bundleDir = new File(context.getExternalFilesDir(null), BUNDLE_DIR_NAME);
+    }
+
+    public static synchronized LibraryBundle getInstance(Context context) {
+        if (instance == null) {
+            instance = new LibraryBundle(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /** A bundle item: which library, which id, which content object. */
+    private static final class Item {
+        final String kind;
+        final String id;
+        final String object;
+
+        Item(String kind, String id, String object) {
+            this.kind = kind;
+            this.id = id;
+            this.object = object;
+        }
+    }
+
+    /** Bundles in the app's bundle directory, newest first. */
+    public JsonArray listBundles() {
+        return FileUtils.listFilesNewestFirst(bundleDir, ".zip");
+    }
+
+    /**
+     * Writes the whole library into a new bundle in the background.
+     * The final progress event carries the bundle's file name.
+     */
+    public void exportAsync(PrismtoneBridge bridge, String progressCallbackName) {
+        executor.execute(() -> {
+            Progress progress = new Progress(bridge, progressCallbackName, "export");
+            try {
+                File target = new File(bundleDir, "prismtone-library-"
+                        + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date()) + ".zip");
+                JsonObject summary = export(target, progress);
+                summary.addProperty("file", target.getName());
+                progress.finish(summary);
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Bundle export failed", e);
+                progress.fail(e);
+            }
+        });
+    }
+
+    /**
+     * Imports a bundle in the background. {@code path} is a file name in the bundle directory
+     * (an absolute path is accepted only if it points there). JS's module cache is refreshed once at the end.
+     */
+    public void importAsync(String path, PrismtoneBridge bridge, String progressCallbackName) {
+        executor.execute(() -> {
+            Progress progress = new Progress(bridge, progressCallbackName, "import");
+            try {
+                // Только бандлы из своей папки: путь приходит из JS
+                File source = FileUtils.resolveInside(bundleDir, path);
+                JsonObject summary = importBundle(source, progress);
+                progress.finish(summary);
+                bridge.callJsFunctionOnMainThread("moduleManager.refreshCache");
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Bundle import failed for " + path, e);
+                progress.fail(e);
+            }
+        });
+    }
+
+    private JsonObject export(File target, Progress progress) throws IOException {
+        // Проход 1: хеши содержимого, чтобы индекс шел в архиве первым. Документы не держим в памяти
+        List<Item> items = new ArrayList<>();
+        for (String kind : DOCUMENT_KINDS) {
+            for (JsonObject document : documentsOf(kind)) {
+                JsonElement id = document.get("id");
+                if (id == null || !id.isJsonPrimitive()) continue;
+                items.add(new Item(kind, id.getAsString(), sha1Hex(contentBytes(document))));
+            }
+        }
+        PatternStore patterns = PatternStore.getInstance(context);
+        for (String id : patterns.listIds()) {
+            JsonObject document = patterns.exportJson(id);
+            if (document != null) {
+                items.add(new Item(KIND_PATTERN, id, sha1Hex(contentBytes(document))));
+            }
+        }
+        progress.total = items.size();
+
+        JsonObject index = new JsonObject();
+        index.addProperty("format", FORMAT);
+        index.addProperty("version", VERSION);
+        index.addProperty("createdAt", System.currentTimeMillis());
+        JsonArray rows = new JsonArray();
+        for (Item item : items) {
+            JsonObject row = new JsonObject();
+            row.addProperty("kind", item.kind);
+            row.addProperty("id", item.id);
+            row.addProperty("object", item.object);
+            rows.add(row);
+        }
+        index.add("items", rows);
+
+        // Проход 2: поток в zip; одинаковое содержимое пишется один раз
+        Set<String> written = new HashSet<>();
+        long[] bytes = new long[1];
+        DurableFileWriter.writeAtomically(target, out -> {
+            ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(out, FileUtils.BUFFER_SIZE));
+            zip.putNextEntry(new ZipEntry(INDEX_ENTRY));
+            zip.write(FileUtils.toJsonBytes(index));
+            zip.closeEntry();
+            int itemIndex = 0;
+            for (String kind : DOCUMENT_KINDS) {
+                for (JsonObject document : documentsOf(kind)) {
+                    itemIndex = writeObject(zip, items, itemIndex, kind, document, written, bytes);
+                    progress.update(itemIndex);
+                }
+            }
+            for (Item item : items) {
+                if (!KIND_PATTERN.equals(item.kind)) continue;
+                JsonObject document = patterns.exportJson(item.id);
+                if (document != null && written.add(item.object)) {
+                    bytes[0] += putObject(zip, item.object, contentBytes(document));
+                }
+                progress.update(++itemIndex);
+            }
+            // finish(), а не close(): поток закрывает и синхронизирует DurableFileWriter
+            zip.finish();
+            zip.flush();
+        });
+        JsonObject summary = new JsonObject();
+        summary.addProperty("items", items.size());
+        summary.addProperty("objects", written.size());
+        summary.addProperty("bytes", target.length());
+        Log.i(TAG, "Exported " + items.size() + " items (" + written.size() + " distinct, "
+                + bytes[0] + " bytes uncompressed) to " + target.getName());
+        return summary;
+    }
+
+    /** Writes one document's object unless identical content is already in the bundle. */
+    private int writeObject(ZipOutputStream zip, List<Item> items, int itemIndex, String kind, JsonObject document,
+                            Set<String> written, long[] bytes) throws IOException {
+        JsonElement id = document.get("id");
+        if (id == null || !id.isJsonPrimitive()) return itemIndex;
+        byte[] content = contentBytes(document);
+        String object = sha1Hex(content);
+        // Документ мог измениться между проходами - тогда индекс ссылался бы на отсутствующий объект
+        Item item = itemIndex < items.size() ? items.get(itemIndex) : null;
+        if (item == null || !item.kind.equals(kind) || !item.id.equals(id.getAsString()) || !item.object.equals(object)) {
+            throw new IOException("Library changed during export, please retry");
+        }
+        if (written.add(object)) {
+            bytes[0] += putObject(zip, object, content);
+        }
+        return itemIndex + 1;
+    }
+
+    private static int putObject(ZipOutputStream zip, String object, byte[] content) throws IOException {
+        zip.putNextEntry(new ZipEntry(OBJECT_PREFIX + object + OBJECT_SUFFIX));
+        zip.write(content);
+        zip.closeEntry();
+        return content.length;
+    }
+
+    private JsonObject importBundle(File source, Progress progress) throws IOException {
+        Map<String, List<Item>> itemsByObject = null;
+        Map<String, List<JsonObject>> batches = new HashMap<>();
+        Map<String, Integer> imported = new LinkedHashMap<>();
+        int skipped = 0;
+        int seen = 0;
+        List<String> errors = new ArrayList<>();
+
+        try (ZipInputStream zip = new ZipInputStream(new BufferedInputStream(new FileInputStream(source), FileUtils.BUFFER_SIZE))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                String name = entry.getName();
+                if (itemsByObject == null) {
+                    if (!INDEX_ENTRY.equals(name)) {
+                        throw new IOException("Not a library bundle: first entry is " + name);
+                    }
+                    itemsByObject = readIndex(readBounded(zip, MAX_INDEX_SIZE, null));
+                    for (List<Item> items : itemsByObject.values()) progress.total += items.size();
+                    continue;
+                }
+                String object = objectName(name);
+                List<Item> items = object != null ? itemsByObject.remove(object) : null;
+                if (items == null) {
+                    errors.add("Unexpected entry " + name);
+                    continue;
+                }
+                MessageDigest digest = sha1();
+                byte[] content = readBounded(zip, MAX_OBJECT_SIZE, digest);
+                if (!object.equals(toHex(digest.digest()))) {
+                    errors.add("Checksum mismatch for " + name);
+                    seen += items.size();
+                    continue;
+                }
+                JsonObject document;
+                try {
+                    document = JsonParser.parseString(new String(content, StandardCharsets.UTF_8)).getAsJsonObject();
+                } catch (JsonParseException | IllegalStateException e) {
+                    errors.add("Invalid JSON in " + name);
+                    seen += items.size();
+                    continue;
+                }
+                for (Item item : items) {
+                    seen++;
+                    String problem = validate(item.kind, document);
+                    if (problem != null) {
+                        errors.add(item.kind + "/" + item.id + ": " + problem);
+                        continue;
+                    }
+                    if (KIND_PATTERN.equals(item.kind)) {
+                        JsonObject pattern = document.deepCopy();
+                        pattern.addProperty("id", item.id);
+                        PatternStore.getInstance(context).importJson(pattern.toString());
+                        imported.merge(item.kind, 1, Integer::sum);
+                        continue;
+                    }
+                    JsonObject copy = document.deepCopy();
+                    copy.addProperty("id", item.id);
+                    List<JsonObject> batch = batches.computeIfAbsent(item.kind, k -> new ArrayList<>());
+                    batch.add(copy);
+                    if (batch.size() >= IMPORT_BATCH_SIZE) {
+                        skipped += flush(item.kind, batch, imported);
+                    }
+                }
+                progress.update(seen);
+            }
+        }
+        if (itemsByObject == null) {
+            throw new IOException("Not a library bundle: empty archive");
+        }
+        for (Map.Entry<String, List<JsonObject>> batch : batches.entrySet()) {
+            skipped += flush(batch.getKey(), batch.getValue(), imported);
+        }
+        for (String missing : itemsByObject.keySet()) {
+            errors.add("Missing object " + missing);
+        }
+
+        JsonObject summary = new JsonObject();
+        JsonObject counts = new JsonObject();
+        for (Map.Entry<String, Integer> count : imported.entrySet()) {
+            counts.addProperty(count.getKey(), count.getValue());
+        }
+        summary.add("imported", counts);
+        summary.addProperty("skipped", skipped);
+        JsonArray errorArray = new JsonArray();
+        for (String error : errors) errorArray.add(error);
+        summary.add("errors", errorArray);
+        Log.i(TAG, "Imported " + source.getName() + ": " + counts + ", " + skipped + " already present, "
+                + errors.size() + " errors");
+        return summary;
+    }
+
+    /** @return how many documents of the batch were already present. */
+    private int flush(String kind, List<JsonObject> batch, Map<String, Integer> imported) throws IOException {
+        if (batch.isEmpty()) return 0;
+        int stored;
+        switch (kind) {
+            case "soundpreset": stored = SoundPresetRepository.getInstance(context).importBatch(batch); break;
+            case "fxchain": stored = FxChainRepository.getInstance(context).importBatch(batch); break;
+            default: stored = ChordProgressionRepository.getInstance(context).importBatch(batch); break;
+        }
+        int size = batch.size();
+        batch.clear();
+        imported.merge(kind, stored, Integer::sum);
+        return size - stored;
+    }
+
+    private static Map<String, List<Item>> readIndex(byte[] data) throws IOException {
+        JsonObject index;
+        try {
+            index = JsonParser.parseString(new String(data, StandardCharsets.UTF_8)).getAsJsonObject();
+        } catch (JsonParseException | IllegalStateException e) {
+            throw new IOException("Invalid bundle index", e);
+        }
+        JsonElement format = index.get("format");
+        JsonElement version = index.get("version");
+        if (format == null || !FORMAT.equals(format.getAsString()) || version == null || version.getAsInt() > VERSION) {
+            throw new IOException("Unsupported bundle format");
+        }
+        Map<String, List<Item>> itemsByObject = new HashMap<>();
+        for (JsonElement element : index.getAsJsonArray("items")) {
+            JsonObject row = element.getAsJsonObject();
+            String kind = row.get("kind").getAsString();
+            String object = row.get("object").getAsString();
+            if (!isKnownKind(kind) || objectName(OBJECT_PREFIX + object + OBJECT_SUFFIX) == null) {
+                throw new IOException("Invalid bundle item " + row);
+            }
+            itemsByObject.computeIfAbsent(object, k -> new ArrayList<>())
+                    .add(new Item(kind, row.get("id").getAsString(), object));
+        }
+        return itemsByObject;
+    }
+
+    /** @return null if the document is acceptable for the kind, otherwise the reason. */
+    private static String validate(String kind, JsonObject document) {
+        if (KIND_PATTERN.equals(kind)) {
+            JsonElement events = document.get("events");
+            return events != null && events.isJsonArray() ? null : "pattern without events";
+        }
+        JsonElement type = document.get("type");
+        if (type == null || !type.isJsonPrimitive() || !kind.equals(type.getAsString())) {
+            return "type is not " + kind;
+        }
+        JsonElement name = document.get("name");
+        return name != null && name.isJsonPrimitive() ? null : "missing name";
+    }
+
+    private static boolean isKnownKind(String kind) {
+        if (KIND_PATTERN.equals(kind)) return true;
+        for (String known : DOCUMENT_KINDS) {
+            if (known.equals(kind)) return true;
+        }
+        return false;
+    }
+
+    /** @return the object hash for a valid "objects/&lt;sha1&gt;.json" name, otherwise null. */
+    private static String objectName(String entryName) {
+        if (!entryName.startsWith(OBJECT_PREFIX) || !entryName.endsWith(OBJECT_SUFFIX)) return null;
+        String hash = entryName.substring(OBJECT_PREFIX.length(), entryName.length() - OBJECT_SUFFIX.length());
+        return hash.matches("[0-9a-f]{40}") ? hash : null;
+    }
+
+    private List<JsonObject> documentsOf(String kind) {
+        switch (kind) {
+            case "soundpreset": return SoundPresetRepository.getInstance(context).getUserPresets();
+            case "fxchain": return FxChainRepository.getInstance(context).getUserFxChains();
+            default: return ChordProgressionRepository.getInstance(context).getUserProgressions();
+        }
+    }
+
+    /** Content without the id, so documents differing only by id share one object. */
+    private static byte[] contentBytes(JsonObject document) throws IOException {
+        JsonObject content = document.deepCopy();
+        content.remove("id");
+        return FileUtils.toJsonBytes(content);
+    }
+
+    /** Reads the current entry fully, refusing entries larger than {@code limit} (zip bombs included). */
+    private static byte[] readBounded(InputStream in, int limit, MessageDigest digest) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            if (out.size() + read > limit) {
+                throw new IOException("Bundle entry exceeds " + limit + " bytes");
+            }
+            out.write(buffer, 0, read);
+            if (digest != null) digest.update(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static String sha1Hex(byte[] data) {
+        return toHex(sha1().digest(data));
+    }
+
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /** Throttled progress reporting to JS. */
+    private static final class Progress {
+        private final PrismtoneBridge bridge;
+        private final String callbackName;
+        private final String phase;
+        int total;
+        private long lastReport;
+
+        Progress(PrismtoneBridge bridge, String callbackName, String phase) {
+            this.bridge = bridge;
+            this.callbackName = callbackName;
+            this.phase = phase;
+        }
+
+        void update(int done) {
+            long now = SystemClock.uptimeMillis();
+            if (now - lastReport < PROGRESS_INTERVAL_MS) return;
+            lastReport = now;
+            send(event(done, false));
+        }
+
+        void finish(JsonObject summary) {
+            JsonObject event = event(total, true);
+            for (Map.Entry<String, JsonElement> entry : summary.entrySet()) {
+                event.add(entry.getKey(), entry.getValue());
+            }
+            send(event);
+        }
+
+        void fail(Exception error) {
+            JsonObject event = event(0, true);
+            event.addProperty("error", String.valueOf(error.getMessage()));
+            send(event);
+        }
+
+        private JsonObject event(int done, boolean finished) {
+            JsonObject event = new JsonObject();
+            event.addProperty("phase", phase);
+            event.addProperty("done", done);
+            event.addProperty("total", total);
+            event.addProperty("finished", finished);
+            return event;
+        }
+
+        private void send(JsonObject event) {
+            if (callbackName != null && !callbackName.isEmpty()) {
+                bridge.callJsFunctionOnMainThread(callbackName, event.toString());
+            }
+        }
+    }
+}
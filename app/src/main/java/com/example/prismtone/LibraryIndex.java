@@ -0,0 +1,293 @@
+package com.example.prismtone;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * SQLite index over the user library (sound presets, FX chains, chord progressions).
+ * The documents themselves stay in the repositories' journals; this index only holds the metadata
+ * needed to sort, filter and search without parsing them: name, description, timestamps, usage.
+ * Name and description are searchable through an FTS4 table kept in sync by triggers.
+ */
+public class LibraryIndex extends SQLiteOpenHelper {
+    private static final String TAG = "LibraryIndex";
+    private static final String DATABASE_NAME = "library_index.db";
+    private static final int DATABASE_VERSION = 1;
+    private static final int MAX_PAGE_SIZE = 500;
+
+    // Разрешенные поля сортировки -> выражение ORDER BY (в SQL попадает только из этой таблицы)
+    private static final Map<String, String> SORT_COLUMNS = new HashMap<>();
+    static {
+        SORT_COLUMNS.put("name", "l.name COLLATE NOCASE");
+        SORT_COLUMNS.put("created", "l.created_at");
+        SORT_COLUMNS.put("updated", "l.updated_at");
+        SORT_COLUMNS.put("lastUsed", "l.last_used");
+        SORT_COLUMNS.put("useCount", "l.use_count");
+    }
+
+    private static LibraryIndex instance;
+
+    private LibraryIndex(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    public static synchronized LibraryIndex getInstance(Context context) {
+        if (instance == null) {
+            instance = new LibraryIndex(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE library ("
+                + "_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + "kind TEXT NOT NULL,"
+                + "item_id TEXT NOT NULL,"
+                + "name TEXT NOT NULL DEFAULT '',"
+                + "description TEXT NOT NULL DEFAULT '',"
+                + "created_at INTEGER NOT NULL DEFAULT 0,"
+                + "updated_at INTEGER NOT NULL DEFAULT 0,"
+                + "last_used INTEGER NOT NULL DEFAULT 0,"
+                + "use_count INTEGER NOT NULL DEFAULT 0,"
+                + "UNIQUE(kind, item_id))");
+        db.execSQL("CREATE INDEX library_kind_name ON library(kind, name COLLATE NOCASE)");
+        db.execSQL("CREATE INDEX library_kind_created ON library(kind, created_at)");
+        db.execSQL("CREATE INDEX library_kind_last_used ON library(kind, last_used)");
+        db.execSQL("CREATE INDEX library_kind_use_count ON library(kind, use_count)");
+
+        // FTS4 с внешним содержимым: текст хранится один раз, в library.
+        // Триггеры обновления срабатывают только на name/description, а не на счетчики использования
+        db.execSQL("CREATE VIRTUAL TABLE library_fts USING fts4(content=\"library\", name, description)");
+        db.execSQL("CREATE TRIGGER library_bu BEFORE UPDATE OF name, description ON library BEGIN "
+                + "DELETE FROM library_fts WHERE docid = old._id; END");
+        db.execSQL("CREATE TRIGGER library_bd BEFORE DELETE ON library BEGIN "
+                + "DELETE FROM library_fts WHERE docid = old._id; END");
+        db.execSQL("CREATE TRIGGER library_au AFTER UPDATE OF name, description ON library BEGIN "
+                + "INSERT INTO library_fts(docid, name, description) VALUES (new._id, new.name, new.description); END");
+        db.execSQL("CREATE TRIGGER library_ai AFTER INSERT ON library BEGIN "
+                + "INSERT INTO library_fts(docid, name, description) VALUES (new._id, new.name, new.description); END");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Индекс полностью восстанавливается из журналов, поэтому просто пересоздаем
+        db.execSQL("DROP TABLE IF EXISTS library_fts");
+        db.execSQL("DROP TABLE IF EXISTS library");
+        onCreate(db);
+    }
+
+    /**
+     * Inserts or updates the metadata of one document. Usage statistics are preserved on update.
+     */
+    public void upsert(String kind, String itemId, JsonObject document) {
+        try {
+            upsert(getWritableDatabase(), kind, itemId, document, System.currentTimeMillis());
+        } catch (RuntimeException e) {
+            Log.e(TAG, "upsert failed for " + kind + "/" + itemId, e);
+        }
+    }
+
+    private static void upsert(SQLiteDatabase db, String kind, String itemId, JsonObject document, long now) {
+        ContentValues values = new ContentValues();
+        values.put("name", stringOrEmpty(document, "name"));
+        values.put("description", stringOrEmpty(document, "description"));
+        values.put("updated_at", now);
+        int updated = db.update("library", values, "kind = ? AND item_id = ?", new String[]{kind, itemId});
+        if (updated == 0) {
+            values.put("kind", kind);
+            values.put("item_id", itemId);
+            values.put("created_at", createdAtOf(itemId, now));
+            db.insertWithOnConflict("library", null, values, SQLiteDatabase.CONFLICT_REPLACE);
+        }
+    }
+
+    /**
+     * Inserts or updates many documents in one transaction (bundle imports).
+     */
+    public void upsertAll(String kind, List<JsonObject> documents) {
+        if (documents.isEmpty()) return;
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            long now = System.currentTimeMillis();
+            db.beginTransaction();
+            try {
+                for (JsonObject document : documents) {
+                    upsert(db, kind, stringOrEmpty(document, "id"), document, now);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "upsertAll failed for " + documents.size() + " " + kind + " rows", e);
+        }
+    }
+
+    public void remove(String kind, String itemId) {
+        try {
+            getWritableDatabase().delete("library", "kind = ? AND item_id = ?", new String[]{kind, itemId});
+        } catch (RuntimeException e) {
+            Log.e(TAG, "remove failed for " + kind + "/" + itemId, e);
+        }
+    }
+
+    /**
+     * Brings the index of one kind in line with the repository content: missing documents are added,
+     * changed names/descriptions updated, stale rows removed. Runs in one transaction.
+     */
+    public void reconcile(String kind, List<JsonObject> documents) {
+        SQLiteDatabase db;
+        try {
+            db = getWritableDatabase();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "reconcile: database unavailable", e);
+            return;
+        }
+        Map<String, String[]> indexed = new HashMap<>();
+        try (Cursor cursor = db.rawQuery("SELECT item_id, name, description FROM library WHERE kind = ?", new String[]{kind})) {
+            while (cursor.moveToNext()) {
+                indexed.put(cursor.getString(0), new String[]{cursor.getString(1), cursor.getString(2)});
+            }
+        }
+        long now = System.currentTimeMillis();
+        int changed = 0;
+        db.beginTransaction();
+        try {
+            for (JsonObject document : documents) {
+                String itemId = stringOrEmpty(document, "id");
+                if (itemId.isEmpty()) continue;
+                String[] row = indexed.remove(itemId);
+                if (row == null || !row[0].equals(stringOrEmpty(document, "name"))
+                        || !row[1].equals(stringOrEmpty(document, "description"))) {
+                    upsert(db, kind, itemId, document, now);
+                    changed++;
+                }
+            }
+            for (String staleId : indexed.keySet()) {
+                db.delete("library", "kind = ? AND item_id = ?", new String[]{kind, staleId});
+                changed++;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (changed > 0) {
+            Log.d(TAG, "reconcile " + kind + ": " + changed + " rows changed");
+        }
+    }
+
+    /**
+     * Records that an item was selected, for "recently used" and "most used" sorting.
+     */
+    public void markUsed(String kind, String itemId) {
+        try {
+            getWritableDatabase().execSQL(
+                    "UPDATE library SET last_used = ?, use_count = use_count + 1 WHERE kind = ? AND item_id = ?",
+                    new Object[]{System.currentTimeMillis(), kind, itemId});
+        } catch (RuntimeException e) {
+            Log.e(TAG, "markUsed failed for " + kind + "/" + itemId, e);
+        }
+    }
+
+    /**
+     * Runs a paged, sorted query.
+     * @param kind  "soundpreset", "fxchain", "chordProgression" or null for all kinds.
+     * @param text  free text matched by prefix against name and description, or null.
+     * @param sort  "name", "created", "updated", "lastUsed" or "useCount".
+     * @return {total, offset, items: [{kind, id, name, description, createdAt, updatedAt, lastUsed, useCount}]}
+     */
+    public JsonObject query(String kind, String text, String sort, boolean descending, int offset, int limit) {
+        String orderBy = SORT_COLUMNS.containsKey(sort) ? SORT_COLUMNS.get(sort) : SORT_COLUMNS.get("name");
+        int pageSize = Math.max(1, Math.min(MAX_PAGE_SIZE, limit));
+        int start = Math.max(0, offset);
+
+        StringBuilder from = new StringBuilder(" FROM library l");
+        List<String> args = new ArrayList<>();
+        String match = toMatchExpression(text);
+        if (match != null) {
+            from.append(" JOIN library_fts f ON f.docid = l._id AND library_fts MATCH ?");
+            args.add(match);
+        }
+        if (kind != null && !kind.isEmpty()) {
+            from.append(" WHERE l.kind = ?");
+            args.add(kind);
+        }
+
+        JsonObject result = new JsonObject();
+        JsonArray items = new JsonArray();
+        SQLiteDatabase db = getReadableDatabase();
+        String[] argArray = args.toArray(new String[0]);
+        try (Cursor count = db.rawQuery("SELECT COUNT(*)" + from, argArray)) {
+            result.addProperty("total", count.moveToFirst() ? count.getLong(0) : 0);
+        }
+        String sql = "SELECT l.kind, l.item_id, l.name, l.description, l.created_at, l.updated_at, l.last_used, l.use_count"
+                + from + " ORDER BY " + orderBy + (descending ? " DESC" : " ASC") + ", l._id"
+                + " LIMIT " + pageSize + " OFFSET " + start;
+        try (Cursor cursor = db.rawQuery(sql, argArray)) {
+            while (cursor.moveToNext()) {
+                JsonObject item = new JsonObject();
+                item.addProperty("kind", cursor.getString(0));
+                item.addProperty("id", cursor.getString(1));
+                item.addProperty("name", cursor.getString(2));
+                item.addProperty("description", cursor.getString(3));
+                item.addProperty("createdAt", cursor.getLong(4));
+                item.addProperty("updatedAt", cursor.getLong(5));
+                item.addProperty("lastUsed", cursor.getLong(6));
+                item.addProperty("useCount", cursor.getLong(7));
+                items.add(item);
+            }
+        }
+        result.addProperty("offset", start);
+        result.add("items", items);
+        return result;
+    }
+
+    /**
+     * Turns free text into an FTS4 expression: every word becomes a quoted prefix term ("word*"), terms are ANDed.
+     * Quoting keeps user input from being interpreted as FTS operators.
+     */
+    static String toMatchExpression(String text) {
+        if (text == null) return null;
+        StringBuilder expression = new StringBuilder();
+        for (String word : text.trim().split("\\s+")) {
+            String clean = word.replace("\"", "").replace("*", "");
+            if (clean.isEmpty()) continue;
+            if (expression.length() > 0) expression.append(' ');
+            expression.append('"').append(clean.toLowerCase(Locale.ROOT)).append("*\"");
+        }
+        return expression.length() > 0 ? expression.toString() : null;
+    }
+
+    /** User ids are "user_<millis>", which gives the creation time for free. */
+    private static long createdAtOf(String itemId, long fallback) {
+        if (itemId.startsWith(JournalStore.USER_ID_PREFIX)) {
+            try {
+                return Long.parseLong(itemId.substring(JournalStore.USER_ID_PREFIX.length()));
+            } catch (NumberFormatException ignored) {
+                // Нестандартный id - используем текущее время
+            }
+        }
+        return fallback;
+    }
+
+    private static String stringOrEmpty(JsonObject json, String key) {
+        JsonElement value = json.get(key);
+        return value != null && value.isJsonPrimitive() ? value.getAsString() : "";
+    }
+}
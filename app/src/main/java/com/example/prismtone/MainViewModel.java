@@ -9,11 +9,15 @@ import com.google.gson.Gson;
 import com.example.prismtone.model.YAxisControls;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 public class MainViewModel extends ViewModel {
 
@@ -35,18 +39,12 @@ public class MainViewModel extends ViewModel {
     private static final String PREF_KEY_YAXIS_CONTROLS = "yaxis_controls";
     // endregion
 
-    private final MutableLiveData<String> currentTheme = new MutableLiveData<>();
-    private final MutableLiveData<String> currentLanguage = new MutableLiveData<>();
-    private final MutableLiveData<String> currentSoundPreset = new MutableLiveData<>();
-    private final MutableLiveData<String> currentFxChain = new MutableLiveData<>();
-    private final MutableLiveData<String> currentVisualizer = new MutableLiveData<>();
-    private final MutableLiveData<String> touchEffect = new MutableLiveData<>();
-    private final MutableLiveData<String> currentScale = new MutableLiveData<>();
-    private final MutableLiveData<Integer> octaveOffset = new MutableLiveData<>();
-    private final MutableLiveData<Integer> zoneCount = new MutableLiveData<>();
-    private final MutableLiveData<String> currentTonic = new MutableLiveData<>();
-    private final MutableLiveData<YAxisControls> yAxisControlsLiveData = new MutableLiveData<>();
-    private final Map<String, Object> genericSettings = new HashMap<>();
+    // Текущие значения настроек; уведомление одно на запись или пакет - через settingsChanged.
+    // Пишутся на главном потоке, читаются и с потока JS-моста (getCurrentSettings)
+    private final Map<String, Object> genericSettings = Collections.synchronizedMap(new HashMap<>());
+    private volatile YAxisControls yAxisControls;
+    // Набор ключей, изменившихся за одну запись (одиночный сеттер, пакет applySettings, восстановление)
+    private final MutableLiveData<Set<String>> settingsChanged = new MutableLiveData<>();
     private final Gson gson = new Gson();
 
     public MainViewModel() {
@@ -57,6 +55,7 @@ public class MainViewModel extends ViewModel {
     /**
      * Загружает настройки из SharedPreferences.
      * Если настройка языка отсутствует (первый запуск), определяет ее по языку системы.
+     * Значения применяются одним пакетом, как в {@link #applySettings}.
      */
     public void loadSettings(SharedPreferences prefs) {
         // Язык (основная логика)
@@ -68,30 +67,27 @@ public class MainViewModel extends ViewModel {
         } else {
             savedLang = prefs.getString(PREF_KEY_LANGUAGE, "en");
         }
-        setCurrentLanguage(savedLang);
 
+        Map<String, Object> restored = new LinkedHashMap<>();
+        restored.put("language", savedLang);
         // Загрузка остальных настроек
-        setCurrentTheme(prefs.getString(PREF_KEY_THEME, "aurora"));
-        setCurrentSoundPreset(prefs.getString(PREF_KEY_SOUND_PRESET, "default_piano"));
-        setCurrentFxChain(prefs.getString(PREF_KEY_FX_CHAIN, null));
-        setCurrentVisualizer(prefs.getString(PREF_KEY_VISUALIZER, "nebula"));
-        setTouchEffect(prefs.getString(PREF_KEY_TOUCH_EFFECT, "ballLightningLink"));
-        setCurrentScale(prefs.getString(PREF_KEY_SCALE, "major"));
-        setCurrentTonic(prefs.getString(PREF_KEY_TONIC, "C4"));
-        setOctaveOffset(prefs.getInt(PREF_KEY_OCTAVE_OFFSET, 0));
-        setZoneCount(prefs.getInt(PREF_KEY_ZONE_COUNT, 12));
-        
-        setGenericSetting(PREF_KEY_SHOW_NOTE_NAMES, prefs.getBoolean(PREF_KEY_SHOW_NOTE_NAMES, true));
-        setGenericSetting(PREF_KEY_SHOW_LINES, prefs.getBoolean(PREF_KEY_SHOW_LINES, true));
-        setGenericSetting(PREF_KEY_MASTER_VOLUME_CEILING, (double) prefs.getFloat(PREF_KEY_MASTER_VOLUME_CEILING, 1.0f));
-        setGenericSetting(PREF_KEY_HIGHLIGHT_SHARPS, prefs.getBoolean(PREF_KEY_HIGHLIGHT_SHARPS, true));
-
-        String yAxisJson = prefs.getString(PREF_KEY_YAXIS_CONTROLS, null);
-        if (yAxisJson != null) {
-            setYAxisControlsFromJson(yAxisJson);
-        } else {
-            setYAxisControls(new YAxisControls());
-        }
+        restored.put("theme", prefs.getString(PREF_KEY_THEME, "aurora"));
+        restored.put(SettingsBatch.KEY_SOUND_PRESET, prefs.getString(PREF_KEY_SOUND_PRESET, "default_piano"));
+        restored.put(SettingsBatch.KEY_FX_CHAIN, prefs.getString(PREF_KEY_FX_CHAIN, null));
+        restored.put("visualizer", prefs.getString(PREF_KEY_VISUALIZER, "nebula"));
+        restored.put("touchEffect", prefs.getString(PREF_KEY_TOUCH_EFFECT, "ballLightningLink"));
+        restored.put("scale", prefs.getString(PREF_KEY_SCALE, "major"));
+        restored.put("currentTonic", prefs.getString(PREF_KEY_TONIC, "C4"));
+        restored.put(SettingsBatch.KEY_OCTAVE_OFFSET, prefs.getInt(PREF_KEY_OCTAVE_OFFSET, 0));
+        restored.put(SettingsBatch.KEY_ZONE_COUNT, prefs.getInt(PREF_KEY_ZONE_COUNT, 12));
+
+        restored.put(PREF_KEY_SHOW_NOTE_NAMES, prefs.getBoolean(PREF_KEY_SHOW_NOTE_NAMES, true));
+        restored.put(PREF_KEY_SHOW_LINES, prefs.getBoolean(PREF_KEY_SHOW_LINES, true));
+        restored.put(PREF_KEY_MASTER_VOLUME_CEILING, (double) prefs.getFloat(PREF_KEY_MASTER_VOLUME_CEILING, 1.0f));
+        restored.put(PREF_KEY_HIGHLIGHT_SHARPS, prefs.getBoolean(PREF_KEY_HIGHLIGHT_SHARPS, true));
+
+        restored.put(SettingsBatch.KEY_Y_AXIS_CONTROLS, parseYAxisGroups(prefs.getString(PREF_KEY_YAXIS_CONTROLS, null)));
+        applyValues(restored);
     }
 
     /**
@@ -100,112 +96,165 @@ public class MainViewModel extends ViewModel {
     public void saveSettings(SharedPreferences prefs) {
         SharedPreferences.Editor editor = prefs.edit();
         
-        editor.putString(PREF_KEY_LANGUAGE, currentLanguage.getValue());
-        editor.putString(PREF_KEY_THEME, currentTheme.getValue());
-        editor.putString(PREF_KEY_SOUND_PRESET, currentSoundPreset.getValue());
-        editor.putString(PREF_KEY_FX_CHAIN, currentFxChain.getValue());
-        editor.putString(PREF_KEY_VISUALIZER, currentVisualizer.getValue());
-        editor.putString(PREF_KEY_TOUCH_EFFECT, touchEffect.getValue());
-        editor.putString(PREF_KEY_SCALE, currentScale.getValue());
-        editor.putString(PREF_KEY_TONIC, currentTonic.getValue());
-        editor.putInt(PREF_KEY_OCTAVE_OFFSET, octaveOffset.getValue() != null ? octaveOffset.getValue() : 0);
-        editor.putInt(PREF_KEY_ZONE_COUNT, zoneCount.getValue() != null ? zoneCount.getValue() : 12);
+        editor.putString(PREF_KEY_LANGUAGE, getCurrentLanguage());
+        editor.putString(PREF_KEY_THEME, getCurrentTheme());
+        editor.putString(PREF_KEY_SOUND_PRESET, getCurrentSoundPreset());
+        editor.putString(PREF_KEY_FX_CHAIN, getCurrentFxChain());
+        editor.putString(PREF_KEY_VISUALIZER, getCurrentVisualizer());
+        editor.putString(PREF_KEY_TOUCH_EFFECT, getTouchEffect());
+        editor.putString(PREF_KEY_SCALE, getCurrentScale());
+        editor.putString(PREF_KEY_TONIC, getCurrentTonic());
+        editor.putInt(PREF_KEY_OCTAVE_OFFSET, getOctaveOffset() != null ? getOctaveOffset() : 0);
+        editor.putInt(PREF_KEY_ZONE_COUNT, getZoneCount() != null ? getZoneCount() : 12);
 
         if (getSetting(PREF_KEY_SHOW_NOTE_NAMES) instanceof Boolean) editor.putBoolean(PREF_KEY_SHOW_NOTE_NAMES, (Boolean) getSetting(PREF_KEY_SHOW_NOTE_NAMES));
         if (getSetting(PREF_KEY_SHOW_LINES) instanceof Boolean) editor.putBoolean(PREF_KEY_SHOW_LINES, (Boolean) getSetting(PREF_KEY_SHOW_LINES));
         if (getSetting(PREF_KEY_HIGHLIGHT_SHARPS) instanceof Boolean) editor.putBoolean(PREF_KEY_HIGHLIGHT_SHARPS, (Boolean) getSetting(PREF_KEY_HIGHLIGHT_SHARPS));
         if (getSetting(PREF_KEY_MASTER_VOLUME_CEILING) instanceof Double) editor.putFloat(PREF_KEY_MASTER_VOLUME_CEILING, ((Double) getSetting(PREF_KEY_MASTER_VOLUME_CEILING)).floatValue());
 
-        editor.putString(PREF_KEY_YAXIS_CONTROLS, gson.toJson(yAxisControlsLiveData.getValue()));
+        editor.putString(PREF_KEY_YAXIS_CONTROLS, gson.toJson(yAxisControls));
 
         editor.apply();
     }
 
-    // ... (остальная часть вашего класса MainViewModel без изменений) ...
-    public LiveData<String> getCurrentTheme() { return currentTheme; }
-    public LiveData<String> getCurrentLanguage() { return currentLanguage; }
-    public LiveData<String> getCurrentSoundPreset() { return currentSoundPreset; }
-    public LiveData<String> getCurrentFxChain() { return currentFxChain; }
-    public LiveData<String> getCurrentVisualizer() { return currentVisualizer; }
-    public LiveData<String> getTouchEffect() { return touchEffect; }
-    public LiveData<String> getCurrentScale() { return currentScale; }
-    public LiveData<Integer> getOctaveOffset() { return octaveOffset; }
-    public LiveData<Integer> getZoneCount() { return zoneCount; }
-    public LiveData<YAxisControls> getYAxisControls() { return yAxisControlsLiveData; }
-    public LiveData<String> getCurrentTonic() { return currentTonic; }
+    public String getCurrentTheme() { return getString("theme"); }
+    public String getCurrentLanguage() { return getString("language"); }
+    public String getCurrentSoundPreset() { return getString(SettingsBatch.KEY_SOUND_PRESET); }
+    public String getCurrentFxChain() { return getString(SettingsBatch.KEY_FX_CHAIN); }
+    public String getCurrentVisualizer() { return getString("visualizer"); }
+    public String getTouchEffect() { return getString("touchEffect"); }
+    public String getCurrentScale() { return getString("scale"); }
+    public Integer getOctaveOffset() { return getInteger(SettingsBatch.KEY_OCTAVE_OFFSET); }
+    public Integer getZoneCount() { return getInteger(SettingsBatch.KEY_ZONE_COUNT); }
+    public YAxisControls getYAxisControls() { return yAxisControls; }
+    public String getCurrentTonic() { return getString("currentTonic"); }
+    /** Notified once per write with the keys that changed; a batch is a single notification. */
+    public LiveData<Set<String>> getSettingsChanged() { return settingsChanged; }
     
-    public void setCurrentTheme(String themeId) {
-        currentTheme.setValue(themeId);
-        genericSettings.put("theme", themeId);
-    }
-    public void setCurrentLanguage(String languageId) {
-        currentLanguage.setValue(languageId);
-        genericSettings.put("language", languageId);
-    }
-    public void setCurrentSoundPreset(String presetId) {
-        currentSoundPreset.setValue(presetId);
-        genericSettings.put("soundPreset", presetId);
-    }
-    public void setCurrentFxChain(String chainId) {
-        currentFxChain.setValue(chainId);
-        genericSettings.put("fxChain", chainId);
-    }
-    public void setCurrentVisualizer(String visualizerId) {
-        currentVisualizer.setValue(visualizerId);
-        genericSettings.put("visualizer", visualizerId);
-    }
-    public void setTouchEffect(String effectId) {
-        touchEffect.setValue(effectId);
-        genericSettings.put("touchEffect", effectId);
+    public void setCurrentTheme(String themeId) { setGenericSetting("theme", themeId); }
+    public void setCurrentLanguage(String languageId) { setGenericSetting("language", languageId); }
+    public void setCurrentSoundPreset(String presetId) { setGenericSetting(SettingsBatch.KEY_SOUND_PRESET, presetId); }
+    public void setCurrentFxChain(String chainId) { setGenericSetting(SettingsBatch.KEY_FX_CHAIN, chainId); }
+    public void setCurrentVisualizer(String visualizerId) { setGenericSetting("visualizer", visualizerId); }
+    public void setTouchEffect(String effectId) { setGenericSetting("touchEffect", effectId); }
+    public void setCurrentScale(String scaleId) { setGenericSetting("scale", scaleId); }
+    public void setCurrentTonic(String tonic) { setGenericSetting("currentTonic", tonic); }
+    public void setOctaveOffset(int offset) { setGenericSetting(SettingsBatch.KEY_OCTAVE_OFFSET, offset); }
+    public void setZoneCount(int count) { setGenericSetting(SettingsBatch.KEY_ZONE_COUNT, count); }
+    public void setYAxisControls(YAxisControls newControls) {
+        if (newControls != null) {
+            // Вызывающий может менять текущий объект на месте - не сравниваем, а всегда уведомляем
+            yAxisControls = newControls;
+            settingsChanged.setValue(Collections.singleton(SettingsBatch.KEY_Y_AXIS_CONTROLS));
+        }
     }
-    public void setCurrentScale(String scaleId) {
-        currentScale.setValue(scaleId);
-        genericSettings.put("scale", scaleId);
+    public void setYAxisControlsFromJson(String jsonString) {
+        applyValues(Collections.singletonMap(SettingsBatch.KEY_Y_AXIS_CONTROLS, parseYAxisGroups(jsonString)));
     }
-    public void setCurrentTonic(String tonic) {
-        currentTonic.setValue(tonic);
-        genericSettings.put("currentTonic", tonic);
+    public void setGenericSetting(String key, Object value) {
+        applyValues(Collections.singletonMap(key, value));
     }
-    public void setOctaveOffset(int offset) {
-        int clampedOffset = Math.max(-7, Math.min(7, offset));
-        octaveOffset.setValue(clampedOffset);
-        genericSettings.put("octaveOffset", clampedOffset);
+
+    /**
+     * Applies a validated batch in one main-thread pass. Values are assigned without per-key
+     * notifications and values equal to the current ones are skipped; {@link #getSettingsChanged()}
+     * is then notified once with the keys that did change.
+     * @return the changed keys, in batch order.
+     */
+    public Set<String> applySettings(SettingsBatch batch) {
+        return applyValues(batch.values);
     }
-    public void setZoneCount(int count) {
-        if (count == 7 || count == 12 || count == 24 || count == 36) {
-            zoneCount.setValue(count);
-            genericSettings.put("zoneCount", count);
+
+    private Set<String> applyValues(Map<String, Object> values) {
+        Set<String> changed = new LinkedHashSet<>();
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            if (assign(entry.getKey(), entry.getValue())) changed.add(entry.getKey());
+        }
+        if (!changed.isEmpty()) {
+            settingsChanged.setValue(Collections.unmodifiableSet(changed));
         }
+        return changed;
     }
-    public void setYAxisControls(YAxisControls newControls) {
-        if (newControls != null) {
-            yAxisControlsLiveData.setValue(newControls);
+
+    /** Assigns one value without notifying. @return true if the stored value changed. */
+    private boolean assign(String key, Object value) {
+        switch (key) {
+            case SettingsBatch.KEY_Y_AXIS_CONTROLS:
+                return value instanceof SettingsBatch.YAxisGroups && assignYAxisGroups((SettingsBatch.YAxisGroups) value);
+            case SettingsBatch.KEY_OCTAVE_OFFSET: {
+                // setSetting передает числа строкой
+                Integer offset = toInteger(value);
+                if (offset == null) return false;
+                value = Math.max(SettingsBatch.MIN_OCTAVE_OFFSET, Math.min(SettingsBatch.MAX_OCTAVE_OFFSET, offset));
+                break;
+            }
+            case SettingsBatch.KEY_ZONE_COUNT: {
+                Integer count = toInteger(value);
+                if (count == null || !SettingsBatch.ZONE_COUNTS.contains(count)) return false;
+                value = count;
+                break;
+            }
+            default:
+                break;
+        }
+        synchronized (genericSettings) {
+            if (genericSettings.containsKey(key) && Objects.equals(genericSettings.get(key), value)) return false;
+            genericSettings.put(key, value);
         }
+        return true;
     }
-    public void setYAxisControlsFromJson(String jsonString) {
-        try {
-            YAxisControls newControls = gson.fromJson(jsonString, YAxisControls.class);
-            if (newControls != null) {
-                if (newControls.getVolume() == null) newControls.setVolume(new YAxisControls.VolumeControl());
-                if (newControls.getEffects() == null) newControls.setEffects(new YAxisControls.EffectsControl());
-                setYAxisControls(newControls);
+
+    private boolean assignYAxisGroups(SettingsBatch.YAxisGroups groups) {
+        YAxisControls current = yAxisControls;
+        YAxisControls updated = new YAxisControls(
+                groups.volume != null ? groups.volume : current != null ? current.getVolume() : null,
+                groups.effects != null ? groups.effects : current != null ? current.getEffects() : null);
+        // Классы групп без equals - сравниваем сериализованный вид
+        if (current != null && gson.toJson(current).equals(gson.toJson(updated))) return false;
+        yAxisControls = updated;
+        return true;
+    }
+
+    /** Both groups of saved Y-axis controls; defaults for a missing group or unreadable JSON. */
+    private SettingsBatch.YAxisGroups parseYAxisGroups(String jsonString) {
+        YAxisControls controls = null;
+        if (jsonString != null) {
+            try {
+                controls = gson.fromJson(jsonString, YAxisControls.class);
+            } catch (Exception e) {
+                // Поврежденное сохранение - берем значения по умолчанию
             }
-        } catch (Exception e) {
-            // Log error
         }
+        if (controls == null) controls = new YAxisControls();
+        SettingsBatch.YAxisGroups groups = new SettingsBatch.YAxisGroups();
+        groups.volume = controls.getVolume() != null ? controls.getVolume() : new YAxisControls.VolumeControl();
+        groups.effects = controls.getEffects() != null ? controls.getEffects() : new YAxisControls.EffectsControl();
+        return groups;
     }
-    public void setGenericSetting(String key, Object value) {
-        switch (key) {
-            case "theme": setCurrentTheme((String) value); break;
-            case "language": setCurrentLanguage((String) value); break;
-            // ... (остальные кейсы без изменений)
-            default:
-                genericSettings.put(key, value);
-                break;
+
+    private String getString(String key) {
+        Object value = genericSettings.get(key);
+        return value instanceof String ? (String) value : null;
+    }
+
+    private Integer getInteger(String key) {
+        Object value = genericSettings.get(key);
+        return value instanceof Integer ? (Integer) value : null;
+    }
+
+    private static Integer toInteger(Object value) {
+        if (value instanceof Integer) return (Integer) value;
+        if (value instanceof String) {
+            try {
+                return Integer.parseInt(((String) value).trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
         }
+        return null;
     }
+
     public Object getSetting(String key) {
-        // ... (ваш метод getSetting без изменений)
         return genericSettings.get(key);
     }
 }
@@ -2,6 +2,9 @@ package com.example.prismtone;
 
 import com.google.gson.JsonObject;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 public class ModuleInfo {
     private final String id;
     private final String type;
@@ -10,10 +13,20 @@ public class ModuleInfo {
     private final String description;
     private final boolean active;
     private final String path;
-    private final JsonObject data;
+    private final CompactJson.Obj data;
+    // Кэш сериализованных фрагментов по ключу проекции (transient - не попадает в gson.toJson)
+    private final transient Map<String, String> fragments = new ConcurrentHashMap<>();
+    // Gson-дерево для getData(), строится только если его кто-то запросил
+    private transient volatile JsonObject dataTree;
 
-    public ModuleInfo(String id, String type, String name, String version, 
+    public ModuleInfo(String id, String type, String name, String version,
                      String description, boolean active, String path, JsonObject data) {
+        this(id, type, name, version, description, active, path,
+                data != null ? CompactJson.copyOf(data).getAsObject() : null);
+    }
+
+    public ModuleInfo(String id, String type, String name, String version,
+                     String description, boolean active, String path, CompactJson.Obj data) {
         this.id = id;
         this.type = type;
         this.name = name;
@@ -52,10 +65,38 @@ public class ModuleInfo {
         return path;
     }
 
+    /**
+     * Returns the module JSON as a Gson tree. The tree is built on the first call and shared
+     * by later ones, so callers must not modify it; use deepCopy() for a private copy.
+     * Prefer {@link #getCompactData()} for read-only access.
+     */
     public JsonObject getData() {
+        JsonObject tree = dataTree;
+        if (tree == null && data != null) {
+            tree = data.toJsonElement();
+            dataTree = tree;
+        }
+        return tree;
+    }
+
+    /**
+     * Returns the shared, immutable module JSON.
+     */
+    public CompactJson.Obj getCompactData() {
         return data;
     }
     
+    /**
+     * Returns the JSON fragment for the given projection. Header-sized fragments are serialized
+     * once and cached; fragments with the module body are serialized on every call.
+     */
+    public String getFragment(ModuleProjection projection) {
+        if (!projection.isCacheable()) {
+            return projection.serialize(this);
+        }
+        return fragments.computeIfAbsent(projection.getKey(), k -> projection.serialize(this));
+    }
+
     @Override
     public String toString() {
         return "ModuleInfo{" +
@@ -2,23 +2,23 @@ package com.example.prismtone;
 
 import android.content.Context;
 import android.util.Log;
-import com.google.gson.Gson;
+import com.example.prismtone.model.SoundPreset;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays; // Для Arrays.toString()
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Scanner; // Для более надежного чтения файла
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
 import android.os.Handler;
 import android.os.Looper;
 
@@ -26,16 +26,29 @@ public class ModuleManager {
     private final Context context;
     private final MainViewModel viewModel;
     private final Map<String, List<ModuleInfo>> modules;
-    private final Gson gson;
+    // Индекс id -> модуль для каждого типа, чтобы поиск не перебирал списки
+    private final Map<String, Map<String, ModuleInfo>> moduleIndex;
+    // Общий интернер каталога: одинаковые поддеревья модулей хранятся один раз
+    private final JsonInterner catalogInterner = new JsonInterner();
+    // Скомпилированные (типизированные) пресеты, собираются один раз при сканировании
+    private final Map<String, SoundPreset> compiledPresets = new ConcurrentHashMap<>();
+    // Объединенный список прогрессий (assets + пользовательские), пересобирается при изменениях
+    private List<ModuleInfo> mergedProgressions;
+    private long mergedProgressionsUserVersion = -1;
+    private long mergedProgressionsCatalogVersion = -1;
+    private volatile long catalogVersion = 0;
+    // Собранные планы FX-цепочек (эффекты + переопределения цепочки), строятся лениво
+    private final FxChainCompiler fxChainCompiler = new FxChainCompiler(this);
     private static final String TAG = "ModuleManager";
-    private final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    // Сканирования не должны перекрываться - последовательная очередь общего планировщика
+    private final TaskScheduler.SerialQueue scanQueue = TaskScheduler.getInstance().serial("module-scan", TaskScheduler.Lane.USER_INITIATED);
     private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
     public ModuleManager(Context context, MainViewModel viewModel) {
         this.context = context.getApplicationContext();
         this.viewModel = viewModel;
         this.modules = new HashMap<>();
-        this.gson = new Gson();
+        this.moduleIndex = new ConcurrentHashMap<>();
 
         // Инициализация карты модулей для всех известных типов
         String[] knownModuleTypes = {
@@ -44,14 +57,17 @@ public class ModuleManager {
         };
         for (String type : knownModuleTypes) {
             modules.put(type, new ArrayList<>());
+            moduleIndex.put(type, new ConcurrentHashMap<>());
         }
         Log.d(TAG, "ModuleManager initialized. Known module types: " + Arrays.toString(knownModuleTypes));
     }
 
     public void scanModulesAsync() {
         Log.i(TAG, "Starting asynchronous module scan...");
-        executorService.execute(() -> {
+        scanQueue.execute(() -> {
             scanAssetsModules(); // This is the long-running task
+            // Пользовательские пресеты хранятся патчами над пресетами каталога
+            SoundPresetRepository.getInstance(context).setBaseProvider(this::getPresetBaseJson);
 
             // After scanning is done, post UI updates to the main thread
             mainHandler.post(() -> {
@@ -60,7 +76,8 @@ public class ModuleManager {
                 } else {
                     Log.w(TAG, "ViewModel is null, skipping ensureDefaultModules after async scan.");
                 }
-                Log.i(TAG, "Asynchronous module scanning and UI update complete. Summary:");
+                Log.i(TAG, "Asynchronous module scanning and UI update complete. Catalog nodes: "
+                        + catalogInterner.getUniqueNodeCount() + " unique of " + catalogInterner.getInternedNodeCount() + ". Summary:");
                 for (Map.Entry<String, List<ModuleInfo>> entry : modules.entrySet()) {
                     Log.i(TAG, "  Type: " + entry.getKey() + ", Count: " + entry.getValue().size());
                 }
@@ -112,50 +129,41 @@ public class ModuleManager {
                     String path = "modules/" + moduleTypeDirName + "/" + moduleFile;
                     Log.d(TAG, "--- Processing file: " + path + " ---");
 
-                    String jsonString;
+                    // Разбираем JSON прямо из потока, без промежуточной строки
+                    CompactJson parsed;
                     try (InputStream is = context.getAssets().open(path);
-                         Scanner scanner = new Scanner(is, StandardCharsets.UTF_8.name()).useDelimiter("\\A")) {
-                        jsonString = scanner.hasNext() ? scanner.next() : "";
-                    } catch (IOException e) {
-                        Log.e(TAG, "IOException reading file " + path, e);
+                         JsonReader reader = FileUtils.newJsonReader(is)) {
+                        reader.setLenient(true);
+                        parsed = catalogInterner.read(reader);
+                    } catch (EOFException e) {
+                        Log.w(TAG, "File content is empty or truncated for: " + path);
                         continue; // Пропустить этот файл
-                    }
-
-                    if (jsonString.isEmpty()) {
-                        Log.w(TAG, "File content is empty for: " + path);
-                        continue; // Пропустить этот файл
-                    }
-                    // Логируем только начало, чтобы не засорять Logcat полностью
-                    Log.v(TAG, "Raw JSON for " + path + " (first 200 chars): " + jsonString.substring(0, Math.min(jsonString.length(), 200)));
-
-                    JsonObject moduleJson = null;
-                    try {
-                        moduleJson = gson.fromJson(jsonString, JsonObject.class);
-                    } catch (JsonSyntaxException e) {
-                        Log.e(TAG, "GSON parsing error for " + path + ". Invalid JSON content.", e);
+                    } catch (IOException | IllegalStateException | NumberFormatException e) {
+                        Log.e(TAG, "Error reading or parsing " + path + ". Invalid JSON content.", e);
                         continue; // Пропустить этот файл
                     }
 
-                    if (moduleJson == null) {
+                    if (!parsed.isObject()) {
                         // Это может случиться, если JSON строка была, например, "null"
-                        Log.e(TAG, "GSON parsing resulted in NULL JsonObject for " + path + ".");
+                        Log.e(TAG, "JSON parsing did not produce an object for " + path + ".");
                         continue; // Пропустить этот файл
                     }
+                    CompactJson.Obj moduleJson = parsed.getAsObject();
                     Log.d(TAG, "Successfully parsed JSON for " + path);
 
                     // Проверка обязательных полей верхнего уровня
-                    boolean hasId = moduleJson.has("id") && moduleJson.get("id").isJsonPrimitive() && moduleJson.get("id").getAsJsonPrimitive().isString();
-                    boolean hasType = moduleJson.has("type") && moduleJson.get("type").isJsonPrimitive() && moduleJson.get("type").getAsJsonPrimitive().isString();
-                    boolean hasName = moduleJson.has("name") && moduleJson.get("name").isJsonPrimitive() && moduleJson.get("name").getAsJsonPrimitive().isString();
-                    boolean hasVersion = moduleJson.has("version") && moduleJson.get("version").isJsonPrimitive() && moduleJson.get("version").getAsJsonPrimitive().isString();
+                    boolean hasId = isStringField(moduleJson, "id");
+                    boolean hasType = isStringField(moduleJson, "type");
+                    boolean hasName = isStringField(moduleJson, "name");
+                    boolean hasVersion = isStringField(moduleJson, "version");
 
-                    String parsedType = hasType ? moduleJson.get("type").getAsString() : "N/A_TYPE";
-                    String parsedId = hasId ? moduleJson.get("id").getAsString() : "N/A_ID";
+                    String parsedType = hasType ? moduleJson.getString("type", null) : "N/A_TYPE";
+                    String parsedId = hasId ? moduleJson.getString("id", null) : "N/A_ID";
 
                     Log.d(TAG, "Validation for " + path + ": id=" + parsedId + " (valid: " + hasId + ")" +
                             ", type=" + parsedType + " (valid: " + hasType + ")" +
-                            ", name=" + (hasName ? moduleJson.get("name").getAsString() : "N/A_NAME") + " (valid: " + hasName + ")" +
-                            ", version=" + (hasVersion ? moduleJson.get("version").getAsString() : "N/A_VERSION") + " (valid: " + hasVersion + ")");
+                            ", name=" + moduleJson.getString("name", "N/A_NAME") + " (valid: " + hasName + ")" +
+                            ", version=" + moduleJson.getString("version", "N/A_VERSION") + " (valid: " + hasVersion + ")");
 
                     if (hasId && hasType && hasName && hasVersion) {
                         // Важно: Проверяем, что тип из JSON совпадает с именем директории
@@ -167,12 +175,12 @@ public class ModuleManager {
                         ModuleInfo info = new ModuleInfo(
                                 parsedId,
                                 parsedType,
-                                moduleJson.get("name").getAsString(),
-                                moduleJson.get("version").getAsString(),
-                                (moduleJson.has("description") && moduleJson.get("description").isJsonPrimitive()) ? moduleJson.get("description").getAsString() : "",
-                                (moduleJson.has("active") && moduleJson.get("active").isJsonPrimitive()) ? moduleJson.get("active").getAsBoolean() : true,
+                                moduleJson.getString("name", null),
+                                moduleJson.getString("version", null),
+                                moduleJson.getString("description", ""),
+                                moduleJson.getBoolean("active", true),
                                 "asset://" + path,
-                                moduleJson // Передаем весь JSON-объект
+                                moduleJson // Передаем весь (разделяемый, неизменяемый) JSON-объект
                         );
                         Log.d(TAG, "ModuleInfo created for: " + info.getId() + " of type " + info.getType());
                         addModule(info);
@@ -184,6 +192,11 @@ public class ModuleManager {
         }
     }
 
+    private static boolean isStringField(CompactJson.Obj json, String key) {
+        CompactJson value = json.get(key);
+        return value != null && value.isString();
+    }
+
     // scanExternalModules() - остается без изменений или закомментирован
 
     private void addModule(ModuleInfo info) {
@@ -204,6 +217,52 @@ public class ModuleManager {
             list.add(info);
             Log.i(TAG, "addModule: Successfully ADDED module: " + info.getId() + " (type: " + type + ")");
         }
+        moduleIndex.get(type).put(info.getId(), info);
+        catalogVersion++;
+        if ("soundpreset".equals(type)) {
+            compileSoundPreset(info);
+        }
+        fxChainCompiler.onModuleChanged(info);
+        // Заголовок сериализуем заранее, пока мы в фоновом потоке сканирования
+        info.getFragment(ModuleProjection.HEADER);
+    }
+
+    private void compileSoundPreset(ModuleInfo info) {
+        try {
+            compiledPresets.put(info.getId(), SoundPreset.of(info.getCompactData()));
+        } catch (IllegalArgumentException e) {
+            compiledPresets.remove(info.getId());
+            Log.w(TAG, "compileSoundPreset: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the compiled, typed model of a sound preset, from the catalog or the user library.
+     * @return the preset or null if it doesn't exist or failed validation.
+     */
+    public SoundPreset getSoundPreset(String presetId) {
+        if (presetId == null) {
+            return null;
+        }
+        SoundPreset preset = compiledPresets.get(presetId);
+        return preset != null ? preset : SoundPresetRepository.getInstance(context).getCompiledPreset(presetId);
+    }
+
+    /**
+     * Catalog preset JSON that user presets are stored as patches of, see {@link SoundPresetRepository}.
+     * @return a fresh copy, or null if the preset isn't in the catalog.
+     */
+    private JsonObject getPresetBaseJson(String presetId) {
+        ModuleInfo info = moduleIndex.get("soundpreset").get(presetId);
+        return info != null && info.getCompactData() != null ? info.getCompactData().toJsonElement() : null;
+    }
+
+    /**
+     * Returns the resolved plan of an FX chain, see {@link FxChainCompiler}.
+     * @return the plan or null if the chain doesn't exist.
+     */
+    public FxChainCompiler.Plan getFxChainPlan(String chainId) {
+        return chainId != null ? fxChainCompiler.getPlan(chainId) : null;
     }
 
     private void ensureDefaultModules() {
@@ -274,49 +333,61 @@ public class ModuleManager {
         Log.d(TAG, "getModules (Java): Found " + result.size() + " modules in asset cache for type: " + moduleType);
 
         if ("chordProgression".equals(moduleType)) {
-            Log.d(TAG, "getModules (Java): Fetching user-saved chord progressions.");
             ChordProgressionRepository repository = ChordProgressionRepository.getInstance(context);
-            List<JsonObject> userProgressionsJson = repository.getUserProgressions();
-            Log.d(TAG, "getModules (Java): Found " + userProgressionsJson.size() + " user progressions from repository.");
-
-            List<ModuleInfo> userModuleInfos = new ArrayList<>();
-            for (JsonObject json : userProgressionsJson) {
-                try {
-                    String id = json.has("id") ? json.get("id").getAsString() : null;
-                    String type = json.has("type") ? json.get("type").getAsString() : moduleType; // Fallback to requested type
-                    String name = json.has("name") ? json.get("name").getAsString() : "Unnamed";
-                    String version = json.has("version") ? json.get("version").getAsString() : "1.0.0";
-                    String description = json.has("description") ? json.get("description").getAsString() : "";
-                    boolean active = json.has("active") ? json.get("active").getAsBoolean() : true;
-                    // User progressions are not from assets, so path is null or could be file path
-                    String path = "user_defined";
-
-                    if (id != null && moduleType.equals(type)) {
-                        ModuleInfo info = new ModuleInfo(id, type, name, version, description, active, path, json);
-                        userModuleInfos.add(info);
-                    } else {
-                        Log.w(TAG, "Skipping user progression due to missing ID or type mismatch: " + json.toString());
+            // ModuleInfo пользовательских прогрессий строит и кэширует репозиторий
+            List<ModuleInfo> userModuleInfos = repository.getUserProgressionModules();
+            long userVersion = repository.getLibraryVersion();
+            synchronized (this) {
+                if (mergedProgressions == null || mergedProgressionsUserVersion != userVersion
+                        || mergedProgressionsCatalogVersion != catalogVersion) {
+                    // Merge asset modules and user modules.
+                    // User modules overwrite asset modules with the same ID.
+                    Map<String, ModuleInfo> combinedModulesMap = new LinkedHashMap<>();
+                    for (ModuleInfo assetModule : result) {
+                        combinedModulesMap.put(assetModule.getId(), assetModule);
+                    }
+                    for (ModuleInfo userModule : userModuleInfos) {
+                        combinedModulesMap.put(userModule.getId(), userModule); // User module will overwrite if ID exists
                     }
-                } catch (Exception e) {
-                    Log.e(TAG, "Error converting user progression JsonObject to ModuleInfo: " + json.toString(), e);
+                    mergedProgressions = Collections.unmodifiableList(new ArrayList<>(combinedModulesMap.values()));
+                    mergedProgressionsUserVersion = userVersion;
+                    mergedProgressionsCatalogVersion = catalogVersion;
+                    Log.d(TAG, "getModules (Java): Total " + mergedProgressions.size() + " chord progressions after merging assets and user library.");
                 }
+                // Общий неизменяемый список - без копирования на каждый вызов
+                result = mergedProgressions;
             }
-
-            // Merge asset modules and user modules.
-            // Create a map to easily overwrite asset modules with user modules if IDs conflict (user takes precedence)
-            // or add new user modules.
-            Map<String, ModuleInfo> combinedModulesMap = new HashMap<>();
-            for (ModuleInfo assetModule : result) {
-                combinedModulesMap.put(assetModule.getId(), assetModule);
+        }
+        return result;
+    }
+    /**
+     * Finds a single module (asset or user-defined) by type and id.
+     * @return the module or null if it doesn't exist.
+     */
+    public ModuleInfo getModule(String moduleType, String moduleId) {
+        if (moduleType == null || moduleId == null) {
+            return null;
+        }
+        if ("chordProgression".equals(moduleType)) {
+            // Пользовательские прогрессии не входят в индекс каталога
+            for (ModuleInfo info : getModules(moduleType)) {
+                if (moduleId.equals(info.getId())) {
+                    return info;
+                }
             }
-            for (ModuleInfo userModule : userModuleInfos) {
-                combinedModulesMap.put(userModule.getId(), userModule); // User module will overwrite if ID exists
+        } else {
+            Map<String, ModuleInfo> index = moduleIndex.get(moduleType);
+            ModuleInfo info = index != null ? index.get(moduleId) : null;
+            if (info == null && "fxchain".equals(moduleType)) {
+                // Пользовательские цепочки хранит репозиторий, в индекс каталога они не попадают
+                info = FxChainRepository.getInstance(context).getUserChainModule(moduleId);
+            }
+            if (info != null) {
+                return info;
             }
-
-            result = new ArrayList<>(combinedModulesMap.values());
-            Log.d(TAG, "getModules (Java): Total " + result.size() + " chord progressions after merging assets and user files.");
         }
-        return result;
+        Log.w(TAG, "getModule (Java): Module '" + moduleId + "' of type '" + moduleType + "' not found.");
+        return null;
     }
     // compareVersions не нужен, если мы просто заменяем по ID
 }
\ No newline at end of file
@@ -0,0 +1,166 @@
+package com.example.prismtone;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Describes which fields of a {@link ModuleInfo} are serialized for the JS side.
+ * Pickers only need the header fields, the full module body is fetched on demand.
+ */
+public final class ModuleProjection {
+    public static final String FIELD_ID = "id";
+    public static final String FIELD_TYPE = "type";
+    public static final String FIELD_NAME = "name";
+    public static final String FIELD_VERSION = "version";
+    public static final String FIELD_DESCRIPTION = "description";
+    public static final String FIELD_ACTIVE = "active";
+    public static final String FIELD_PATH = "path";
+    public static final String FIELD_DATA = "data";
+    /** Shortcut for data.data.colors (used by soundpreset pickers). */
+    public static final String FIELD_COLORS = "colors";
+
+    private static final List<String> KNOWN_FIELDS = Arrays.asList(
+            FIELD_ID, FIELD_TYPE, FIELD_NAME, FIELD_VERSION, FIELD_DESCRIPTION,
+            FIELD_ACTIVE, FIELD_PATH, FIELD_DATA, FIELD_COLORS
+    );
+
+    public static final ModuleProjection HEADER = new ModuleProjection("header", Arrays.asList(
+            FIELD_ID, FIELD_TYPE, FIELD_NAME, FIELD_VERSION, FIELD_DESCRIPTION, FIELD_ACTIVE, FIELD_COLORS
+    ));
+
+    /** Same shape as the bridge's gson.toJson(ModuleInfo), which serializes null fields. */
+    public static final ModuleProjection FULL = new ModuleProjection("full", Arrays.asList(
+            FIELD_ID, FIELD_TYPE, FIELD_NAME, FIELD_VERSION, FIELD_DESCRIPTION, FIELD_ACTIVE, FIELD_PATH, FIELD_DATA
+    ));
+
+    private static final Map<String, ModuleProjection> projections = new ConcurrentHashMap<>();
+    private static final Gson gson = new GsonBuilder().serializeNulls().create();
+
+    static {
+        projections.put(HEADER.key, HEADER);
+        projections.put(FULL.key, FULL);
+    }
+
+    private final String key;
+    private final List<String> fields;
+
+    private ModuleProjection(String key, List<String> fields) {
+        this.key = key;
+        this.fields = Collections.unmodifiableList(fields);
+    }
+
+    /**
+     * Resolves a projection spec coming from JS.
+     * @param spec null/empty or "full", a named projection ("header"), a JSON array of field names
+     *             or a comma separated list of field names.
+     * @return the matching projection, never null. Unknown field names are ignored.
+     */
+    public static ModuleProjection resolve(String spec) {
+        if (spec == null || spec.trim().isEmpty()) {
+            return FULL;
+        }
+        String trimmed = spec.trim();
+        ModuleProjection named = projections.get(trimmed);
+        if (named != null) {
+            return named;
+        }
+
+        List<String> requested = new ArrayList<>();
+        if (trimmed.startsWith("[")) {
+            String[] parsed = gson.fromJson(trimmed, String[].class);
+            if (parsed != null) requested.addAll(Arrays.asList(parsed));
+        } else {
+            for (String part : trimmed.split(",")) {
+                requested.add(part.trim());
+            }
+        }
+
+        // Канонический порядок полей, чтобы ["name","id"] и ["id","name"] делили один кэш фрагментов
+        List<String> fields = new ArrayList<>();
+        for (String known : KNOWN_FIELDS) {
+            if (requested.contains(known)) fields.add(known);
+        }
+        if (fields.isEmpty()) {
+            return HEADER;
+        }
+        if (!fields.contains(FIELD_ID)) {
+            fields.add(0, FIELD_ID);
+        }
+        String key = String.join(",", fields);
+        return projections.computeIfAbsent(key, k -> new ModuleProjection(k, fields));
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public List<String> getFields() {
+        return fields;
+    }
+
+    /**
+     * Whether fragments of this projection are worth keeping per module. Projections with the
+     * module body would hold a second copy of the catalog as strings, so they are built per call.
+     */
+    boolean isCacheable() {
+        return !fields.contains(FIELD_DATA);
+    }
+
+    /**
+     * Serializes the projected fields of a module into a standalone JSON object fragment.
+     * Callers should go through {@link ModuleInfo#getFragment(ModuleProjection)}, which caches small fragments.
+     */
+    String serialize(ModuleInfo info) {
+        StringWriter out = new StringWriter();
+        try (JsonWriter writer = new JsonWriter(out)) {
+            writer.setSerializeNulls(true);
+            writer.beginObject();
+            for (String field : fields) {
+                writer.name(field);
+                switch (field) {
+                    case FIELD_ID: writer.value(info.getId()); break;
+                    case FIELD_TYPE: writer.value(info.getType()); break;
+                    case FIELD_NAME: writer.value(info.getName()); break;
+                    case FIELD_VERSION: writer.value(info.getVersion()); break;
+                    case FIELD_DESCRIPTION: writer.value(info.getDescription()); break;
+                    case FIELD_ACTIVE: writer.value(info.isActive()); break;
+                    case FIELD_PATH: writer.value(info.getPath()); break;
+                    case FIELD_DATA: writeElement(writer, info.getCompactData()); break;
+                    case FIELD_COLORS: writeElement(writer, extractColors(info.getCompactData())); break;
+                    default: writer.nullValue(); break;
+                }
+            }
+            writer.endObject();
+        } catch (IOException e) {
+            // StringWriter не бросает IOException
+            throw new IllegalStateException("Failed to serialize module " + info.getId(), e);
+        }
+        return out.toString();
+    }
+
+    private static void writeElement(JsonWriter writer, CompactJson element) throws IOException {
+        if (element == null) {
+            writer.nullValue();
+        } else {
+            element.write(writer);
+        }
+    }
+
+    private static CompactJson extractColors(CompactJson.Obj moduleJson) {
+        if (moduleJson == null) {
+            return null;
+        }
+        CompactJson.Obj data = moduleJson.getObject("data");
+        return data != null ? data.get("colors") : null;
+    }
+}
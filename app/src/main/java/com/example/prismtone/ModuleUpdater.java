@@ -5,7 +5,6 @@ import android.os.Handler;
 import android.os.Looper;
 import androidx.concurrent.futures.CallbackToFutureAdapter;
 import com.google.common.util.concurrent.ListenableFuture;
-import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 
 import java.io.File;
@@ -13,14 +12,14 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
 
 public class ModuleUpdater {
     private final Context context;
     private final ModuleManager moduleManager;
     private final Map<String, ModuleUpdateListener> updateListeners;
-    private final Executor executor = Executors.newSingleThreadExecutor();
+    private final Executor executor = TaskScheduler.getInstance().serial("module-updater", TaskScheduler.Lane.BACKGROUND);
     private final Handler mainHandler = new Handler(Looper.getMainLooper());
     
     /**
@@ -117,28 +116,25 @@ public class ModuleUpdater {
     }
 
     /**
-     * Update a module to a newer version
+     * Update a module to a newer version. The write is atomic, and repeated updates of the same
+     * module within the writer's window are coalesced into one.
+     * @return a future that completes once the new module file is durable, or fails with the I/O error.
      */
-    public boolean updateModule(ModuleInfo oldModule, JsonObject newModuleData) {
+    public CompletableFuture<Void> updateModule(ModuleInfo oldModule, JsonObject newModuleData) {
+        File moduleDir = new File(context.getExternalFilesDir(null),
+                                 "modules/" + oldModule.getType());
+        if (!moduleDir.exists()) {
+            moduleDir.mkdirs();
+        }
+
+        // Create file for new module
+        File newModuleFile = new File(moduleDir, oldModule.getId() + ".json");
         try {
-            // Create a temporary file for the new module
-            File moduleDir = new File(context.getExternalFilesDir(null), 
-                                     "modules/" + oldModule.getType());
-            if (!moduleDir.exists()) {
-                moduleDir.mkdirs();
-            }
-            
-            // Create file for new module
-            File newModuleFile = new File(moduleDir, oldModule.getId() + ".json");
-            
-            // Write updated module to file
-            Gson gson = new Gson();
-            FileUtils.writeFile(newModuleFile, gson.toJson(newModuleData));
-            
-            return true;
+            return DurableFileWriter.getInstance().write(newModuleFile, FileUtils.toJsonBytes(newModuleData));
         } catch (IOException e) {
-            e.printStackTrace();
-            return false;
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
         }
     }
 }
@@ -1,5 +1,6 @@
 package com.example.prismtone;
 
+import com.example.prismtone.model.SoundPreset;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 
@@ -81,8 +82,8 @@ public class ModuleValidator {
     }
 
     private boolean validateSoundPresetData(JsonObject data) {
-        // Sound preset must have oscillator or envelope or filter
-        return data.has("oscillator") || data.has("envelope") || data.has("filter");
+        // Sound preset must match the real schema (sound source, component blocks, colors)
+        return SoundPreset.validate(CompactJson.copyOf(data).getAsObject()) == null;
     }
 
     private boolean validateFxChainData(JsonObject data) {
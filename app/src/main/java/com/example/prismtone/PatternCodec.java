@@ -0,0 +1,464 @@
+package com.example.prismtone;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Binary encoding of sequencer patterns (the array produced by sequencer.getPatternData():
+ * [{time: "bars:beats:sixteenths", note: "C#4", duration: "16n", velocity: 0.9}, ...]).
+ *
+ * Layout (all integers are unsigned LEB128 varints, signed ones zigzag-encoded):
+ * <pre>
+ *   "PTN1" encoding          // ENCODING_COLUMNS or ENCODING_JSON (raw UTF-8 JSON follows)
+ *   beatsPerBar ticksPerSixteenth
+ *   stringCount {length utf8}*
+ *   eventCount
+ *   times      {tickDelta}*            // events sorted by tick, then pitch
+ *   timeRefs   {0 | stringIndex+1}*    // time strings that are not canonical "B:b:s"
+ *   pitches    {zigzag midiDelta}*
+ *   noteRefs   {0 | stringIndex+1}*    // note names that are not canonical sharps ("Db4")
+ *   durations  {stringIndex}*
+ *   velocities {runLength value}*      // value = round(v * 1000) + 1, 0 = escape + 8-byte double
+ * </pre>
+ * A value is stored in a column only if decoding writes back the same token ("00:0:0", "Db4" and
+ * velocities like 1.0 or -0.0 are not). Any pattern the columns cannot reproduce exactly (extra keys,
+ * unusual values) is stored as JSON, so decoding returns what was saved, up to event order,
+ * whitespace and string escapes.
+ */
+public final class PatternCodec {
+    static final byte[] MAGIC = {'P', 'T', 'N', '1'};
+    private static final int ENCODING_COLUMNS = 1;
+    private static final int ENCODING_JSON = 2;
+    private static final int TICKS_PER_SIXTEENTH = 12;
+    private static final int VELOCITY_SCALE = 1000;
+    private static final Pattern BBS = Pattern.compile("(\\d+):(\\d+):(\\d+(?:\\.\\d+)?)");
+    private static final Pattern NOTE = Pattern.compile("([A-G])(#?)(-?\\d+)");
+    private static final String[] NOTE_NAMES = {"C", "C#", "D", "D#", "E", "F", "F#", "G", "G#", "A", "A#", "B"};
+    private static final int[] LETTER_SEMITONES = {9, 11, 0, 2, 4, 5, 7}; // A..G
+
+    private PatternCodec() {
+    }
+
+    /** Summary kept in the pattern index, so listing never decodes patterns. */
+    public static final class Summary {
+        public final int eventCount;
+        public final int lengthInSixteenths;
+
+        Summary(int eventCount, int lengthInSixteenths) {
+            this.eventCount = eventCount;
+            this.lengthInSixteenths = lengthInSixteenths;
+        }
+    }
+
+    private static final class Event {
+        String time;
+        long tick = -1;       // -1 - время не в каноническом виде B:b:s
+        String note;
+        int midi = Integer.MIN_VALUE;
+        String duration;
+        double velocity;
+    }
+
+    /**
+     * Encodes a pattern given as the JSON array string coming from JS.
+     * @throws IllegalArgumentException if the JSON is not an array.
+     */
+    public static byte[] encode(String patternJson) {
+        JsonElement root = JsonParser.parseString(patternJson);
+        if (!root.isJsonArray()) {
+            throw new IllegalArgumentException("Pattern must be a JSON array");
+        }
+        JsonArray array = root.getAsJsonArray();
+        List<Event> events = parseEvents(array);
+        Buffer out = new Buffer();
+        out.bytes(MAGIC);
+        if (events == null) {
+            out.varint(ENCODING_JSON);
+            out.bytes(array.toString().getBytes(StandardCharsets.UTF_8));
+            return out.toByteArray();
+        }
+        out.varint(ENCODING_COLUMNS);
+
+        int beatsPerBar = 4;
+        for (Event e : events) {
+            if (e.tick >= 0) beatsPerBar = Math.max(beatsPerBar, beatOf(e.time) + 1);
+        }
+        for (Event e : events) {
+            if (e.tick >= 0) e.tick = toTick(e.time, beatsPerBar);
+        }
+        events.sort(Comparator.comparingLong((Event e) -> e.tick < 0 ? Long.MAX_VALUE : e.tick)
+                .thenComparingInt(e -> e.midi));
+
+        StringTable strings = new StringTable();
+        for (Event e : events) {
+            strings.indexOf(e.duration);
+            if (e.tick < 0) strings.indexOf(e.time);
+            if (e.midi == Integer.MIN_VALUE) strings.indexOf(e.note);
+        }
+        out.varint(beatsPerBar);
+        out.varint(TICKS_PER_SIXTEENTH);
+        out.varint(strings.values.size());
+        for (String value : strings.values) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.varint(bytes.length);
+            out.bytes(bytes);
+        }
+        out.varint(events.size());
+
+        long previousTick = 0;
+        for (Event e : events) {
+            long tick = e.tick < 0 ? previousTick : e.tick;
+            out.varint(tick - previousTick);
+            previousTick = tick;
+        }
+        for (Event e : events) {
+            out.varint(e.tick < 0 ? strings.indexOf(e.time) + 1 : 0);
+        }
+        int previousMidi = 60;
+        for (Event e : events) {
+            int midi = e.midi == Integer.MIN_VALUE ? previousMidi : e.midi;
+            out.zigzag(midi - previousMidi);
+            previousMidi = midi;
+        }
+        for (Event e : events) {
+            out.varint(e.midi == Integer.MIN_VALUE ? strings.indexOf(e.note) + 1 : 0);
+        }
+        for (Event e : events) {
+            out.varint(strings.indexOf(e.duration));
+        }
+        // Скорости обычно одинаковые - кодируем сериями
+        int i = 0;
+        while (i < events.size()) {
+            double velocity = events.get(i).velocity;
+            int run = 1;
+            while (i + run < events.size() && Double.compare(events.get(i + run).velocity, velocity) == 0) run++;
+            out.varint(run);
+            long quantized = Math.round(velocity * VELOCITY_SCALE);
+            if (velocity >= 0 && quantized < Integer.MAX_VALUE && (double) quantized / VELOCITY_SCALE == velocity) {
+                out.varint(quantized + 1);
+            } else {
+                out.varint(0);
+                out.int64(Double.doubleToLongBits(velocity));
+            }
+            i += run;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a pattern back to the JSON array string expected by sequencer.loadPatternData().
+     * @throws IOException if the data is not a valid pattern.
+     */
+    public static String decode(byte[] data) throws IOException {
+        Reader in = new Reader(data);
+        in.expectMagic();
+        int encoding = (int) in.varint();
+        if (encoding == ENCODING_JSON) {
+            return new String(data, in.position, data.length - in.position, StandardCharsets.UTF_8);
+        }
+        if (encoding != ENCODING_COLUMNS) {
+            throw new IOException("Unknown pattern encoding " + encoding);
+        }
+        int beatsPerBar = (int) in.varint();
+        int ticksPerSixteenth = (int) in.varint();
+        if (beatsPerBar <= 0 || ticksPerSixteenth <= 0) throw new IOException("Corrupt pattern header");
+        String[] strings = new String[in.count()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = in.string();
+        }
+        int count = in.count();
+        long[] ticks = new long[count];
+        long tick = 0;
+        for (int i = 0; i < count; i++) {
+            tick += in.varint();
+            ticks[i] = tick;
+        }
+        String[] times = new String[count];
+        for (int i = 0; i < count; i++) {
+            int ref = (int) in.varint();
+            times[i] = ref == 0 ? fromTick(ticks[i], beatsPerBar, ticksPerSixteenth) : strings[ref - 1];
+        }
+        int[] midis = new int[count];
+        int midi = 60;
+        for (int i = 0; i < count; i++) {
+            midi += (int) in.zigzag();
+            midis[i] = midi;
+        }
+        String[] notes = new String[count];
+        for (int i = 0; i < count; i++) {
+            int ref = (int) in.varint();
+            notes[i] = ref == 0 ? midiToName(midis[i]) : strings[ref - 1];
+        }
+        String[] durations = new String[count];
+        for (int i = 0; i < count; i++) {
+            durations[i] = strings[(int) in.varint()];
+        }
+        JsonArray array = new JsonArray();
+        int i = 0;
+        while (i < count) {
+            int run = (int) in.varint();
+            long value = in.varint();
+            double velocity = value == 0 ? Double.longBitsToDouble(in.int64()) : (double) (value - 1) / VELOCITY_SCALE;
+            for (int r = 0; r < run && i < count; r++, i++) {
+                JsonObject event = new JsonObject();
+                event.addProperty("time", times[i]);
+                event.addProperty("note", notes[i]);
+                event.addProperty("duration", durations[i]);
+                event.add("velocity", velocityElement(velocity));
+                array.add(event);
+            }
+        }
+        return array.toString();
+    }
+
+    /**
+     * Reads only what the index needs, without materializing events.
+     */
+    public static Summary summarize(byte[] data) throws IOException {
+        Reader in = new Reader(data);
+        in.expectMagic();
+        int encoding = (int) in.varint();
+        if (encoding == ENCODING_JSON) {
+            JsonArray array = JsonParser.parseString(decode(data)).getAsJsonArray();
+            return new Summary(array.size(), 0);
+        }
+        int beatsPerBar = (int) in.varint();
+        int ticksPerSixteenth = (int) in.varint();
+        int stringCount = in.count();
+        for (int i = 0; i < stringCount; i++) in.string();
+        int count = in.count();
+        long tick = 0;
+        for (int i = 0; i < count; i++) tick += in.varint();
+        // Позиция последнего события в шестнадцатых (доля = 4 шестнадцатых), включая само событие
+        long sixteenths = (tick >>> 16) * 4 + (tick & 0xFFFF) / Math.max(1, ticksPerSixteenth);
+        return new Summary(count, count == 0 ? 0 : (int) Math.min(Integer.MAX_VALUE, sixteenths + 1));
+    }
+
+    private static JsonPrimitive velocityElement(double velocity) {
+        // Целые значения (например 1) возвращаем как 1, а не 1.0 - как JSON.stringify
+        if (velocity == Math.rint(velocity) && Math.abs(velocity) < 1e15) {
+            return new JsonPrimitive((long) velocity);
+        }
+        return new JsonPrimitive(velocity);
+    }
+
+    /** @return the events, or null if the pattern can't be stored in columns losslessly. */
+    private static List<Event> parseEvents(JsonArray array) {
+        List<Event> events = new ArrayList<>(array.size());
+        for (JsonElement element : array) {
+            if (!element.isJsonObject()) return null;
+            JsonObject object = element.getAsJsonObject();
+            if (object.size() != 4) return null;
+            JsonElement time = object.get("time");
+            JsonElement note = object.get("note");
+            JsonElement duration = object.get("duration");
+            JsonElement velocity = object.get("velocity");
+            if (!isString(time) || !isString(note) || !isString(duration)
+                    || velocity == null || !velocity.isJsonPrimitive() || !velocity.getAsJsonPrimitive().isNumber()) {
+                return null;
+            }
+            Event event = new Event();
+            event.time = time.getAsString();
+            event.note = note.getAsString();
+            event.duration = duration.getAsString();
+            event.velocity = velocity.getAsDouble();
+            if (Double.isNaN(event.velocity) || Double.isInfinite(event.velocity)) return null;
+            // Токен числа должен совпасть с тем, что запишет decode (1.0 -> 1, -0.0 -> 0)
+            if (!velocityElement(event.velocity).toString().equals(velocity.toString())) return null;
+            event.tick = isCanonicalTime(event.time) ? 0 : -1;
+            event.midi = nameToMidi(event.note);
+            events.add(event);
+        }
+        return events;
+    }
+
+    private static boolean isString(JsonElement element) {
+        return element != null && element.isJsonPrimitive() && element.getAsJsonPrimitive().isString();
+    }
+
+    private static boolean isCanonicalTime(String time) {
+        Matcher m = BBS.matcher(time);
+        if (!m.matches()) return false;
+        try {
+            double sixteenths = Double.parseDouble(m.group(3));
+            double ticks = sixteenths * TICKS_PER_SIXTEENTH;
+            // Только времена, которые точно восстанавливаются из тиков
+            return ticks == Math.rint(ticks) && ticks < 0x10000
+                    && isCanonicalInteger(m.group(1), Integer.MAX_VALUE)
+                    && isCanonicalInteger(m.group(2), 1024)
+                    && formatSixteenths((long) ticks, TICKS_PER_SIXTEENTH).equals(m.group(3));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /** True for a number below the limit written without leading zeros ("00" is not). */
+    private static boolean isCanonicalInteger(String digits, long limit) {
+        long value = Long.parseLong(digits);
+        return value < limit && Long.toString(value).equals(digits);
+    }
+
+    private static int beatOf(String time) {
+        Matcher m = BBS.matcher(time);
+        return m.matches() ? Integer.parseInt(m.group(2)) : 0;
+    }
+
+    private static long toTick(String time, int beatsPerBar) {
+        Matcher m = BBS.matcher(time);
+        m.matches();
+        long bars = Long.parseLong(m.group(1));
+        long beats = Long.parseLong(m.group(2));
+        long sixteenthTicks = Math.round(Double.parseDouble(m.group(3)) * TICKS_PER_SIXTEENTH);
+        // Шестнадцатые внутри доли могут быть >= 4, поэтому храним их отдельным "разрядом" с запасом
+        return ((bars * beatsPerBar + beats) << 16) + sixteenthTicks;
+    }
+
+    private static String fromTick(long tick, int beatsPerBar, int ticksPerSixteenth) {
+        long beatIndex = tick >>> 16;
+        long sixteenthTicks = tick & 0xFFFF;
+        return (beatIndex / beatsPerBar) + ":" + (beatIndex % beatsPerBar) + ":"
+                + formatSixteenths(sixteenthTicks, ticksPerSixteenth);
+    }
+
+    private static String formatSixteenths(long ticks, int ticksPerSixteenth) {
+        if (ticks % ticksPerSixteenth == 0) {
+            return Long.toString(ticks / ticksPerSixteenth);
+        }
+        return Double.toString((double) ticks / ticksPerSixteenth);
+    }
+
+    private static int nameToMidi(String note) {
+        Matcher m = NOTE.matcher(note);
+        if (!m.matches()) return Integer.MIN_VALUE;
+        try {
+            int octave = Integer.parseInt(m.group(3));
+            int semitone = LETTER_SEMITONES[m.group(1).charAt(0) - 'A'] + (m.group(2).isEmpty() ? 0 : 1);
+            if (semitone == 12 || (m.group(2).length() == 1 && (m.group(1).equals("E") || m.group(1).equals("B")))) {
+                return Integer.MIN_VALUE; // "E#", "B#" - не канонические имена
+            }
+            int midi = (octave + 1) * 12 + semitone;
+            return midi >= -1000 && midi <= 1000 ? midi : Integer.MIN_VALUE;
+        } catch (NumberFormatException e) {
+            return Integer.MIN_VALUE;
+        }
+    }
+
+    private static String midiToName(int midi) {
+        int octave = Math.floorDiv(midi, 12) - 1;
+        return NOTE_NAMES[Math.floorMod(midi, 12)] + octave;
+    }
+
+    private static final class StringTable {
+        final List<String> values = new ArrayList<>();
+        final Map<String, Integer> indices = new HashMap<>();
+
+        int indexOf(String value) {
+            Integer index = indices.get(value);
+            if (index == null) {
+                index = values.size();
+                values.add(value);
+                indices.put(value, index);
+            }
+            return index;
+        }
+    }
+
+    private static final class Buffer extends ByteArrayOutputStream {
+        Buffer() {
+            super(256);
+        }
+
+        void varint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void zigzag(long value) {
+            varint((value << 1) ^ (value >> 63));
+        }
+
+        void int64(long value) {
+            for (int i = 0; i < 8; i++) {
+                write((int) (value >>> (i * 8)));
+            }
+        }
+
+        void bytes(byte[] value) {
+            write(value, 0, value.length);
+        }
+    }
+
+    private static final class Reader {
+        final byte[] data;
+        int position;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        void expectMagic() throws IOException {
+            if (data.length < MAGIC.length || !Arrays.equals(Arrays.copyOf(data, MAGIC.length), MAGIC)) {
+                throw new IOException("Not a pattern file");
+            }
+            position = MAGIC.length;
+        }
+
+        long varint() throws IOException {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= data.length) throw new IOException("Truncated pattern");
+                int b = data[position++] & 0xFF;
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return result;
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        long zigzag() throws IOException {
+            long value = varint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        long int64() throws IOException {
+            if (position + 8 > data.length) throw new IOException("Truncated pattern");
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value |= (long) (data[position++] & 0xFF) << (i * 8);
+            }
+            return value;
+        }
+
+        int count() throws IOException {
+            long value = varint();
+            // Каждый элемент занимает хотя бы байт - защита от огромных аллокаций на мусоре
+            if (value > data.length) throw new IOException("Corrupt count " + value);
+            return (int) value;
+        }
+
+        String string() throws IOException {
+            int length = count();
+            if (position + length > data.length) throw new IOException("Truncated pattern");
+            String value = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+    }
+}
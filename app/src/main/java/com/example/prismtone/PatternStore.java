@@ -0,0 +1,408 @@
+package com.example.prismtone;
+
+import android.content.Context;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Storage for sequencer patterns. Each pattern is one {@link PatternCodec} file; a small index
+ * (id, event count, length, save time) is kept in memory and persisted next to them, so listing
+ * never opens the pattern files.
+ *
+ * Saves and deletes update memory immediately and reach the disk asynchronously; operations on the
+ * same pattern are applied to disk in call order.
+ */
+public final class PatternStore {
+    private static final String TAG = "PatternStore";
+    private static final String DIR_NAME = "patterns";
+    private static final String FILE_EXTENSION = ".ptn";
+    private static final String INDEX_FILE_NAME = "patterns.idx";
+    private static final String EXPORT_FORMAT = "prismtone-pattern";
+    private static final int EXPORT_VERSION = 1;
+    private static final int DECODED_CACHE_SIZE = 8;
+    private static final long PENDING_WRITE_WAIT_MS = 2000;
+    // id попадает в имя файла, поэтому только безопасные символы и без ведущей точки
+    private static final Pattern VALID_ID = Pattern.compile("[A-Za-z0-9_-][A-Za-z0-9_.-]{0,99}");
+
+    private static PatternStore instance;
+
+    private final File directory;
+    private final File indexFile;
+    private final TaskScheduler.SerialQueue executor = TaskScheduler.getInstance().serial("pattern-store", TaskScheduler.Lane.BACKGROUND);
+    private final Map<String, IndexEntry> index = new LinkedHashMap<>();
+    private final Map<String, CompletableFuture<Void>> pendingOps = new HashMap<>();
+    private final LruCache<String, String> decoded = new LruCache<>(DECODED_CACHE_SIZE);
+    private boolean indexLoaded = false;
+
+    /** One row of the pattern index. */
+    public static final class IndexEntry {
+        String id;
+        int eventCount;
+        int lengthInSixteenths;
+        long savedAt;
+        long size;
+
+        JsonObject toJson() {
+            JsonObject json = new JsonObject();
+            json.addProperty("id", id);
+            json.addProperty("eventCount", eventCount);
+            json.addProperty("lengthInSixteenths", lengthInSixteenths);
+            json.addProperty("savedAt", savedAt);
+            json.addProperty("size", size);
+            return json;
+        }
+
+        static IndexEntry fromJson(JsonObject json) {
+            IndexEntry entry = new IndexEntry();
+            entry.id = json.get("id").getAsString();
+            entry.eventCount = json.get("eventCount").getAsInt();
+            entry.lengthInSixteenths = json.get("lengthInSixteenths").getAsInt();
+            entry.savedAt = json.get("savedAt").getAsLong();
+            entry.size = json.get("size").getAsLong();
+            return entry;
+        }
+    }
+
+    private PatternStore(Context context) {
+        this.directory = new File(context.getExternalFilesDir(null), DIR_NAME);
+        this.indexFile = new File(directory, INDEX_FILE_NAME);
+        executor.execute(this::ensureIndexLoaded);
+    }
+
+    public static synchronized PatternStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new PatternStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    public static boolean isValidId(String patternId) {
+        return patternId != null && VALID_ID.matcher(patternId).matches();
+    }
+
+    /**
+     * Encodes and records a pattern. Invalid input fails here, on the calling thread;
+     * the returned future completes when the file is durable.
+     * @throws IllegalArgumentException for an invalid id or a pattern that isn't a JSON array.
+     */
+    public CompletableFuture<Void> save(String patternId, String patternJson) {
+        if (!isValidId(patternId)) {
+            throw new IllegalArgumentException("Invalid pattern id: " + patternId);
+        }
+        byte[] data;
+        try {
+            data = PatternCodec.encode(patternJson);
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("Invalid pattern data", e);
+        }
+        return save(patternId, patternJson, data);
+    }
+
+    private CompletableFuture<Void> save(String patternId, String patternJson, byte[] data) {
+        PatternCodec.Summary summary;
+        try {
+            summary = PatternCodec.summarize(data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid pattern data", e);
+        }
+        IndexEntry entry = new IndexEntry();
+        entry.id = patternId;
+        entry.eventCount = summary.eventCount;
+        entry.lengthInSixteenths = summary.lengthInSixteenths;
+        entry.savedAt = System.currentTimeMillis();
+        entry.size = data.length;
+
+        File file = fileFor(patternId);
+        synchronized (this) {
+            ensureIndexLoaded();
+            index.remove(patternId);
+            index.put(patternId, entry);
+            decoded.remove(patternId);
+            Log.d(TAG, "Saving " + patternId + ": " + summary.eventCount + " events, "
+                    + data.length + " bytes (JSON " + patternJson.length() + ")");
+            return enqueue(patternId, () -> DurableFileWriter.getInstance().write(file, data));
+        }
+    }
+
+    /**
+     * @return the pattern as the JSON array string sequencer.loadPatternData() expects, or null if unknown.
+     */
+    public String load(String patternId) throws IOException {
+        if (!isValidId(patternId)) return null;
+        CompletableFuture<Void> pending;
+        synchronized (this) {
+            ensureIndexLoaded();
+            if (!index.containsKey(patternId)) return null;
+            String cached = decoded.get(patternId);
+            if (cached != null) return cached;
+            pending = pendingOps.get(patternId);
+        }
+        // Файл еще пишется - ждем, чтобы не прочитать предыдущую версию
+        awaitPending(patternId, pending);
+        String json = PatternCodec.decode(Files.readAllBytes(fileFor(patternId).toPath()));
+        synchronized (this) {
+            if (index.containsKey(patternId)) {
+                decoded.put(patternId, json);
+            }
+        }
+        return json;
+    }
+
+    /** @return true if the pattern existed. The file is removed asynchronously. */
+    public boolean delete(String patternId) {
+        if (!isValidId(patternId)) return false;
+        File file = fileFor(patternId);
+        synchronized (this) {
+            ensureIndexLoaded();
+            if (index.remove(patternId) == null) return false;
+            decoded.remove(patternId);
+            enqueue(patternId, () -> CompletableFuture.runAsync(() -> {
+                if (file.exists() && !file.delete()) {
+                    Log.w(TAG, "Could not delete " + file);
+                }
+            }, executor));
+            return true;
+        }
+    }
+
+    /** Pattern ids, most recently saved first. Served from the index. */
+    public synchronized List<String> listIds() {
+        ensureIndexLoaded();
+        List<String> ids = new ArrayList<>(index.size());
+        for (IndexEntry entry : index.values()) {
+            ids.add(0, entry.id);
+        }
+        return ids;
+    }
+
+    /** Index rows, most recently saved first. */
+    public synchronized JsonArray listSummaries() {
+        ensureIndexLoaded();
+        JsonArray result = new JsonArray();
+        List<IndexEntry> entries = new ArrayList<>(index.values());
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            result.add(entries.get(i).toJson());
+        }
+        return result;
+    }
+
+    /**
+     * Builds a self-describing JSON document for sharing: {format, version, id, events}.
+     * @return the document, or null if the pattern is unknown.
+     */
+    public JsonObject exportJson(String patternId) throws IOException {
+        String events = load(patternId);
+        if (events == null) return null;
+        JsonObject document = new JsonObject();
+        document.addProperty("format", EXPORT_FORMAT);
+        document.addProperty("version", EXPORT_VERSION);
+        document.addProperty("id", patternId);
+        document.add("events", JsonParser.parseString(events));
+        return document;
+    }
+
+    /**
+     * Imports a document produced by {@link #exportJson(String)} or a bare event array.
+     * An existing pattern is never overwritten: a clashing id gets a timestamp suffix.
+     * @return the id the pattern was stored under.
+     * @throws IllegalArgumentException if the document isn't a pattern.
+     */
+    public String importJson(String json) {
+        JsonElement root;
+        try {
+            root = JsonParser.parseString(json);
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("Invalid JSON", e);
+        }
+        String requestedId = null;
+        JsonElement events = root;
+        if (root.isJsonObject()) {
+            JsonObject document = root.getAsJsonObject();
+            JsonElement format = document.get("format");
+            if (format == null || !EXPORT_FORMAT.equals(format.getAsString())) {
+                throw new IllegalArgumentException("Not a " + EXPORT_FORMAT + " document");
+            }
+            JsonElement id = document.get("id");
+            requestedId = id != null && id.isJsonPrimitive() ? id.getAsString() : null;
+            events = document.get("events");
+        }
+        if (events == null || !events.isJsonArray()) {
+            throw new IllegalArgumentException("Pattern has no events array");
+        }
+        String patternId = isValidId(requestedId) ? requestedId : "pattern_imported";
+        String patternJson = events.toString();
+        byte[] data = PatternCodec.encode(patternJson);
+        CompletableFuture<Void> pending;
+        synchronized (this) {
+            ensureIndexLoaded();
+            pending = pendingOps.get(patternId);
+        }
+        // Сравнивать будем с файлом - дожидаемся записи, которая могла его еще не обновить
+        awaitPending(patternId, pending);
+        synchronized (this) {
+            ensureIndexLoaded();
+            if (index.containsKey(patternId)) {
+                if (isSamePattern(patternId, data)) {
+                    return patternId; // Уже есть с тем же содержимым - повторный импорт
+                }
+                patternId = patternId + "_" + System.currentTimeMillis();
+                if (!isValidId(patternId)) patternId = "pattern_imported_" + System.currentTimeMillis();
+            }
+            save(patternId, patternJson, data);
+        }
+        return patternId;
+    }
+
+    /**
+     * True if the pattern file holds exactly this encoding. The codec is deterministic and sorts events,
+     * so this compares the decoded event lists in order. Must be called with the monitor held;
+     * a write still in flight counts as a different pattern.
+     */
+    private boolean isSamePattern(String patternId, byte[] data) {
+        IndexEntry entry = index.get(patternId);
+        if (entry == null || entry.size != data.length || pendingOps.containsKey(patternId)) {
+            return false;
+        }
+        try {
+            return Arrays.equals(Files.readAllBytes(fileFor(patternId).toPath()), data);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read pattern " + patternId + " for comparison: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static void awaitPending(String patternId, CompletableFuture<Void> pending) {
+        if (pending == null) return;
+        try {
+            pending.get(PENDING_WRITE_WAIT_MS, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            Log.w(TAG, "Pending write for " + patternId + " did not finish: " + e.getMessage());
+        }
+    }
+
+    private File fileFor(String patternId) {
+        return new File(directory, patternId + FILE_EXTENSION);
+    }
+
+    /**
+     * Chains a disk operation after the previous one on the same pattern, then persists the index.
+     * Must be called with the monitor held.
+     */
+    private CompletableFuture<Void> enqueue(String patternId, Supplier<CompletableFuture<Void>> operation) {
+        CompletableFuture<Void> previous = pendingOps.get(patternId);
+        CompletableFuture<Void> future = previous == null
+                ? operation.get()
+                : previous.handle((ignored, error) -> null).thenCompose(ignored -> operation.get());
+        pendingOps.put(patternId, future);
+        future.whenComplete((ignored, error) -> {
+            if (error != null) {
+                Log.e(TAG, "Disk operation failed for pattern " + patternId, error);
+            }
+            synchronized (PatternStore.this) {
+                pendingOps.remove(patternId, future);
+            }
+            persistIndex();
+        });
+        return future;
+    }
+
+    private void persistIndex() {
+        JsonArray rows;
+        synchronized (this) {
+            rows = new JsonArray();
+            for (IndexEntry entry : index.values()) {
+                rows.add(entry.toJson());
+            }
+        }
+        JsonObject document = new JsonObject();
+        document.addProperty("version", EXPORT_VERSION);
+        document.add("patterns", rows);
+        // Индекс пишется после файла паттерна; при сбое между ними его выравнивает ensureIndexLoaded
+        try {
+            DurableFileWriter.getInstance().write(indexFile, FileUtils.toJsonBytes(document));
+        } catch (IOException e) {
+            Log.e(TAG, "Could not serialize pattern index", e);
+        }
+    }
+
+    /**
+     * Loads the persisted index and reconciles it with the directory listing: rows without a file
+     * are dropped, files without a row are summarized. Only those files are read.
+     */
+    private synchronized void ensureIndexLoaded() {
+        if (indexLoaded) return;
+        indexLoaded = true;
+        Map<String, IndexEntry> loaded = new LinkedHashMap<>();
+        if (indexFile.exists()) {
+            try {
+                JsonObject document = FileUtils.readJson(indexFile).getAsJsonObject();
+                for (JsonElement row : document.getAsJsonArray("patterns")) {
+                    IndexEntry entry = IndexEntry.fromJson(row.getAsJsonObject());
+                    loaded.put(entry.id, entry);
+                }
+            } catch (IOException | RuntimeException e) {
+                Log.w(TAG, "Pattern index unreadable, rebuilding: " + e.getMessage());
+                loaded.clear();
+            }
+        }
+        String[] names = directory.list();
+        Map<String, File> files = new HashMap<>();
+        if (names != null) {
+            for (String name : names) {
+                if (name.endsWith(FILE_EXTENSION)) {
+                    String id = name.substring(0, name.length() - FILE_EXTENSION.length());
+                    if (isValidId(id)) files.put(id, new File(directory, name));
+                }
+            }
+        }
+        boolean changed = loaded.keySet().retainAll(files.keySet());
+        for (Map.Entry<String, File> file : files.entrySet()) {
+            if (loaded.containsKey(file.getKey())) continue;
+            try {
+                byte[] data = Files.readAllBytes(file.getValue().toPath());
+                PatternCodec.Summary summary = PatternCodec.summarize(data);
+                IndexEntry entry = new IndexEntry();
+                entry.id = file.getKey();
+                entry.eventCount = summary.eventCount;
+                entry.lengthInSixteenths = summary.lengthInSixteenths;
+                entry.savedAt = file.getValue().lastModified();
+                entry.size = data.length;
+                loaded.put(entry.id, entry);
+                changed = true;
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Skipping unreadable pattern file " + file.getValue(), e);
+            }
+        }
+        // Сохраняем порядок "по времени сохранения" - listIds выдает с конца
+        List<IndexEntry> ordered = new ArrayList<>(loaded.values());
+        ordered.sort((a, b) -> Long.compare(a.savedAt, b.savedAt));
+        index.clear();
+        for (IndexEntry entry : ordered) {
+            index.put(entry.id, entry);
+        }
+        Log.d(TAG, "Pattern index: " + index.size() + " patterns");
+        if (changed) {
+            executor.execute(this::persistIndex);
+        }
+    }
+}
@@ -5,31 +5,36 @@ import android.content.Context;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.os.VibrationEffect;
 import android.os.Vibrator;
 import android.util.Log;
 import android.webkit.JavascriptInterface;
 import android.webkit.WebView;
+import android.widget.Toast;
 import androidx.annotation.Keep;
+import com.example.prismtone.model.SoundPreset;
+import com.example.prismtone.model.SoundPresetDiff;
 import com.example.prismtone.model.YAxisControls;
 
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonNull; // <<<--- ДОБАВЛЕН ИМПОРТ
 import com.google.gson.reflect.TypeToken;
+import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.function.Supplier;
 
 @Keep
 public class PrismtoneBridge {
@@ -38,11 +43,21 @@ public class PrismtoneBridge {
     private final MainViewModel viewModel;
     private final ModuleManager moduleManager;
     private final Handler mainHandler;
+    // Обновления настроек от слайдеров: на ключ не больше одного runnable в очереди
+    private final CoalescingPoster settingPoster;
+    private final BridgeRpc rpc;
+    private final BridgeMetrics metrics = new BridgeMetrics();
+    private static final Object[] NO_ARGS = new Object[0];
+    private static final long DEFAULT_STATS_DUMP_INTERVAL_MS = 60_000;
     private final Gson gson;
     private final Vibrator vibrator;
     private static final String TAG = "PrismtoneBridge";
-    private final ExecutorService executorService;
     private SensorController sensorControllerInstance; // Instance of SensorController
+    // Бинарный канал для высокочастотных потоков (наклон, вибро-триггеры)
+    private final BinaryChannel binaryChannel;
+    // Запись вызовов моста и сенсоров для воспроизведения (выключена по умолчанию)
+    private final SessionRecorder recorder;
+    private volatile SessionReplayer replayer;
 
     // Inner class for deserializing sensor settings
     private static class SensorSettingsPayload {
@@ -50,6 +65,13 @@ public class PrismtoneBridge {
         boolean invertPitchAxis;
         boolean invertRollAxis;
         boolean swapAxes;
+        // Необязательные: если не заданы, текущая частота сенсора не меняется
+        Integer samplingPeriodUs;
+        Integer maxReportLatencyUs;
+        // Необязательный конвейер фильтров: {type, smoothingAlpha, minCutoff, beta, ..., deadZone, maxRate}
+        SensorFilterPipeline.Config filter;
+        // Необязательные пороги жестов: {enabled, shakeThreshold, flickVelocity, tiltHoldAngle, ...}
+        GestureRecognizer.Config gestures;
     }
 
     public PrismtoneBridge(Context context, WebView webView, MainViewModel viewModel, ModuleManager moduleManager) {
@@ -58,26 +80,57 @@ public class PrismtoneBridge {
         this.viewModel = viewModel;
         this.moduleManager = moduleManager;
         this.mainHandler = new Handler(Looper.getMainLooper());
+        this.settingPoster = new CoalescingPoster(mainHandler);
         this.gson = new GsonBuilder().serializeNulls().create();
         this.vibrator = (Vibrator) context.getSystemService(Context.VIBRATOR_SERVICE);
-        this.executorService = Executors.newSingleThreadExecutor();
+        this.binaryChannel = new BinaryChannel(webView);
+        this.recorder = SessionRecorder.getInstance(context);
+        this.rpc = new BridgeRpc(this, mainHandler, metrics);
+        binaryChannel.setHandler(BinaryChannel.FRAME_HAPTIC,
+                payload -> vibrate(payload.getShort() & 0xFFFF, payload.get() & 0xFF));
+        binaryChannel.setHandler(BinaryChannel.FRAME_HAPTIC_CANCEL, payload -> cancelVibration());
+        mainHandler.post(() -> metrics.setPeriodicDump(mainHandler, DEFAULT_STATS_DUMP_INTERVAL_MS));
     }
 
-    private void runJavaScript(final String script) {
+    /**
+     * Runs the body of a bridge method: records the call for session recording and measures it
+     * ({@link BridgeMetrics#measure}).
+     */
+    private void bridgeCall(String method, Object[] args, Runnable body) {
+        if (recorder.isRecording()) recorder.recordCall(method, args);
+        metrics.measure(method, args, body);
+    }
+
+    /** The same for a bridge method with a result. */
+    private <T> T bridgeCall(String method, Object[] args, Supplier<T> body) {
+        if (recorder.isRecording()) recorder.recordCall(method, args);
+        return metrics.measure(method, args, body);
+    }
+
+    private static Object[] args(Object... values) {
+        return values;
+    }
+
+    /** @param function the called JS function, for metrics. */
+    private void runJavaScript(final String function, final String script) {
         if (Looper.myLooper() == Looper.getMainLooper()) {
-            evaluateJs(script);
+            evaluateJs(function, script, SystemClock.elapsedRealtimeNanos());
         } else {
-            mainHandler.post(() -> evaluateJs(script));
+            long queuedAtNs = SystemClock.elapsedRealtimeNanos();
+            mainHandler.post(() -> evaluateJs(function, script, queuedAtNs));
         }
     }
 
-    private void evaluateJs(final String script) {
+    private void evaluateJs(final String function, final String script, long queuedAtNs) {
         if (webView != null) {
+            long startNs = SystemClock.elapsedRealtimeNanos();
             try {
                 webView.evaluateJavascript(script, null);
             } catch (Exception e) {
                 Log.e(TAG, "Exception evaluating JavaScript: " + script, e);
             }
+            metrics.recordCallback(function, script.length(), startNs - queuedAtNs,
+                    SystemClock.elapsedRealtimeNanos() - startNs);
         } else {
             Log.e(TAG, "WebView is null, cannot execute JavaScript: " + script);
         }
@@ -88,257 +141,738 @@ public class PrismtoneBridge {
             Log.e(TAG, "callJsFunction called with empty function name.");
             return;
         }
-        StringBuilder builder = new StringBuilder();
-        builder.append(functionName).append("(");
-        for (int i = 0; i < args.length; i++) {
-            if (i > 0) builder.append(",");
-            Object arg = args[i];
-            if (arg == null) {
-                builder.append("null");
-            } else if (arg instanceof String) {
-                builder.append("'").append(escapeStringForJs((String) arg)).append("'");
-            } else if (arg instanceof Number || arg instanceof Boolean) {
-                builder.append(arg);
-            } else {
-                try {
-                    builder.append(gson.toJson(arg));
-                } catch (Exception e) {
-                    Log.e(TAG, "Error converting argument to JSON for JS call: " + arg, e);
-                    builder.append("null");
-                }
-            }
-        }
-        builder.append(")");
-        runJavaScript(builder.toString());
+        runJavaScript(functionName, JsCallEncoder.encode(functionName, args));
     }
 
     private String escapeStringForJs(String s) {
-        if (s == null) return "";
-        return s.replace("\\", "\\\\")
-                .replace("'", "\\'")
-                .replace("\"", "\\\"")
-                .replace("\n", "\\n")
-                .replace("\r", "\\r")
-                .replace("\t", "\\t")
-                .replace("\b", "\\b")
-                .replace("\f", "\\f")
-                .replace("</", "<\\/");
+        return JsCallEncoder.escape(s);
     }
 
     @JavascriptInterface
     public String getModules(String moduleType) {
-        Log.d(TAG, "getModules called for type: " + moduleType);
+        return bridgeCall("getModules", args(moduleType), () -> {
+            Log.d(TAG, "getModules called for type: " + moduleType);
+            return moduleList(moduleType, ModuleProjection.FULL.getKey());
+        });
+    }
+
+    /**
+     * Returns the module list for a type, serialized with the given projection.
+     * @param moduleType The module type (e.g. "soundpreset").
+     * @param projection A named projection ("header", "full"), a JSON array of field names
+     *                   or a comma separated list of field names.
+     * @return A JSON array of projected modules, or "[]" on error.
+     */
+    @JavascriptInterface
+    public String getModuleList(String moduleType, String projection) {
+        return bridgeCall("getModuleList", args(moduleType, projection), () -> moduleList(moduleType, projection));
+    }
+
+    /** Body of {@link #getModuleList}; {@link #getModules} calls it directly, so it isn't recorded twice. */
+    private String moduleList(String moduleType, String projection) {
+        Log.d(TAG, "getModuleList called for type: " + moduleType + ", projection: " + projection);
         try {
             if (moduleManager != null) {
+                ModuleProjection resolved = ModuleProjection.resolve(projection);
                 List<ModuleInfo> moduleList = moduleManager.getModules(moduleType);
-                return gson.toJson(moduleList);
+                StringBuilder builder = new StringBuilder();
+                builder.append('[');
+                for (int i = 0; i < moduleList.size(); i++) {
+                    if (i > 0) builder.append(',');
+                    builder.append(moduleList.get(i).getFragment(resolved));
+                }
+                builder.append(']');
+                return builder.toString();
             } else {
-                Log.e(TAG, "getModules: moduleManager is null!");
+                Log.e(TAG, "getModuleList: moduleManager is null!");
                 return "[]";
             }
         } catch (Exception e) {
-            Log.e(TAG, "Error in getModules for type: " + moduleType, e);
+            Log.e(TAG, "Error in getModuleList for type: " + moduleType, e);
             return "[]";
         }
     }
 
+    /**
+     * Returns the full module body (the whole module JSON) for a single module.
+     * Meant to be called when a module is actually activated, after a "header" list fetch.
+     * @return The module JSON, or "null" if the module doesn't exist.
+     */
+    @JavascriptInterface
+    public String getModuleData(String moduleType, String moduleId) {
+        return bridgeCall("getModuleData", args(moduleType, moduleId), () -> {
+            Log.d(TAG, "getModuleData called for type: " + moduleType + ", id: " + moduleId);
+            try {
+                if (moduleManager == null) {
+                    Log.e(TAG, "getModuleData: moduleManager is null!");
+                    return "null";
+                }
+                ModuleInfo info = moduleManager.getModule(moduleType, moduleId);
+                if (info == null || info.getCompactData() == null) {
+                    return "null";
+                }
+                return info.getCompactData().toJson();
+            } catch (Exception e) {
+                Log.e(TAG, "Error in getModuleData for " + moduleType + "/" + moduleId, e);
+                return "null";
+            }
+        });
+    }
+
+    /**
+     * Returns the stable 64-bit content hash of a sound preset as a hex string.
+     * @return The hash, or an empty string if the preset is unknown.
+     */
+    @JavascriptInterface
+    public String getSoundPresetHash(String presetId) {
+        return bridgeCall("getSoundPresetHash", args(presetId), () -> {
+            SoundPreset preset = moduleManager != null ? moduleManager.getSoundPreset(presetId) : null;
+            return preset != null ? SoundPresetDiff.hashToHex(preset.getContentHash()) : "";
+        });
+    }
+
+    /**
+     * Diffs two sound presets so the audio layer can skip rebuilding voices when only parameters changed.
+     * @return JSON {kind: "identical"|"params"|"structure", fromHash, toHash, changes: [{component, path, value}]},
+     *         or "null" if either preset is unknown.
+     */
+    @JavascriptInterface
+    public String diffSoundPresets(String fromPresetId, String toPresetId) {
+        return bridgeCall("diffSoundPresets", args(fromPresetId, toPresetId), () -> {
+            Log.d(TAG, "diffSoundPresets: " + fromPresetId + " -> " + toPresetId);
+            if (moduleManager == null) {
+                Log.e(TAG, "diffSoundPresets: moduleManager is null!");
+                return "null";
+            }
+            SoundPreset from = moduleManager.getSoundPreset(fromPresetId);
+            SoundPreset to = moduleManager.getSoundPreset(toPresetId);
+            if (from == null || to == null) {
+                return "null";
+            }
+            return from.diff(to).toJson().toString();
+        });
+    }
+
+    /**
+     * Returns the resolved FX chain: effect defaults merged with the chain overrides,
+     * values clamped to the effect ranges, validated macro targets and y-axis controls.
+     * @return JSON {id, name, version, effects: [{type, enabled, params, ranges, clamped, unknownParams}],
+     *         activeOrder, yAxisControls, macros, warnings}, or "null" if the chain is unknown.
+     */
+    @JavascriptInterface
+    public String getFxChainPlan(String chainId) {
+        return bridgeCall("getFxChainPlan", args(chainId), () -> {
+            Log.d(TAG, "getFxChainPlan: " + chainId);
+            if (moduleManager == null) {
+                Log.e(TAG, "getFxChainPlan: moduleManager is null!");
+                return "null";
+            }
+            FxChainCompiler.Plan plan = moduleManager.getFxChainPlan(chainId);
+            return plan != null ? plan.toJsonString() : "null";
+        });
+    }
+
+    /**
+     * Saves a sequencer pattern (the JSON array from sequencer.getPatternData()).
+     * Encoding happens here, the disk write in the background; a failed write is reported with a toast.
+     * @return false if the id or data is invalid.
+     */
+    @JavascriptInterface
+    public boolean savePattern(String patternId, String patternJson) {
+        return bridgeCall("savePattern", args(patternId, patternJson), () -> {
+            try {
+                PatternStore.getInstance(context).save(patternId, patternJson).exceptionally(error -> {
+                    // Не через showToast - это был бы вызов моста, которого JS не делал
+                    mainHandler.post(() -> Toast.makeText(context, "Failed to write pattern \"" + patternId + "\"",
+                            Toast.LENGTH_SHORT).show());
+                    return null;
+                });
+                return true;
+            } catch (IllegalArgumentException e) {
+                Log.e(TAG, "savePattern rejected for " + patternId + ": " + e.getMessage());
+                return false;
+            }
+        });
+    }
+
+    /**
+     * @return the pattern's JSON array string, or "null" if it doesn't exist or can't be read.
+     */
+    @JavascriptInterface
+    public String loadPattern(String patternId) {
+        return bridgeCall("loadPattern", args(patternId), () -> {
+            try {
+                String json = PatternStore.getInstance(context).load(patternId);
+                return json != null ? json : "null";
+            } catch (IOException e) {
+                Log.e(TAG, "Error loading pattern " + patternId, e);
+                return "null";
+            }
+        });
+    }
+
+    /** @return a JSON array of pattern ids, most recently saved first. */
+    @JavascriptInterface
+    public String listPatterns() {
+        return bridgeCall("listPatterns", NO_ARGS, () -> {
+            return gson.toJson(PatternStore.getInstance(context).listIds());
+        });
+    }
+
+    /** @return a JSON array of {id, eventCount, lengthInSixteenths, savedAt, size}, most recent first. */
+    @JavascriptInterface
+    public String listPatternSummaries() {
+        return bridgeCall("listPatternSummaries", NO_ARGS, () -> {
+            return PatternStore.getInstance(context).listSummaries().toString();
+        });
+    }
+
+    @JavascriptInterface
+    public boolean deletePattern(String patternId) {
+        return bridgeCall("deletePattern", args(patternId), () -> {
+            return PatternStore.getInstance(context).delete(patternId);
+        });
+    }
+
+    /**
+     * @return a shareable {format, version, id, events} document, or "null" if the pattern doesn't exist.
+     */
+    @JavascriptInterface
+    public String exportPattern(String patternId) {
+        return bridgeCall("exportPattern", args(patternId), () -> {
+            try {
+                JsonObject document = PatternStore.getInstance(context).exportJson(patternId);
+                return document != null ? document.toString() : "null";
+            } catch (IOException e) {
+                Log.e(TAG, "Error exporting pattern " + patternId, e);
+                return "null";
+            }
+        });
+    }
+
+    /**
+     * Imports a document from {@link #exportPattern(String)} or a bare event array.
+     * @return the id the pattern was stored under, or an empty string on invalid input.
+     */
+    @JavascriptInterface
+    public String importPattern(String json) {
+        return bridgeCall("importPattern", args(json), () -> {
+            try {
+                return PatternStore.getInstance(context).importJson(json);
+            } catch (IllegalArgumentException e) {
+                Log.e(TAG, "importPattern rejected: " + e.getMessage());
+                return "";
+            }
+        });
+    }
+
+    /**
+     * Exports the whole user library into a zip bundle in the background.
+     * {@code progressCallbackName} receives JSON strings {phase, done, total, finished, file | error}.
+     */
+    @JavascriptInterface
+    public void exportLibraryBundle(String progressCallbackName) {
+        bridgeCall("exportLibraryBundle", args(progressCallbackName), () -> {
+            LibraryBundle.getInstance(context).exportAsync(this, progressCallbackName);
+        });
+    }
+
+    /**
+     * Imports a bundle (file name from {@link #listLibraryBundles()}) in the background.
+     * The final progress event carries {imported, skipped, errors}.
+     */
+    @JavascriptInterface
+    public void importLibraryBundle(String path, String progressCallbackName) {
+        bridgeCall("importLibraryBundle", args(path, progressCallbackName), () -> {
+            if (path == null || path.isEmpty()) {
+                Log.e(TAG, "importLibraryBundle called with an empty path.");
+                return;
+            }
+            LibraryBundle.getInstance(context).importAsync(path, this, progressCallbackName);
+        });
+    }
+
+    /** @return a JSON array of {name, size, modified} for the bundles in the app's bundle folder. */
+    @JavascriptInterface
+    public String listLibraryBundles() {
+        return bridgeCall("listLibraryBundles", NO_ARGS, () -> {
+            return LibraryBundle.getInstance(context).listBundles().toString();
+        });
+    }
+
+    /**
+     * Asks for the binary message channel (see {@link BinaryChannel}). The port arrives as a
+     * window "message" event carrying {@link BinaryChannel#PORT_MESSAGE}; calling this again after a
+     * reload replaces the old channel.
+     * @return false if the WebView can't carry ArrayBuffers, in which case the page keeps using the string bridge.
+     */
+    @JavascriptInterface
+    public boolean openBinaryChannel() {
+        return bridgeCall("openBinaryChannel", NO_ARGS, () -> {
+            if (!BinaryChannel.isSupported()) {
+                return false;
+            }
+            mainHandler.post(binaryChannel::open);
+            return true;
+        });
+    }
+
+    /**
+     * Starts recording bridge calls and sensor samples into a new trace (see {@link SessionRecorder}).
+     * @return the trace file name, or null on error.
+     */
+    @JavascriptInterface
+    public String startSessionRecording() {
+        return metrics.measure("startSessionRecording", NO_ARGS, () -> {
+            try {
+                return recorder.start().getName();
+            } catch (IOException e) {
+                Log.e(TAG, "Could not start session recording", e);
+                return null;
+            }
+        });
+    }
+
+    /** @return {file, calls, samples, durationMs, size} as JSON, or "null" if not recording. */
+    @JavascriptInterface
+    public String stopSessionRecording() {
+        return metrics.measure("stopSessionRecording", NO_ARGS, () -> {
+            JsonObject summary = recorder.stop();
+            return summary != null ? summary.toString() : "null";
+        });
+    }
+
+    /** @return a JSON array of {name, size, modified} for the recorded traces. */
+    @JavascriptInterface
+    public String listSessionTraces() {
+        return metrics.measure("listSessionTraces", NO_ARGS, () -> {
+            return recorder.listTraces().toString();
+        });
+    }
+
+    /**
+     * Replays a recorded trace through the bridge and the sensor pipeline (see {@link SessionReplayer}).
+     * @param speed 1 for the original timing, 4 for four times faster, 0 for as fast as possible.
+     * @param replayWrites whether to replay calls that change the user library or the settings.
+     * @param progressCallbackName receives {calls, samples, maxLagMs, callTimeMs, heapMaxKb, ..., finished}.
+     * @return false if the trace doesn't exist, a replay is running or a recording is in progress.
+     */
+    @JavascriptInterface
+    public boolean replaySessionTrace(String fileName, double speed, boolean replayWrites, String progressCallbackName) {
+        return metrics.measure("replaySessionTrace", new Object[] {fileName, progressCallbackName}, () -> {
+            if (fileName == null || fileName.contains("/") || !fileName.endsWith(SessionTrace.FILE_EXTENSION) || speed < 0) {
+                return false;
+            }
+            File trace = new File(recorder.getTraceDir(), fileName);
+            if (!trace.isFile() || recorder.isRecording()) {
+                return false;
+            }
+            synchronized (this) {
+                if (replayer == null) {
+                    replayer = new SessionReplayer(this, sensorControllerInstance);
+                }
+            }
+            return replayer.start(trace, speed, replayWrites,
+                    progress -> callJsFunction(progressCallbackName, progress));
+        });
+    }
+
+    @JavascriptInterface
+    public void cancelSessionReplay() {
+        metrics.measure("cancelSessionReplay", NO_ARGS, () -> {
+            SessionReplayer current = replayer;
+            if (current != null) {
+                current.cancel();
+            }
+        });
+    }
+
+    /** @return per-lane queue depth, wait and run times of the background scheduler, as JSON. */
+    @JavascriptInterface
+    public String getSchedulerStats() {
+        return bridgeCall("getSchedulerStats", NO_ARGS, () -> {
+            return TaskScheduler.getInstance().getStats().toString();
+        });
+    }
+
+    /**
+     * Calls a bridge method asynchronously: returns at once, the method runs on a worker lane and
+     * its result goes to bridgeRpc._resolve(id, error, result). See {@link BridgeRpc}.
+     * @param requestJson {id, method, args, timeoutMs?, lane?}
+     * @return false if the request is malformed and can't be answered.
+     */
+    @JavascriptInterface
+    public boolean rpcCall(String requestJson) {
+        return bridgeCall("rpcCall", args(requestJson), () -> {
+            return rpc.submit(requestJson);
+        });
+    }
+
+    /** Cancels an RPC request; a pending one is rejected with "Cancelled". */
+    @JavascriptInterface
+    public void rpcCancel(String id) {
+        bridgeCall("rpcCancel", args(id), () -> {
+            rpc.cancel(id);
+        });
+    }
+
+    /**
+     * Hands over an RPC result too large to be embedded in the resolver script; called by
+     * bridgeRpc._resolve when it is told to pull. See {@link BridgeRpc}.
+     * @return the result, or null if it was already taken or has expired.
+     */
+    @JavascriptInterface
+    public String rpcTakeResult(String id) {
+        return bridgeCall("rpcTakeResult", args(id), () -> {
+            return rpc.takeResult(id);
+        });
+    }
+
+    /** @return {submitted, succeeded, failed, cancelled, timedOut, pending, pulled, unclaimed} of RPC requests. */
+    @JavascriptInterface
+    public String getRpcStats() {
+        return bridgeCall("getRpcStats", NO_ARGS, () -> {
+            return rpc.getStats().toString();
+        });
+    }
+
+    /**
+     * @return {submitted, coalesced, superseded, applied, pending} for setting updates (the setters,
+     *         setSetting, setYAxisControlGroup, applySettings); "coalesced" counts values replaced by a
+     *         newer one before the main thread applied them, "superseded" those dropped for a batch.
+     */
+    @JavascriptInterface
+    public String getSettingCoalescingStats() {
+        return bridgeCall("getSettingCoalescingStats", NO_ARGS, () -> {
+            return settingPoster.getStats().toString();
+        });
+    }
+
+    /**
+     * @return per-method call counts, latency histograms (exec, queue wait), payload sizes and
+     *         threads, per-callback script sizes and delays, plus RPC and coalescing counters.
+     *         See {@link BridgeMetrics}.
+     */
+    @JavascriptInterface
+    public String getBridgeStats() {
+        return bridgeCall("getBridgeStats", NO_ARGS, () -> {
+            JsonObject stats = metrics.toJson();
+            stats.add("rpc", rpc.getStats());
+            stats.add("settingCoalescing", settingPoster.getStats());
+            return stats.toString();
+        });
+    }
+
+    @JavascriptInterface
+    public void resetBridgeStats() {
+        bridgeCall("resetBridgeStats", NO_ARGS, () -> {
+            metrics.reset();
+        });
+    }
+
+    /**
+     * Sets how often the busiest bridge calls are written to the log (only when there was
+     * activity since the last dump); 0 turns the dump off. The default is 60 s.
+     */
+    @JavascriptInterface
+    public void setBridgeStatsDumpInterval(int seconds) {
+        bridgeCall("setBridgeStatsDumpInterval", args(seconds), () -> {
+            mainHandler.post(() -> metrics.setPeriodicDump(mainHandler, Math.max(0, seconds) * 1000L));
+        });
+    }
+
+    @JavascriptInterface
+    public void showToast(String message) {
+        bridgeCall("showToast", args(message), () -> {
+            if (message == null) return;
+            mainHandler.post(() -> Toast.makeText(context, message, Toast.LENGTH_SHORT).show());
+        });
+    }
+
     @JavascriptInterface
     public String getCurrentSettings() {
-        Log.d(TAG, "getCurrentSettings called");
-        JsonObject settings = new JsonObject();
-        if (viewModel == null) {
-            Log.e(TAG, "getCurrentSettings: viewModel is null!");
-            return settings.toString();
-        }
-        try {
-            settings.addProperty("theme", Objects.requireNonNullElse(viewModel.getCurrentTheme().getValue(), "day"));
-            settings.addProperty("language", Objects.requireNonNullElse(viewModel.getCurrentLanguage().getValue(), "en"));
-            settings.addProperty("soundPreset", Objects.requireNonNullElse(viewModel.getCurrentSoundPreset().getValue(), "default_piano"));
-            settings.addProperty("fxChain", viewModel.getCurrentFxChain().getValue());
-            settings.addProperty("visualizer", Objects.requireNonNullElse(viewModel.getCurrentVisualizer().getValue(), "waves"));
-            settings.addProperty("touchEffect", Objects.requireNonNullElse(viewModel.getTouchEffect().getValue(), "glow"));
-            settings.addProperty("scale", Objects.requireNonNullElse(viewModel.getCurrentScale().getValue(), "major"));
-            settings.addProperty("octaveOffset", Objects.requireNonNullElse(viewModel.getOctaveOffset().getValue(), 0));
-            settings.addProperty("zoneCount", Objects.requireNonNullElse(viewModel.getZoneCount().getValue(), 12));
-
-            Object showNoteNamesVal = viewModel.getSetting("showNoteNames");
-            settings.addProperty("showNoteNames", showNoteNamesVal instanceof Boolean ? (Boolean)showNoteNamesVal : true);
-
-            Object showLinesVal = viewModel.getSetting("showLines");
-            settings.addProperty("showLines", showLinesVal instanceof Boolean ? (Boolean)showLinesVal : true);
-
-            Object masterVolCeilingVal = viewModel.getSetting("masterVolumeCeiling");
-            settings.addProperty("masterVolumeCeiling", masterVolCeilingVal instanceof Number ? ((Number)masterVolCeilingVal).doubleValue() : 1.0);
-
-            Object enablePolyScalingVal = viewModel.getSetting("enablePolyphonyVolumeScaling");
-            settings.addProperty("enablePolyphonyVolumeScaling", enablePolyScalingVal instanceof Boolean ? (Boolean)enablePolyScalingVal : true);
-
-            // === НОВОЕ: Добавление currentTonic и highlightSharpsFlats в настройки ===
-            settings.addProperty("currentTonic", Objects.requireNonNullElse(viewModel.getCurrentTonic().getValue(), "C4"));
-            Object highlightVal = viewModel.getSetting("highlightSharpsFlats");
-            settings.addProperty("highlightSharpsFlats", highlightVal instanceof Boolean ? (Boolean)highlightVal : false);
-            // =======================================================================
-
-            YAxisControls yAxis = viewModel.getYAxisControls().getValue();
-            if (yAxis != null) {
-                settings.add("yAxisControls", gson.toJsonTree(yAxis));
-            } else {
-                settings.add("yAxisControls", JsonNull.INSTANCE);
+        return bridgeCall("getCurrentSettings", NO_ARGS, () -> {
+            Log.d(TAG, "getCurrentSettings called");
+            JsonObject settings = new JsonObject();
+            if (viewModel == null) {
+                Log.e(TAG, "getCurrentSettings: viewModel is null!");
+                return settings.toString();
             }
+            try {
+                settings.addProperty("theme", Objects.requireNonNullElse(viewModel.getCurrentTheme(), "day"));
+                settings.addProperty("language", Objects.requireNonNullElse(viewModel.getCurrentLanguage(), "en"));
+                settings.addProperty("soundPreset", Objects.requireNonNullElse(viewModel.getCurrentSoundPreset(), "default_piano"));
+                settings.addProperty("fxChain", viewModel.getCurrentFxChain());
+                settings.addProperty("visualizer", Objects.requireNonNullElse(viewModel.getCurrentVisualizer(), "waves"));
+                settings.addProperty("touchEffect", Objects.requireNonNullElse(viewModel.getTouchEffect(), "glow"));
+                settings.addProperty("scale", Objects.requireNonNullElse(viewModel.getCurrentScale(), "major"));
+                settings.addProperty("octaveOffset", Objects.requireNonNullElse(viewModel.getOctaveOffset(), 0));
+                settings.addProperty("zoneCount", Objects.requireNonNullElse(viewModel.getZoneCount(), 12));
 
-        } catch (Exception e) {
-            Log.e(TAG, "Error getting current settings", e);
-        }
-        Log.d(TAG, "getCurrentSettings returning: " + settings.toString());
-        return settings.toString();
+                Object showNoteNamesVal = viewModel.getSetting("showNoteNames");
+                settings.addProperty("showNoteNames", showNoteNamesVal instanceof Boolean ? (Boolean)showNoteNamesVal : true);
+
+                Object showLinesVal = viewModel.getSetting("showLines");
+                settings.addProperty("showLines", showLinesVal instanceof Boolean ? (Boolean)showLinesVal : true);
+
+                Object masterVolCeilingVal = viewModel.getSetting("masterVolumeCeiling");
+                settings.addProperty("masterVolumeCeiling", masterVolCeilingVal instanceof Number ? ((Number)masterVolCeilingVal).doubleValue() : 1.0);
+
+                Object enablePolyScalingVal = viewModel.getSetting("enablePolyphonyVolumeScaling");
+                settings.addProperty("enablePolyphonyVolumeScaling", enablePolyScalingVal instanceof Boolean ? (Boolean)enablePolyScalingVal : true);
+
+                // === НОВОЕ: Добавление currentTonic и highlightSharpsFlats в настройки ===
+                settings.addProperty("currentTonic", Objects.requireNonNullElse(viewModel.getCurrentTonic(), "C4"));
+                Object highlightVal = viewModel.getSetting("highlightSharpsFlats");
+                settings.addProperty("highlightSharpsFlats", highlightVal instanceof Boolean ? (Boolean)highlightVal : false);
+                // =======================================================================
+
+                YAxisControls yAxis = viewModel.getYAxisControls();
+                if (yAxis != null) {
+                    settings.add("yAxisControls", gson.toJsonTree(yAxis));
+                } else {
+                    settings.add("yAxisControls", JsonNull.INSTANCE);
+                }
+
+            } catch (Exception e) {
+                Log.e(TAG, "Error getting current settings", e);
+            }
+            Log.d(TAG, "getCurrentSettings returning: " + settings.toString());
+            return settings.toString();
+        });
     }
 
 
     @JavascriptInterface
     public void setSoundPreset(String presetId) {
-        Log.d(TAG, "setSoundPreset: " + presetId);
-        mainHandler.post(() -> {
-            if (viewModel != null) viewModel.setCurrentSoundPreset(presetId);
-            else Log.e(TAG, "setSoundPreset: viewModel is null");
+        bridgeCall("setSoundPreset", args(presetId), () -> {
+            Log.d(TAG, "setSoundPreset: " + presetId);
+            markUsed("soundpreset", presetId);
+            settingPoster.post(settingKey(SettingsBatch.KEY_SOUND_PRESET), metrics.timed("setSoundPreset:main", () -> {
+                if (viewModel != null) viewModel.setCurrentSoundPreset(presetId);
+                else Log.e(TAG, "setSoundPreset: viewModel is null");
+            }));
         });
     }
 
     @JavascriptInterface
     public void setFxChain(String chainId) {
-        Log.d(TAG, "setFxChain: " + chainId);
-        mainHandler.post(() -> {
-            if (viewModel != null) viewModel.setCurrentFxChain(chainId);
-            else Log.e(TAG, "setFxChain: viewModel is null");
+        bridgeCall("setFxChain", args(chainId), () -> {
+            Log.d(TAG, "setFxChain: " + chainId);
+            markUsed("fxchain", chainId);
+            settingPoster.post(settingKey(SettingsBatch.KEY_FX_CHAIN), metrics.timed("setFxChain:main", () -> {
+                if (viewModel != null) viewModel.setCurrentFxChain(chainId);
+                else Log.e(TAG, "setFxChain: viewModel is null");
+            }));
         });
     }
 
     @JavascriptInterface
     public void setTheme(String themeId) {
-        Log.d(TAG, "setTheme: " + themeId);
-        mainHandler.post(() -> {
-            if (viewModel != null) viewModel.setCurrentTheme(themeId);
-            else Log.e(TAG, "setTheme: viewModel is null");
+        bridgeCall("setTheme", args(themeId), () -> {
+            Log.d(TAG, "setTheme: " + themeId);
+            settingPoster.post(settingKey("theme"), metrics.timed("setTheme:main", () -> {
+                if (viewModel != null) viewModel.setCurrentTheme(themeId);
+                else Log.e(TAG, "setTheme: viewModel is null");
+            }));
         });
     }
 
     @JavascriptInterface
     public void setLanguage(String languageId) {
-        Log.d(TAG, "setLanguage: " + languageId);
-        mainHandler.post(() -> {
-            if (viewModel != null) viewModel.setCurrentLanguage(languageId);
-            else Log.e(TAG, "setLanguage: viewModel is null");
+        bridgeCall("setLanguage", args(languageId), () -> {
+            Log.d(TAG, "setLanguage: " + languageId);
+            settingPoster.post(settingKey("language"), metrics.timed("setLanguage:main", () -> {
+                if (viewModel != null) viewModel.setCurrentLanguage(languageId);
+                else Log.e(TAG, "setLanguage: viewModel is null");
+            }));
         });
     }
 
     @JavascriptInterface
     public void setVisualizer(String visualizerId) {
-        Log.d(TAG, "setVisualizer: " + visualizerId);
-        mainHandler.post(() -> {
-            if (viewModel != null) viewModel.setCurrentVisualizer(visualizerId);
-            else Log.e(TAG, "setVisualizer: viewModel is null");
+        bridgeCall("setVisualizer", args(visualizerId), () -> {
+            Log.d(TAG, "setVisualizer: " + visualizerId);
+            settingPoster.post(settingKey("visualizer"), metrics.timed("setVisualizer:main", () -> {
+                if (viewModel != null) viewModel.setCurrentVisualizer(visualizerId);
+                else Log.e(TAG, "setVisualizer: viewModel is null");
+            }));
         });
     }
 
     @JavascriptInterface
     public void setTouchEffect(String effectId) {
-        Log.d(TAG, "setTouchEffect: " + effectId);
-        mainHandler.post(() -> {
-            if (viewModel != null) {
-                viewModel.setTouchEffect(effectId);
-            } else {
-                Log.e(TAG, "setTouchEffect: viewModel is null");
-            }
+        bridgeCall("setTouchEffect", args(effectId), () -> {
+            Log.d(TAG, "setTouchEffect: " + effectId);
+            settingPoster.post(settingKey("touchEffect"), metrics.timed("setTouchEffect:main", () -> {
+                if (viewModel != null) {
+                    viewModel.setTouchEffect(effectId);
+                } else {
+                    Log.e(TAG, "setTouchEffect: viewModel is null");
+                }
+            }));
         });
     }
 
     @JavascriptInterface
     public void setSetting(String key, String value) {
-        Log.d(TAG, "setSetting called for key: " + key + ", string value: " + value);
-        mainHandler.post(() -> {
-            if (viewModel != null) {
-                viewModel.setGenericSetting(key, value);
-                Log.d(TAG, "ViewModel setting '" + key + "' updated via generic setter.");
-            } else {
-                Log.e(TAG, "Cannot setSetting: viewModel is null");
-            }
+        bridgeCall("setSetting", args(key, value), () -> {
+            Log.d(TAG, "setSetting called for key: " + key + ", string value: " + value);
+            settingPoster.post(settingKey(key), metrics.timed("setSetting:main", () -> {
+                if (viewModel != null) {
+                    viewModel.setGenericSetting(key, value);
+                    Log.d(TAG, "ViewModel setting '" + key + "' updated via generic setter.");
+                } else {
+                    Log.e(TAG, "Cannot setSetting: viewModel is null");
+                }
+            }));
         });
     }
 
     @JavascriptInterface
     public void setYAxisControlGroup(String groupName, String settingsJson) {
-        Log.d(TAG, "setYAxisControlGroup called for group: " + groupName + ", json: " + settingsJson);
-        mainHandler.post(() -> {
-            if (viewModel != null) {
-                try {
-                    YAxisControls currentControls = viewModel.getYAxisControls().getValue();
-                    if (currentControls == null) currentControls = new YAxisControls();
+        bridgeCall("setYAxisControlGroup", args(groupName, settingsJson), () -> {
+            Log.d(TAG, "setYAxisControlGroup called for group: " + groupName + ", json: " + settingsJson);
+            // JSON разбирается уже на главном потоке - только для значения, дожившего до применения
+            settingPoster.post(yAxisKey(groupName), metrics.timed("setYAxisControlGroup:main", () -> {
+                if (viewModel != null) {
+                    try {
+                        YAxisControls currentControls = viewModel.getYAxisControls();
+                        if (currentControls == null) currentControls = new YAxisControls();
 
-                    JsonObject groupSettings = JsonParser.parseString(settingsJson).getAsJsonObject();
+                        JsonObject groupSettings = JsonParser.parseString(settingsJson).getAsJsonObject();
 
-                    if ("volume".equals(groupName)) {
-                        YAxisControls.VolumeControl volCtrl = gson.fromJson(groupSettings, YAxisControls.VolumeControl.class);
-                        currentControls.setVolume(volCtrl);
-                    } else if ("effects".equals(groupName)) {
-                        YAxisControls.EffectsControl fxCtrl = gson.fromJson(groupSettings, YAxisControls.EffectsControl.class);
-                        currentControls.setEffects(fxCtrl);
+                        if ("volume".equals(groupName)) {
+                            YAxisControls.VolumeControl volCtrl = gson.fromJson(groupSettings, YAxisControls.VolumeControl.class);
+                            currentControls.setVolume(volCtrl);
+                        } else if ("effects".equals(groupName)) {
+                            YAxisControls.EffectsControl fxCtrl = gson.fromJson(groupSettings, YAxisControls.EffectsControl.class);
+                            currentControls.setEffects(fxCtrl);
+                        }
+                        viewModel.setYAxisControls(currentControls);
+                        Log.d(TAG, "ViewModel YAxisControls group '" + groupName + "' updated.");
+                    } catch (JsonSyntaxException e) {
+                        Log.e(TAG, "Error parsing YAxisControlGroup JSON for group " + groupName, e);
+                    } catch (Exception e) {
+                        Log.e(TAG, "Error setting YAxisControlGroup for group " + groupName, e);
                     }
-                    viewModel.setYAxisControls(currentControls);
-                    Log.d(TAG, "ViewModel YAxisControls group '" + groupName + "' updated.");
-                } catch (JsonSyntaxException e) {
-                    Log.e(TAG, "Error parsing YAxisControlGroup JSON for group " + groupName, e);
-                } catch (Exception e) {
-                    Log.e(TAG, "Error setting YAxisControlGroup for group " + groupName, e);
+                } else {
+                    Log.e(TAG, "Cannot setYAxisControlGroup: viewModel is null");
                 }
-            } else {
-                Log.e(TAG, "Cannot setYAxisControlGroup: viewModel is null");
-            }
+            }));
         });
     }
 
     @JavascriptInterface
     public void setScale(String scaleId) {
-        Log.d(TAG, "setScale: " + scaleId);
-        mainHandler.post(() -> {
-            if (viewModel != null) {
-                viewModel.setCurrentScale(scaleId);
-                // callJsFunction("app.updateZones"); // Удалено согласно инструкции
-            } else Log.e(TAG, "setScale: viewModel is null");
+        bridgeCall("setScale", args(scaleId), () -> {
+            Log.d(TAG, "setScale: " + scaleId);
+            settingPoster.post(settingKey("scale"), metrics.timed("setScale:main", () -> {
+                if (viewModel != null) {
+                    viewModel.setCurrentScale(scaleId);
+                    // callJsFunction("app.updateZones"); // Удалено согласно инструкции
+                } else Log.e(TAG, "setScale: viewModel is null");
+            }));
         });
     }
 
     @JavascriptInterface
     public void setOctaveOffset(int offset) {
-        Log.d(TAG, "setOctaveOffset: " + offset);
-        mainHandler.post(() -> {
-            if (viewModel != null) {
-                viewModel.setOctaveOffset(offset);
-                // callJsFunction("app.updateZones"); // Удалено согласно инструкции
-            } else Log.e(TAG, "setOctaveOffset: viewModel is null");
+        bridgeCall("setOctaveOffset", args(offset), () -> {
+            Log.d(TAG, "setOctaveOffset: " + offset);
+            settingPoster.post(settingKey(SettingsBatch.KEY_OCTAVE_OFFSET), metrics.timed("setOctaveOffset:main", () -> {
+                if (viewModel != null) {
+                    viewModel.setOctaveOffset(offset);
+                    // callJsFunction("app.updateZones"); // Удалено согласно инструкции
+                } else Log.e(TAG, "setOctaveOffset: viewModel is null");
+            }));
         });
     }
 
     @JavascriptInterface
     public void setZoneCount(int count) {
-        Log.d(TAG, "setZoneCount: " + count);
-        mainHandler.post(() -> {
-            if (viewModel != null) viewModel.setZoneCount(count);
-            else Log.e(TAG, "setZoneCount: viewModel is null");
+        bridgeCall("setZoneCount", args(count), () -> {
+            Log.d(TAG, "setZoneCount: " + count);
+            settingPoster.post(settingKey(SettingsBatch.KEY_ZONE_COUNT), metrics.timed("setZoneCount:main", () -> {
+                if (viewModel != null) viewModel.setZoneCount(count);
+                else Log.e(TAG, "setZoneCount: viewModel is null");
+            }));
+        });
+    }
+
+    /**
+     * Applies several settings at once (scene recall) instead of one setter call each; the
+     * native restore from preferences takes the same path ({@link MainViewModel#loadSettings}).
+     * The batch is parsed and validated here; if any key is invalid nothing is applied. Otherwise
+     * all values are assigned to the ViewModel in a single main-thread post, without per-key
+     * notifications, and {@link MainViewModel#getSettingsChanged()} is notified once.
+     * @param batchJson {key: value, ...}; see {@link SettingsBatch} for the accepted keys.
+     * @return {"accepted": n} or "Error: key: problem; ..." when the batch was rejected.
+     */
+    @JavascriptInterface
+    public String applySettings(String batchJson) {
+        return bridgeCall("applySettings", args(batchJson), () -> {
+            SettingsBatch batch = SettingsBatch.parse(batchJson, gson);
+            if (!batch.isValid()) {
+                Log.w(TAG, "applySettings rejected: " + batch.describeErrors());
+                return "Error: " + batch.describeErrors();
+            }
+            Log.d(TAG, "applySettings: " + batch.values.keySet());
+            if (batch.values.containsKey(SettingsBatch.KEY_SOUND_PRESET)) {
+                markUsed("soundpreset", (String) batch.values.get(SettingsBatch.KEY_SOUND_PRESET));
+            }
+            if (batch.values.get(SettingsBatch.KEY_FX_CHAIN) != null) {
+                markUsed("fxchain", (String) batch.values.get(SettingsBatch.KEY_FX_CHAIN));
+            }
+            // Отложенные одиночные записи тех же ключей старше пакета - отменяем их, иначе они
+            // применились бы позже со своей ранней позиции в очереди
+            List<String> keys = new ArrayList<>(batch.values.size() + 1);
+            for (Map.Entry<String, Object> entry : batch.values.entrySet()) {
+                if (SettingsBatch.KEY_Y_AXIS_CONTROLS.equals(entry.getKey())) {
+                    SettingsBatch.YAxisGroups groups = (SettingsBatch.YAxisGroups) entry.getValue();
+                    if (groups.volume != null) keys.add(yAxisKey("volume"));
+                    if (groups.effects != null) keys.add(yAxisKey("effects"));
+                } else {
+                    keys.add(settingKey(entry.getKey()));
+                }
+            }
+            settingPoster.postReplacing(keys, metrics.timed("applySettings:main", () -> {
+                if (viewModel != null) {
+                    Log.d(TAG, "applySettings changed: " + viewModel.applySettings(batch));
+                } else {
+                    Log.e(TAG, "applySettings: viewModel is null");
+                }
+            }));
+            JsonObject result = new JsonObject();
+            result.addProperty("accepted", batch.values.size());
+            return result.toString();
         });
     }
 
+    /** The {@link #settingPoster} key for a ViewModel setting; shared by every writer of that setting. */
+    private static String settingKey(String key) {
+        return "setting:" + key;
+    }
+
+    private static String yAxisKey(String groupName) {
+        return "yAxis:" + groupName;
+    }
+
     /**
      * Asynchronously saves a sound preset and invokes JS callbacks upon completion.
      */
     @JavascriptInterface
     public void saveSoundPreset(String presetDataJson, String successCallbackName, String errorCallbackName) {
-        Log.d(TAG, "JS call: saveSoundPreset with callbacks");
-        try {
-            JsonObject preset = JsonParser.parseString(presetDataJson).getAsJsonObject();
-            SoundPresetRepository.getInstance(context).savePreset(preset, successCallbackName, errorCallbackName, this);
-        } catch (Exception e) {
-            Log.e(TAG, "Error initiating saveSoundPreset", e);
-            callJsFunctionOnMainThread(errorCallbackName, "Exception: " + escapeStringForJs(e.getMessage()));
-        }
+        bridgeCall("saveSoundPreset", args(presetDataJson, successCallbackName, errorCallbackName), () -> {
+            Log.d(TAG, "JS call: saveSoundPreset with callbacks");
+            try {
+                JsonObject preset = JsonParser.parseString(presetDataJson).getAsJsonObject();
+                SoundPresetRepository.getInstance(context).savePreset(preset, successCallbackName, errorCallbackName, this);
+            } catch (Exception e) {
+                Log.e(TAG, "Error initiating saveSoundPreset", e);
+                callJsFunctionOnMainThread(errorCallbackName, "Exception: " + escapeStringForJs(e.getMessage()));
+            }
+        });
     }
 
     /**
@@ -346,14 +880,16 @@ public class PrismtoneBridge {
      */
     @JavascriptInterface
     public void saveFxChain(String chainDataJson, String successCallbackName, String errorCallbackName) {
-        Log.d(TAG, "JS call: saveFxChain with callbacks");
-        try {
-            JsonObject chain = JsonParser.parseString(chainDataJson).getAsJsonObject();
-            FxChainRepository.getInstance(context).saveChain(chain, successCallbackName, errorCallbackName, this);
-        } catch (Exception e) {
-            Log.e(TAG, "Error initiating saveFxChain", e);
-            callJsFunctionOnMainThread(errorCallbackName, "Exception: " + escapeStringForJs(e.getMessage()));
-        }
+        bridgeCall("saveFxChain", args(chainDataJson, successCallbackName, errorCallbackName), () -> {
+            Log.d(TAG, "JS call: saveFxChain with callbacks");
+            try {
+                JsonObject chain = JsonParser.parseString(chainDataJson).getAsJsonObject();
+                FxChainRepository.getInstance(context).saveChain(chain, successCallbackName, errorCallbackName, this);
+            } catch (Exception e) {
+                Log.e(TAG, "Error initiating saveFxChain", e);
+                callJsFunctionOnMainThread(errorCallbackName, "Exception: " + escapeStringForJs(e.getMessage()));
+            }
+        });
     }
 
     /**
@@ -361,14 +897,16 @@ public class PrismtoneBridge {
      */
     @JavascriptInterface
     public void saveChordProgression(String progressionDataJson, String successCallbackName, String errorCallbackName) {
-        Log.d(TAG, "JS call: saveChordProgression with callbacks");
-        try {
-            JsonObject progression = JsonParser.parseString(progressionDataJson).getAsJsonObject();
-            ChordProgressionRepository.getInstance(context).saveProgression(progression, successCallbackName, errorCallbackName, this);
-        } catch (Exception e) {
-            Log.e(TAG, "Error initiating saveChordProgression", e);
-            callJsFunctionOnMainThread(errorCallbackName, "Exception: " + escapeStringForJs(e.getMessage()));
-        }
+        bridgeCall("saveChordProgression", args(progressionDataJson, successCallbackName, errorCallbackName), () -> {
+            Log.d(TAG, "JS call: saveChordProgression with callbacks");
+            try {
+                JsonObject progression = JsonParser.parseString(progressionDataJson).getAsJsonObject();
+                ChordProgressionRepository.getInstance(context).saveProgression(progression, successCallbackName, errorCallbackName, this);
+            } catch (Exception e) {
+                Log.e(TAG, "Error initiating saveChordProgression", e);
+                callJsFunctionOnMainThread(errorCallbackName, "Exception: " + escapeStringForJs(e.getMessage()));
+            }
+        });
     }
 
     /**
@@ -376,62 +914,129 @@ public class PrismtoneBridge {
      * This is public so repositories can use it.
      */
     public void callJsFunctionOnMainThread(String functionName, String... args) {
-        mainHandler.post(() -> callJsFunction(functionName, (Object[]) args));
+        if (functionName == null || functionName.trim().isEmpty()) {
+            Log.e(TAG, "callJsFunctionOnMainThread called with empty function name.");
+            return;
+        }
+        // Скрипт собирается на вызывающем потоке, на главный уходит только evaluateJavascript
+        String script = JsCallEncoder.encode(functionName, (Object[]) args);
+        long queuedAtNs = SystemClock.elapsedRealtimeNanos();
+        mainHandler.post(() -> evaluateJs(functionName, script, queuedAtNs));
     }
 
     @JavascriptInterface
     public boolean deleteSoundPreset(String presetId) {
-        Log.d(TAG, "deleteSoundPreset for: " + presetId);
-        if (context == null) { Log.e(TAG, "deleteSoundPreset: context is null"); return false; }
-        try {
-            SoundPresetRepository repo = SoundPresetRepository.getInstance(context);
-            if (repo == null) { Log.e(TAG, "deleteSoundPreset: Repository instance is null"); return false; }
-            return repo.deleteSoundPreset(presetId);
-        } catch (Exception e) {
-            Log.e(TAG, "Error deleting sound preset: " + presetId, e); return false;
-        }
+        return bridgeCall("deleteSoundPreset", args(presetId), () -> {
+            Log.d(TAG, "deleteSoundPreset for: " + presetId);
+            if (context == null) { Log.e(TAG, "deleteSoundPreset: context is null"); return false; }
+            try {
+                SoundPresetRepository repo = SoundPresetRepository.getInstance(context);
+                if (repo == null) { Log.e(TAG, "deleteSoundPreset: Repository instance is null"); return false; }
+                return repo.deleteSoundPreset(presetId);
+            } catch (Exception e) {
+                Log.e(TAG, "Error deleting sound preset: " + presetId, e); return false;
+            }
+        });
     }
 
     @JavascriptInterface
     public boolean deleteFxChain(String chainId) {
-        Log.d(TAG, "deleteFxChain for: " + chainId);
-        if (context == null) { Log.e(TAG, "deleteFxChain: context is null"); return false; }
-        try {
-            FxChainRepository repo = FxChainRepository.getInstance(context);
-            if (repo == null) { Log.e(TAG, "deleteFxChain: Repository instance is null"); return false; }
-            return repo.deleteFxChain(chainId);
-        } catch (Exception e) {
-            Log.e(TAG, "Error deleting FX chain: " + chainId, e); return false;
-        }
+        return bridgeCall("deleteFxChain", args(chainId), () -> {
+            Log.d(TAG, "deleteFxChain for: " + chainId);
+            if (context == null) { Log.e(TAG, "deleteFxChain: context is null"); return false; }
+            try {
+                FxChainRepository repo = FxChainRepository.getInstance(context);
+                if (repo == null) { Log.e(TAG, "deleteFxChain: Repository instance is null"); return false; }
+                return repo.deleteFxChain(chainId);
+            } catch (Exception e) {
+                Log.e(TAG, "Error deleting FX chain: " + chainId, e); return false;
+            }
+        });
     }
 
     @JavascriptInterface
     public boolean deleteChordProgression(String progressionId) {
-        Log.d(TAG, "deleteChordProgression: " + progressionId);
-        return ChordProgressionRepository.getInstance(context).deleteProgression(progressionId);
+        return bridgeCall("deleteChordProgression", args(progressionId), () -> {
+            Log.d(TAG, "deleteChordProgression: " + progressionId);
+            return ChordProgressionRepository.getInstance(context).deleteProgression(progressionId);
+        });
+    }
+
+    /**
+     * Paged, sorted query over the user library index.
+     * @param queryJson {kind?: "soundpreset"|"fxchain"|"chordProgression", text?: string,
+     *                  sort?: "name"|"created"|"updated"|"lastUsed"|"useCount", descending?: boolean,
+     *                  offset?: number, limit?: number}
+     * @return JSON {total, offset, items: [{kind, id, name, description, createdAt, updatedAt, lastUsed, useCount}]}
+     */
+    @JavascriptInterface
+    public String queryLibrary(String queryJson) {
+        return bridgeCall("queryLibrary", args(queryJson), () -> {
+            try {
+                JsonObject query = queryJson != null && !queryJson.isEmpty()
+                        ? JsonParser.parseString(queryJson).getAsJsonObject() : new JsonObject();
+                String kind = query.has("kind") && !query.get("kind").isJsonNull() ? query.get("kind").getAsString() : null;
+                String text = query.has("text") && !query.get("text").isJsonNull() ? query.get("text").getAsString() : null;
+                String sort = query.has("sort") ? query.get("sort").getAsString() : "name";
+                boolean descending = query.has("descending") && query.get("descending").getAsBoolean();
+                int offset = query.has("offset") ? query.get("offset").getAsInt() : 0;
+                int limit = query.has("limit") ? query.get("limit").getAsInt() : 50;
+                return LibraryIndex.getInstance(context).query(kind, text, sort, descending, offset, limit).toString();
+            } catch (Exception e) {
+                Log.e(TAG, "queryLibrary failed for: " + queryJson, e);
+                return "{\"total\":0,\"offset\":0,\"items\":[]}";
+            }
+        });
+    }
+
+    /**
+     * Records a use of a library item (for "recent" and "most used" sorting). Selecting a preset or
+     * chain through setSoundPreset/setFxChain already does this.
+     */
+    @JavascriptInterface
+    public void markLibraryItemUsed(String kind, String itemId) {
+        bridgeCall("markLibraryItemUsed", args(kind, itemId), () -> markUsed(kind, itemId));
+    }
+
+    /**
+     * Body of {@link #markLibraryItemUsed} for the bridge's own callers: not recorded or measured
+     * as a bridge call, so a replayed selection counts the use once.
+     */
+    private void markUsed(String kind, String itemId) {
+        if (kind == null || itemId == null || !itemId.startsWith(JournalStore.USER_ID_PREFIX)) {
+            return;
+        }
+        TaskScheduler.getInstance().execute(TaskScheduler.Lane.BACKGROUND,
+                () -> LibraryIndex.getInstance(context).markUsed(kind, itemId));
     }
 
     @JavascriptInterface
     public void logDebug(String message) {
-        Log.d("JS_" + TAG, message);
+        bridgeCall("logDebug", args(message), () -> {
+            Log.d("JS_" + TAG, message);
+        });
     }
 
     @JavascriptInterface
     public void logError(String message, String errorStack) {
-        Log.e("JS_" + TAG, message + "\nStack: " + errorStack);
+        bridgeCall("logError", args(message, errorStack), () -> {
+            Log.e("JS_" + TAG, message + "\nStack: " + errorStack);
+        });
     }
 
     @JavascriptInterface
     @Keep
     public void reloadWebView() {
-        Log.w(TAG, "JavaScript запросил полную перезагрузку WebView.");
-        mainHandler.post(() -> {
-            if (webView != null) {
-                Log.i(TAG, "Выполняется webView.reload()...");
-                webView.reload();
-            } else {
-                Log.e(TAG, "Невозможно перезагрузить WebView: webView is null.");
-            }
+        bridgeCall("reloadWebView", NO_ARGS, () -> {
+            Log.w(TAG, "JavaScript запросил полную перезагрузку WebView.");
+            mainHandler.post(metrics.timed("reloadWebView:main", () -> {
+                if (webView != null) {
+                    Log.i(TAG, "Выполняется webView.reload()...");
+                    webView.reload();
+                } else {
+                    Log.e(TAG, "Невозможно перезагрузить WebView: webView is null.");
+                }
+            }));
         });
     }
 
@@ -440,20 +1045,22 @@ public class PrismtoneBridge {
      */
     @JavascriptInterface
     public void vibrate(int durationMs, int amplitude) {
-        if (vibrator == null || !vibrator.hasVibrator()) return;
+        bridgeCall("vibrate", args(durationMs, amplitude), () -> {
+            if (vibrator == null || !vibrator.hasVibrator()) return;
 
-        Log.d(TAG, ">>> VIBRATE (OneShot) <<< Received: duration=" + durationMs + ", amplitude=" + amplitude);
+            Log.d(TAG, ">>> VIBRATE (OneShot) <<< Received: duration=" + durationMs + ", amplitude=" + amplitude);
 
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            if (vibrator.hasAmplitudeControl()) {
-                int validAmplitude = Math.max(1, Math.min(255, amplitude));
-                vibrator.vibrate(VibrationEffect.createOneShot(durationMs, validAmplitude));
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                if (vibrator.hasAmplitudeControl()) {
+                    int validAmplitude = Math.max(1, Math.min(255, amplitude));
+                    vibrator.vibrate(VibrationEffect.createOneShot(durationMs, validAmplitude));
+                } else {
+                    vibrator.vibrate(VibrationEffect.createOneShot(durationMs, VibrationEffect.DEFAULT_AMPLITUDE));
+                }
             } else {
-                vibrator.vibrate(VibrationEffect.createOneShot(durationMs, VibrationEffect.DEFAULT_AMPLITUDE));
+                vibrator.vibrate(durationMs);
             }
-        } else {
-            vibrator.vibrate(durationMs);
-        }
+        });
     }
 
     /**
@@ -464,62 +1071,97 @@ public class PrismtoneBridge {
      */
     @JavascriptInterface
     public void vibratePattern(String timingsJson, String amplitudesJson, int repeat) {
-        if (vibrator == null || !vibrator.hasVibrator()) return;
+        bridgeCall("vibratePattern", args(timingsJson, amplitudesJson, repeat), () -> {
+            if (vibrator == null || !vibrator.hasVibrator()) return;
 
-        Log.d(TAG, ">>> VIBRATE (Pattern) <<< Received: timings=" + timingsJson + ", amplitudes=" + amplitudesJson + ", repeat=" + repeat);
+            Log.d(TAG, ">>> VIBRATE (Pattern) <<< Received: timings=" + timingsJson + ", amplitudes=" + amplitudesJson + ", repeat=" + repeat);
 
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            try {
-                Type longListType = new TypeToken<long[]>() {}.getType();
-                Type intListType = new TypeToken<int[]>() {}.getType();
-                long[] timings = gson.fromJson(timingsJson, longListType);
-                int[] amplitudes = gson.fromJson(amplitudesJson, intListType);
-
-                if (timings == null || amplitudes == null || timings.length != amplitudes.length) {
-                    Log.e(TAG, "Mismatched or null timings/amplitudes for pattern vibration.");
-                    return;
-                }
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                try {
+                    Type longListType = new TypeToken<long[]>() {}.getType();
+                    Type intListType = new TypeToken<int[]>() {}.getType();
+                    long[] timings = gson.fromJson(timingsJson, longListType);
+                    int[] amplitudes = gson.fromJson(amplitudesJson, intListType);
 
-                if (vibrator.hasAmplitudeControl()) {
-                    vibrator.vibrate(VibrationEffect.createWaveform(timings, amplitudes, repeat));
-                } else {
-                    // Устройства без контроля амплитуды не могут использовать паттерн с амплитудами.
-                    // Создаем простой паттерн вкл/выкл.
-                    for (int i = 0; i < amplitudes.length; i++) {
-                        if(amplitudes[i] > 0) amplitudes[i] = VibrationEffect.DEFAULT_AMPLITUDE;
+                    if (timings == null || amplitudes == null || timings.length != amplitudes.length) {
+                        Log.e(TAG, "Mismatched or null timings/amplitudes for pattern vibration.");
+                        return;
+                    }
+
+                    if (vibrator.hasAmplitudeControl()) {
+                        vibrator.vibrate(VibrationEffect.createWaveform(timings, amplitudes, repeat));
+                    } else {
+                        // Устройства без контроля амплитуды не могут использовать паттерн с амплитудами.
+                        // Создаем простой паттерн вкл/выкл.
+                        for (int i = 0; i < amplitudes.length; i++) {
+                            if(amplitudes[i] > 0) amplitudes[i] = VibrationEffect.DEFAULT_AMPLITUDE;
+                        }
+                        vibrator.vibrate(VibrationEffect.createWaveform(timings, repeat));
                     }
-                    vibrator.vibrate(VibrationEffect.createWaveform(timings, repeat));
+                } catch (Exception e) {
+                    Log.e(TAG, "Error creating vibration pattern", e);
                 }
-            } catch (Exception e) {
-                Log.e(TAG, "Error creating vibration pattern", e);
-            }
-        } else {
-            // Для старых API используем простой повторяющийся паттерн без амплитуды
-            try {
-                Type longListType = new TypeToken<long[]>() {}.getType();
-                long[] timings = gson.fromJson(timingsJson, longListType);
-                if (timings != null) {
-                    vibrator.vibrate(timings, repeat);
+            } else {
+                // Для старых API используем простой повторяющийся паттерн без амплитуды
+                try {
+                    Type longListType = new TypeToken<long[]>() {}.getType();
+                    long[] timings = gson.fromJson(timingsJson, longListType);
+                    if (timings != null) {
+                        vibrator.vibrate(timings, repeat);
+                    }
+                } catch (Exception e) {
+                    Log.e(TAG, "Error creating legacy vibration pattern", e);
                 }
-            } catch (Exception e) {
-                Log.e(TAG, "Error creating legacy vibration pattern", e);
             }
-        }
+        });
     }
 
     @JavascriptInterface
     public void cancelVibration() {
-        if (vibrator != null && vibrator.hasVibrator()) {
-            vibrator.cancel();
-            Log.d(TAG, "Vibration cancelled");
-        }
+        bridgeCall("cancelVibration", NO_ARGS, () -> {
+            if (vibrator != null && vibrator.hasVibrator()) {
+                vibrator.cancel();
+                Log.d(TAG, "Vibration cancelled");
+            }
+        });
     }
 
     public void sendDeviceTiltToJs(float pitch, float roll) {
-        String script = String.format(Locale.US,
-                "if(window.app && typeof window.app.onDeviceTilt === 'function') { window.app.onDeviceTilt({ pitch: %.2f, roll: %.2f }); }",
-                pitch, roll);
-        runJavaScript(script);
+        if (Looper.myLooper() == Looper.getMainLooper() && binaryChannel.sendTilt(pitch, roll)) {
+            return;
+        }
+        // Запасной путь без бинарного канала: скрипт собирается без String.format
+        StringBuilder script = new StringBuilder(128)
+                .append("if(window.app && typeof window.app.onDeviceTilt === 'function') { window.app.onDeviceTilt({ pitch: ");
+        appendRounded(script, pitch).append(", roll: ");
+        appendRounded(script, roll).append(" }); }");
+        runJavaScript("app.onDeviceTilt", script.toString());
+    }
+
+    /** Appends the value with two decimals, like "%.2f". */
+    private static StringBuilder appendRounded(StringBuilder builder, float value) {
+        long hundredths = Math.round(value * 100.0);
+        if (hundredths < 0) {
+            builder.append('-');
+            hundredths = -hundredths;
+        }
+        builder.append(hundredths / 100).append('.');
+        long fraction = hundredths % 100;
+        if (fraction < 10) builder.append('0');
+        return builder.append(fraction);
+    }
+
+    /**
+     * Delivers a recognized motion gesture (see {@link GestureRecognizer}) to app.onDeviceGesture.
+     * @param direction axis and sign, or null for a shake.
+     */
+    public void sendGestureToJs(String type, String direction, float magnitude) {
+        JsonObject event = new JsonObject();
+        event.addProperty("type", type);
+        event.addProperty("direction", direction);
+        event.addProperty("magnitude", Math.round(magnitude * 100) / 100.0);
+        runJavaScript("app.onDeviceGesture", "if(window.app && typeof window.app.onDeviceGesture === 'function') { window.app.onDeviceGesture("
+                + gson.toJson(event) + "); }");
     }
 
     public void setSensorController(SensorController controller) {
@@ -528,30 +1170,49 @@ public class PrismtoneBridge {
 
     @JavascriptInterface
     public void updateSensorSettings(String jsonSettings) {
-        Log.d(TAG, "updateSensorSettings called with: " + jsonSettings);
-        if (sensorControllerInstance == null) {
-            Log.e(TAG, "SensorController instance is null in PrismtoneBridge. Cannot update settings.");
-            return;
-        }
+        bridgeCall("updateSensorSettings", args(jsonSettings), () -> {
+            Log.d(TAG, "updateSensorSettings called with: " + jsonSettings);
+            if (sensorControllerInstance == null) {
+                Log.e(TAG, "SensorController instance is null in PrismtoneBridge. Cannot update settings.");
+                return;
+            }
 
-        try {
-            SensorSettingsPayload settings = gson.fromJson(jsonSettings, SensorSettingsPayload.class);
-            if (settings != null) {
-                mainHandler.post(() -> {
-                    sensorControllerInstance.setSmoothingAlpha(settings.smoothingAlpha);
-                    sensorControllerInstance.setInvertPitchAxis(settings.invertPitchAxis);
-                    sensorControllerInstance.setInvertRollAxis(settings.invertRollAxis);
-                    sensorControllerInstance.setSwapAxes(settings.swapAxes);
-                    Log.i(TAG, "Sensor settings updated in SensorController.");
-                });
-            } else {
-                Log.e(TAG, "Failed to parse sensor settings JSON.");
+            try {
+                JsonElement raw = JsonParser.parseString(jsonSettings);
+                SensorSettingsPayload settings = gson.fromJson(raw, SensorSettingsPayload.class);
+                if (settings != null) {
+                    JsonElement rawFilter = raw.getAsJsonObject().get("filter");
+                    boolean filterHasAlpha = rawFilter != null && rawFilter.isJsonObject()
+                            && rawFilter.getAsJsonObject().has("smoothingAlpha");
+                    mainHandler.post(metrics.timed("updateSensorSettings:main", () -> {
+                        sensorControllerInstance.setSmoothingAlpha(settings.smoothingAlpha);
+                        if (settings.filter != null) {
+                            // Без своего коэффициента фильтр берет общий smoothingAlpha (ползунок)
+                            sensorControllerInstance.setFilterConfig(filterHasAlpha ? settings.filter
+                                    : settings.filter.withSmoothingAlpha(sensorControllerInstance.getSmoothingAlpha()));
+                        }
+                        if (settings.gestures != null) {
+                            sensorControllerInstance.setGestureConfig(settings.gestures);
+                        }
+                        sensorControllerInstance.setInvertPitchAxis(settings.invertPitchAxis);
+                        sensorControllerInstance.setInvertRollAxis(settings.invertRollAxis);
+                        sensorControllerInstance.setSwapAxes(settings.swapAxes);
+                        if (settings.samplingPeriodUs != null || settings.maxReportLatencyUs != null) {
+                            sensorControllerInstance.setSensorRate(
+                                    settings.samplingPeriodUs != null ? settings.samplingPeriodUs : sensorControllerInstance.getSamplingPeriodUs(),
+                                    settings.maxReportLatencyUs != null ? settings.maxReportLatencyUs : sensorControllerInstance.getMaxReportLatencyUs());
+                        }
+                        Log.i(TAG, "Sensor settings updated in SensorController.");
+                    }));
+                } else {
+                    Log.e(TAG, "Failed to parse sensor settings JSON.");
+                }
+            } catch (JsonSyntaxException e) {
+                Log.e(TAG, "Error parsing sensor settings JSON: " + jsonSettings, e);
+            } catch (Exception e) {
+                Log.e(TAG, "Unexpected error updating sensor settings: " + jsonSettings, e);
             }
-        } catch (JsonSyntaxException e) {
-            Log.e(TAG, "Error parsing sensor settings JSON: " + jsonSettings, e);
-        } catch (Exception e) {
-            Log.e(TAG, "Unexpected error updating sensor settings: " + jsonSettings, e);
-        }
+        });
     }
 
     /**
@@ -562,32 +1223,34 @@ public class PrismtoneBridge {
      */
     @JavascriptInterface
     public String getAssetList(String path) {
-        if (path == null || path.isEmpty()) {
-            Log.e(TAG, "getAssetList called with an empty path.");
-            return "[]";
-        }
-        try {
-            // Очищаем путь от возможных слэшей в начале/конце
-            String cleanedPath = path;
-            if (cleanedPath.startsWith("/")) {
-                cleanedPath = cleanedPath.substring(1);
-            }
-            if (cleanedPath.endsWith("/")) {
-                cleanedPath = cleanedPath.substring(0, cleanedPath.length() - 1);
-            }
-
-            String[] files = context.getAssets().list(cleanedPath);
-            if (files == null) {
-                Log.w(TAG, "No assets found or path is not a directory: " + cleanedPath);
+        return bridgeCall("getAssetList", args(path), () -> {
+            if (path == null || path.isEmpty()) {
+                Log.e(TAG, "getAssetList called with an empty path.");
                 return "[]";
             }
+            try {
+                // Очищаем путь от возможных слэшей в начале/конце
+                String cleanedPath = path;
+                if (cleanedPath.startsWith("/")) {
+                    cleanedPath = cleanedPath.substring(1);
+                }
+                if (cleanedPath.endsWith("/")) {
+                    cleanedPath = cleanedPath.substring(0, cleanedPath.length() - 1);
+                }
 
-            Log.d(TAG, "getAssetList for path '" + cleanedPath + "' found files: " + Arrays.toString(files));
-            // Возвращаем JSON-массив строк
-            return gson.toJson(files);
-        } catch (IOException e) {
-            Log.e(TAG, "Error listing assets for path: " + path, e);
-            return "[]"; // Возвращаем пустой массив в случае ошибки
-        }
+                String[] files = context.getAssets().list(cleanedPath);
+                if (files == null) {
+                    Log.w(TAG, "No assets found or path is not a directory: " + cleanedPath);
+                    return "[]";
+                }
+
+                Log.d(TAG, "getAssetList for path '" + cleanedPath + "' found files: " + Arrays.toString(files));
+                // Возвращаем JSON-массив строк
+                return gson.toJson(files);
+            } catch (IOException e) {
+                Log.e(TAG, "Error listing assets for path: " + path, e);
+                return "[]"; // Возвращаем пустой массив в случае ошибки
+            }
+        });
     }
 }
\ No newline at end of file
@@ -0,0 +1,103 @@
+package com.example.prismtone;
+
+import android.util.Log;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Steps shared by the journal-backed user library repositories
+ * ({@link SoundPresetRepository}, {@link FxChainRepository}, {@link ChordProgressionRepository}).
+ */
+final class RepositoryUtils {
+    private static final String TAG = "RepositoryUtils";
+
+    private RepositoryUtils() {
+    }
+
+    /** The repository-specific steps of {@link #importBatch}. */
+    interface ImportHandler {
+        /**
+         * @param id the id the document is stored under.
+         * @param sourceId the id it arrived with; differs from {@code id} if that was reassigned.
+         * @return the journal payload for the document.
+         */
+        String payload(String id, String sourceId, JsonObject document) throws IOException;
+
+        /** Called under the cache lock after the document is written and cached. */
+        default void stored(String id, JsonObject document) {
+        }
+    }
+
+    /**
+     * Makes a buffered save durable, then reports it to JS.
+     * Group commit: the task is queued behind the saves already waiting on the repository's queue,
+     * and the first commit() syncs all of them with one fsync; the others find nothing left to sync.
+     */
+    static void commitAndNotify(TaskScheduler.SerialQueue queue, JournalStore journal, String id,
+                                String successCallbackName, String errorCallbackName, PrismtoneBridge bridge) {
+        queue.execute(() -> {
+            try {
+                journal.commit();
+                bridge.callJsFunctionOnMainThread(successCallbackName, id);
+            } catch (IOException e) {
+                Log.e(TAG, "Error committing " + id, e);
+                bridge.callJsFunctionOnMainThread(errorCallbackName, "Error: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Stores documents from a library bundle in one group commit. Runs on the repository's queue,
+     * so it is ordered with saves and deletes, and blocks the caller until the batch is durable.
+     * Ids are kept unless they clash with a different document; identical documents are skipped.
+     * @return the number of documents stored.
+     */
+    static int importBatch(TaskScheduler.SerialQueue queue, JournalStore journal, UserContentCache cache,
+                           LibraryIndex libraryIndex, String moduleType, List<JsonObject> documents,
+                           ImportHandler handler) throws IOException {
+        Future<Integer> result = queue.submit(() -> {
+            if (journal == null || cache.loadCached() == null) {
+                throw new IOException("Storage is not available");
+            }
+            List<JsonObject> stored = new ArrayList<>(documents.size());
+            synchronized (cache) {
+                for (JsonObject document : documents) {
+                    JsonElement idElement = document.get("id");
+                    String sourceId = idElement != null && idElement.isJsonPrimitive() ? idElement.getAsString() : null;
+                    String id = sourceId;
+                    if (id != null && journal.contains(id)) {
+                        if (document.equals(cache.get(id))) continue; // Уже есть - повторный импорт
+                        id = null;
+                    }
+                    if (id == null || !id.startsWith(JournalStore.USER_ID_PREFIX)) {
+                        id = journal.newId();
+                        document.addProperty("id", id);
+                    }
+                    journal.putBuffered(id, handler.payload(id, sourceId, document));
+                    cache.put(id, document);
+                    handler.stored(id, document);
+                    stored.add(document);
+                }
+                journal.commit();
+            }
+            libraryIndex.upsertAll(moduleType, stored);
+            return stored.size();
+        });
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted", e);
+        }
+    }
+}
@@ -8,72 +8,123 @@ import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.hardware.display.DisplayManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.Display;
 import android.view.Surface;
 import android.view.WindowManager;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Управляет сенсором ориентации, преобразует данные для ландшафтного режима,
  * применяет пользовательские настройки (инверсия, сила) и отправляет
  * финальные, готовые к использованию значения в JavaScript.
+ *
+ * Sensor events are delivered to a dedicated HandlerThread, not the main looper, so they don't
+ * compete with the WebView. The display rotation is cached and kept current by a
+ * {@link DisplayManager.DisplayListener} instead of being queried per event. The sampling period
+ * and the hardware batching latency (maxReportLatencyUs) are set from JS via updateSensorSettings.
  */
 public class SensorController implements SensorEventListener {
     private static final String TAG = "SensorController";
     private SensorManager sensorManager; // Made non-final for potential re-init if needed
     private Sensor rotationVectorSensor; // Made non-final
+    // Акселерометр нужен только распознавателю жестов и регистрируется, только когда они включены
+    private final Sensor accelerometer;
     private final PrismtoneBridge bridge;
     private final WindowManager windowManager;
+    private final DisplayManager displayManager;
+    // Поворот экрана кэшируется и обновляется через DisplayListener, а не запрашивается на каждое событие
+    private volatile int displayRotation = Surface.ROTATION_0;
+    private HandlerThread sensorThread;
+    private Handler sensorHandler;
+    private boolean running = false;
+    // Период выборки в мкс (или константа SENSOR_DELAY_*) и допустимая задержка пакетной доставки
+    private int samplingPeriodUs = SensorManager.SENSOR_DELAY_UI;
+    private int maxReportLatencyUs = 0;
 
     // Массивы для вычислений, вынесены для производительности
     private final float[] rotationMatrix = new float[9];
     private final float[] remappedRotationMatrix = new float[9];
     private final float[] orientationAngles = new float[3];
 
+    // Последнее значение наклона: pitch и roll упакованы в один long, чтобы запись была атомарной
+    // и без аллокаций. В JS уходит не чаще одного раза за кадр дисплея.
+    private final AtomicLong latestTilt = new AtomicLong();
+    private final AtomicBoolean frameScheduled = new AtomicBoolean(false);
+    private final Choreographer choreographer;
+    private final Choreographer.FrameCallback tiltFrameCallback = this::flushTilt;
+    private long lastSentTilt = Long.MIN_VALUE;
+
     // ====================================================================
     // === USER-CONFIGURABLE SETTINGS (ПОЛЬЗОВАТЕЛЬСКИЕ НАСТРОЙКИ) ===
     // ====================================================================
 
     /**
-     * Коэффициент сглаживания "дрожания" данных.
-     * 0 < ALPHA < 1. Чем меньше значение, тем более плавными, но инертными будут данные.
-     * Хорошее значение: 0.15f
+     * Фильтрация наклона: сглаживание (EMA с коэффициентом smoothingAlpha, One Euro или Калман),
+     * мертвая зона и ограничение скорости. См. {@link SensorFilterPipeline}.
+     * Объект неизменяемый: настройки заменяются целиком, конвейер при этом сбрасывается.
      */
-    private float smoothingAlpha = 0.15f;
+    private volatile SensorFilterPipeline.Config filterConfig = new SensorFilterPipeline.Config();
 
     /**
      * Инвертировать вертикальную ось (Pitch: наклон вперед/назад)?
      * false: Наклон "на себя" -> объекты движутся ВВЕРХ (интуитивно для "всплытия").
      * true:  Наклон "на себя" -> объекты движутся ВНИЗ (интуитивно для "падения").
      */
-    private boolean invertPitchAxis = true;
+    private volatile boolean invertPitchAxis = true;
 
     /**
      * Инвертировать горизонтальную ось (Roll: наклон влево/вправо)?
      * false: Наклон вправо -> объекты движутся ВПРАВО.
      * true:  Наклон вправо -> объекты движутся ВЛЕВО.
      */
-    private boolean invertRollAxis = false;
+    private volatile boolean invertRollAxis = false;
 
     /**
      * Поменять оси местами?
      * false: (Стандарт) Pitch -> Y, Roll -> X.
      * true:  Pitch -> X, Roll -> Y. Полезно, если физика визуализатора этого требует.
      */
-    private boolean swapAxes = false;
+    private volatile boolean swapAxes = false;
 
     // ====================================================================
 
     // Public setters for these properties
     public void setSmoothingAlpha(float alpha) {
         if (alpha > 0 && alpha < 1) { // Basic validation
-            this.smoothingAlpha = alpha;
+            if (alpha != filterConfig.smoothingAlpha) {
+                this.filterConfig = filterConfig.withSmoothingAlpha(alpha);
+            }
             Log.d(TAG, "Smoothing Alpha updated to: " + alpha);
         } else {
             Log.w(TAG, "Invalid Smoothing Alpha value: " + alpha + ". Must be between 0 and 1.");
         }
     }
 
+    public float getSmoothingAlpha() {
+        return filterConfig.smoothingAlpha;
+    }
+
+    /**
+     * Replaces the filter pipeline configuration, EMA coefficient included.
+     */
+    public void setFilterConfig(SensorFilterPipeline.Config config) {
+        String error = config.validate();
+        if (error != null) {
+            Log.w(TAG, "Invalid sensor filter settings, keeping current: " + error);
+            return;
+        }
+        this.filterConfig = config;
+        Log.d(TAG, "Sensor filter updated to: " + config);
+    }
+
     public void setInvertPitchAxis(boolean invert) {
         this.invertPitchAxis = invert;
         Log.d(TAG, "Invert Pitch Axis updated to: " + invert);
@@ -88,16 +139,103 @@ public class SensorController implements SensorEventListener {
         this.swapAxes = swap;
         Log.d(TAG, "Swap Axes updated to: " + swap);
     }
+
+    public int getSamplingPeriodUs() {
+        return samplingPeriodUs;
+    }
+
+    public int getMaxReportLatencyUs() {
+        return maxReportLatencyUs;
+    }
+
+    /**
+     * Sets the sampling period and the batching latency; re-registers the listener if running.
+     * @param samplingPeriodUs period in microseconds, or one of the SensorManager.SENSOR_DELAY_* constants.
+     * @param maxReportLatencyUs how long the sensor hub may batch events before delivering them
+     *                           (0 = deliver immediately, larger values save power).
+     */
+    public void setSensorRate(int samplingPeriodUs, int maxReportLatencyUs) {
+        if (samplingPeriodUs < 0 || maxReportLatencyUs < 0) {
+            Log.w(TAG, "Invalid sensor rate: period=" + samplingPeriodUs + "us, latency=" + maxReportLatencyUs + "us");
+            return;
+        }
+        if (samplingPeriodUs == this.samplingPeriodUs && maxReportLatencyUs == this.maxReportLatencyUs) {
+            return;
+        }
+        this.samplingPeriodUs = samplingPeriodUs;
+        this.maxReportLatencyUs = maxReportLatencyUs;
+        Log.d(TAG, "Sensor rate updated: period=" + samplingPeriodUs + "us, maxReportLatency=" + maxReportLatencyUs + "us");
+        if (running && !syntheticInput) {
+            sensorManager.unregisterListener(this);
+            registerSensorListener();
+        }
+    }
+
+    /**
+     * Replaces the gesture thresholds. Enabling gestures also registers the accelerometer,
+     * disabling them unregisters it.
+     */
+    public void setGestureConfig(GestureRecognizer.Config config) {
+        String error = config.validate();
+        if (error != null) {
+            Log.w(TAG, "Invalid gesture settings, keeping current: " + error);
+            return;
+        }
+        boolean wasEnabled = gesturesEnabled;
+        Handler handler = sensorHandler;
+        if (handler != null) {
+            // Распознаватель не потокобезопасен - настраиваем его в потоке сенсора
+            handler.post(() -> gestureRecognizer.setConfig(config));
+        } else {
+            gestureRecognizer.setConfig(config);
+        }
+        gesturesEnabled = config.isEnabled();
+        Log.d(TAG, "Gesture settings updated: " + config);
+        if (running && !syntheticInput && accelerometer != null && wasEnabled != gesturesEnabled) {
+            if (gesturesEnabled) {
+                registerAccelerometer();
+            } else {
+                sensorManager.unregisterListener(this, accelerometer);
+            }
+        }
+    }
     // End of public setters
 
-    private float smoothedPitch = 0f;
-    private float smoothedRoll = 0f;
+    // Используются только в потоке сенсора
+    private final SensorFilterPipeline filterPipeline = new SensorFilterPipeline();
+    private final GestureRecognizer gestureRecognizer = new GestureRecognizer(this::onGesture);
+    // Копия флага из настроек жестов, читается в потоке сенсора
+    private volatile boolean gesturesEnabled = false;
+    // Пока воспроизводится трасса, сенсоры железа отключены и данные приходят через injectSample
+    private volatile boolean syntheticInput = false;
+    private final SessionRecorder recorder;
+    private final float[] tiltValues = new float[SensorFilterPipeline.CHANNELS];
+
+    private final DisplayManager.DisplayListener displayListener = new DisplayManager.DisplayListener() {
+        @Override
+        public void onDisplayAdded(int displayId) { }
+
+        @Override
+        public void onDisplayRemoved(int displayId) { }
+
+        @Override
+        public void onDisplayChanged(int displayId) {
+            if (displayId == Display.DEFAULT_DISPLAY) {
+                updateDisplayRotation();
+            }
+        }
+    };
 
     public SensorController(Context context, PrismtoneBridge bridge) {
         this.sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
         this.rotationVectorSensor = sensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR);
+        this.accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        this.recorder = SessionRecorder.getInstance(context);
         this.bridge = bridge;
         this.windowManager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        this.displayManager = (DisplayManager) context.getSystemService(Context.DISPLAY_SERVICE);
+        // Создается в главном потоке, поэтому кадры приходят от Choreographer главного потока
+        this.choreographer = Choreographer.getInstance();
 
         if (rotationVectorSensor == null) {
             Log.w(TAG, "Rotation Vector Sensor not available on this device.");
@@ -105,42 +243,140 @@ public class SensorController implements SensorEventListener {
     }
 
     public void start() {
-        if (rotationVectorSensor != null) {
-            sensorManager.registerListener(this, rotationVectorSensor, SensorManager.SENSOR_DELAY_UI);
+        if (rotationVectorSensor == null || running) {
+            return;
+        }
+        sensorThread = new HandlerThread("SensorThread", Process.THREAD_PRIORITY_DISPLAY);
+        sensorThread.start();
+        sensorHandler = new Handler(sensorThread.getLooper());
+        updateDisplayRotation();
+        gestureRecognizer.reset();
+        if (displayManager != null) {
+            displayManager.registerDisplayListener(displayListener, sensorHandler);
+        }
+        if (!syntheticInput) {
+            registerSensorListener();
         }
+        running = true;
     }
 
     public void stop() {
-        if (rotationVectorSensor != null) {
-            sensorManager.unregisterListener(this);
+        if (!running) {
+            return;
+        }
+        running = false;
+        sensorManager.unregisterListener(this);
+        if (displayManager != null) {
+            displayManager.unregisterDisplayListener(displayListener);
+        }
+        choreographer.removeFrameCallback(tiltFrameCallback);
+        frameScheduled.set(false);
+        sensorThread.quitSafely();
+        sensorThread = null;
+        sensorHandler = null;
+    }
+
+    private void registerSensorListener() {
+        boolean registered = sensorManager.registerListener(this, rotationVectorSensor, samplingPeriodUs,
+                maxReportLatencyUs, sensorHandler);
+        if (!registered) {
+            Log.e(TAG, "Failed to register rotation vector listener");
+        }
+        if (gesturesEnabled && accelerometer != null) {
+            registerAccelerometer();
+        }
+    }
+
+    private void registerAccelerometer() {
+        if (!sensorManager.registerListener(this, accelerometer, SensorManager.SENSOR_DELAY_GAME,
+                maxReportLatencyUs, sensorHandler)) {
+            Log.e(TAG, "Failed to register accelerometer listener");
+        }
+    }
+
+    private void onGesture(String type, String direction, float magnitude, long timestampNs) {
+        Log.d(TAG, "Gesture: " + type + (direction != null ? " " + direction : "") + " (" + magnitude + ")");
+        if (bridge != null) {
+            bridge.sendGestureToJs(type, direction, magnitude);
+        }
+    }
+
+    private void updateDisplayRotation() {
+        Display display = displayManager != null ? displayManager.getDisplay(Display.DEFAULT_DISPLAY) : null;
+        if (display == null && windowManager != null) {
+            display = windowManager.getDefaultDisplay();
+        }
+        if (display != null) {
+            displayRotation = display.getRotation();
         }
     }
 
     @Override
     public void onSensorChanged(SensorEvent event) {
-        if (event.sensor.getType() != Sensor.TYPE_ROTATION_VECTOR) {
+        if (syntheticInput) {
+            return; // Во время воспроизведения трассы события железа игнорируются
+        }
+        if (recorder.isRecording()) {
+            recorder.recordSensor(event.sensor.getType(), event.values, event.timestamp);
+        }
+        processSample(event.sensor.getType(), event.values, event.timestamp);
+    }
+
+    /**
+     * Feeds a synthetic sample through the same path as a hardware event, for trace replay.
+     * Runs on the sensor thread if it is up, otherwise on the caller's thread.
+     */
+    public void injectSample(int sensorType, float[] values, long timestampNs) {
+        Handler handler = sensorHandler;
+        if (handler != null) {
+            handler.post(() -> processSample(sensorType, values, timestampNs));
+        } else {
+            processSample(sensorType, values, timestampNs);
+        }
+    }
+
+    /**
+     * Detaches the hardware sensors while a trace replay feeds {@link #injectSample}. Main thread.
+     */
+    public void beginSyntheticInput() {
+        if (syntheticInput) return;
+        syntheticInput = true;
+        if (running) {
+            sensorManager.unregisterListener(this);
+        }
+        gestureRecognizer.reset();
+        Log.i(TAG, "Synthetic sensor input started");
+    }
+
+    /** Reattaches the hardware sensors after a replay. Main thread. */
+    public void endSyntheticInput() {
+        if (!syntheticInput) return;
+        syntheticInput = false;
+        if (running) {
+            registerSensorListener();
+        }
+        Log.i(TAG, "Synthetic sensor input ended");
+    }
+
+    private void processSample(int sensorType, float[] values, long timestampNs) {
+        if (sensorType == Sensor.TYPE_ACCELEROMETER) {
+            if (gesturesEnabled) {
+                gestureRecognizer.onAcceleration(values[0], values[1], values[2], timestampNs);
+            }
+            return;
+        }
+        if (sensorType != Sensor.TYPE_ROTATION_VECTOR) {
             return;
         }
 
         // 1. Получаем матрицу поворота
-        SensorManager.getRotationMatrixFromVector(rotationMatrix, event.values);
+        SensorManager.getRotationMatrixFromVector(rotationMatrix, values);
 
         // 2. Переназначаем систему координат для ландшафтного режима
         // Используем AXIS_X и AXIS_Z, так как это стандарт для большинства телефонов в ландшафте.
         // Если телефон держится в "обратном" ландшафте, может потребоваться другая комбинация.
         // Однако, getRotation() ниже должен это учитывать.
-        int rotation = 0;
-        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.R) {
-            if (windowManager != null && windowManager.getDefaultDisplay() != null) {
-                rotation = windowManager.getDefaultDisplay().getRotation();
-            }
-        } else {
-            // Для старых версий API (до R)
-            if (windowManager != null && windowManager.getDefaultDisplay() != null) {
-                rotation = windowManager.getDefaultDisplay().getRotation();
-            }
-        }
-
+        int rotation = displayRotation;
 
         int axisX = SensorManager.AXIS_X;
         int axisY = SensorManager.AXIS_Z; // Обычно Z для ландшафта, Y для портрета
@@ -191,14 +427,44 @@ public class SensorController implements SensorEventListener {
             valueForJsRoll = finalRoll;
         }
 
-        // 6. Сглаживаем финальные значения
-        smoothedPitch = smoothedPitch + this.smoothingAlpha * (valueForJsPitch - smoothedPitch);
-        smoothedRoll = smoothedRoll + this.smoothingAlpha * (valueForJsRoll - smoothedRoll);
+        // Жестам нужны нефильтрованные углы: сглаживание съедает резкие взмахи
+        if (gesturesEnabled) {
+            gestureRecognizer.onTilt(valueForJsPitch, valueForJsRoll, timestampNs);
+        }
+
+        // 6. Фильтруем финальные значения (без аллокаций)
+        tiltValues[0] = valueForJsPitch;
+        tiltValues[1] = valueForJsRoll;
+        filterPipeline.process(filterConfig, tiltValues, timestampNs);
 
-        // 7. Отправляем готовые к использованию данные в JavaScript
-        if (bridge != null) {
-            bridge.sendDeviceTiltToJs(smoothedPitch, smoothedRoll);
+        // 7. Кладем значение в слот; в JavaScript оно уйдет на ближайшем кадре
+        latestTilt.set(packTilt(tiltValues[0], tiltValues[1]));
+        if (frameScheduled.compareAndSet(false, true)) {
+            choreographer.postFrameCallback(tiltFrameCallback);
+        }
+    }
+
+    /** Sends the newest tilt sample, once per display frame no matter how many events arrived. */
+    private void flushTilt(long frameTimeNanos) {
+        frameScheduled.set(false);
+        long tilt = latestTilt.get();
+        if (tilt == lastSentTilt || bridge == null) {
+            return;
         }
+        lastSentTilt = tilt;
+        bridge.sendDeviceTiltToJs(unpackPitch(tilt), unpackRoll(tilt));
+    }
+
+    private static long packTilt(float pitch, float roll) {
+        return ((long) Float.floatToRawIntBits(pitch) << 32) | (Float.floatToRawIntBits(roll) & 0xFFFFFFFFL);
+    }
+
+    private static float unpackPitch(long tilt) {
+        return Float.intBitsToFloat((int) (tilt >>> 32));
+    }
+
+    private static float unpackRoll(long tilt) {
+        return Float.intBitsToFloat((int) tilt);
     }
 
     @Override
@@ -0,0 +1,214 @@
+package com.example.prismtone;
+
+import android.util.Log;
+
+/**
+ * Filter chain for the tilt channels (pitch, roll, in degrees), run on the sensor thread:
+ * <pre>
+ *   smoothing (ema | oneEuro | kalman | none) -> dead zone -> rate limit
+ * </pre>
+ * <ul>
+ *   <li>ema: the original exponential moving average, {@code smoothingAlpha} per sample.</li>
+ *   <li>oneEuro: low-pass whose cutoff rises with speed (minCutoff + beta * |velocity|), so
+ *       slow movement is smoothed hard and fast movement passes with little lag.</li>
+ *   <li>kalman: constant-velocity model per channel; processNoise is the expected acceleration
+ *       variance, measurementNoise the sensor noise variance.</li>
+ *   <li>deadZone: values within ±deadZone degrees of level read as 0, the rest shift toward 0.</li>
+ *   <li>maxRate: output changes by at most maxRate degrees per second.</li>
+ * </ul>
+ * Filter state lives in primitive arrays, so {@link #process} doesn't allocate. The pipeline is
+ * reset whenever a different {@link Config} instance is passed in.
+ */
+public class SensorFilterPipeline {
+    private static final String TAG = "SensorFilterPipeline";
+    public static final int CHANNELS = 2;
+    // Если временные метки не годятся (первый отсчет, повтор), считаем шаг равным кадру 60 Гц
+    private static final double FALLBACK_DT = 1.0 / 60;
+    private static final double MAX_DT = 0.5;
+
+    public static final String TYPE_EMA = "ema";
+    public static final String TYPE_ONE_EURO = "oneEuro";
+    public static final String TYPE_KALMAN = "kalman";
+    public static final String TYPE_NONE = "none";
+
+    /**
+     * Filter selection and tuning, deserialized from the "filter" object of the sensor settings.
+     * Treat as immutable once handed to the controller; use {@link #copy()} to change a field.
+     */
+    public static class Config {
+        String type = TYPE_EMA;
+        float smoothingAlpha = 0.15f;
+        // One Euro
+        float minCutoff = 1.0f;
+        float beta = 0.02f;
+        float derivativeCutoff = 1.0f;
+        // Kalman
+        float processNoise = 200f;
+        float measurementNoise = 0.5f;
+        // Общие выходные стадии; 0 - выключено
+        float deadZone = 0f;
+        float maxRate = 0f;
+
+        public Config copy() {
+            Config copy = new Config();
+            copy.type = type;
+            copy.smoothingAlpha = smoothingAlpha;
+            copy.minCutoff = minCutoff;
+            copy.beta = beta;
+            copy.derivativeCutoff = derivativeCutoff;
+            copy.processNoise = processNoise;
+            copy.measurementNoise = measurementNoise;
+            copy.deadZone = deadZone;
+            copy.maxRate = maxRate;
+            return copy;
+        }
+
+        public Config withSmoothingAlpha(float alpha) {
+            Config copy = copy();
+            copy.smoothingAlpha = alpha;
+            return copy;
+        }
+
+        /** @return null if valid, otherwise what's wrong. */
+        public String validate() {
+            if (type == null || !(type.equals(TYPE_EMA) || type.equals(TYPE_ONE_EURO)
+                    || type.equals(TYPE_KALMAN) || type.equals(TYPE_NONE))) {
+                return "unknown filter type " + type;
+            }
+            if (!(smoothingAlpha > 0 && smoothingAlpha < 1)) return "smoothingAlpha must be in (0, 1)";
+            if (!(minCutoff > 0) || !(derivativeCutoff > 0) || !(beta >= 0)) return "invalid One Euro parameters";
+            if (!(processNoise > 0) || !(measurementNoise > 0)) return "invalid Kalman parameters";
+            if (!(deadZone >= 0) || !(maxRate >= 0)) return "deadZone and maxRate must be >= 0";
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return type + " (alpha=" + smoothingAlpha + ", minCutoff=" + minCutoff + ", beta=" + beta
+                    + ", dCutoff=" + derivativeCutoff + ", q=" + processNoise + ", r=" + measurementNoise
+                    + ", deadZone=" + deadZone + ", maxRate=" + maxRate + ")";
+        }
+    }
+
+    private Config config;
+    private boolean initialized = false;
+    private long lastTimestampNs;
+    // Состояние по каналам
+    private final double[] smoothed = new double[CHANNELS];
+    private final double[] velocity = new double[CHANNELS];
+    private final double[] previousInput = new double[CHANNELS];
+    // Ковариация Калмана 2x2 на канал: p00, p01, p10, p11
+    private final double[] covariance = new double[CHANNELS * 4];
+    private final double[] output = new double[CHANNELS];
+
+    /**
+     * Filters one sample in place.
+     * @param values pitch and roll in degrees; overwritten with the filtered values.
+     * @param timestampNs the sensor event timestamp.
+     */
+    public void process(Config config, float[] values, long timestampNs) {
+        if (config != this.config) {
+            this.config = config;
+            initialized = false;
+            Log.d(TAG, "Filter pipeline: " + config);
+        }
+        if (!initialized) {
+            for (int i = 0; i < CHANNELS; i++) {
+                smoothed[i] = values[i];
+                previousInput[i] = values[i];
+                velocity[i] = 0;
+                covariance[i * 4] = config.measurementNoise;
+                covariance[i * 4 + 1] = 0;
+                covariance[i * 4 + 2] = 0;
+                covariance[i * 4 + 3] = config.processNoise;
+                output[i] = applyDeadZone(values[i], config.deadZone);
+                values[i] = (float) output[i];
+            }
+            lastTimestampNs = timestampNs;
+            initialized = true;
+            return;
+        }
+        double dt = (timestampNs - lastTimestampNs) * 1e-9;
+        if (!(dt > 0) || dt > MAX_DT) {
+            dt = FALLBACK_DT;
+        }
+        lastTimestampNs = timestampNs;
+
+        for (int i = 0; i < CHANNELS; i++) {
+            double x = values[i];
+            double filtered;
+            switch (config.type) {
+                case TYPE_ONE_EURO:
+                    filtered = oneEuro(i, x, dt);
+                    break;
+                case TYPE_KALMAN:
+                    filtered = kalman(i, x, dt);
+                    break;
+                case TYPE_NONE:
+                    filtered = x;
+                    break;
+                case TYPE_EMA:
+                default:
+                    filtered = smoothed[i] + config.smoothingAlpha * (x - smoothed[i]);
+                    smoothed[i] = filtered;
+                    break;
+            }
+            previousInput[i] = x;
+
+            double out = applyDeadZone(filtered, config.deadZone);
+            if (config.maxRate > 0) {
+                double maxStep = config.maxRate * dt;
+                double step = out - output[i];
+                if (step > maxStep) out = output[i] + maxStep;
+                else if (step < -maxStep) out = output[i] - maxStep;
+            }
+            output[i] = out;
+            values[i] = (float) out;
+        }
+    }
+
+    private double oneEuro(int channel, double x, double dt) {
+        double rawVelocity = (x - previousInput[channel]) / dt;
+        velocity[channel] += smoothingFactor(config.derivativeCutoff, dt) * (rawVelocity - velocity[channel]);
+        double cutoff = config.minCutoff + config.beta * Math.abs(velocity[channel]);
+        smoothed[channel] += smoothingFactor(cutoff, dt) * (x - smoothed[channel]);
+        return smoothed[channel];
+    }
+
+    private double kalman(int channel, double z, double dt) {
+        int p = channel * 4;
+        double q = config.processNoise;
+        // Предсказание: угол += скорость * dt; шум - случайное ускорение
+        smoothed[channel] += velocity[channel] * dt;
+        double dt2 = dt * dt;
+        double p00 = covariance[p] + dt * (covariance[p + 1] + covariance[p + 2]) + dt2 * covariance[p + 3] + q * dt2 * dt2 / 4;
+        double p01 = covariance[p + 1] + dt * covariance[p + 3] + q * dt2 * dt / 2;
+        double p10 = covariance[p + 2] + dt * covariance[p + 3] + q * dt2 * dt / 2;
+        double p11 = covariance[p + 3] + q * dt2;
+        // Коррекция по измерению угла
+        double innovation = z - smoothed[channel];
+        double s = p00 + config.measurementNoise;
+        double k0 = p00 / s;
+        double k1 = p10 / s;
+        smoothed[channel] += k0 * innovation;
+        velocity[channel] += k1 * innovation;
+        covariance[p] = (1 - k0) * p00;
+        covariance[p + 1] = (1 - k0) * p01;
+        covariance[p + 2] = p10 - k1 * p00;
+        covariance[p + 3] = p11 - k1 * p01;
+        return smoothed[channel];
+    }
+
+    /** Per-sample factor of a first-order low-pass with the given cutoff (Hz). */
+    private static double smoothingFactor(double cutoffHz, double dt) {
+        double tau = 1.0 / (2 * Math.PI * cutoffHz);
+        return 1.0 / (1.0 + tau / dt);
+    }
+
+    private static double applyDeadZone(double value, float deadZone) {
+        if (deadZone <= 0) return value;
+        if (value > deadZone) return value - deadZone;
+        if (value < -deadZone) return value + deadZone;
+        return 0;
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.prismtone;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Records bridge calls and sensor samples into a {@link SessionTrace} file, so a session from
+ * the field can be replayed by {@link SessionReplayer}.
+ *
+ * Recording is off by default; call sites check {@link #isRecording()} (a volatile read) before
+ * building arguments, so the hooks cost nothing otherwise. Writes go to a buffered stream under
+ * one lock; the sensor path doesn't allocate. A trace stops itself at {@link #MAX_TRACE_BYTES}.
+ */
+public class SessionRecorder {
+    private static final String TAG = "SessionRecorder";
+    private static final String DIR_NAME = "traces";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    static final long MAX_TRACE_BYTES = 64L * 1024 * 1024;
+
+    private static SessionRecorder instance;
+
+    private final File traceDir;
+    private volatile boolean recording = false;
+    // Все поля ниже защищены this
+    private DataOutputStream out;
+    private SessionTrace.Writer writer;
+    private File currentFile;
+    private long startedAtNs;
+    private long calls;
+    private long samples;
+
+    private SessionRecorder(Context context) {
+        this.traceDir = new File(context.getExternalFilesDir(null), DIR_NAME);
+    }
+
+    public static synchronized SessionRecorder getInstance(Context context) {
+        if (instance == null) {
+            instance = new SessionRecorder(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    public boolean isRecording() {
+        return recording;
+    }
+
+    public File getTraceDir() {
+        return traceDir;
+    }
+
+    /**
+     * Starts a new trace, ending the current one if any.
+     * @return the trace file.
+     */
+    public synchronized File start() throws IOException {
+        if (recording) {
+            stop();
+        }
+        if (!traceDir.exists() && !traceDir.mkdirs()) {
+            throw new IOException("Cannot create " + traceDir);
+        }
+        String name = "session-" + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date())
+                + SessionTrace.FILE_EXTENSION;
+        File file = new File(traceDir, name);
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+        startedAtNs = SystemClock.elapsedRealtimeNanos();
+        try {
+            writer = new SessionTrace.Writer(out, startedAtNs, System.currentTimeMillis());
+        } catch (IOException e) {
+            closeQuietly();
+            throw e;
+        }
+        currentFile = file;
+        calls = 0;
+        samples = 0;
+        recording = true;
+        Log.i(TAG, "Recording session to " + file);
+        return file;
+    }
+
+    /**
+     * Ends the current trace.
+     * @return {file, calls, samples, durationMs, size}, or null if nothing was being recorded.
+     */
+    public synchronized JsonObject stop() {
+        if (!recording) {
+            return null;
+        }
+        recording = false;
+        JsonObject summary = new JsonObject();
+        summary.addProperty("file", currentFile.getName());
+        summary.addProperty("calls", calls);
+        summary.addProperty("samples", samples);
+        summary.addProperty("durationMs", (SystemClock.elapsedRealtimeNanos() - startedAtNs) / 1_000_000);
+        try {
+            out.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Error closing trace " + currentFile, e);
+        }
+        summary.addProperty("size", currentFile.length());
+        Log.i(TAG, "Recording stopped: " + summary);
+        out = null;
+        writer = null;
+        currentFile = null;
+        return summary;
+    }
+
+    /** Records a bridge call. Callers check {@link #isRecording()} first. */
+    public void recordCall(String method, Object... args) {
+        long now = SystemClock.elapsedRealtimeNanos();
+        synchronized (this) {
+            if (!recording) return;
+            try {
+                writer.writeCall(now, method, args);
+                calls++;
+                checkSize();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+    }
+
+    /** Records one sensor event; values are copied into the stream. */
+    public void recordSensor(int sensorType, float[] values, long eventTimestampNs) {
+        long now = SystemClock.elapsedRealtimeNanos();
+        synchronized (this) {
+            if (!recording) return;
+            try {
+                writer.writeSensor(now, sensorType, values, eventTimestampNs);
+                samples++;
+                checkSize();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+    }
+
+    /** @return [{name, size, modified}] of the recorded traces, newest first. */
+    public JsonArray listTraces() {
+        return FileUtils.listFilesNewestFirst(traceDir, SessionTrace.FILE_EXTENSION);
+    }
+
+    private void checkSize() {
+        // Размер файла без учета буфера - проверять раз в несколько тысяч записей достаточно
+        if (((calls + samples) & 0xFFF) == 0 && currentFile.length() > MAX_TRACE_BYTES) {
+            Log.w(TAG, "Trace reached " + MAX_TRACE_BYTES + " bytes, stopping");
+            stop();
+        }
+    }
+
+    private void fail(IOException e) {
+        Log.e(TAG, "Trace write failed, stopping", e);
+        recording = false;
+        closeQuietly();
+    }
+
+    private void closeQuietly() {
+        try {
+            if (out != null) out.close();
+        } catch (IOException ignored) {
+        }
+        out = null;
+        writer = null;
+        currentFile = null;
+    }
+}
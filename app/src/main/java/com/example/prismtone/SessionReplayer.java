@@ -0,0 +1,221 @@
+package com.example.prismtone;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.gson.JsonObject;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a {@link SessionTrace} through the same entry points the live session used: bridge
+ * calls are invoked on {@link PrismtoneBridge} (by reflection, like the WebView does), sensor
+ * samples go through {@link SensorController#injectSample} with the hardware sensors detached.
+ *
+ * Records are paced at the original timing divided by {@code speed}; speed 0 replays as fast as
+ * possible. Sensor timestamps are kept as recorded, so filters and gesture detection see the
+ * same input at any speed. Calls that change the user library (saves, deletes, imports, usage
+ * stats) or the persisted settings (sound preset, scale, setSetting, applySettings, sensor
+ * settings, ...) are skipped unless {@code replayWrites} is set, so a replay can't damage the
+ * user's data or leave the app configured the way the recorded session was. Which methods write
+ * is defined once, for this and for the RPC channel, in {@link BridgeMethods}.
+ *
+ * The report covers pacing lag, time spent in bridge calls and heap use, for comparing builds
+ * on the same trace. Runs on its own thread: a replay sleeps for most of its duration and would
+ * otherwise hold a scheduler thread.
+ */
+public class SessionReplayer {
+    private static final String TAG = "SessionReplayer";
+    private static final int PROGRESS_INTERVAL_MS = 500;
+    public interface Listener {
+        /** Called on the main thread with {phase, done, finished, ...}; the last call has finished=true. */
+        void onProgress(JsonObject progress);
+    }
+
+    private final PrismtoneBridge bridge;
+    private final SensorController sensors;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private volatile boolean cancelled = false;
+    private volatile Thread thread;
+
+    public SessionReplayer(PrismtoneBridge bridge, SensorController sensors) {
+        this.bridge = bridge;
+        this.sensors = sensors;
+    }
+
+    public boolean isRunning() {
+        return thread != null;
+    }
+
+    /**
+     * Starts replaying a trace in the background.
+     * @return false if a replay is already running.
+     */
+    public synchronized boolean start(File trace, double speed, boolean replayWrites, Listener listener) {
+        if (thread != null) {
+            return false;
+        }
+        cancelled = false;
+        Thread replayThread = new Thread(() -> {
+            try {
+                run(trace, speed, replayWrites, listener);
+            } finally {
+                synchronized (SessionReplayer.this) {
+                    thread = null;
+                }
+            }
+        }, "SessionReplay");
+        replayThread.setDaemon(true);
+        thread = replayThread;
+        replayThread.start();
+        return true;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    private void run(File trace, double speed, boolean replayWrites, Listener listener) {
+        Stats stats = new Stats();
+        if (sensors != null) {
+            mainHandler.post(sensors::beginSyntheticInput);
+        }
+        Runtime runtime = Runtime.getRuntime();
+        stats.heapStartBytes = runtime.totalMemory() - runtime.freeMemory();
+        long wallStart = SystemClock.elapsedRealtimeNanos();
+        long lastProgress = wallStart;
+        String error = null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(trace), 64 * 1024))) {
+            SessionTrace.Reader reader = new SessionTrace.Reader(in);
+            SessionTrace.Record record;
+            while (!cancelled && (record = reader.next()) != null) {
+                long traceOffset = record.timeNs - reader.startNs;
+                stats.traceDurationNs = traceOffset;
+                if (speed > 0) {
+                    long due = wallStart + (long) (traceOffset / speed);
+                    long wait = due - SystemClock.elapsedRealtimeNanos();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    } else {
+                        stats.maxLagNs = Math.max(stats.maxLagNs, -wait);
+                    }
+                }
+                if (record.kind == SessionTrace.KIND_CALL) {
+                    replayCall(record, replayWrites, stats);
+                } else if (record.kind == SessionTrace.KIND_SENSOR && sensors != null) {
+                    sensors.injectSample(record.sensorType, Arrays.copyOf(record.values, record.valueCount),
+                            record.eventTimestampNs);
+                    stats.samples++;
+                }
+                if (((stats.calls + stats.samples) & 0x3F) == 0) {
+                    stats.heapMaxBytes = Math.max(stats.heapMaxBytes, runtime.totalMemory() - runtime.freeMemory());
+                }
+                long now = SystemClock.elapsedRealtimeNanos();
+                if (listener != null && now - lastProgress >= PROGRESS_INTERVAL_MS * 1_000_000L) {
+                    lastProgress = now;
+                    JsonObject progress = stats.toJson(now - wallStart);
+                    progress.addProperty("finished", false);
+                    mainHandler.post(() -> listener.onProgress(progress));
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Replay of " + trace + " failed", e);
+            error = e.getMessage();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error = "interrupted";
+        } finally {
+            if (sensors != null) {
+                mainHandler.post(sensors::endSyntheticInput);
+            }
+        }
+        stats.heapMaxBytes = Math.max(stats.heapMaxBytes, runtime.totalMemory() - runtime.freeMemory());
+        JsonObject result = stats.toJson(SystemClock.elapsedRealtimeNanos() - wallStart);
+        result.addProperty("finished", true);
+        result.addProperty("cancelled", cancelled);
+        if (error != null) {
+            result.addProperty("error", error);
+        }
+        Log.i(TAG, "Replay of " + trace.getName() + " done: " + result);
+        if (listener != null) {
+            mainHandler.post(() -> listener.onProgress(result));
+        }
+    }
+
+    private void replayCall(SessionTrace.Record record, boolean replayWrites, Stats stats) {
+        if (BridgeMethods.CONTROL_METHODS.contains(record.method) || (!replayWrites && BridgeMethods.isWrite(record.method))) {
+            stats.skipped++;
+            return;
+        }
+        Method method = BridgeMethods.find(record.method, record.args.size());
+        if (method == null) {
+            Log.w(TAG, "No bridge method " + record.method + "/" + record.args.size());
+            stats.failed++;
+            return;
+        }
+        Object[] args;
+        try {
+            args = BridgeMethods.convertArgs(method.getParameterTypes(), record.args);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Replayed call " + record.method + " has bad arguments: " + e.getMessage());
+            stats.failed++;
+            return;
+        }
+        long start = SystemClock.elapsedRealtimeNanos();
+        try {
+            method.invoke(bridge, args);
+        } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
+            Log.w(TAG, "Replayed call " + record.method + " failed", e);
+            stats.failed++;
+        }
+        long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+        stats.calls++;
+        stats.callTimeNs += elapsed;
+        if (elapsed > stats.slowestCallNs) {
+            stats.slowestCallNs = elapsed;
+            stats.slowestCall = record.method;
+        }
+    }
+
+    private static final class Stats {
+        long calls;
+        long samples;
+        long skipped;
+        long failed;
+        long callTimeNs;
+        long slowestCallNs;
+        String slowestCall;
+        long maxLagNs;
+        long traceDurationNs;
+        long heapStartBytes;
+        long heapMaxBytes;
+
+        JsonObject toJson(long wallNs) {
+            JsonObject json = new JsonObject();
+            json.addProperty("calls", calls);
+            json.addProperty("samples", samples);
+            json.addProperty("skipped", skipped);
+            json.addProperty("failed", failed);
+            json.addProperty("traceMs", traceDurationNs / 1_000_000);
+            json.addProperty("wallMs", wallNs / 1_000_000);
+            json.addProperty("maxLagMs", maxLagNs / 1_000_000.0);
+            json.addProperty("callTimeMs", callTimeNs / 1_000_000.0);
+            json.addProperty("avgCallMs", calls > 0 ? callTimeNs / 1_000_000.0 / calls : 0);
+            json.addProperty("slowestCall", slowestCall);
+            json.addProperty("slowestCallMs", slowestCallNs / 1_000_000.0);
+            json.addProperty("heapStartKb", heapStartBytes / 1024);
+            json.addProperty("heapMaxKb", heapMaxBytes / 1024);
+            return json;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.example.prismtone;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary format of a recorded session: bridge calls and sensor samples on one timeline.
+ * <pre>
+ *   header:  "PTR1" | u8 version | i64 start (elapsedRealtimeNanos) | i64 wall clock (ms)
+ *   record:  u8 kind | ...
+ *     METHOD  varint id | varint length | UTF-8 name          (defines an id before its first CALL)
+ *     CALL    varint delta ns | varint method id | u8 argc | args
+ *     SENSOR  varint delta ns | u8 sensor type | zigzag varint (event timestamp - arrival) | u8 count | f32 x count
+ *   arg:     u8 tag | NULL | STRING varint length + UTF-8 | INT/LONG zigzag varint | DOUBLE f64 | FLOAT f32 | TRUE | FALSE
+ * </pre>
+ * Deltas are from the previous record's arrival time. The stream ends at EOF, so a trace cut off
+ * by a crash is still readable up to its last complete record.
+ */
+public final class SessionTrace {
+    static final byte[] MAGIC = {'P', 'T', 'R', '1'};
+    static final int VERSION = 1;
+    public static final String FILE_EXTENSION = ".ptr";
+
+    static final int KIND_METHOD = 1;
+    static final int KIND_CALL = 2;
+    static final int KIND_SENSOR = 3;
+
+    private static final int TAG_NULL = 0;
+    private static final int TAG_STRING = 1;
+    private static final int TAG_INT = 2;
+    private static final int TAG_LONG = 3;
+    private static final int TAG_DOUBLE = 4;
+    private static final int TAG_FLOAT = 5;
+    private static final int TAG_TRUE = 6;
+    private static final int TAG_FALSE = 7;
+
+    static final int MAX_SENSOR_VALUES = 16;
+    private static final int MAX_ARGS = 255;
+
+    private SessionTrace() {
+    }
+
+    /** Appends records to a stream. Not thread-safe; the recorder serializes access. */
+    static final class Writer {
+        private final DataOutputStream out;
+        private final Map<String, Integer> methodIds = new HashMap<>();
+        private long lastNs;
+
+        Writer(DataOutputStream out, long startNs, long wallClockMs) throws IOException {
+            this.out = out;
+            this.lastNs = startNs;
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(startNs);
+            out.writeLong(wallClockMs);
+        }
+
+        void writeCall(long nowNs, String method, Object[] args) throws IOException {
+            Integer id = methodIds.get(method);
+            if (id == null) {
+                id = methodIds.size();
+                methodIds.put(method, id);
+                out.writeByte(KIND_METHOD);
+                writeVarint(id);
+                writeString(method);
+            }
+            out.writeByte(KIND_CALL);
+            writeDelta(nowNs);
+            writeVarint(id);
+            int argc = Math.min(args.length, MAX_ARGS);
+            out.writeByte(argc);
+            for (int i = 0; i < argc; i++) {
+                writeArg(args[i]);
+            }
+        }
+
+        void writeSensor(long nowNs, int sensorType, float[] values, long eventTimestampNs) throws IOException {
+            out.writeByte(KIND_SENSOR);
+            writeDelta(nowNs);
+            out.writeByte(sensorType);
+            writeVarint(zigzag(eventTimestampNs - nowNs));
+            int count = Math.min(values.length, MAX_SENSOR_VALUES);
+            out.writeByte(count);
+            for (int i = 0; i < count; i++) {
+                out.writeFloat(values[i]);
+            }
+        }
+
+        private void writeDelta(long nowNs) throws IOException {
+            // Время с разных потоков может прийти чуть не по порядку - не даем дельте уйти в минус
+            long delta = Math.max(0, nowNs - lastNs);
+            lastNs = Math.max(lastNs, nowNs);
+            writeVarint(delta);
+        }
+
+        private void writeArg(Object arg) throws IOException {
+            if (arg == null) {
+                out.writeByte(TAG_NULL);
+            } else if (arg instanceof String) {
+                out.writeByte(TAG_STRING);
+                writeString((String) arg);
+            } else if (arg instanceof Integer) {
+                out.writeByte(TAG_INT);
+                writeVarint(zigzag((Integer) arg));
+            } else if (arg instanceof Long) {
+                out.writeByte(TAG_LONG);
+                writeVarint(zigzag((Long) arg));
+            } else if (arg instanceof Double) {
+                out.writeByte(TAG_DOUBLE);
+                out.writeDouble((Double) arg);
+            } else if (arg instanceof Float) {
+                out.writeByte(TAG_FLOAT);
+                out.writeFloat((Float) arg);
+            } else if (arg instanceof Boolean) {
+                out.writeByte((Boolean) arg ? TAG_TRUE : TAG_FALSE);
+            } else {
+                out.writeByte(TAG_STRING);
+                writeString(arg.toString());
+            }
+        }
+
+        private void writeString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            out.write(bytes);
+        }
+
+        private void writeVarint(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                out.writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.writeByte((int) value);
+        }
+    }
+
+    /** One decoded record. The reader reuses a single instance; copy what you keep. */
+    static final class Record {
+        int kind;
+        /** Arrival time on the recording device's elapsedRealtimeNanos clock. */
+        long timeNs;
+        String method;
+        final List<Object> args = new ArrayList<>();
+        int sensorType;
+        long eventTimestampNs;
+        final float[] values = new float[MAX_SENSOR_VALUES];
+        int valueCount;
+    }
+
+    /** Reads records in order; {@link #next()} returns null at the end of the trace. */
+    static final class Reader {
+        private final DataInputStream in;
+        private final List<String> methods = new ArrayList<>();
+        private final Record record = new Record();
+        final long startNs;
+        final long wallClockMs;
+
+        Reader(DataInputStream in) throws IOException {
+            this.in = in;
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (magic[i] != MAGIC[i]) throw new IOException("Not a session trace");
+            }
+            int version = in.readUnsignedByte();
+            if (version != VERSION) throw new IOException("Unsupported trace version " + version);
+            startNs = in.readLong();
+            wallClockMs = in.readLong();
+            record.timeNs = startNs;
+        }
+
+        Record next() throws IOException {
+            while (true) {
+                int kind = in.read();
+                if (kind < 0) return null;
+                try {
+                    switch (kind) {
+                        case KIND_METHOD: {
+                            int id = (int) readVarint();
+                            String name = readString();
+                            if (id != methods.size()) throw new IOException("Unexpected method id " + id);
+                            methods.add(name);
+                            continue;
+                        }
+                        case KIND_CALL: {
+                            long time = record.timeNs + readVarint();
+                            int id = (int) readVarint();
+                            if (id >= methods.size()) throw new IOException("Undefined method id " + id);
+                            int argc = in.readUnsignedByte();
+                            record.args.clear();
+                            for (int i = 0; i < argc; i++) {
+                                record.args.add(readArg());
+                            }
+                            record.kind = KIND_CALL;
+                            record.timeNs = time;
+                            record.method = methods.get(id);
+                            return record;
+                        }
+                        case KIND_SENSOR: {
+                            long time = record.timeNs + readVarint();
+                            int type = in.readUnsignedByte();
+                            long offset = unzigzag(readVarint());
+                            int count = in.readUnsignedByte();
+                            if (count > MAX_SENSOR_VALUES) throw new IOException("Too many sensor values: " + count);
+                            for (int i = 0; i < count; i++) {
+                                record.values[i] = in.readFloat();
+                            }
+                            record.kind = KIND_SENSOR;
+                            record.timeNs = time;
+                            record.sensorType = type;
+                            record.eventTimestampNs = time + offset;
+                            record.valueCount = count;
+                            return record;
+                        }
+                        default:
+                            throw new IOException("Unknown record kind " + kind);
+                    }
+                } catch (EOFException e) {
+                    // Запись оборвана (сбой во время записи) - считаем это концом трассы
+                    return null;
+                }
+            }
+        }
+
+        private Object readArg() throws IOException {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case TAG_NULL: return null;
+                case TAG_STRING: return readString();
+                case TAG_INT: return (int) unzigzag(readVarint());
+                case TAG_LONG: return unzigzag(readVarint());
+                case TAG_DOUBLE: return in.readDouble();
+                case TAG_FLOAT: return in.readFloat();
+                case TAG_TRUE: return Boolean.TRUE;
+                case TAG_FALSE: return Boolean.FALSE;
+                default: throw new IOException("Unknown argument tag " + tag);
+            }
+        }
+
+        private String readString() throws IOException {
+            long length = readVarint();
+            if (length > Integer.MAX_VALUE) throw new IOException("String too long");
+            byte[] bytes = new byte[(int) length];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private long readVarint() throws IOException {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = in.readUnsignedByte();
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return result;
+            }
+            throw new IOException("Malformed varint");
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.prismtone;
+
+import com.example.prismtone.model.YAxisControls;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A parsed and validated set of setting updates for {@link MainViewModel#applySettings}.
+ * <pre>
+ *   {"scale": "minor", "octaveOffset": -1, "zoneCount": 24, "showNoteNames": true,
+ *    "yAxisControls": {"volume": {...}, "effects": {...}}}
+ * </pre>
+ * Typed keys (ids, octaveOffset, zoneCount, yAxisControls groups) are checked against the same
+ * rules as their individual setters; any other key is a generic setting and must be a JSON
+ * primitive or null. Parsing happens on the calling thread, so the main thread only assigns.
+ */
+final class SettingsBatch {
+    static final String KEY_OCTAVE_OFFSET = "octaveOffset";
+    static final String KEY_ZONE_COUNT = "zoneCount";
+    static final String KEY_Y_AXIS_CONTROLS = "yAxisControls";
+    static final String KEY_SOUND_PRESET = "soundPreset";
+    static final String KEY_FX_CHAIN = "fxChain";
+
+    static final int MIN_OCTAVE_OFFSET = -7;
+    static final int MAX_OCTAVE_OFFSET = 7;
+    static final Set<Integer> ZONE_COUNTS = new TreeSet<>(Arrays.asList(7, 12, 24, 36));
+    // Ключи с идентификатором-строкой; fxChain может быть null (цепочка не выбрана)
+    private static final Set<String> ID_KEYS = new HashSet<>(Arrays.asList(
+            "theme", "language", KEY_SOUND_PRESET, KEY_FX_CHAIN, "visualizer", "touchEffect", "scale", "currentTonic"));
+
+    /** Values in batch order: String, Integer, Boolean, Double or {@link YAxisGroups}. */
+    final Map<String, Object> values = new LinkedHashMap<>();
+    /** Problems by key; the batch must not be applied if this is non-empty. */
+    final Map<String, String> errors = new LinkedHashMap<>();
+
+    /** Y-axis groups to replace; a null group keeps the current one. */
+    static final class YAxisGroups {
+        YAxisControls.VolumeControl volume;
+        YAxisControls.EffectsControl effects;
+    }
+
+    private SettingsBatch() {
+    }
+
+    static SettingsBatch parse(String batchJson, Gson gson) {
+        SettingsBatch batch = new SettingsBatch();
+        JsonObject root;
+        try {
+            JsonElement element = JsonParser.parseString(batchJson == null ? "" : batchJson);
+            if (!element.isJsonObject()) {
+                batch.errors.put("", "batch must be a JSON object");
+                return batch;
+            }
+            root = element.getAsJsonObject();
+        } catch (JsonParseException e) {
+            batch.errors.put("", "invalid JSON: " + e.getMessage());
+            return batch;
+        }
+        for (Map.Entry<String, JsonElement> entry : root.entrySet()) {
+            String key = entry.getKey();
+            JsonElement value = entry.getValue();
+            try {
+                Object parsed = parseValue(key, value, gson);
+                batch.values.put(key, parsed);
+            } catch (IllegalArgumentException | JsonParseException | IllegalStateException e) {
+                batch.errors.put(key, e.getMessage());
+            }
+        }
+        return batch;
+    }
+
+    boolean isValid() {
+        return errors.isEmpty();
+    }
+
+    /** @return "key: problem; ..." for the bridge's error string. */
+    String describeErrors() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, String> entry : errors.entrySet()) {
+            if (builder.length() > 0) builder.append("; ");
+            if (!entry.getKey().isEmpty()) builder.append(entry.getKey()).append(": ");
+            builder.append(entry.getValue());
+        }
+        return builder.toString();
+    }
+
+    private static Object parseValue(String key, JsonElement value, Gson gson) {
+        if (key.isEmpty()) {
+            throw new IllegalArgumentException("empty key");
+        }
+        if (ID_KEYS.contains(key)) {
+            if (value.isJsonNull() && KEY_FX_CHAIN.equals(key)) return null;
+            if (!value.isJsonPrimitive() || !value.getAsJsonPrimitive().isString() || value.getAsString().isEmpty()) {
+                throw new IllegalArgumentException("expected a non-empty string");
+            }
+            return value.getAsString();
+        }
+        switch (key) {
+            case KEY_OCTAVE_OFFSET: {
+                int offset = parseInt(value);
+                if (offset < MIN_OCTAVE_OFFSET || offset > MAX_OCTAVE_OFFSET) {
+                    throw new IllegalArgumentException("must be in " + MIN_OCTAVE_OFFSET + ".." + MAX_OCTAVE_OFFSET);
+                }
+                return offset;
+            }
+            case KEY_ZONE_COUNT: {
+                int count = parseInt(value);
+                if (!ZONE_COUNTS.contains(count)) {
+                    throw new IllegalArgumentException("must be one of " + ZONE_COUNTS);
+                }
+                return count;
+            }
+            case KEY_Y_AXIS_CONTROLS:
+                return parseYAxis(value, gson);
+            default:
+                return parseGeneric(value);
+        }
+    }
+
+    private static int parseInt(JsonElement value) {
+        // JS присылает числа и как строки (toString()), принимаем оба варианта
+        if (value.isJsonPrimitive()) {
+            JsonPrimitive primitive = value.getAsJsonPrimitive();
+            try {
+                double number = primitive.isNumber() ? primitive.getAsDouble() : Double.parseDouble(primitive.getAsString());
+                if (number == Math.rint(number)) return (int) number;
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        throw new IllegalArgumentException("expected an integer");
+    }
+
+    private static YAxisGroups parseYAxis(JsonElement value, Gson gson) {
+        if (!value.isJsonObject()) {
+            throw new IllegalArgumentException("expected an object with volume/effects groups");
+        }
+        YAxisGroups groups = new YAxisGroups();
+        for (Map.Entry<String, JsonElement> group : value.getAsJsonObject().entrySet()) {
+            if (!group.getValue().isJsonObject()) {
+                throw new IllegalArgumentException("group " + group.getKey() + " must be an object");
+            }
+            if ("volume".equals(group.getKey())) {
+                groups.volume = gson.fromJson(group.getValue(), YAxisControls.VolumeControl.class);
+            } else if ("effects".equals(group.getKey())) {
+                groups.effects = gson.fromJson(group.getValue(), YAxisControls.EffectsControl.class);
+            } else {
+                throw new IllegalArgumentException("unknown group " + group.getKey());
+            }
+        }
+        return groups;
+    }
+
+    private static Object parseGeneric(JsonElement value) {
+        if (value.isJsonNull()) return null;
+        if (!value.isJsonPrimitive()) {
+            throw new IllegalArgumentException("expected a string, number, boolean or null");
+        }
+        // Типы как в loadSettings: Boolean/Double/String, чтобы saveSettings их сохранил
+        JsonPrimitive primitive = value.getAsJsonPrimitive();
+        if (primitive.isBoolean()) return primitive.getAsBoolean();
+        if (primitive.isNumber()) return primitive.getAsDouble();
+        return primitive.getAsString();
+    }
+}
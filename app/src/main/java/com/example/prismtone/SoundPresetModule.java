@@ -2,10 +2,12 @@ package com.example.prismtone;
 
 import android.content.Context;
 
+import com.example.prismtone.model.SoundPreset;
 import com.google.gson.JsonObject;
 
 public class SoundPresetModule extends BaseModule {
     private JsonObject synthSettings;
+    private SoundPreset preset;
 
     public SoundPresetModule(Context context, ModuleInfo info) {
         super(context, info);
@@ -13,27 +15,21 @@ public class SoundPresetModule extends BaseModule {
 
     @Override
     public boolean initialize() {
-        // Extract synth settings from module data
-        JsonObject data = getData().getAsJsonObject("data");
-        if (data == null) {
+        // Typed model is compiled once per preset and shared; it also validates the real preset schema
+        try {
+            preset = SoundPreset.of(info.getCompactData());
+        } catch (IllegalArgumentException e) {
             return false;
         }
 
+        JsonObject data = getData().getAsJsonObject("data");
         synthSettings = new JsonObject();
 
-        // Copy oscillator settings if present
-        if (data.has("oscillator")) {
-            synthSettings.add("oscillator", data.get("oscillator"));
-        }
-
-        // Copy envelope settings if present
-        if (data.has("envelope")) {
-            synthSettings.add("envelope", data.get("envelope"));
-        }
-
-        // Copy filter settings if present
-        if (data.has("filter")) {
-            synthSettings.add("filter", data.get("filter"));
+        // Copy every known component block (oscillator, sampler, amplitudeEnv, filter, ...)
+        for (String component : SoundPreset.KNOWN_COMPONENTS) {
+            if (data.has(component)) {
+                synthSettings.add(component, data.get(component));
+            }
         }
 
         return true;
@@ -51,4 +47,11 @@ public class SoundPresetModule extends BaseModule {
     public JsonObject getSettings() {
         return synthSettings;
     }
+
+    /**
+     * Gets the compiled, typed model of this sound preset
+     */
+    public SoundPreset getPreset() {
+        return preset;
+    }
 }
@@ -5,34 +5,91 @@ import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
 
+import com.example.prismtone.model.SoundPreset;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
 
+/**
+ * User sound presets. A preset saved from a catalog preset is stored as a patch over it
+ * ({@link JsonDelta}) plus one shared snapshot of that catalog preset, and materialized into the
+ * in-memory cache on load. When the catalog preset changes, the patches are rebased onto the new
+ * version (or flattened to full documents if the base is gone or the patch would no longer be small),
+ * so a saved preset always sounds the way it did when it was saved.
+ */
 public class SoundPresetRepository {
     private static final String TAG = "SoundPresetRepository";
+    private static final String MODULE_TYPE = "soundpreset";
+    // Снимки базовых пресетов лежат в том же журнале под этим префиксом
+    private static final String BASE_SNAPSHOT_PREFIX = "base_";
+    private static final String DELTA_MARKER = "$delta";
+    // Патч хранится, только если он заметно меньше полного документа
+    private static final double MAX_DELTA_RATIO = 0.5;
     private static SoundPresetRepository instance;
     private final File presetDir;
     private final Gson gson;
-    private final ExecutorService executorService;
+    // Все пользовательские документы хранятся в одном журнале вместо файла на каждый документ
+    private final JournalStore journal;
+    private final UserContentCache cache;
+    // Метаданные для сортировки/поиска по библиотеке
+    private final LibraryIndex libraryIndex;
+    // Записи репозитория идут по очереди; обслуживание индекса - в фоновой полосе
+    private final TaskScheduler.SerialQueue queue;
     private final Handler mainThreadHandler;
+    private volatile BaseProvider baseProvider;
+    // Базовые пресеты каталога с хешами; используется только из очереди репозитория
+    private final Map<String, BaseEntry> bases = new HashMap<>();
+    // Скомпилированные пользовательские пресеты для сравнения с пресетами каталога (diffSoundPresets)
+    private final Map<String, SoundPreset> compiledPresets = new ConcurrentHashMap<>();
+
+    /** Supplies the catalog presets user presets can be stored as patches of. */
+    public interface BaseProvider {
+        /** @return a copy of the catalog preset's JSON, or null if there is none. */
+        JsonObject getBasePreset(String presetId);
+    }
+
+    private static final class BaseEntry {
+        final String payload;
+        final JsonObject json;
+        final String hash;
+
+        BaseEntry(JsonObject json) {
+            this.json = json;
+            this.payload = json.toString();
+            CRC32 crc = new CRC32();
+            crc.update(payload.getBytes(StandardCharsets.UTF_8));
+            this.hash = String.format(Locale.US, "%08x", crc.getValue());
+        }
+    }
 
     private SoundPresetRepository(Context context) {
         this.presetDir = new File(context.getExternalFilesDir(null), "modules/soundpreset");
-        this.gson = new GsonBuilder().setPrettyPrinting().create();
-        this.executorService = Executors.newSingleThreadExecutor();
+        this.gson = new Gson();
+        this.queue = TaskScheduler.getInstance().serial(MODULE_TYPE + "-repository", TaskScheduler.Lane.USER_INITIATED);
         this.mainThreadHandler = new Handler(Looper.getMainLooper());
 
         if (!presetDir.exists()) {
             presetDir.mkdirs();
         }
+        this.journal = openJournal(presetDir);
+        this.libraryIndex = LibraryIndex.getInstance(context);
+        this.cache = new UserContentCache(journal, MODULE_TYPE, libraryIndex, queue, this::resolveAndCompile);
+        cache.warmUp();
     }
 
     public static synchronized SoundPresetRepository getInstance(Context context) {
@@ -46,20 +103,32 @@ public class SoundPresetRepository {
      * Returns a list of all user-created sound presets
      */
     public List<JsonObject> getUserPresets() {
-        List<JsonObject> presets = new ArrayList<>();
-        File[] files = presetDir.listFiles((dir, name) -> name.endsWith(".json"));
-        if (files != null) {
-            for (File file : files) {
-                try {
-                    String content = FileUtils.readFile(file);
-                    JsonObject preset = gson.fromJson(content, JsonObject.class);
-                    presets.add(preset);
-                } catch (IOException e) {
-                    Log.e(TAG, "Error reading preset file: " + file.getName(), e);
-                }
-            }
+        List<JsonObject> presets = cache.loadCached();
+        return presets != null ? presets : Collections.emptyList();
+    }
+
+    /**
+     * Returns the compiled model of a user preset, see {@link ModuleManager#getSoundPreset}.
+     * @return the preset or null if it doesn't exist or failed validation.
+     */
+    public SoundPreset getCompiledPreset(String presetId) {
+        if (presetId == null || !presetId.startsWith(JournalStore.USER_ID_PREFIX)) {
+            return null;
         }
-        return presets;
+        cache.loadCached();
+        return compiledPresets.get(presetId);
+    }
+
+    /**
+     * Called once the module catalog is loaded. Enables patch storage for new saves and rebases
+     * stored patches whose base preset changed.
+     */
+    public void setBaseProvider(BaseProvider provider) {
+        this.baseProvider = provider;
+        queue.execute(TaskScheduler.Lane.BACKGROUND, () -> {
+            bases.clear();
+            rebaseOnCatalog();
+        });
     }
 
     /**
@@ -70,16 +139,23 @@ public class SoundPresetRepository {
      * @param bridge The bridge instance to call JS functions.
      */
     public void savePreset(JsonObject preset, String successCallbackName, String errorCallbackName, PrismtoneBridge bridge) {
-        executorService.execute(() -> {
+        queue.execute(() -> {
             try {
-                String id = "user_" + System.currentTimeMillis();
+                if (journal == null) {
+                    throw new IOException("Storage is not available");
+                }
+                // Пресет, сохраненный из пресета каталога, приходит с id этого пресета
+                JsonElement sourceId = preset.get("id");
+                String baseId = sourceId != null && sourceId.isJsonPrimitive() ? sourceId.getAsString() : null;
+                String id = journal.newId();
                 preset.addProperty("id", id);
-
-                File presetFile = new File(presetDir, id + ".json");
-                String jsonOutput = gson.toJson(preset);
-                FileUtils.writeFile(presetFile, jsonOutput);
-
-                bridge.callJsFunctionOnMainThread(successCallbackName, id);
+                synchronized (cache) {
+                    journal.putBuffered(id, storagePayload(id, baseId, preset));
+                    cache.put(id, preset);
+                    compile(id, preset);
+                }
+                libraryIndex.upsert(MODULE_TYPE, id, preset);
+                RepositoryUtils.commitAndNotify(queue, journal, id, successCallbackName, errorCallbackName, bridge);
             } catch (IOException e) {
                 Log.e(TAG, "Error saving preset file", e);
                 String errorMessage = "Error: " + e.getMessage();
@@ -97,11 +173,265 @@ public class SoundPresetRepository {
         if (!presetId.startsWith("user_")) {
             return false;
         }
+        if (journal == null) {
+            return false;
+        }
+        try {
+            // Удаление - одна запись-надгробие; место освобождает фоновая компактация
+            boolean deleted;
+            synchronized (cache) {
+                deleted = journal.delete(presetId);
+                if (deleted) {
+                    cache.remove(presetId);
+                    compiledPresets.remove(presetId);
+                }
+            }
+            if (deleted) {
+                queue.execute(TaskScheduler.Lane.BACKGROUND, () -> libraryIndex.remove(MODULE_TYPE, presetId));
+            }
+            if (deleted && journal.needsCompaction()) {
+                queue.execute(TaskScheduler.Lane.BACKGROUND, this::compactJournal);
+            }
+            return deleted;
+        } catch (IOException e) {
+            Log.e(TAG, "Error deleting sound preset " + presetId, e);
+            return false;
+        }
+    }
+
+    /**
+     * Stores sound presets from a library bundle, see {@link RepositoryUtils#importBatch}.
+     * A preset exported from a catalog preset carries that preset's id and is stored as a patch of it, as in savePreset.
+     * @return the number of documents stored.
+     */
+    public int importBatch(List<JsonObject> documents) throws IOException {
+        return RepositoryUtils.importBatch(queue, journal, cache, libraryIndex, MODULE_TYPE, documents,
+                new RepositoryUtils.ImportHandler() {
+                    @Override
+                    public String payload(String id, String sourceId, JsonObject document) throws IOException {
+                        return storagePayload(id, sourceId, document);
+                    }
+
+                    @Override
+                    public void stored(String id, JsonObject document) {
+                        compile(id, document);
+                    }
+                });
+    }
+
+    /** Cache resolver: materializes the presets and recompiles them all. */
+    private Map<String, JsonObject> resolveAndCompile(Map<String, String> payloads) {
+        Map<String, JsonObject> documents = resolve(payloads);
+        compiledPresets.clear();
+        for (Map.Entry<String, JsonObject> entry : documents.entrySet()) {
+            compile(entry.getKey(), entry.getValue());
+        }
+        return documents;
+    }
 
-        // Ensure file operations are not on main thread if they could be slow,
-        // however, delete is generally fast. For now, keeping it synchronous.
-        // If performance issues arise, consider moving to executorService as well.
-        File presetFile = new File(presetDir, presetId + ".json");
-        return presetFile.exists() && presetFile.delete();
+    private void compile(String id, JsonObject preset) {
+        try {
+            compiledPresets.put(id, SoundPreset.compile(CompactJson.copyOf(preset).getAsObject()));
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            compiledPresets.remove(id);
+            Log.w(TAG, "compile: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Turns journal payloads into full documents: patches are applied over their base snapshot,
+     * snapshots themselves are skipped.
+     */
+    private Map<String, JsonObject> resolve(Map<String, String> payloads) {
+        Map<String, JsonObject> snapshots = new HashMap<>();
+        Map<String, JsonObject> documents = new LinkedHashMap<>();
+        int patched = 0;
+        for (Map.Entry<String, String> entry : payloads.entrySet()) {
+            String id = entry.getKey();
+            if (id.startsWith(BASE_SNAPSHOT_PREFIX)) continue;
+            try {
+                JsonObject json = JsonParser.parseString(entry.getValue()).getAsJsonObject();
+                if (json.has(DELTA_MARKER)) {
+                    json = materialize(id, json, payloads, snapshots);
+                    if (json == null) continue;
+                    patched++;
+                }
+                documents.put(id, json);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error parsing sound preset " + id, e);
+            }
+        }
+        if (patched > 0) {
+            Log.d(TAG, "Materialized " + patched + " patched presets from " + snapshots.size() + " base snapshots");
+        }
+        return documents;
+    }
+
+    private JsonObject materialize(String id, JsonObject record, Map<String, String> payloads, Map<String, JsonObject> snapshots) {
+        String snapshotId = snapshotId(record.get("base").getAsString(), record.get("baseHash").getAsString());
+        JsonObject base = snapshots.get(snapshotId);
+        if (base == null) {
+            String payload = payloads.get(snapshotId);
+            if (payload == null) {
+                Log.e(TAG, "Base snapshot " + snapshotId + " missing for preset " + id);
+                return null;
+            }
+            base = JsonParser.parseString(payload).getAsJsonObject();
+            snapshots.put(snapshotId, base);
+        }
+        JsonObject preset = JsonDelta.apply(base, record);
+        preset.addProperty("id", id);
+        return preset;
+    }
+
+    /**
+     * Journal payload for a preset: a patch over its catalog base if that is worthwhile, the full document otherwise.
+     */
+    private String storagePayload(String id, String baseId, JsonObject preset) throws IOException {
+        JsonObject record = toDeltaRecord(id, baseId, preset);
+        return record != null ? record.toString() : gson.toJson(preset);
+    }
+
+    /**
+     * Builds the patch record and makes sure the base snapshot it refers to is in the journal.
+     * @return null if there is no usable base or the patch isn't small enough to be worth it.
+     */
+    private JsonObject toDeltaRecord(String id, String baseId, JsonObject preset) throws IOException {
+        BaseEntry base = baseEntry(baseId);
+        if (base == null) return null;
+        JsonObject delta = JsonDelta.diff(base.json, preset);
+        delta.getAsJsonObject(JsonDelta.SET).remove("/id");
+        JsonObject record = new JsonObject();
+        record.addProperty(DELTA_MARKER, 1);
+        record.addProperty("id", id);
+        record.addProperty("base", baseId);
+        record.addProperty("baseHash", base.hash);
+        for (Map.Entry<String, JsonElement> entry : delta.entrySet()) {
+            record.add(entry.getKey(), entry.getValue());
+        }
+        if (record.toString().length() > base.payload.length() * MAX_DELTA_RATIO) {
+            return null;
+        }
+        String snapshotId = snapshotId(baseId, base.hash);
+        if (!journal.contains(snapshotId)) {
+            journal.putBuffered(snapshotId, base.payload);
+        }
+        return record;
+    }
+
+    private BaseEntry baseEntry(String baseId) {
+        if (baseId == null || baseId.startsWith(JournalStore.USER_ID_PREFIX)) return null;
+        BaseEntry entry = bases.get(baseId);
+        BaseProvider provider = baseProvider;
+        if (entry == null && provider != null) {
+            JsonObject json = provider.getBasePreset(baseId);
+            if (json != null) {
+                entry = new BaseEntry(json);
+                bases.put(baseId, entry);
+            }
+        }
+        return entry;
+    }
+
+    private static String snapshotId(String baseId, String hash) {
+        return BASE_SNAPSHOT_PREFIX + baseId + "@" + hash;
+    }
+
+    /**
+     * Re-anchors patches whose base preset changed in the catalog: each affected preset is
+     * materialized from its old snapshot and stored again against the current base, or in full
+     * if the base is gone. Snapshots no patch refers to any more are dropped, unless some patch record
+     * can't be read.
+     */
+    private void rebaseOnCatalog() {
+        if (journal == null || baseProvider == null) return;
+        int rebased = 0;
+        int flattened = 0;
+        int dropped = 0;
+        synchronized (cache) {
+            try {
+                Map<String, String> payloads = journal.readAll();
+                Map<String, JsonObject> snapshots = new HashMap<>();
+                Set<String> referenced = new HashSet<>();
+                // Патч, который не удалось разобрать, может ссылаться на любой снимок - тогда снимки не удаляем
+                boolean unresolved = false;
+                for (Map.Entry<String, String> entry : payloads.entrySet()) {
+                    String id = entry.getKey();
+                    if (id.startsWith(BASE_SNAPSHOT_PREFIX) || !entry.getValue().contains(DELTA_MARKER)) continue;
+                    JsonObject record;
+                    String baseId;
+                    String storedHash;
+                    try {
+                        record = JsonParser.parseString(entry.getValue()).getAsJsonObject();
+                        if (!record.has(DELTA_MARKER)) continue;
+                        baseId = record.get("base").getAsString();
+                        storedHash = record.get("baseHash").getAsString();
+                    } catch (RuntimeException e) {
+                        Log.e(TAG, "Unreadable patch record " + id + ", keeping all base snapshots", e);
+                        unresolved = true;
+                        continue;
+                    }
+                    BaseEntry current = baseEntry(baseId);
+                    if (current != null && current.hash.equals(storedHash)) {
+                        referenced.add(snapshotId(baseId, storedHash));
+                        continue;
+                    }
+                    JsonObject preset;
+                    try {
+                        preset = materialize(id, record, payloads, snapshots);
+                    } catch (RuntimeException e) {
+                        Log.e(TAG, "Corrupt base snapshot for preset " + id, e);
+                        preset = null;
+                    }
+                    if (preset == null) {
+                        // Снимок потерян или испорчен - восстановить нечем, запись и снимок не трогаем
+                        referenced.add(snapshotId(baseId, storedHash));
+                        continue;
+                    }
+                    JsonObject updated = toDeltaRecord(id, baseId, preset);
+                    if (updated != null) {
+                        journal.putBuffered(id, updated.toString());
+                        referenced.add(snapshotId(baseId, current.hash));
+                        rebased++;
+                    } else {
+                        journal.putBuffered(id, gson.toJson(preset));
+                        flattened++;
+                    }
+                }
+                for (String id : payloads.keySet()) {
+                    if (!unresolved && id.startsWith(BASE_SNAPSHOT_PREFIX) && !referenced.contains(id)) {
+                        journal.delete(id);
+                        dropped++;
+                    }
+                }
+                if (rebased + flattened + dropped > 0) {
+                    journal.commit();
+                    // Содержимое пресетов не изменилось - только способ хранения
+                    cache.touch();
+                    Log.i(TAG, "Rebased " + rebased + " presets, flattened " + flattened + ", dropped " + dropped + " base snapshots");
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Error rebasing sound presets", e);
+            }
+        }
+        if (journal.needsCompaction()) {
+            compactJournal();
+        }
+    }
+
+    private void compactJournal() {
+        synchronized (cache) {
+            journal.compactIfNeeded();
+            cache.touch();
+        }
+    }
+
+    private static JournalStore openJournal(File directory) {
+        try {
+            return JournalStore.openInDirectory(directory);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not open journal in " + directory, e);
+            return null;
+        }
     }
 }
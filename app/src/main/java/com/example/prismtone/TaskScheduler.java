@@ -0,0 +1,359 @@
+package com.example.prismtone;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.gson.JsonObject;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * App-wide scheduler for background work, replacing per-class single-thread executors.
+ *
+ * Work is submitted to a {@link Lane}. INTERACTIVE and USER_INITIATED tasks share a foreground pool
+ * sized to the CPU count and are taken in lane order, then FIFO; BACKGROUND tasks run on a separate,
+ * smaller pool at background thread priority, so housekeeping can never occupy the threads
+ * interactive work needs. Idle threads time out.
+ *
+ * Work that must stay ordered (writes to one store) goes through a {@link SerialQueue}: tasks of
+ * one key run one at a time, in submission order, each dispatched in the most urgent lane waiting
+ * in the queue, so a save queued behind housekeeping isn't held at background priority.
+ *
+ * Delayed work ({@link #schedule}) waits on one shared timer thread that only hands tasks over to
+ * their lane or queue when they are due; it never runs them itself.
+ */
+public final class TaskScheduler {
+    private static final String TAG = "TaskScheduler";
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    // Задачи дольше этого порога попадают в лог - признак неправильно выбранной полосы
+    private static final long SLOW_TASK_MS = 2000;
+
+    public enum Lane {
+        /** Something the user is waiting on right now (a bridge call's result). */
+        INTERACTIVE(Process.THREAD_PRIORITY_FOREGROUND),
+        /** Started by the user, result expected soon (save, load, import). */
+        USER_INITIATED(Process.THREAD_PRIORITY_DEFAULT),
+        /** Prefetch, index maintenance, compaction. */
+        BACKGROUND(Process.THREAD_PRIORITY_BACKGROUND);
+
+        final int threadPriority;
+
+        Lane(int threadPriority) {
+            this.threadPriority = threadPriority;
+        }
+    }
+
+    private static TaskScheduler instance;
+
+    private final ThreadPoolExecutor foregroundPool;
+    private final ThreadPoolExecutor backgroundPool;
+    private final ScheduledThreadPoolExecutor timer;
+    private final AtomicLong sequence = new AtomicLong();
+    private final LaneStats[] stats = new LaneStats[Lane.values().length];
+    private final Map<String, SerialQueue> serialQueues = new ConcurrentHashMap<>();
+
+    private TaskScheduler() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int foregroundThreads = Math.max(2, cores);
+        int backgroundThreads = Math.max(1, cores / 2);
+        foregroundPool = new ThreadPoolExecutor(foregroundThreads, foregroundThreads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<>(), threadFactory("Prismtone-fg-"));
+        foregroundPool.allowCoreThreadTimeOut(true);
+        backgroundPool = new ThreadPoolExecutor(backgroundThreads, backgroundThreads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), threadFactory("Prismtone-bg-"));
+        backgroundPool.allowCoreThreadTimeOut(true);
+        timer = new ScheduledThreadPoolExecutor(1, threadFactory("Prismtone-timer-"));
+        timer.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        timer.allowCoreThreadTimeOut(true);
+        timer.setRemoveOnCancelPolicy(true);
+        for (Lane lane : Lane.values()) {
+            stats[lane.ordinal()] = new LaneStats();
+        }
+        Log.d(TAG, "Scheduler: " + foregroundThreads + " foreground, " + backgroundThreads + " background threads");
+    }
+
+    public static synchronized TaskScheduler getInstance() {
+        if (instance == null) {
+            instance = new TaskScheduler();
+        }
+        return instance;
+    }
+
+    public void execute(Lane lane, Runnable task) {
+        dispatch(lane, new FutureTask<>(logged(task), null));
+    }
+
+    /** @return a future whose cancel() removes the task if it hasn't started yet. */
+    public <T> Future<T> submit(Lane lane, Callable<T> task) {
+        FutureTask<T> future = new FutureTask<>(task);
+        dispatch(lane, future);
+        return future;
+    }
+
+    public Future<?> submit(Lane lane, Runnable task) {
+        FutureTask<Void> future = new FutureTask<>(task, null);
+        dispatch(lane, future);
+        return future;
+    }
+
+    /**
+     * Runs a task in a lane once the delay has passed.
+     * @return a future whose cancel() drops the task if it hasn't been handed to the lane yet.
+     */
+    public Future<?> schedule(Lane lane, long delayMs, Runnable task) {
+        return timer.schedule(() -> execute(lane, task), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /** An {@link Executor} view of a lane, e.g. for CompletableFuture. */
+    public Executor executor(Lane lane) {
+        return task -> execute(lane, task);
+    }
+
+    /**
+     * Returns the serial queue for a key, creating it on first use.
+     * @param defaultLane lane for tasks submitted without one.
+     */
+    public SerialQueue serial(String key, Lane defaultLane) {
+        return serialQueues.computeIfAbsent(key, k -> new SerialQueue(k, defaultLane));
+    }
+
+    private void dispatch(Lane lane, FutureTask<?> future) {
+        Task task = new Task(lane, sequence.getAndIncrement(), future);
+        LaneStats laneStats = stats[lane.ordinal()];
+        laneStats.submitted.incrementAndGet();
+        int depth = laneStats.queued.incrementAndGet();
+        laneStats.maxQueued.accumulateAndGet(depth, Math::max);
+        (lane == Lane.BACKGROUND ? backgroundPool : foregroundPool).execute(task);
+    }
+
+    /** Queue depth, wait and run times per lane, plus pool and serial queue state. */
+    public JsonObject getStats() {
+        JsonObject result = new JsonObject();
+        for (Lane lane : Lane.values()) {
+            result.add(lane.name().toLowerCase(Locale.US), stats[lane.ordinal()].toJson());
+        }
+        result.addProperty("foregroundThreads", foregroundPool.getPoolSize());
+        result.addProperty("backgroundThreads", backgroundPool.getPoolSize());
+        JsonObject serial = new JsonObject();
+        for (SerialQueue queue : serialQueues.values()) {
+            serial.addProperty(queue.key, queue.pendingCount());
+        }
+        result.add("serialPending", serial);
+        return result;
+    }
+
+    /** Fire-and-forget tasks have no future to report failures through - log them. */
+    private static Runnable logged(Runnable task) {
+        return () -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Task failed", e);
+                throw e;
+            }
+        };
+    }
+
+    private static ThreadFactory threadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static final class LaneStats {
+        final AtomicLong submitted = new AtomicLong();
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong cancelled = new AtomicLong();
+        final AtomicInteger queued = new AtomicInteger();
+        final AtomicInteger maxQueued = new AtomicInteger();
+        final AtomicLong waitMsTotal = new AtomicLong();
+        final AtomicLong waitMsMax = new AtomicLong();
+        final AtomicLong runMsTotal = new AtomicLong();
+        final AtomicLong runMsMax = new AtomicLong();
+
+        JsonObject toJson() {
+            JsonObject json = new JsonObject();
+            long done = completed.get();
+            json.addProperty("submitted", submitted.get());
+            json.addProperty("completed", done);
+            json.addProperty("cancelled", cancelled.get());
+            json.addProperty("queued", queued.get());
+            json.addProperty("maxQueued", maxQueued.get());
+            json.addProperty("avgWaitMs", done > 0 ? (double) waitMsTotal.get() / done : 0);
+            json.addProperty("maxWaitMs", waitMsMax.get());
+            json.addProperty("avgRunMs", done > 0 ? (double) runMsTotal.get() / done : 0);
+            json.addProperty("maxRunMs", runMsMax.get());
+            return json;
+        }
+    }
+
+    /** Pool entry: ordered by lane, then submission order. */
+    private final class Task implements Runnable, Comparable<Task> {
+        final Lane lane;
+        final long order;
+        final FutureTask<?> future;
+        final long enqueuedAt = SystemClock.uptimeMillis();
+
+        Task(Lane lane, long order, FutureTask<?> future) {
+            this.lane = lane;
+            this.order = order;
+            this.future = future;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            int byLane = Integer.compare(lane.ordinal(), other.lane.ordinal());
+            return byLane != 0 ? byLane : Long.compare(order, other.order);
+        }
+
+        @Override
+        public void run() {
+            LaneStats laneStats = stats[lane.ordinal()];
+            laneStats.queued.decrementAndGet();
+            if (future.isCancelled()) {
+                laneStats.cancelled.incrementAndGet();
+                return;
+            }
+            long start = SystemClock.uptimeMillis();
+            long waited = start - enqueuedAt;
+            Process.setThreadPriority(lane.threadPriority);
+            future.run();
+            long ran = SystemClock.uptimeMillis() - start;
+            laneStats.completed.incrementAndGet();
+            laneStats.waitMsTotal.addAndGet(waited);
+            laneStats.waitMsMax.accumulateAndGet(waited, Math::max);
+            laneStats.runMsTotal.addAndGet(ran);
+            laneStats.runMsMax.accumulateAndGet(ran, Math::max);
+            if (ran > SLOW_TASK_MS) {
+                Log.w(TAG, "Slow " + lane + " task: " + ran + " ms");
+            }
+        }
+    }
+
+    /**
+     * Runs the tasks of one key strictly one after another, in submission order, on the shared pools.
+     */
+    public final class SerialQueue implements Executor {
+        private final String key;
+        private final Lane defaultLane;
+        private final ArrayDeque<Entry> pending = new ArrayDeque<>();
+        private boolean running = false;
+
+        private final class Entry {
+            final Lane lane;
+            final FutureTask<?> future;
+
+            Entry(Lane lane, FutureTask<?> future) {
+                this.lane = lane;
+                this.future = future;
+            }
+        }
+
+        SerialQueue(String key, Lane defaultLane) {
+            this.key = key;
+            this.defaultLane = defaultLane;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            execute(defaultLane, task);
+        }
+
+        public void execute(Lane lane, Runnable task) {
+            enqueue(lane, new FutureTask<>(logged(task), null));
+        }
+
+        public <T> Future<T> submit(Callable<T> task) {
+            return submit(defaultLane, task);
+        }
+
+        public <T> Future<T> submit(Lane lane, Callable<T> task) {
+            FutureTask<T> future = new FutureTask<>(task);
+            enqueue(lane, future);
+            return future;
+        }
+
+        /**
+         * Queues a task once the delay has passed; it then waits behind whatever is queued by then.
+         * @return a future whose cancel() drops the task if it hasn't been queued yet.
+         */
+        public Future<?> schedule(long delayMs, Runnable task) {
+            return timer.schedule(() -> execute(task), delayMs, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Cancels every task that hasn't started yet.
+         * @return the number of cancelled tasks.
+         */
+        public int cancelPending() {
+            int count = 0;
+            synchronized (this) {
+                for (Entry entry : pending) {
+                    if (entry.future.cancel(false)) count++;
+                }
+                pending.clear();
+            }
+            return count;
+        }
+
+        synchronized int pendingCount() {
+            return pending.size() + (running ? 1 : 0);
+        }
+
+        private void enqueue(Lane lane, FutureTask<?> future) {
+            synchronized (this) {
+                pending.add(new Entry(lane, future));
+                if (running) return;
+                running = true;
+            }
+            scheduleNext();
+        }
+
+        private void scheduleNext() {
+            Entry next;
+            Lane lane;
+            synchronized (this) {
+                next = pending.poll();
+                while (next != null && next.future.isCancelled()) {
+                    next = pending.poll();
+                }
+                if (next == null) {
+                    running = false;
+                    return;
+                }
+                // Наследование приоритета: голова очереди идет в самой срочной из ожидающих полос
+                lane = next.lane;
+                for (Entry waiting : pending) {
+                    if (waiting.lane.ordinal() < lane.ordinal()) lane = waiting.lane;
+                }
+            }
+            Entry current = next;
+            TaskScheduler.this.execute(lane, () -> {
+                try {
+                    current.future.run();
+                } finally {
+                    scheduleNext();
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.example.prismtone;
+
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parsed in-memory copy of a repository's user documents.
+ *
+ * The repository keeps it coherent on its own save/delete paths. Freshness is checked against the
+ * journal's generation counter ({@link JournalStore#getGeneration()}), recorded at the last load or
+ * local write, so a change is never missed because of timestamp granularity or an unchanged length;
+ * the journal itself notices a file replaced from outside. Documents handed to {@link #put} are
+ * copied; returned lists and objects are shared: callers must not modify them.
+ *
+ * Repositories lock the cache itself ({@code synchronized (cache)}) around a journal write and the
+ * matching cache update, so readers never see one without the other.
+ */
+public final class UserContentCache {
+    private static final String TAG = "UserContentCache";
+
+    private final JournalStore journal;
+    private final String moduleType;
+    private final LibraryIndex libraryIndex;
+    private final TaskScheduler.SerialQueue queue;
+    private final Resolver resolver;
+    private final Gson gson = new Gson();
+
+    private Map<String, JsonObject> documents;   // null - еще не загружено или сброшено
+    private List<JsonObject> documentList;
+    private List<ModuleInfo> moduleInfos;
+    private long generation;
+    private long version;
+
+    /** Turns journal payloads into documents, for repositories that don't store plain documents. */
+    public interface Resolver {
+        Map<String, JsonObject> resolve(Map<String, String> payloads);
+    }
+
+    /**
+     * A cache that isn't tied to a library index; {@link #loadCached} parses payloads as plain documents.
+     * @param journal the repository's journal; null if it couldn't be opened, then the cache is never valid.
+     */
+    public UserContentCache(JournalStore journal, String moduleType) {
+        this(journal, moduleType, null, null, null);
+    }
+
+    /**
+     * @param journal the repository's journal; null if it couldn't be opened, then the cache is never valid.
+     * @param libraryIndex reconciled with the documents after every reload; may be null.
+     * @param queue the repository's queue, which runs the warm-up and the index reconciliation.
+     * @param resolver turns payloads into documents; null to parse them as plain documents.
+     */
+    public UserContentCache(JournalStore journal, String moduleType, LibraryIndex libraryIndex,
+                            TaskScheduler.SerialQueue queue, Resolver resolver) {
+        this.journal = journal;
+        this.moduleType = moduleType;
+        this.libraryIndex = libraryIndex;
+        this.queue = queue;
+        this.resolver = resolver;
+    }
+
+    /** Loads the cache and reconciles the library index in the background, ahead of the first read. */
+    public void warmUp() {
+        if (queue != null) {
+            queue.execute(TaskScheduler.Lane.BACKGROUND, this::loadCached);
+        }
+    }
+
+    /**
+     * Returns the cached documents, reloading them with one journal read if the cache is cold
+     * or the journal changed outside the repository.
+     * @return the documents, or null if the journal isn't available or couldn't be read.
+     */
+    public synchronized List<JsonObject> loadCached() {
+        if (journal == null) {
+            return null;
+        }
+        if (!isValid()) {
+            try {
+                Map<String, String> payloads = journal.readAll();
+                loadDocuments(resolver != null ? resolver.resolve(payloads) : parse(payloads));
+                if (queue != null && libraryIndex != null) {
+                    queue.execute(TaskScheduler.Lane.BACKGROUND, this::reconcileIndex);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Error reading " + moduleType + " journal", e);
+                invalidate();
+                return null;
+            }
+        }
+        return getDocuments();
+    }
+
+    /**
+     * True if the cache is loaded and the journal hasn't changed since. Costs one stat, no reads.
+     */
+    public synchronized boolean isValid() {
+        return documents != null && journal != null && currentGeneration() == generation;
+    }
+
+    /**
+     * Replaces the cache content with freshly read journal payloads.
+     */
+    public synchronized void load(Map<String, String> payloads) {
+        loadDocuments(parse(payloads));
+    }
+
+    /**
+     * Replaces the cache content with documents the repository already parsed or resolved
+     * (e.g. presets materialized from a base and a patch).
+     */
+    public synchronized void loadDocuments(Map<String, JsonObject> parsed) {
+        documents = new LinkedHashMap<>(parsed);
+        changed();
+        Log.d(TAG, "Loaded " + parsed.size() + " " + moduleType + " documents");
+    }
+
+    /**
+     * Records a document saved by the repository itself. The cache keeps its own copy,
+     * so the caller may go on changing its object.
+     */
+    public synchronized void put(String id, JsonObject document) {
+        if (documents == null) return; // Загрузится целиком при следующем чтении
+        documents.remove(id);
+        documents.put(id, document.deepCopy());
+        changed();
+    }
+
+    /** Records a document deleted by the repository itself. */
+    public synchronized void remove(String id) {
+        if (documents == null) return;
+        documents.remove(id);
+        changed();
+    }
+
+    /**
+     * Re-records the journal's generation after a local write that didn't change the content
+     * (e.g. compaction or re-encoding), so it isn't mistaken for a change.
+     */
+    public synchronized void touch() {
+        if (documents != null) {
+            recordFileState();
+        }
+    }
+
+    public synchronized void invalidate() {
+        documents = null;
+        documentList = null;
+        moduleInfos = null;
+    }
+
+    /** A single document, or null if it doesn't exist or the cache isn't loaded. */
+    public synchronized JsonObject get(String id) {
+        return documents != null ? documents.get(id) : null;
+    }
+
+    /** Documents in save order. Null if the cache isn't loaded. */
+    public synchronized List<JsonObject> getDocuments() {
+        if (documents == null) return null;
+        if (documentList == null) {
+            documentList = Collections.unmodifiableList(new ArrayList<>(documents.values()));
+        }
+        return documentList;
+    }
+
+    /**
+     * Documents converted to {@link ModuleInfo}s, built once per change. Null if the cache isn't loaded.
+     */
+    public synchronized List<ModuleInfo> getModuleInfos() {
+        if (documents == null) return null;
+        if (moduleInfos == null) {
+            List<ModuleInfo> infos = new ArrayList<>(documents.size());
+            for (JsonObject json : documents.values()) {
+                ModuleInfo info = toModuleInfo(json);
+                if (info != null) infos.add(info);
+            }
+            moduleInfos = Collections.unmodifiableList(infos);
+        }
+        return moduleInfos;
+    }
+
+    /** Incremented on every change, so derived data (merged module lists) can be cached too. */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Syncs the library index with the cache. Runs on the repository's queue, like every other index write,
+     * and reads the cache at run time, so it never undoes a save queued before it.
+     */
+    private void reconcileIndex() {
+        List<JsonObject> current = getDocuments();
+        if (current != null) {
+            libraryIndex.reconcile(moduleType, current);
+        }
+    }
+
+    private Map<String, JsonObject> parse(Map<String, String> payloads) {
+        Map<String, JsonObject> parsed = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : payloads.entrySet()) {
+            try {
+                parsed.put(entry.getKey(), gson.fromJson(entry.getValue(), JsonObject.class));
+            } catch (JsonParseException e) {
+                Log.e(TAG, "Error parsing " + moduleType + " " + entry.getKey(), e);
+            }
+        }
+        return parsed;
+    }
+
+    private ModuleInfo toModuleInfo(JsonObject json) {
+        try {
+            String id = json.has("id") ? json.get("id").getAsString() : null;
+            String type = json.has("type") ? json.get("type").getAsString() : moduleType; // Fallback to requested type
+            String name = json.has("name") ? json.get("name").getAsString() : "Unnamed";
+            String version = json.has("version") ? json.get("version").getAsString() : "1.0.0";
+            String description = json.has("description") ? json.get("description").getAsString() : "";
+            boolean active = !json.has("active") || json.get("active").getAsBoolean();
+            if (id == null || !moduleType.equals(type)) {
+                Log.w(TAG, "Skipping user " + moduleType + " due to missing ID or type mismatch: " + id);
+                return null;
+            }
+            // Пользовательские модули не из assets, поэтому путь условный
+            return new ModuleInfo(id, type, name, version, description, active, "user_defined", json);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error converting user " + moduleType + " to ModuleInfo", e);
+            return null;
+        }
+    }
+
+    private void changed() {
+        documentList = null;
+        moduleInfos = null;
+        version++;
+        recordFileState();
+    }
+
+    private void recordFileState() {
+        generation = currentGeneration();
+    }
+
+    /** @return the journal's generation, or -1 if it can't be checked (the cache is then stale). */
+    private long currentGeneration() {
+        if (journal == null) return -1;
+        try {
+            return journal.getGeneration();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not check the " + moduleType + " journal", e);
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,495 @@
+package com.example.prismtone.model;
+
+import com.example.prismtone.CompactJson;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+/**
+ * Typed, immutable sound preset compiled from a soundpreset module.
+ * Parameters are stored per component in parallel primitive arrays sorted by key,
+ * so hashing and diffing two presets is a linear merge without any JSON access.
+ *
+ * The content hash only covers what affects the sound and the picker colors
+ * (not id/name/version), so two presets that sound the same hash the same.
+ */
+public final class SoundPreset {
+    /** Компоненты пресета, известные synth.js. */
+    public static final Set<String> KNOWN_COMPONENTS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "oscillator", "sampler", "amplitudeEnv", "filter", "filterEnvelope",
+            "pitchEnvelope", "lfo1", "portamento", "outputGain"
+    )));
+    /**
+     * Компоненты, включение/выключение которых пересоздает голос в synth.applyPreset
+     * (по умолчанию все выключены). Остальные компоненты меняются без пересборки.
+     */
+    private static final List<String> TOGGLED_COMPONENTS = Collections.unmodifiableList(Arrays.asList(
+            "filterEnvelope", "lfo1", "pitchEnvelope", "portamento"
+    ));
+
+    public static final byte KIND_NUMBER = 0;
+    public static final byte KIND_STRING = 1;
+    public static final byte KIND_BOOLEAN = 2;
+    public static final byte KIND_NULL = 3;
+    /** Arrays are kept as their JSON text. */
+    public static final byte KIND_RAW = 4;
+
+    public static final byte ENABLED_UNSET = -1;
+
+    // Модули каталога интернированы, поэтому одинаковые данные - один и тот же ключ
+    private static final Map<CompactJson.Obj, SoundPreset> compiled =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final String id;
+    private final String name;
+    private final String version;
+    private final double baseVolume;
+    private final Component[] components;
+    private final String primaryColor;
+    private final String textColor;
+    private final long contentHash;
+    private final long structureHash;
+
+    private SoundPreset(String id, String name, String version, double baseVolume, Component[] components,
+                        String primaryColor, String textColor) {
+        this.id = id;
+        this.name = name;
+        this.version = version;
+        this.baseVolume = baseVolume;
+        this.components = components;
+        this.primaryColor = primaryColor;
+        this.textColor = textColor;
+
+        long content = Hash64.SEED;
+        content = Hash64.mix(content, Double.doubleToLongBits(baseVolume));
+        content = Hash64.mix(content, primaryColor);
+        content = Hash64.mix(content, textColor);
+        for (Component component : components) {
+            content = component.hashInto(content);
+        }
+        this.contentHash = Hash64.finish(content);
+        this.structureHash = Hash64.finish(hashTopology());
+    }
+
+    /**
+     * Hashes only what makes synth.applyPreset rebuild the voices: whether a sampler is the source,
+     * its instrument (new buffers), and which optional modulators are switched on.
+     * Presets that differ in anything else share the hash and are switched by updating parameters.
+     */
+    private long hashTopology() {
+        long structure = Hash64.SEED;
+        boolean sampler = usesSampler();
+        structure = Hash64.mix(structure, sampler ? 1 : 0);
+        if (sampler) {
+            structure = Hash64.mix(structure, getComponent("sampler").getString("params.instrument", null));
+        }
+        for (String name : TOGGLED_COMPONENTS) {
+            Component component = getComponent(name);
+            structure = Hash64.mix(structure, component != null && component.enabled == 1 ? 1 : 0);
+        }
+        return structure;
+    }
+
+    /**
+     * Validates the "data" block of a soundpreset module against the real schema.
+     * @return null if valid, otherwise a description of the first problem found.
+     */
+    public static String validate(CompactJson.Obj data) {
+        if (data == null) {
+            return "missing data object";
+        }
+        CompactJson.Obj oscillator = data.getObject("oscillator");
+        CompactJson.Obj sampler = data.getObject("sampler");
+        if (oscillator == null && sampler == null) {
+            return "no sound source (oscillator or sampler)";
+        }
+        if (sampler != null && sampler.getBoolean("enabled", false)) {
+            CompactJson.Obj params = sampler.getObject("params");
+            if (params == null || params.getString("instrument", null) == null) {
+                return "enabled sampler without params.instrument";
+            }
+        }
+        for (int i = 0; i < data.size(); i++) {
+            String key = data.keyAt(i);
+            CompactJson value = data.valueAt(i);
+            if ("baseVolume".equals(key)) {
+                if (!value.isNumber()) return "baseVolume is not a number";
+            } else if ("colors".equals(key)) {
+                if (!value.isObject()) return "colors is not an object";
+                CompactJson.Obj colors = value.getAsObject();
+                for (int c = 0; c < colors.size(); c++) {
+                    if (!colors.valueAt(c).isString()) return "colors." + colors.keyAt(c) + " is not a string";
+                }
+            } else if (KNOWN_COMPONENTS.contains(key)) {
+                if (!value.isObject()) return key + " is not an object";
+                CompactJson.Obj component = value.getAsObject();
+                CompactJson enabled = component.get("enabled");
+                if (enabled != null && !enabled.isBoolean()) return key + ".enabled is not a boolean";
+                CompactJson params = component.get("params");
+                if (params != null && !params.isObject()) return key + ".params is not an object";
+            }
+        }
+        CompactJson.Obj outputGain = data.getObject("outputGain");
+        CompactJson.Obj gainParams = outputGain != null ? outputGain.getObject("params") : null;
+        if (gainParams != null && gainParams.has("gain") && !gainParams.get("gain").isNumber()) {
+            return "outputGain.params.gain is not a number";
+        }
+        return null;
+    }
+
+    /**
+     * Returns the compiled model for a module, compiling it only the first time.
+     * @throws IllegalArgumentException if the module doesn't pass {@link #validate(CompactJson.Obj)}.
+     */
+    public static SoundPreset of(CompactJson.Obj moduleJson) {
+        SoundPreset preset = compiled.get(moduleJson);
+        if (preset == null) {
+            preset = compile(moduleJson);
+            compiled.put(moduleJson, preset);
+        }
+        return preset;
+    }
+
+    /**
+     * Compiles a whole soundpreset module (id, name, version, data).
+     * @throws IllegalArgumentException if the module doesn't pass {@link #validate(CompactJson.Obj)}.
+     */
+    public static SoundPreset compile(CompactJson.Obj moduleJson) {
+        CompactJson.Obj data = moduleJson != null ? moduleJson.getObject("data") : null;
+        String problem = validate(data);
+        if (problem != null) {
+            String id = moduleJson != null ? moduleJson.getString("id", "?") : "?";
+            throw new IllegalArgumentException("Invalid sound preset '" + id + "': " + problem);
+        }
+
+        // TreeMap - канонический порядок компонентов, не зависящий от порядка ключей в файле
+        Map<String, Component> components = new TreeMap<>();
+        double baseVolume = Double.NaN;
+        String primaryColor = null;
+        String textColor = null;
+        for (int i = 0; i < data.size(); i++) {
+            String key = data.keyAt(i);
+            CompactJson value = data.valueAt(i);
+            if ("baseVolume".equals(key)) {
+                baseVolume = value.getAsDouble();
+            } else if ("colors".equals(key)) {
+                CompactJson.Obj colors = value.getAsObject();
+                primaryColor = colors.getString("primary", null);
+                textColor = colors.getString("text", null);
+            } else if (value.isObject()) {
+                components.put(key, Component.compile(key, value.getAsObject()));
+            }
+        }
+        return new SoundPreset(
+                moduleJson.getString("id", null),
+                moduleJson.getString("name", null),
+                moduleJson.getString("version", null),
+                baseVolume,
+                components.values().toArray(new Component[0]),
+                primaryColor,
+                textColor
+        );
+    }
+
+    /**
+     * Compares this preset (the one currently loaded) with the next one.
+     * If only parameter values differ, the returned diff lists them so the audio
+     * layer can update the existing voices instead of rebuilding the voice graph.
+     */
+    public SoundPresetDiff diff(SoundPreset next) {
+        if (contentHash == next.contentHash && contentEquals(next)) {
+            return new SoundPresetDiff(SoundPresetDiff.Kind.IDENTICAL, contentHash, next.contentHash, Collections.emptyList());
+        }
+        if (structureHash != next.structureHash) {
+            return new SoundPresetDiff(SoundPresetDiff.Kind.STRUCTURE, contentHash, next.contentHash, Collections.emptyList());
+        }
+
+        List<SoundPresetDiff.Change> changes = new ArrayList<>();
+        if (Double.doubleToLongBits(baseVolume) != Double.doubleToLongBits(next.baseVolume)) {
+            changes.add(SoundPresetDiff.Change.number(null, "baseVolume", next.baseVolume));
+        }
+        if (!equalStrings(primaryColor, next.primaryColor)) {
+            changes.add(SoundPresetDiff.Change.string("colors", "primary", next.primaryColor));
+        }
+        if (!equalStrings(textColor, next.textColor)) {
+            changes.add(SoundPresetDiff.Change.string("colors", "text", next.textColor));
+        }
+
+        // Компоненты отсортированы по имени - слияние двух списков; отсутствующий компонент сравнивается с пустым
+        int c = 0;
+        int n = 0;
+        while (c < components.length || n < next.components.length) {
+            int cmp = c >= components.length ? 1 : n >= next.components.length ? -1
+                    : components[c].name.compareTo(next.components[n].name);
+            if (cmp == 0) {
+                components[c++].diffInto(next.components[n++], changes);
+            } else if (cmp < 0) {
+                components[c].diffInto(Component.empty(components[c].name), changes);
+                c++;
+            } else {
+                Component.empty(next.components[n].name).diffInto(next.components[n], changes);
+                n++;
+            }
+        }
+        return new SoundPresetDiff(changes.isEmpty() ? SoundPresetDiff.Kind.IDENTICAL : SoundPresetDiff.Kind.PARAMS,
+                contentHash, next.contentHash, changes);
+    }
+
+    private boolean contentEquals(SoundPreset other) {
+        if (Double.doubleToLongBits(baseVolume) != Double.doubleToLongBits(other.baseVolume)) return false;
+        if (!equalStrings(primaryColor, other.primaryColor) || !equalStrings(textColor, other.textColor)) return false;
+        if (components.length != other.components.length) return false;
+        for (int i = 0; i < components.length; i++) {
+            if (!components[i].contentEquals(other.components[i])) return false;
+        }
+        return true;
+    }
+
+    private static boolean equalStrings(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    public String getId() { return id; }
+    public String getName() { return name; }
+    public String getVersion() { return version; }
+    /** @return the base volume, or NaN if the preset doesn't define one. */
+    public double getBaseVolume() { return baseVolume; }
+    public String getPrimaryColor() { return primaryColor; }
+    public String getTextColor() { return textColor; }
+    public long getContentHash() { return contentHash; }
+    public long getStructureHash() { return structureHash; }
+
+    public List<Component> getComponents() {
+        return Collections.unmodifiableList(Arrays.asList(components));
+    }
+
+    public Component getComponent(String componentName) {
+        for (Component component : components) {
+            if (component.name.equals(componentName)) return component;
+        }
+        return null;
+    }
+
+    /** @return true if a sampler is the active sound source (same rule as voiceBuilder.js). */
+    public boolean usesSampler() {
+        Component sampler = getComponent("sampler");
+        return sampler != null && sampler.enabled == 1;
+    }
+
+    /**
+     * One section of the preset (oscillator, filter, lfo1, ...).
+     * Nested values are flattened to dotted paths relative to the component,
+     * e.g. "params.frequency" or "time" for portamento.
+     */
+    public static final class Component {
+        private final String name;
+        private final byte enabled;
+        private final String[] keys;
+        private final byte[] kinds;
+        private final double[] numbers;
+        private final String[] strings;
+
+        private Component(String name, byte enabled, String[] keys, byte[] kinds, double[] numbers, String[] strings) {
+            this.name = name;
+            this.enabled = enabled;
+            this.keys = keys;
+            this.kinds = kinds;
+            this.numbers = numbers;
+            this.strings = strings;
+        }
+
+        static Component empty(String name) {
+            return new Component(name, ENABLED_UNSET, new String[0], new byte[0], new double[0], new String[0]);
+        }
+
+        static Component compile(String name, CompactJson.Obj json) {
+            TreeMap<String, CompactJson> flat = new TreeMap<>();
+            byte enabled = ENABLED_UNSET;
+            for (int i = 0; i < json.size(); i++) {
+                String key = json.keyAt(i);
+                CompactJson value = json.valueAt(i);
+                if ("enabled".equals(key) && value.isBoolean()) {
+                    enabled = (byte) (value.getAsBoolean() ? 1 : 0);
+                } else {
+                    flatten(key, value, flat);
+                }
+            }
+            int size = flat.size();
+            String[] keys = new String[size];
+            byte[] kinds = new byte[size];
+            double[] numbers = new double[size];
+            String[] strings = new String[size];
+            int i = 0;
+            for (Map.Entry<String, CompactJson> entry : flat.entrySet()) {
+                CompactJson value = entry.getValue();
+                keys[i] = entry.getKey();
+                if (value.isNumber()) {
+                    kinds[i] = KIND_NUMBER;
+                    numbers[i] = value.getAsDouble();
+                } else if (value.isBoolean()) {
+                    kinds[i] = KIND_BOOLEAN;
+                    numbers[i] = value.getAsBoolean() ? 1 : 0;
+                } else if (value.isString()) {
+                    kinds[i] = KIND_STRING;
+                    strings[i] = value.getAsString();
+                } else if (value.isNull()) {
+                    kinds[i] = KIND_NULL;
+                } else {
+                    kinds[i] = KIND_RAW;
+                    strings[i] = value.toJson();
+                }
+                i++;
+            }
+            return new Component(name, enabled, keys, kinds, numbers, strings);
+        }
+
+        private static void flatten(String path, CompactJson value, Map<String, CompactJson> out) {
+            if (value.isObject()) {
+                CompactJson.Obj obj = value.getAsObject();
+                for (int i = 0; i < obj.size(); i++) {
+                    flatten(path + "." + obj.keyAt(i), obj.valueAt(i), out);
+                }
+            } else {
+                out.put(path, value);
+            }
+        }
+
+        public String getName() { return name; }
+
+        /** @return 1 enabled, 0 disabled, {@link #ENABLED_UNSET} if the preset doesn't say. */
+        public byte getEnabled() { return enabled; }
+
+        public int size() { return keys.length; }
+        public String keyAt(int index) { return keys[index]; }
+        public byte kindAt(int index) { return kinds[index]; }
+        public double numberAt(int index) { return numbers[index]; }
+        public String stringAt(int index) { return strings[index]; }
+
+        public int indexOf(String key) {
+            return Arrays.binarySearch(keys, key);
+        }
+
+        /** @return the numeric parameter value, or the fallback if missing or not a number. */
+        public double getNumber(String key, double fallback) {
+            int index = indexOf(key);
+            return index >= 0 && kinds[index] == KIND_NUMBER ? numbers[index] : fallback;
+        }
+
+        public String getString(String key, String fallback) {
+            int index = indexOf(key);
+            return index >= 0 && kinds[index] == KIND_STRING ? strings[index] : fallback;
+        }
+
+        long hashInto(long hash) {
+            hash = Hash64.mix(hash, name);
+            hash = Hash64.mix(hash, enabled);
+            for (int i = 0; i < keys.length; i++) {
+                hash = Hash64.mix(hash, keys[i]);
+                hash = hashValueInto(hash, i);
+            }
+            return hash;
+        }
+
+        long hashValueInto(long hash, int index) {
+            hash = Hash64.mix(hash, kinds[index]);
+            if (kinds[index] == KIND_NUMBER || kinds[index] == KIND_BOOLEAN) {
+                return Hash64.mix(hash, Double.doubleToLongBits(numbers[index]));
+            }
+            return Hash64.mix(hash, strings[index]);
+        }
+
+        boolean contentEquals(Component other) {
+            if (!name.equals(other.name) || enabled != other.enabled || !Arrays.equals(keys, other.keys)) return false;
+            for (int i = 0; i < keys.length; i++) {
+                if (!sameValue(i, other, i)) return false;
+            }
+            return true;
+        }
+
+        private boolean sameValue(int index, Component other, int otherIndex) {
+            if (kinds[index] != other.kinds[otherIndex]) return false;
+            if (kinds[index] == KIND_NUMBER || kinds[index] == KIND_BOOLEAN) {
+                return Double.doubleToLongBits(numbers[index]) == Double.doubleToLongBits(other.numbers[otherIndex]);
+            }
+            return equalStrings(strings[index], other.strings[otherIndex]);
+        }
+
+        /** Merge-walk over the sorted keys of both components. */
+        void diffInto(Component next, List<SoundPresetDiff.Change> changes) {
+            if (enabled != next.enabled) {
+                changes.add(next.enabled == ENABLED_UNSET
+                        ? SoundPresetDiff.Change.removed(name, "enabled")
+                        : SoundPresetDiff.Change.bool(name, "enabled", next.enabled == 1));
+            }
+            int i = 0;
+            int j = 0;
+            while (i < keys.length || j < next.keys.length) {
+                int cmp = i >= keys.length ? 1 : j >= next.keys.length ? -1 : keys[i].compareTo(next.keys[j]);
+                if (cmp == 0) {
+                    if (!sameValue(i, next, j)) changes.add(next.changeAt(j));
+                    i++;
+                    j++;
+                } else if (cmp < 0) {
+                    changes.add(SoundPresetDiff.Change.removed(name, keys[i]));
+                    i++;
+                } else {
+                    changes.add(next.changeAt(j));
+                    j++;
+                }
+            }
+        }
+
+        private SoundPresetDiff.Change changeAt(int index) {
+            switch (kinds[index]) {
+                case KIND_NUMBER: return SoundPresetDiff.Change.number(name, keys[index], numbers[index]);
+                case KIND_BOOLEAN: return SoundPresetDiff.Change.bool(name, keys[index], numbers[index] != 0);
+                case KIND_STRING: return SoundPresetDiff.Change.string(name, keys[index], strings[index]);
+                case KIND_RAW: return SoundPresetDiff.Change.raw(name, keys[index], strings[index]);
+                default: return SoundPresetDiff.Change.removed(name, keys[index]);
+            }
+        }
+    }
+
+    /** FNV-1a 64 с финальным перемешиванием splitmix64 - стабилен между запусками и устройствами. */
+    static final class Hash64 {
+        static final long SEED = 0xcbf29ce484222325L;
+        private static final long PRIME = 0x100000001b3L;
+
+        static long mix(long hash, long value) {
+            for (int i = 0; i < 8; i++) {
+                hash ^= (value >>> (i * 8)) & 0xff;
+                hash *= PRIME;
+            }
+            return hash;
+        }
+
+        static long mix(long hash, String value) {
+            if (value == null) {
+                return mix(hash, -1L);
+            }
+            for (int i = 0; i < value.length(); i++) {
+                char ch = value.charAt(i);
+                hash ^= ch & 0xff;
+                hash *= PRIME;
+                hash ^= ch >>> 8;
+                hash *= PRIME;
+            }
+            return mix(hash, value.length());
+        }
+
+        static long finish(long hash) {
+            hash ^= hash >>> 30;
+            hash *= 0xbf58476d1ce4e5b9L;
+            hash ^= hash >>> 27;
+            hash *= 0x94d049bb133111ebL;
+            return hash ^ (hash >>> 31);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.prismtone.model;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Result of {@link SoundPreset#diff(SoundPreset)}.
+ * <ul>
+ *     <li>IDENTICAL - nothing to do.</li>
+ *     <li>PARAMS - same voice graph, apply {@link #getChanges()} to the existing voices.</li>
+ *     <li>STRUCTURE - the sampler or an optional modulator (envelopes, LFO, portamento) was switched
+ *     on/off, or the sample instrument changed; rebuild the voices.</li>
+ * </ul>
+ */
+public final class SoundPresetDiff {
+    public enum Kind { IDENTICAL, PARAMS, STRUCTURE }
+
+    private final Kind kind;
+    private final long fromHash;
+    private final long toHash;
+    private final List<Change> changes;
+
+    SoundPresetDiff(Kind kind, long fromHash, long toHash, List<Change> changes) {
+        this.kind = kind;
+        this.fromHash = fromHash;
+        this.toHash = toHash;
+        this.changes = Collections.unmodifiableList(changes);
+    }
+
+    public Kind getKind() { return kind; }
+    public long getFromHash() { return fromHash; }
+    public long getToHash() { return toHash; }
+    public List<Change> getChanges() { return changes; }
+
+    /** 64-bit hashes don't fit a JS number, so they travel as hex strings. */
+    public static String hashToHex(long hash) {
+        return String.format(Locale.US, "%016x", hash);
+    }
+
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("kind", kind.name().toLowerCase(Locale.US));
+        json.addProperty("fromHash", hashToHex(fromHash));
+        json.addProperty("toHash", hashToHex(toHash));
+        JsonArray array = new JsonArray();
+        for (Change change : changes) {
+            array.add(change.toJson());
+        }
+        json.add("changes", array);
+        return json;
+    }
+
+    /**
+     * A single changed value. {@code component} is null for top-level values such as baseVolume.
+     */
+    public static final class Change {
+        private final String component;
+        private final String path;
+        private final byte kind;
+        private final double number;
+        private final String string;
+
+        private Change(String component, String path, byte kind, double number, String string) {
+            this.component = component;
+            this.path = path;
+            this.kind = kind;
+            this.number = number;
+            this.string = string;
+        }
+
+        static Change number(String component, String path, double value) {
+            return new Change(component, path, SoundPreset.KIND_NUMBER, value, null);
+        }
+
+        static Change bool(String component, String path, boolean value) {
+            return new Change(component, path, SoundPreset.KIND_BOOLEAN, value ? 1 : 0, null);
+        }
+
+        static Change string(String component, String path, String value) {
+            return new Change(component, path, SoundPreset.KIND_STRING, 0, value);
+        }
+
+        static Change raw(String component, String path, String json) {
+            return new Change(component, path, SoundPreset.KIND_RAW, 0, json);
+        }
+
+        static Change removed(String component, String path) {
+            return new Change(component, path, SoundPreset.KIND_NULL, 0, null);
+        }
+
+        public String getComponent() { return component; }
+        public String getPath() { return path; }
+
+        public JsonObject toJson() {
+            JsonObject json = new JsonObject();
+            json.addProperty("component", component);
+            json.addProperty("path", path);
+            switch (kind) {
+                case SoundPreset.KIND_NUMBER: json.addProperty("value", number); break;
+                case SoundPreset.KIND_BOOLEAN: json.addProperty("value", number != 0); break;
+                case SoundPreset.KIND_STRING: json.addProperty("value", string); break;
+                case SoundPreset.KIND_RAW: json.add("value", JsonParser.parseString(string)); break;
+                default: json.add("value", JsonNull.INSTANCE); break;
+            }
+            return json;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.prismtone;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class BridgeMethodsTest {
+    private static final Class<?>[] TYPES = {String.class, int.class, double.class, boolean.class, String.class};
+
+    @Test
+    public void everyListedMethodExists() {
+        Set<String> listed = new HashSet<>(BridgeMethods.LIBRARY_WRITES);
+        listed.addAll(BridgeMethods.SETTING_WRITES);
+        Set<String> bridgeMethods = new HashSet<>();
+        for (Method method : PrismtoneBridge.class.getMethods()) {
+            bridgeMethods.add(method.getName());
+        }
+        for (String name : listed) {
+            assertTrue(name, bridgeMethods.contains(name));
+        }
+        assertTrue(bridgeMethods.containsAll(BridgeMethods.CONTROL_METHODS));
+    }
+
+    @Test
+    public void controlMethodsAreNotCallableByName() {
+        assertNull(BridgeMethods.find("rpcCall", 1));
+        assertNull(BridgeMethods.find("rpcTakeResult", 1));
+        assertNotNull(BridgeMethods.find("setScale", 1));
+        assertTrue(BridgeMethods.isWrite("setScale"));
+        assertTrue(BridgeMethods.isWrite("savePattern"));
+        assertFalse(BridgeMethods.isWrite("getModules"));
+    }
+
+    @Test
+    public void jsonAndRecordedArgumentsConvertAlike() {
+        JsonArray json = JsonParser.parseString("[\"a\", 12, 0.5, true, {\"k\":1}]").getAsJsonArray();
+        Object[] fromJson = BridgeMethods.convertArgs(TYPES, json.asList());
+        Object[] fromTrace = BridgeMethods.convertArgs(TYPES, Arrays.asList("a", 12L, 0.5f, true, "{\"k\":1}"));
+        assertArrayEquals(new Object[]{"a", 12, 0.5, true, "{\"k\":1}"}, fromJson);
+        assertArrayEquals(fromJson, fromTrace);
+        assertArrayEquals(new Object[]{"12", 7, 1.5, false, null},
+                BridgeMethods.convertArgs(TYPES, Arrays.asList(12, "7", "1.5", "no", null)));
+    }
+
+    @Test
+    public void unconvertibleArgumentsAreRejected() {
+        assertRejected(Arrays.asList("a", null, 0.5, true, "x"));
+        assertRejected(Arrays.asList("a", "seven", 0.5, true, "x"));
+        assertRejected(Arrays.asList("a", true, 0.5, true, "x"));
+        assertRejected(JsonParser.parseString("[\"a\", [1], 0.5, true, \"x\"]").getAsJsonArray().asList());
+        assertRejected(Arrays.asList("a", 1));
+    }
+
+    private static void assertRejected(List<?> args) {
+        try {
+            BridgeMethods.convertArgs(TYPES, args);
+            fail("accepted " + args);
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.prismtone;
+
+import com.google.gson.JsonObject;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BridgeMetricsTest {
+
+    @Test
+    public void histogramBucketsCoverTheirValues() {
+        long previous = -1;
+        for (long value = 0; value < 1L << 32; value = value * 5 / 4 + 1) {
+            int bucket = BridgeMetrics.Histogram.bucketOf(value);
+            assertTrue(value + " above its bucket", value <= BridgeMetrics.Histogram.upperBoundOf(bucket));
+            if (bucket > 0) {
+                assertTrue(value + " below its bucket", value > BridgeMetrics.Histogram.upperBoundOf(bucket - 1));
+            }
+            assertTrue(bucket >= previous);
+            previous = bucket;
+        }
+        // Дальше ~71 минуты - один общий бакет
+        assertEquals(BridgeMetrics.Histogram.BUCKETS - 1, BridgeMetrics.Histogram.bucketOf(1L << 32));
+        assertEquals(BridgeMetrics.Histogram.BUCKETS - 1, BridgeMetrics.Histogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentilesStayWithinTheBucketResolution() {
+        BridgeMetrics.Histogram histogram = new BridgeMetrics.Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        long p50 = histogram.percentile(0.5);
+        assertTrue(p50 >= 500 && p50 < 500 * 1.13);
+        assertEquals(1000, histogram.percentile(1.0));
+    }
+
+    @Test
+    public void measureRecordsCallsAndPayloads() {
+        BridgeMetrics metrics = new BridgeMetrics();
+        String result = metrics.measure("getModules", new Object[] {"soundpreset", 3}, () -> "[1,2,3]");
+        assertEquals("[1,2,3]", result);
+        metrics.measure("setScale", new Object[] {"minor"}, () -> { });
+
+        JsonObject methods = metrics.toJson().getAsJsonObject("methods");
+        JsonObject getModules = methods.getAsJsonObject("getModules");
+        assertEquals(1, getModules.get("calls").getAsLong());
+        assertEquals(1, getModules.getAsJsonObject("exec").get("count").getAsLong());
+        assertEquals("soundpreset".length(), getModules.getAsJsonObject("requestBytes").get("total").getAsLong());
+        assertEquals("[1,2,3]".length(), getModules.getAsJsonObject("responseBytes").get("max").getAsLong());
+        assertFalse(methods.getAsJsonObject("setScale").has("responseBytes"));
+    }
+
+    @Test
+    public void measureTimesAMethodThatThrows() {
+        BridgeMetrics metrics = new BridgeMetrics();
+        try {
+            metrics.measure("importPattern", new Object[0], () -> {
+                throw new IllegalStateException("broken");
+            });
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        JsonObject entry = metrics.toJson().getAsJsonObject("methods").getAsJsonObject("importPattern");
+        assertEquals(1, entry.getAsJsonObject("exec").get("count").getAsLong());
+    }
+
+    @Test
+    public void callbackNamesBeyondTheLimitShareOneEntry() {
+        BridgeMetrics metrics = new BridgeMetrics();
+        for (int i = 0; i < 300; i++) {
+            metrics.recordCallback("cb" + i, 10, 0, 0);
+        }
+        JsonObject callbacks = metrics.toJson().getAsJsonObject("callbacks");
+        assertEquals(257, callbacks.size());
+        assertEquals(44, callbacks.getAsJsonObject("(other)").get("calls").getAsLong());
+        metrics.reset();
+        assertEquals(0, metrics.toJson().getAsJsonObject("callbacks").size());
+    }
+}
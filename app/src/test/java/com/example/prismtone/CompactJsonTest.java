@@ -0,0 +1,77 @@
+package com.example.prismtone;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.*;
+
+public class CompactJsonTest {
+
+    @Test
+    public void numbersKeepTheirSourceText() {
+        String json = "{\"a\":1.0,\"b\":-0.0,\"c\":1e3,\"d\":12345678901234567890,\"e\":42,\"f\":0.25}";
+        CompactJson parsed = CompactJson.copyOf(JsonParser.parseString(json));
+        assertEquals(json, parsed.toJson());
+
+        CompactJson.Obj obj = parsed.getAsObject();
+        assertEquals("1.0", obj.get("a").getAsString());
+        assertEquals(1.0, obj.get("a").getAsDouble(), 0);
+        assertEquals(Double.doubleToLongBits(-0.0), Double.doubleToLongBits(obj.get("b").getAsDouble()));
+        assertEquals(1000.0, obj.get("c").getAsDouble(), 0);
+        assertEquals(42L, obj.get("e").getAsLong());
+    }
+
+    @Test
+    public void gsonTreeWritesTheSameNumbers() {
+        String json = "{\"a\":1.0,\"b\":-0.0,\"c\":1e3,\"e\":42}";
+        JsonElement tree = CompactJson.copyOf(JsonParser.parseString(json)).toJsonElement();
+        assertEquals(json, tree.toString());
+        assertEquals(1.0, tree.getAsJsonObject().get("a").getAsDouble(), 0);
+        assertEquals(42, tree.getAsJsonObject().get("e").getAsInt());
+    }
+
+    @Test
+    public void differentLiteralsAreDifferentNodes() {
+        CompactJson one = CompactJson.copyOf(JsonParser.parseString("1"));
+        CompactJson oneDecimal = CompactJson.copyOf(JsonParser.parseString("1.0"));
+        assertNotEquals(one, oneDecimal);
+        assertEquals(one, CompactJson.copyOf(JsonParser.parseString("1")));
+    }
+
+    @Test
+    public void internerSharesIdenticalSubtrees() {
+        JsonInterner interner = new JsonInterner();
+        CompactJson.Obj first = interner.intern(JsonParser.parseString(
+                "{\"filter\":{\"enabled\":false},\"gain\":0.5}")).getAsObject();
+        CompactJson.Obj second = interner.intern(JsonParser.parseString(
+                "{\"filter\":{\"enabled\":false},\"gain\":0.75}")).getAsObject();
+        assertSame(first.get("filter"), second.get("filter"));
+        assertSame(first.keyAt(0), second.keyAt(0));
+        assertNotEquals(first, second);
+    }
+
+    @Test
+    public void streamingReadMatchesTreeInterning() throws IOException {
+        String json = "{\"name\":\"Pad\",\"params\":[1,2.50,null,true],\"nested\":{\"x\":-0.0}}";
+        JsonInterner interner = new JsonInterner();
+        CompactJson fromTree = interner.intern(JsonParser.parseString(json));
+        CompactJson fromStream = interner.read(new JsonReader(new StringReader(json)));
+        assertSame(fromTree, fromStream);
+        assertEquals(json, fromStream.toJson());
+    }
+
+    @Test
+    public void moduleInfoSharesOneGsonTree() {
+        JsonObject data = JsonParser.parseString("{\"data\":{\"volume\":1.0}}").getAsJsonObject();
+        ModuleInfo info = new ModuleInfo("id", "soundpreset", "Name", "1.0", "", true, "path", data);
+        assertSame(info.getData(), info.getData());
+        assertEquals(data, info.getData());
+    }
+}
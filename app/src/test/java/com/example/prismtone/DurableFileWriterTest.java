@@ -0,0 +1,65 @@
+package com.example.prismtone;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+public class DurableFileWriterTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("durable").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) f.delete();
+        }
+        dir.delete();
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void atomicWriteReplacesTheFileAndLeavesNoTemp() throws IOException {
+        File target = new File(dir, "module.json");
+        DurableFileWriter.writeAtomically(target, "{\"v\":1}".getBytes(StandardCharsets.UTF_8));
+        DurableFileWriter.writeAtomically(target, "{\"v\":2}".getBytes(StandardCharsets.UTF_8));
+        assertEquals("{\"v\":2}", read(target));
+        assertArrayEquals(new String[]{"module.json"}, dir.list());
+    }
+
+    @Test
+    public void staleTempFileDoesNotGetInTheWay() throws IOException {
+        File target = new File(dir, "module.json");
+        // Остаток от прерванной записи со старым фиксированным именем
+        File stale = new File(dir, "module.json.tmp");
+        Files.write(stale.toPath(), "garbage".getBytes(StandardCharsets.UTF_8));
+        DurableFileWriter.writeAtomically(target, "{}".getBytes(StandardCharsets.UTF_8));
+        assertEquals("{}", read(target));
+        assertEquals("garbage", read(stale));
+    }
+
+    @Test
+    public void queuedWritesToOneFileAreCoalesced() throws Exception {
+        File target = new File(dir, "chain.json");
+        CompletableFuture<Void> first = DurableFileWriter.getInstance().write(target, "1".getBytes(StandardCharsets.UTF_8));
+        CompletableFuture<Void> second = DurableFileWriter.getInstance().write(target, "2".getBytes(StandardCharsets.UTF_8));
+        assertSame(first, second);
+        second.get();
+        assertEquals("2", read(target));
+    }
+}
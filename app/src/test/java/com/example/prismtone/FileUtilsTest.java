@@ -0,0 +1,65 @@
+package com.example.prismtone;
+
+import com.google.gson.JsonArray;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class FileUtilsTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("files").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void namesInsideTheDirectoryResolve() throws IOException {
+        File bundle = new File(dir, "library.zip");
+        assertEquals(bundle.getCanonicalFile(), FileUtils.resolveInside(dir, "library.zip"));
+        assertEquals(bundle.getCanonicalFile(), FileUtils.resolveInside(dir, bundle.getAbsolutePath()));
+    }
+
+    @Test(expected = IOException.class)
+    public void parentTraversalIsRejected() throws IOException {
+        FileUtils.resolveInside(dir, "../library.zip");
+    }
+
+    @Test(expected = IOException.class)
+    public void absolutePathsElsewhereAreRejected() throws IOException {
+        FileUtils.resolveInside(dir, new File(dir.getParentFile(), "library.zip").getAbsolutePath());
+    }
+
+    @Test
+    public void listingIsNewestFirst() throws IOException {
+        File older = new File(dir, "a.zip");
+        File newer = new File(dir, "b.zip");
+        Files.write(older.toPath(), new byte[3]);
+        Files.write(newer.toPath(), new byte[5]);
+        Files.write(new File(dir, "notes.txt").toPath(), new byte[1]);
+        older.setLastModified(1_000_000L);
+        newer.setLastModified(2_000_000L);
+
+        JsonArray list = FileUtils.listFilesNewestFirst(dir, ".zip");
+        assertEquals(2, list.size());
+        assertEquals("b.zip", list.get(0).getAsJsonObject().get("name").getAsString());
+        assertEquals(5, list.get(0).getAsJsonObject().get("size").getAsLong());
+        assertEquals(1_000_000L, list.get(1).getAsJsonObject().get("modified").getAsLong());
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.prismtone;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GestureRecognizerTest {
+    private static final long MS = 1_000_000L;
+    private static final float G = 9.81f;
+
+    private final List<String> gestures = new ArrayList<>();
+    private final List<Float> magnitudes = new ArrayList<>();
+    private GestureRecognizer recognizer;
+    private long now;
+
+    @Before
+    public void setUp() {
+        recognizer = new GestureRecognizer((type, direction, magnitude, timestampNs) -> {
+            gestures.add(direction == null ? type : type + " " + direction);
+            magnitudes.add(magnitude);
+        });
+        GestureRecognizer.Config config = new GestureRecognizer.Config();
+        config.enabled = true;
+        recognizer.setConfig(config);
+    }
+
+    /** 20 ms of accelerometer and tilt samples. */
+    private void sample(float accelX, float pitch, float roll) {
+        now += 20 * MS;
+        recognizer.onAcceleration(accelX, 0, G, now);
+        recognizer.onTilt(pitch, roll, now);
+    }
+
+    private void rest(int samples, float pitch, float roll) {
+        for (int i = 0; i < samples; i++) sample(0, pitch, roll);
+    }
+
+    private void jolt(float accelX) {
+        sample(accelX, 0, 0);
+        rest(3, 0, 0);
+    }
+
+    @Test
+    public void syntheticTraceGivesOneOfEachGesture() {
+        rest(50, 0, 0);
+        // Встряхивание: три толчка за 240 мс
+        for (int i = 0; i < 3; i++) jolt(i % 2 == 0 ? 40 : -40);
+        rest(50, 0, 0);
+        // Взмах по крену и возврат
+        for (int i = 1; i <= 5; i++) sample(0, 0, i * 8);
+        for (int i = 4; i >= 0; i--) sample(0, 0, i * 8);
+        rest(50, 0, 0);
+        // Медленный наклон вперед и удержание
+        for (int i = 1; i <= 40; i++) sample(0, -i, 0);
+        rest(50, -40, 0);
+
+        assertEquals(3, gestures.size());
+        assertEquals(GestureRecognizer.SHAKE, gestures.get(0));
+        assertEquals(GestureRecognizer.FLICK + " " + GestureRecognizer.ROLL_POSITIVE, gestures.get(1));
+        assertEquals(GestureRecognizer.TILT_HOLD + " " + GestureRecognizer.PITCH_NEGATIVE, gestures.get(2));
+    }
+
+    @Test
+    public void peaksOutsideTheWindowDontCountOrSetTheMagnitude() {
+        rest(10, 0, 0);
+        jolt(100); // Сильный, но одиночный толчок
+        rest(60, 0, 0);
+        jolt(40);
+        jolt(-40);
+        assertTrue(gestures.isEmpty());
+        jolt(40);
+        assertEquals(1, gestures.size());
+        assertTrue("magnitude " + magnitudes.get(0), magnitudes.get(0) < 50);
+    }
+
+    @Test
+    public void shakeCountIsLimited() {
+        GestureRecognizer.Config config = new GestureRecognizer.Config();
+        config.shakeCount = GestureRecognizer.MAX_SHAKE_COUNT;
+        assertNull(config.validate());
+        config.shakeCount = 1000;
+        assertNotNull(config.validate());
+    }
+}
@@ -0,0 +1,208 @@
+package com.example.prismtone;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class JournalStoreTest {
+    private File dir;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("journal").toFile();
+        file = new File(dir, JournalStore.JOURNAL_FILE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) f.delete();
+        }
+        dir.delete();
+    }
+
+    private JournalStore storeWith(String... ids) throws IOException {
+        JournalStore store = new JournalStore(file, JournalStore.USER_ID_PREFIX);
+        for (String id : ids) {
+            store.put(id, "{\"id\":\"" + id + "\"}");
+        }
+        return store;
+    }
+
+    private JournalStore reopen() throws IOException {
+        return new JournalStore(file, JournalStore.USER_ID_PREFIX);
+    }
+
+    private void flipByte(long offset) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(offset);
+            int b = raf.read();
+            raf.seek(offset);
+            raf.write(b ^ 0xFF);
+        }
+    }
+
+    @Test
+    public void lastWriteWinsAndDeletesSurviveReopen() throws IOException {
+        JournalStore store = storeWith("user_1", "user_2");
+        store.put("user_1", "{\"v\":2}");
+        assertTrue(store.delete("user_2"));
+        store.close();
+
+        JournalStore reopened = reopen();
+        assertEquals(1, reopened.size());
+        assertEquals("{\"v\":2}", reopened.get("user_1"));
+        assertNull(reopened.get("user_2"));
+        reopened.close();
+    }
+
+    @Test
+    public void tornTailIsTruncated() throws IOException {
+        JournalStore store = storeWith("user_1", "user_2");
+        store.close();
+        long intact = file.length();
+        // Запись оборвалась посередине: длина есть, тела нет
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(intact);
+            raf.writeInt(100);
+            raf.write(new byte[]{1, 0, 6, 'u'});
+        }
+
+        JournalStore reopened = reopen();
+        assertEquals(2, reopened.size());
+        assertEquals(intact, file.length());
+        reopened.put("user_3", "{}");
+        reopened.close();
+        assertEquals(3, reopen().size());
+    }
+
+    @Test
+    public void corruptLastRecordIsTruncated() throws IOException {
+        JournalStore store = storeWith("user_1", "user_2");
+        store.close();
+        flipByte(file.length() - 6); // внутри payload последней записи
+
+        JournalStore reopened = reopen();
+        assertEquals(1, reopened.size());
+        assertTrue(reopened.contains("user_1"));
+        reopened.close();
+    }
+
+    @Test
+    public void corruptMiddleRecordIsSkippedAndLaterRecordsKept() throws IOException {
+        JournalStore store = storeWith("user_1");
+        store.close();
+        long secondRecord = file.length();
+        store = reopen();
+        store.put("user_2", "{\"id\":\"user_2\"}");
+        store.put("user_3", "{\"id\":\"user_3\"}");
+        store.close();
+        long size = file.length();
+        flipByte(secondRecord + 10); // payload второй записи, длина цела
+
+        JournalStore reopened = reopen();
+        assertEquals(size, file.length());
+        assertTrue(reopened.contains("user_1"));
+        assertFalse(reopened.contains("user_2"));
+        assertEquals("{\"id\":\"user_3\"}", reopened.get("user_3"));
+        Map<String, String> all = reopened.readAll();
+        assertEquals(2, all.size());
+        reopened.close();
+    }
+
+    @Test
+    public void brokenFramingKeepsACopyBeforeCutting() throws IOException {
+        JournalStore store = storeWith("user_1");
+        store.close();
+        long secondRecord = file.length();
+        store = reopen();
+        store.put("user_2", "{}");
+        store.put("user_3", "{}");
+        store.close();
+        long size = file.length();
+        // Поле длины второй записи: 0x00.. -> 0xFF.. - запись больше допустимого
+        flipByte(secondRecord);
+
+        JournalStore reopened = reopen();
+        assertEquals(1, reopened.size());
+        File[] copies = dir.listFiles((d, name) -> name.startsWith(JournalStore.JOURNAL_FILE_NAME + ".corrupt-"));
+        assertNotNull(copies);
+        assertEquals(1, copies.length);
+        assertEquals(size, copies[0].length());
+        reopened.close();
+    }
+
+    @Test
+    public void lengthPastTheEndInTheMiddleKeepsACopyBeforeCutting() throws IOException {
+        JournalStore store = storeWith("user_1");
+        store.close();
+        long secondRecord = file.length();
+        store = reopen();
+        store.put("user_2", "{}");
+        store.put("user_3", "{}");
+        store.close();
+        long size = file.length();
+        // Третий байт длины второй записи: длина в пределах MAX_RECORD_SIZE, но дальше конца файла
+        flipByte(secondRecord + 2);
+
+        JournalStore reopened = reopen();
+        assertEquals(1, reopened.size());
+        assertEquals(secondRecord, file.length());
+        File[] copies = dir.listFiles((d, name) -> name.startsWith(JournalStore.JOURNAL_FILE_NAME + ".corrupt-"));
+        assertNotNull(copies);
+        assertEquals(1, copies.length);
+        assertEquals(size, copies[0].length());
+        reopened.close();
+    }
+
+    @Test
+    public void zeroFilledTailIsCutWithoutACopy() throws IOException {
+        JournalStore store = storeWith("user_1");
+        store.close();
+        long intact = file.length();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(intact + 4096);
+        }
+
+        JournalStore reopened = reopen();
+        assertEquals(1, reopened.size());
+        assertEquals(intact, file.length());
+        assertArrayEquals(new String[]{JournalStore.JOURNAL_FILE_NAME}, dir.list());
+        reopened.close();
+    }
+
+    @Test
+    public void compactionKeepsOnlyLiveRecords() throws IOException {
+        JournalStore store = storeWith("user_1", "user_2");
+        for (int i = 0; i < 10; i++) {
+            store.put("user_1", "{\"v\":" + i + "}");
+        }
+        store.delete("user_2");
+        long before = file.length();
+        store.compact();
+        assertTrue(file.length() < before);
+        assertEquals(1, store.size());
+        assertEquals("{\"v\":9}", store.get("user_1"));
+        store.close();
+    }
+
+    @Test
+    public void newIdsAreUniqueAndIncreasing() throws IOException {
+        JournalStore store = storeWith();
+        String first = store.newId();
+        String second = store.newId();
+        assertTrue(first.startsWith(JournalStore.USER_ID_PREFIX));
+        assertTrue(Long.parseLong(second.substring(5)) > Long.parseLong(first.substring(5)));
+        store.close();
+    }
+}
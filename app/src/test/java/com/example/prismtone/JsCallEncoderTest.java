@@ -0,0 +1,73 @@
+package com.example.prismtone;
+
+import com.google.gson.JsonObject;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class JsCallEncoderTest {
+    private static final String LINE_SEPARATOR = String.valueOf((char) 0x2028);
+    private static final String PARAGRAPH_SEPARATOR = String.valueOf((char) 0x2029);
+
+    /** The chained replace() the bridge used before the encoder, plus the line separators. */
+    private static String referenceEscape(String s) {
+        return s.replace("\\", "\\\\")
+                .replace("'", "\\'")
+                .replace("\"", "\\\"")
+                .replace("\n", "\\n")
+                .replace("\r", "\\r")
+                .replace("\t", "\\t")
+                .replace("\b", "\\b")
+                .replace("\f", "\\f")
+                .replace("</", "<\\/")
+                .replace(LINE_SEPARATOR, "\\u2028")
+                .replace(PARAGRAPH_SEPARATOR, "\\u2029");
+    }
+
+    @Test
+    public void escapingMatchesTheOldReplaceChain() {
+        String[] samples = {
+                "", "plain", "it's", "say \"hi\"", "a\\b", "line\nbreak\r\n\ttab", "\b\f",
+                "</script><script>", "<a>", "x<", "<//", LINE_SEPARATOR + PARAGRAPH_SEPARATOR, "кириллица'\n", "\\'\\'"
+        };
+        for (String sample : samples) {
+            assertEquals(sample, referenceEscape(sample), JsCallEncoder.escape(sample));
+        }
+    }
+
+    @Test
+    public void stringsWithoutSpecialCharactersAreReturnedAsIs() {
+        String value = "nothing to escape here";
+        assertSame(value, JsCallEncoder.escape(value));
+        assertEquals("", JsCallEncoder.escape(null));
+    }
+
+    @Test
+    public void argumentsAreEncodedByType() {
+        JsonObject json = new JsonObject();
+        json.addProperty("a", 1);
+        json.add("b", null);
+        String script = JsCallEncoder.encode("app.onSaved", "it's", 3, 4L, 0.5, 1.5f, true, null, json,
+                Collections.singletonMap("k", "v"));
+        assertEquals("app.onSaved('it\\'s',3,4,0.5,1.5,true,null,{\"a\":1,\"b\":null},{\"k\":\"v\"})", script);
+    }
+
+    @Test
+    public void callsWithoutArgumentsAndRepeatedCallsAreIndependent() {
+        assertEquals("app.refresh()", JsCallEncoder.encode("app.refresh"));
+        assertEquals("f('x')", JsCallEncoder.encode("f", "x"));
+        assertEquals("f('y')", JsCallEncoder.encode("f", "y"));
+    }
+
+    @Test
+    public void unserializableArgumentsBecomeNull() {
+        Object cyclic = new Object() {
+            @SuppressWarnings("unused")
+            final Object self = this;
+        };
+        assertEquals("f(1,null)", JsCallEncoder.encode("f", 1, cyclic));
+    }
+}
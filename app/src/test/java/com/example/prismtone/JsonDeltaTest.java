@@ -0,0 +1,63 @@
+package com.example.prismtone;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class JsonDeltaTest {
+
+    private static JsonObject json(String text) {
+        return JsonParser.parseString(text).getAsJsonObject();
+    }
+
+    @Test
+    public void applyingTheDiffGivesTheTarget() {
+        JsonObject base = json("{\"name\":\"Piano\",\"sampler\":{\"params\":{\"attack\":0.01,\"release\":1}},\"reverb\":{\"wet\":0.3}}");
+        JsonObject target = json("{\"name\":\"My piano\",\"sampler\":{\"params\":{\"attack\":0.2,\"release\":1}},\"tags\":[\"soft\"]}");
+        JsonObject delta = JsonDelta.diff(base, target);
+        assertEquals(json("{\"/name\":\"My piano\",\"/sampler/params/attack\":0.2,\"/tags\":[\"soft\"]}"), delta.get(JsonDelta.SET));
+        assertEquals("[\"/reverb\"]", delta.get(JsonDelta.REMOVE).toString());
+        assertEquals(4, JsonDelta.size(delta));
+        assertEquals(target, JsonDelta.apply(base, delta));
+    }
+
+    @Test
+    public void inputsAreNotModified() {
+        JsonObject base = json("{\"a\":{\"b\":1}}");
+        JsonObject target = json("{\"a\":{\"b\":2,\"c\":[1]}}");
+        JsonObject delta = JsonDelta.diff(base, target);
+        JsonDelta.apply(base, delta).getAsJsonObject("a").getAsJsonArray("c").add(2);
+        assertEquals(json("{\"a\":{\"b\":1}}"), base);
+        assertEquals(json("{\"a\":{\"b\":2,\"c\":[1]}}"), target);
+    }
+
+    @Test
+    public void keysWithSlashesAndTildesAreEscaped() {
+        JsonObject base = json("{}");
+        JsonObject target = json("{\"a/b\":{\"~c\":1}}");
+        JsonObject delta = JsonDelta.diff(base, target);
+        assertTrue(delta.getAsJsonObject(JsonDelta.SET).has("/a~1b"));
+        assertEquals(target, JsonDelta.apply(base, delta));
+    }
+
+    @Test
+    public void patchReplaysOverAChangedBase() {
+        JsonObject oldBase = json("{\"filter\":{\"frequency\":800,\"Q\":1},\"lfo\":{\"rate\":2}}");
+        JsonObject saved = json("{\"filter\":{\"frequency\":1200,\"Q\":1}}");
+        JsonObject delta = JsonDelta.diff(oldBase, saved);
+        // В новой версии базы filter стал строкой, добавилось поле - правка пользователя сохраняется
+        JsonObject newBase = json("{\"filter\":\"lowpass\",\"lfo\":{\"rate\":3},\"volume\":-6}");
+        assertEquals(json("{\"filter\":{\"frequency\":1200},\"volume\":-6}"), JsonDelta.apply(newBase, delta));
+    }
+
+    @Test
+    public void identicalObjectsGiveAnEmptyPatch() {
+        JsonObject base = json("{\"a\":{\"b\":[1,2]},\"c\":null}");
+        JsonObject delta = JsonDelta.diff(base, base.deepCopy());
+        assertEquals(0, JsonDelta.size(delta));
+        assertFalse(delta.has(JsonDelta.REMOVE));
+    }
+}
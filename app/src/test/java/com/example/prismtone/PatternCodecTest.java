@@ -0,0 +1,89 @@
+package com.example.prismtone;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class PatternCodecTest {
+
+    private static String roundTrip(String json) throws IOException {
+        return PatternCodec.decode(PatternCodec.encode(json));
+    }
+
+    private static JsonArray steps(int count) {
+        String[] notes = {"C4", "D#4", "G4", "A#3"};
+        JsonArray array = new JsonArray();
+        for (int i = 0; i < count; i++) {
+            JsonObject event = new JsonObject();
+            event.addProperty("time", (i / 16) + ":" + (i / 4 % 4) + ":" + (i % 4));
+            event.addProperty("note", notes[i % notes.length]);
+            event.addProperty("duration", "16n");
+            if (i % 8 == 0) {
+                event.addProperty("velocity", 1);
+            } else {
+                event.addProperty("velocity", 0.8);
+            }
+            array.add(event);
+        }
+        return array;
+    }
+
+    @Test
+    public void sortedPatternRoundTripsExactly() throws IOException {
+        String json = steps(64).toString();
+        assertEquals(json, roundTrip(json));
+    }
+
+    @Test
+    public void sixtyFourStepsAreAboutTenTimesSmallerThanJson() {
+        String json = steps(64).toString();
+        byte[] encoded = PatternCodec.encode(json);
+        assertTrue(encoded.length + " bytes", encoded.length * 8 < json.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    @Test
+    public void nonCanonicalTokensAreKept() throws IOException {
+        // Канонические времена идут первыми (события сортируются), остальные - в исходном порядке
+        String json = "[{\"time\":\"0:0:1.5\",\"note\":\"C4\",\"duration\":\"8n\",\"velocity\":0.5},"
+                + "{\"time\":\"00:0:0\",\"note\":\"Db4\",\"duration\":\"8n\",\"velocity\":0.5},"
+                + "{\"time\":\"4n\",\"note\":\"E#4\",\"duration\":\"8n\",\"velocity\":0.5}]";
+        assertEquals(json, roundTrip(json));
+    }
+
+    @Test
+    public void velocityTokensAreKept() throws IOException {
+        String negativeZero = "[{\"time\":\"0:0:0\",\"note\":\"C4\",\"duration\":\"8n\",\"velocity\":-0.0}]";
+        assertEquals(negativeZero, roundTrip(negativeZero));
+        String trailingZero = "[{\"time\":\"0:0:0\",\"note\":\"C4\",\"duration\":\"8n\",\"velocity\":1.0}]";
+        assertEquals(trailingZero, roundTrip(trailingZero));
+        String precise = "[{\"time\":\"0:0:0\",\"note\":\"C4\",\"duration\":\"8n\",\"velocity\":0.12345}]";
+        assertEquals(precise, roundTrip(precise));
+    }
+
+    @Test
+    public void extraKeysFallBackToJson() throws IOException {
+        String json = "[{\"time\":\"0:0:0\",\"note\":\"C4\",\"duration\":\"8n\",\"velocity\":1,\"probability\":0.5}]";
+        assertEquals(json, roundTrip(json));
+    }
+
+    @Test
+    public void summaryCountsEventsAndLength() throws IOException {
+        PatternCodec.Summary summary = PatternCodec.summarize(PatternCodec.encode(steps(32).toString()));
+        assertEquals(32, summary.eventCount);
+        assertEquals(32, summary.lengthInSixteenths);
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedDataIsRejected() throws IOException {
+        byte[] encoded = PatternCodec.encode(steps(8).toString());
+        byte[] truncated = new byte[encoded.length / 2];
+        System.arraycopy(encoded, 0, truncated, 0, truncated.length);
+        PatternCodec.decode(truncated);
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.prismtone;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SensorFilterPipelineTest {
+    private static final long STEP_NS = 20_000_000L; // 50 Гц
+
+    private static SensorFilterPipeline.Config config(String type) {
+        SensorFilterPipeline.Config config = new SensorFilterPipeline.Config();
+        config.type = type;
+        return config;
+    }
+
+    /** Samples until the filtered pitch reaches 90% of a 30 degree step with 0.5 degree noise. */
+    private static int samplesToNinetyPercent(SensorFilterPipeline.Config config) {
+        SensorFilterPipeline pipeline = new SensorFilterPipeline();
+        Random noise = new Random(42);
+        float[] values = new float[2];
+        long t = 0;
+        for (int i = 0; i < 50; i++, t += STEP_NS) {
+            values[0] = (float) (noise.nextGaussian() * 0.5);
+            values[1] = 0;
+            pipeline.process(config, values, t);
+        }
+        for (int i = 1; i <= 200; i++, t += STEP_NS) {
+            values[0] = (float) (30 + noise.nextGaussian() * 0.5);
+            values[1] = 0;
+            pipeline.process(config, values, t);
+            if (values[0] >= 27) return i;
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    @Test
+    public void oneEuroFollowsAStepFasterThanEma() {
+        int ema = samplesToNinetyPercent(config(SensorFilterPipeline.TYPE_EMA));
+        int oneEuro = samplesToNinetyPercent(config(SensorFilterPipeline.TYPE_ONE_EURO));
+        int kalman = samplesToNinetyPercent(config(SensorFilterPipeline.TYPE_KALMAN));
+        assertTrue("ema " + ema + ", oneEuro " + oneEuro, oneEuro < ema);
+        assertTrue("ema " + ema, ema <= 15);
+        assertTrue("kalman " + kalman, kalman < ema);
+    }
+
+    @Test
+    public void emaUsesTheConfiguredAlpha() {
+        SensorFilterPipeline pipeline = new SensorFilterPipeline();
+        SensorFilterPipeline.Config config = config(SensorFilterPipeline.TYPE_EMA).withSmoothingAlpha(0.5f);
+        float[] values = {0, 0};
+        pipeline.process(config, values, 0);
+        values[0] = 10;
+        values[1] = -4;
+        pipeline.process(config, values, STEP_NS);
+        assertEquals(5f, values[0], 1e-6f);
+        assertEquals(-2f, values[1], 1e-6f);
+    }
+
+    @Test
+    public void deadZoneAndRateLimitShapeTheOutput() {
+        SensorFilterPipeline pipeline = new SensorFilterPipeline();
+        SensorFilterPipeline.Config config = config(SensorFilterPipeline.TYPE_NONE);
+        config.deadZone = 2;
+        config.maxRate = 50; // градусов в секунду - 1 градус за отсчет при 50 Гц
+        float[] values = {1.5f, -1.5f};
+        pipeline.process(config, values, 0);
+        assertEquals(0f, values[0], 0f);
+        assertEquals(0f, values[1], 0f);
+        values[0] = 12;
+        values[1] = -2.5f;
+        pipeline.process(config, values, STEP_NS);
+        assertEquals(1f, values[0], 1e-5f);
+        assertEquals(-0.5f, values[1], 1e-5f);
+    }
+
+    @Test
+    public void aNewConfigResetsTheState() {
+        SensorFilterPipeline pipeline = new SensorFilterPipeline();
+        float[] values = {0, 0};
+        pipeline.process(config(SensorFilterPipeline.TYPE_EMA), values, 0);
+        values[0] = 20;
+        pipeline.process(config(SensorFilterPipeline.TYPE_EMA), values, STEP_NS);
+        // Новый экземпляр конфигурации - первый отсчет проходит без сглаживания
+        assertEquals(20f, values[0], 0f);
+    }
+
+    @Test
+    public void invalidConfigsAreReported() {
+        assertNull(config(SensorFilterPipeline.TYPE_KALMAN).validate());
+        assertNotNull(config("median").validate());
+        assertNotNull(config(SensorFilterPipeline.TYPE_EMA).withSmoothingAlpha(1.5f).validate());
+        SensorFilterPipeline.Config negative = config(SensorFilterPipeline.TYPE_NONE);
+        negative.deadZone = -1;
+        assertNotNull(negative.validate());
+    }
+}
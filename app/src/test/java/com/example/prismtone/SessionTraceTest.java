@@ -0,0 +1,76 @@
+package com.example.prismtone;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class SessionTraceTest {
+    private static final long START = 5_000_000_000L;
+
+    private static byte[] sampleTrace() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        SessionTrace.Writer writer = new SessionTrace.Writer(out, START, 1_700_000_000_000L);
+        writer.writeCall(START + 1_000, "setSetting", new Object[]{"octaveOffset", "1"});
+        writer.writeSensor(START + 2_000, 11, new float[]{0.1f, -0.2f, 0.3f, 1f}, START + 1_500);
+        writer.writeCall(START + 3_000, "vibrate", new Object[]{20, 128L, 0.5, 1.5f, true, false, null});
+        // Вызов с другого потока, пришедший чуть раньше предыдущего
+        writer.writeCall(START + 2_500, "setSetting", new Object[]{"zoneCount", "12"});
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static SessionTrace.Reader reader(byte[] data) throws IOException {
+        return new SessionTrace.Reader(new DataInputStream(new ByteArrayInputStream(data)));
+    }
+
+    @Test
+    public void recordsReadBackInOrder() throws IOException {
+        SessionTrace.Reader reader = reader(sampleTrace());
+        assertEquals(START, reader.startNs);
+        assertEquals(1_700_000_000_000L, reader.wallClockMs);
+
+        SessionTrace.Record record = reader.next();
+        assertEquals(SessionTrace.KIND_CALL, record.kind);
+        assertEquals("setSetting", record.method);
+        assertEquals(Arrays.asList("octaveOffset", "1"), record.args);
+        assertEquals(START + 1_000, record.timeNs);
+
+        record = reader.next();
+        assertEquals(SessionTrace.KIND_SENSOR, record.kind);
+        assertEquals(11, record.sensorType);
+        assertEquals(START + 1_500, record.eventTimestampNs);
+        assertEquals(4, record.valueCount);
+        assertEquals(-0.2f, record.values[1], 0f);
+
+        record = reader.next();
+        assertEquals("vibrate", record.method);
+        assertEquals(Arrays.asList(20, 128L, 0.5, 1.5f, true, false, null), record.args);
+
+        record = reader.next();
+        assertEquals("setSetting", record.method);
+        assertEquals(START + 3_000, record.timeNs); // Время не идет назад
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void truncatedTraceEndsAtTheLastCompleteRecord() throws IOException {
+        byte[] full = sampleTrace();
+        SessionTrace.Reader reader = reader(Arrays.copyOf(full, full.length - 3));
+        int records = 0;
+        while (reader.next() != null) records++;
+        assertEquals(3, records);
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFilesAreRejected() throws IOException {
+        reader("PTN1xxxxxxxxxxxxxxxxxxxxx".getBytes());
+    }
+}
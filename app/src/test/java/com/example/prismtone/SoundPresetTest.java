@@ -0,0 +1,72 @@
+package com.example.prismtone;
+
+import com.example.prismtone.model.SoundPreset;
+import com.example.prismtone.model.SoundPresetDiff;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SoundPresetTest {
+
+    private static SoundPreset preset(String id, String data) {
+        String json = "{\"id\":\"" + id + "\",\"type\":\"soundpreset\",\"name\":\"" + id + "\",\"version\":\"1.0\",\"data\":" + data + "}";
+        return SoundPreset.compile(CompactJson.copyOf(JsonParser.parseString(json)).getAsObject());
+    }
+
+    @Test
+    public void sameSoundIgnoresIdAndKeyOrder() {
+        SoundPreset a = preset("a", "{\"oscillator\":{\"params\":{\"type\":\"sine\"}},\"filter\":{\"params\":{\"frequency\":800}}}");
+        SoundPreset b = preset("b", "{\"filter\":{\"params\":{\"frequency\":800}},\"oscillator\":{\"params\":{\"type\":\"sine\"}}}");
+        assertEquals(a.getContentHash(), b.getContentHash());
+        assertEquals(SoundPresetDiff.Kind.IDENTICAL, a.diff(b).getKind());
+    }
+
+    @Test
+    public void componentPresenceAloneIsNotStructural() {
+        // Компонент без enabled (или выключенный по умолчанию) не пересоздает голос
+        SoundPreset a = preset("a", "{\"oscillator\":{\"params\":{\"type\":\"sine\"}}}");
+        SoundPreset b = preset("b", "{\"oscillator\":{\"params\":{\"type\":\"saw\"}},"
+                + "\"filter\":{\"params\":{\"frequency\":1200}},\"lfo1\":{\"enabled\":false,\"params\":{\"rate\":3}}}");
+        assertEquals(a.getStructureHash(), b.getStructureHash());
+
+        SoundPresetDiff diff = a.diff(b);
+        assertEquals(SoundPresetDiff.Kind.PARAMS, diff.getKind());
+        String changes = diff.toJson().get("changes").toString();
+        assertTrue(changes, changes.contains("\"params.frequency\""));
+        assertTrue(changes, changes.contains("\"enabled\""));
+        assertTrue(changes, changes.contains("\"saw\""));
+    }
+
+    @Test
+    public void removedComponentIsReported() {
+        SoundPreset a = preset("a", "{\"oscillator\":{\"params\":{\"type\":\"sine\"}},\"filter\":{\"params\":{\"Q\":2}}}");
+        SoundPreset b = preset("b", "{\"oscillator\":{\"params\":{\"type\":\"sine\"}}}");
+        SoundPresetDiff diff = a.diff(b);
+        assertEquals(SoundPresetDiff.Kind.PARAMS, diff.getKind());
+        assertEquals(1, diff.getChanges().size());
+        assertEquals("filter", diff.getChanges().get(0).getComponent());
+        assertEquals("params.Q", diff.getChanges().get(0).getPath());
+        assertTrue(diff.getChanges().get(0).toJson().get("value").isJsonNull());
+    }
+
+    @Test
+    public void switchingModulatorsOrInstrumentIsStructural() {
+        SoundPreset plain = preset("a", "{\"oscillator\":{\"params\":{\"type\":\"sine\"}}}");
+        SoundPreset withLfo = preset("b", "{\"oscillator\":{\"params\":{\"type\":\"sine\"}},\"lfo1\":{\"enabled\":true}}");
+        SoundPreset withPortamento = preset("c", "{\"oscillator\":{\"params\":{\"type\":\"sine\"}},\"portamento\":{\"enabled\":true,\"time\":0.1}}");
+        SoundPreset piano = preset("d", "{\"sampler\":{\"enabled\":true,\"params\":{\"instrument\":\"piano\"}}}");
+        SoundPreset strings = preset("e", "{\"sampler\":{\"enabled\":true,\"params\":{\"instrument\":\"strings\"}}}");
+
+        assertEquals(SoundPresetDiff.Kind.STRUCTURE, plain.diff(withLfo).getKind());
+        assertEquals(SoundPresetDiff.Kind.STRUCTURE, plain.diff(withPortamento).getKind());
+        assertEquals(SoundPresetDiff.Kind.STRUCTURE, plain.diff(piano).getKind());
+        assertEquals(SoundPresetDiff.Kind.STRUCTURE, piano.diff(strings).getKind());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void presetWithoutSourceIsRejected() {
+        preset("a", "{\"filter\":{\"params\":{\"frequency\":800}}}");
+    }
+}
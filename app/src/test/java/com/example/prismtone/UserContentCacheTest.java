@@ -0,0 +1,113 @@
+package com.example.prismtone;
+
+import com.google.gson.JsonObject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class UserContentCacheTest {
+    private File dir;
+    private JournalStore journal;
+    private UserContentCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("cache").toFile();
+        journal = JournalStore.openInDirectory(dir);
+        journal.put("user_1", "{\"id\":\"user_1\",\"type\":\"fxchain\",\"name\":\"One\"}");
+        cache = new UserContentCache(journal, "fxchain");
+        cache.load(journal.readAll());
+    }
+
+    @After
+    public void tearDown() {
+        journal.close();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void localWritesKeepTheCacheValid() throws IOException {
+        assertTrue(cache.isValid());
+        JsonObject chain = new JsonObject();
+        chain.addProperty("id", "user_2");
+        journal.putBuffered("user_2", chain.toString());
+        assertFalse(cache.isValid());
+        cache.put("user_2", chain);
+        assertTrue(cache.isValid());
+        assertEquals(2, cache.getDocuments().size());
+    }
+
+    @Test
+    public void loadCachedRereadsTheJournalThroughTheResolver() throws IOException {
+        UserContentCache resolved = new UserContentCache(journal, "fxchain", null, null, payloads -> {
+            Map<String, JsonObject> documents = new LinkedHashMap<>();
+            for (String id : payloads.keySet()) {
+                JsonObject doc = new JsonObject();
+                doc.addProperty("id", id);
+                documents.put(id, doc);
+            }
+            return documents;
+        });
+        assertEquals(1, resolved.loadCached().size());
+        journal.put("user_2", "{}");
+        List<JsonObject> documents = resolved.loadCached();
+        assertEquals(2, documents.size());
+        assertEquals("user_2", documents.get(1).get("id").getAsString());
+        assertSame(documents, resolved.loadCached());
+    }
+
+    @Test
+    public void putStoresACopy() {
+        JsonObject chain = new JsonObject();
+        chain.addProperty("name", "Before");
+        cache.put("user_2", chain);
+        chain.addProperty("name", "After");
+        assertEquals("Before", cache.get("user_2").get("name").getAsString());
+    }
+
+    @Test
+    public void replacedJournalIsNoticedEvenWithTheSameLength() throws IOException {
+        // Тот же размер и (возможно) та же mtime - отличаются только байты и inode
+        File other = new File(dir, "other.journal");
+        JournalStore replacement = new JournalStore(other, JournalStore.USER_ID_PREFIX);
+        replacement.put("user_1", "{\"id\":\"user_1\",\"type\":\"fxchain\",\"name\":\"Two\"}");
+        replacement.close();
+        File journalFile = new File(dir, JournalStore.JOURNAL_FILE_NAME);
+        long modified = journalFile.lastModified();
+        assertEquals(journalFile.length(), other.length());
+        Files.move(other.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        journalFile.setLastModified(modified);
+
+        assertFalse(cache.isValid());
+        cache.load(journal.readAll());
+        assertEquals("Two", cache.get("user_1").get("name").getAsString());
+        assertTrue(cache.isValid());
+    }
+
+    @Test
+    public void compactionIsNotAContentChange() throws IOException {
+        // Перезапись оставляет мусор в журнале; компактация меняет файл, но не документы
+        JsonObject chain = cache.get("user_1").deepCopy();
+        journal.put("user_1", chain.toString());
+        cache.put("user_1", chain);
+        journal.compact();
+        assertFalse(cache.isValid());
+        cache.touch();
+        assertTrue(cache.isValid());
+    }
+}